@@ -29,6 +29,8 @@ import java.util.Map;
 import org.jboss.aop.MethodInfo;
 import org.jboss.aop.advice.Interceptor;
 import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.singleton.impl.statistics.MethodStatistics;
+import org.jboss.ejb3.singleton.impl.statistics.StatisticsAwareInvocation;
 
 /**
  * A AOP based implementation of {@link ContainerInvocation} 
@@ -36,7 +38,7 @@ import org.jboss.ejb3.container.spi.ContainerInvocation;
  * @author Jaikiran Pai
  * @version $Revision: $
  */
-public class AOPBasedContainerInvocation implements ContainerInvocation
+public class AOPBasedContainerInvocation implements StatisticsAwareInvocation
 {
 
    /**
@@ -60,12 +62,18 @@ public class AOPBasedContainerInvocation implements ContainerInvocation
    private Class<?> businessInterface;
 
    private Interceptor[] overridenAOPInterceptors;
+
+   /**
+    * The statistics of the invoked method, as resolved along with its {@link MethodInfo}. Can be null
+    */
+   private MethodStatistics methodStatistics;
    
    /**
     * Response context (legacy AOP stuff), used to pass around
-    * the response
+    * the response. This is created lazily, since local invocations
+    * never use it
     */
-   private Map<Object, Object> responseContextInfo = new HashMap<Object, Object>();
+   private Map<Object, Object> responseContextInfo;
 
    /**
     * Creates a {@link AOPBasedContainerInvocation}
@@ -137,12 +145,35 @@ public class AOPBasedContainerInvocation implements ContainerInvocation
       return this.aopMethodInfo;
    }
 
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.StatisticsAwareInvocation#getMethodStatistics()
+    */
+   @Override
+   public MethodStatistics getMethodStatistics()
+   {
+      return this.methodStatistics;
+   }
+
+   /**
+    * Sets the statistics of the invoked method
+    * 
+    * @param methodStatistics Can be null, in which case the container looks them up
+    */
+   public void setMethodStatistics(MethodStatistics methodStatistics)
+   {
+      this.methodStatistics = methodStatistics;
+   }
+
    /**
     * Returns the response context information
     * @return
     */
    public Map<Object, Object> getResponseContextInfo()
    {
+      if (this.responseContextInfo == null)
+      {
+         this.responseContextInfo = new HashMap<Object, Object>();
+      }
       return this.responseContextInfo;
    }
    
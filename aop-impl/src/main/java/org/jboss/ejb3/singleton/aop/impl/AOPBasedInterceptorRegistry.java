@@ -21,16 +21,15 @@
 */
 package org.jboss.ejb3.singleton.aop.impl;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
 import org.jboss.aop.MethodInfo;
 import org.jboss.aop.advice.Interceptor;
-import org.jboss.ejb3.EJBContainerInvocation;
 import org.jboss.ejb3.container.spi.BeanContext;
 import org.jboss.ejb3.container.spi.ContainerInvocation;
 import org.jboss.ejb3.container.spi.EJBContainer;
 import org.jboss.ejb3.container.spi.InterceptorRegistry;
-import org.jboss.ejb3.session.SessionContainerInvocation;
 import org.jboss.ejb3.singleton.aop.impl.context.LegacySingletonBeanContext;
 
 /**
@@ -94,10 +93,18 @@ public class AOPBasedInterceptorRegistry implements InterceptorRegistry
       // form a AOP invocation
       MethodInfo methodInfo = aopInvocationContext.getMethodInfo();
       Interceptor[] aopInterceptors = aopInvocationContext.getInterceptors();
+      
+      // nothing to intercept, so there's no need for a AOP invocation. Directly
+      // invoke on the target
+      if (aopInterceptors == null || aopInterceptors.length == 0)
+      {
+         return this.invokeTarget(aopInvocationContext, targetBeanContext);
+      }
 
-      EJBContainerInvocation<AOPBasedSingletonContainer, LegacySingletonBeanContext> invocation = new SessionContainerInvocation<AOPBasedSingletonContainer, LegacySingletonBeanContext>(
-            containerInvocation.getInvokedBusinessInterface(), aopInvocationContext.getMethodInfo(), aopInterceptors,
+      SingletonContainerInvocation invocation = new SingletonContainerInvocation(containerInvocation
+            .getInvokedBusinessInterface(), aopInvocationContext.getMethodInfo(), aopInterceptors,
             aopBasedSingletonContainer);
+      invocation.setMethodStatistics(aopInvocationContext.getMethodStatistics());
       invocation.setAdvisor(methodInfo.getAdvisor());
       invocation.setArguments(containerInvocation.getArgs());
       // set the target bean context of the AOP invocation
@@ -122,6 +129,54 @@ public class AOPBasedInterceptorRegistry implements InterceptorRegistry
       
    }
 
+   /**
+    * Invokes the method represented by the <code>containerInvocation</code> directly on the target bean
+    * instance. The exception semantics are the same as that of a AOP invocation without any interceptors.
+    * 
+    * @param containerInvocation The container invocation
+    * @param targetBeanContext The target bean context
+    * @return
+    * @throws Exception
+    */
+   private Object invokeTarget(AOPBasedContainerInvocation containerInvocation, BeanContext targetBeanContext)
+         throws Exception
+   {
+      if (targetBeanContext instanceof LegacySingletonBeanContext)
+      {
+         try
+         {
+            return ((LegacySingletonBeanContext) targetBeanContext).invokeBeanMethod(containerInvocation.getMethod(),
+                  containerInvocation.getArgs());
+         }
+         catch (Exception e)
+         {
+            // throw Exception(s) as-is
+            throw e;
+         }
+         catch (Throwable t)
+         {
+            // wrap throwable (errors) as Exception
+            throw new Exception(t);
+         }
+      }
+      try
+      {
+         return containerInvocation.getMethod().invoke(targetBeanContext.getBeanInstance(),
+               containerInvocation.getArgs());
+      }
+      catch (InvocationTargetException ite)
+      {
+         Throwable cause = ite.getCause();
+         if (cause instanceof Exception)
+         {
+            // throw Exception(s) as-is
+            throw (Exception) cause;
+         }
+         // wrap throwable (errors) as Exception
+         throw new Exception(cause);
+      }
+   }
+
    /**
     * This is a no-op since singleton beans do not have a post-activate lifecycle
     * 
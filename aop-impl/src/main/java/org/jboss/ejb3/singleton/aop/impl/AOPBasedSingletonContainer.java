@@ -50,12 +50,46 @@ import org.jboss.ejb3.proxy.impl.jndiregistrar.JndiSessionRegistrarBase;
 import org.jboss.ejb3.proxy.impl.remoting.SessionSpecRemotingMetadata;
 import org.jboss.ejb3.resolvers.MessageDestinationReferenceResolver;
 import org.jboss.ejb3.session.SessionSpecContainer;
+import org.jboss.ejb3.singleton.aop.impl.async.AsyncExecutorRouter;
+import org.jboss.ejb3.singleton.aop.impl.async.PlatformThreadAsyncInterceptor;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.ConcurrencyAttributes;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.ConcurrencyAttributesTable;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.AdmissionController;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.ContentionProfiler;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.StripedLockConcurrencyInterceptor;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.WriteCombiner;
 import org.jboss.ejb3.singleton.aop.impl.concurrency.bridge.AccessTimeoutMetaDataBridge;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.bridge.AdaptiveAdmissionMetaDataBridge;
 import org.jboss.ejb3.singleton.aop.impl.concurrency.bridge.ConcurrencyTypeMetaDataBridge;
 import org.jboss.ejb3.singleton.aop.impl.concurrency.bridge.LockMetaDataBridge;
+import org.jboss.ejb3.singleton.aop.impl.context.DeferredEncContext;
+import org.jboss.ejb3.singleton.aop.impl.context.EncPropagation;
 import org.jboss.ejb3.singleton.aop.impl.context.LegacySingletonBeanContext;
+import org.jboss.ejb3.singleton.aop.impl.invoker.BeanMethodInvoker;
+import org.jboss.ejb3.singleton.aop.impl.invoker.BeanMethodInvokerTable;
+import org.jboss.ejb3.singleton.aop.impl.invoker.ReflectionBeanMethodInvoker;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchInvoker;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCall;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCallResult;
+import org.jboss.ejb3.singleton.aop.impl.remoting.RemoteInvocationBatcher;
+import org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager;
+import org.jboss.ejb3.singleton.impl.cluster.ReplicatedSingletonEJBInstanceManager;
 import org.jboss.ejb3.singleton.impl.container.SingletonContainer;
+import org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl;
+import org.jboss.ejb3.singleton.impl.snapshot.StateSnapshot;
+import org.jboss.ejb3.singleton.spi.AsyncInvocation;
+import org.jboss.ejb3.singleton.spi.AsyncInvocationContainer;
 import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
+import org.jboss.ejb3.singleton.spi.WarmupPolicy;
+import org.jboss.ejb3.singleton.spi.annotation.AdaptiveAdmission;
+import org.jboss.ejb3.singleton.spi.annotation.BatchedWrite;
+import org.jboss.ejb3.singleton.spi.annotation.ClusteredSingleton;
+import org.jboss.ejb3.singleton.spi.annotation.ContentionProfiling;
+import org.jboss.ejb3.singleton.spi.annotation.SnapshotState;
+import org.jboss.ejb3.singleton.spi.annotation.StripedLocking;
+import org.jboss.ejb3.singleton.spi.annotation.Warmup;
+import org.jboss.ejb3.singleton.spi.cluster.ReplicaTransport;
+import org.jboss.ejb3.singleton.spi.cluster.SingletonMembership;
 import org.jboss.ejb3.timerservice.spi.MultiTimeoutMethodTimedObjectInvoker;
 import org.jboss.ejb3.timerservice.spi.TimedObjectInvoker;
 import org.jboss.jpa.resolvers.PersistenceUnitDependencyResolver;
@@ -64,29 +98,39 @@ import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
 import org.jboss.metadata.ejb.spec.BusinessLocalsMetaData;
 import org.jboss.metadata.ejb.spec.BusinessRemotesMetaData;
 import org.jboss.metadata.ejb.spec.NamedMethodMetaData;
-import org.jboss.reloaded.naming.CurrentComponent;
 import org.jboss.reloaded.naming.spi.JavaEEComponent;
 import org.jboss.wsf.spi.invocation.integration.InvocationContextCallback;
 import org.jboss.wsf.spi.invocation.integration.ServiceEndpointContainer;
 
+import javax.ejb.AccessTimeout;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.DependsOn;
 import javax.ejb.EJBException;
 import javax.ejb.Handle;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
 import javax.ejb.Timer;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.naming.Context;
 import javax.naming.NamingException;
+import java.io.File;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -101,7 +145,7 @@ import java.util.concurrent.ExecutorService;
  * @author Jaikiran Pai
  * @version $Revision: $
  */
-public class AOPBasedSingletonContainer extends SessionSpecContainer implements EJBContainer, EJBLifecycleHandler, MultiTimeoutMethodTimedObjectInvoker, ServiceEndpointContainer
+public class AOPBasedSingletonContainer extends SessionSpecContainer implements AsyncInvocationContainer, EJBLifecycleHandler, MultiTimeoutMethodTimedObjectInvoker, ServiceEndpointContainer, BatchInvoker
 {
 
    /**
@@ -110,6 +154,18 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
    private static Logger logger = Logger.getLogger(AOPBasedSingletonContainer.class);
    
    private static final String SINGLETON_BEAN_TIMEOUT_METHOD_AOP_INTERCEPTOR_STACK_NAME = "SingletonBeanTimeoutMethodStack";
+   
+   /**
+    * Name (prefix) of the default container managed concurrency AOP interceptor (and its factory) 
+    */
+   private static final String CONTAINER_MANAGED_CONCURRENCY_INTERCEPTOR_NAME = "org.jboss.ejb3.concurrency.aop.interceptor.ContainerManagedConcurrencyInterceptor";
+
+   /**
+    * The hash of {@link BatchInvoker#invokeBatch(List)}, by which a batch of remote invocations is told apart
+    * from a remote invocation on a bean method 
+    */
+   private static final long INVOKE_BATCH_METHOD_HASH = MethodHashing
+         .calculateHash(RemoteInvocationBatcher.INVOKE_BATCH_METHOD);
 
    /**
     * This is the container to which the {@link AOPBasedSingletonContainer} will
@@ -129,7 +185,30 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
    
    protected DependencyPolicy dependencyPolicy;
    
-   protected JavaEEComponent javaComp;
+   protected volatile JavaEEComponent javaComp;
+   
+   /**
+    * The ENC handed out by {@link #getEnc()} before the {@link #javaComp} is set. Created on first use, 
+    * which can be during the construction of the super class (hence no initializer).
+    */
+   private DeferredEncContext deferredEnc;
+   
+   /**
+    * Pushes the java:comp of this container around invocations. Created on first use (like the {@link #deferredEnc})
+    */
+   private volatile EncPropagation encPropagation;
+   
+   /**
+    * The business objects handed out by {@link #getBusinessObject(BeanContext, Class)}, keyed by the 
+    * business interface. Cleared when the container is stopped.
+    */
+   private final ConcurrentMap<Class<?>, Object> businessObjects = new ConcurrentHashMap<Class<?>, Object>();
+   
+   /**
+    * The remote business interfaces of the bean, to which the calls of a batch sent through 
+    * {@link #invokeBatch(List)} are restricted. Loaded on first use.
+    */
+   private volatile List<Class<?>> remoteBusinessInterfaces;
    
    protected static final String LIFECYCLE_CALLBACK_STACK_NAME = "SingletonBeanLifecycleCallBackStack";
    
@@ -147,6 +226,94 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
     */
    protected Map<Class<? extends Annotation>, Interceptor[]> lifecycleCallbackInterceptors = new HashMap<Class<? extends Annotation>, Interceptor[]>();
    
+   /**
+    * The {@link Method} to AOP {@link MethodInfo} table used on the invocation path. 
+    * This is setup during {@link #create()}
+    */
+   protected volatile MethodInfoTable methodInfoTable;
+   
+   /**
+    * Resolves the {@link SerializableMethod} of remote invocations. This is setup during {@link #create()}
+    */
+   protected volatile SerializableMethodTable serializableMethodTable;
+   
+   /**
+    * The effective {@link Lock} and {@link AccessTimeout} of the bean methods. This is setup 
+    * during {@link #create()}
+    */
+   protected volatile ConcurrencyAttributesTable concurrencyAttributesTable;
+   
+   /**
+    * Invokers of the bean methods, which are used for the (terminal) dispatch of an invocation to the bean instance
+    */
+   protected volatile BeanMethodInvokerTable beanMethodInvokerTable;
+   
+   /**
+    * The concurrency interceptor used in place of the default container managed concurrency 
+    * interceptor, for beans marked with {@link StripedLocking} or {@link AdaptiveAdmission}, or which have write 
+    * batched methods. Null otherwise.
+    */
+   protected StripedLockConcurrencyInterceptor stripedLockInterceptor;
+   
+   /**
+    * The contention profiler of beans marked with {@link ContentionProfiling}. Null otherwise.
+    */
+   protected ContentionProfiler contentionProfiler;
+   
+   /**
+    * True if the bean uses bean managed concurrency, in which case the invocations on the bean don't go through
+    * any concurrency interceptor (and the lock/access timeout attributes of the methods aren't resolved at all)
+    */
+   protected boolean beanManagedConcurrency;
+   
+   /**
+    * True if the bean has read replicas. The replica lock of the {@link ReplicatedSingletonEJBInstanceManager} 
+    * then is the lock of the bean, so the invocations don't go through the container managed concurrency interceptor
+    * (and the access timeout of a method isn't applied twice)
+    */
+   protected boolean replicaLocking;
+   
+   /**
+    * Drops the pass-through interceptors from the interceptor chains of the methods of this bean
+    */
+   protected PassThroughInterceptorFilter passThroughInterceptorFilter;
+   
+   /**
+    * The {@link WarmupPolicy} which applies if the bean isn't marked with {@link Warmup}
+    */
+   private WarmupPolicy defaultWarmupPolicy = WarmupPolicy.LAZY;
+   
+   /**
+    * The executor which creates the bean instance, for beans with {@link WarmupPolicy#EAGER_BACKGROUND}.
+    * Can be null, in which case a dedicated thread is used.
+    */
+   private Executor warmupExecutor;
+   
+   /**
+    * Routes the asynchronous invocations on this bean to virtual threads (or to the platform thread executor
+    * of the deployment, for WRITE locked methods). Null if the asynchronous invocations run on the platform
+    * thread executor alone.
+    */
+   private AsyncExecutorRouter asyncExecutorRouter;
+   
+   /**
+    * The directory into which the state of beans with {@link SnapshotState} fields is snapshot. Null if the
+    * bean state isn't snapshot.
+    */
+   private File snapshotDirectory;
+   
+   /**
+    * The cluster membership through which the member, on which a {@link ClusteredSingleton} bean is active, is 
+    * elected. Null if there's no cluster.
+    */
+   private SingletonMembership singletonMembership;
+
+   /**
+    * Propagates the state of a {@link ClusteredSingleton} bean with read replicas, from the elected member to the
+    * other members. Null if no transport is configured.
+    */
+   private ReplicaTransport replicaTransport;
+   
    /**
     * Returns the AOP domain name which this container uses
     * for AOP based processing
@@ -191,6 +358,7 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
     *   <li> {@link ConcurrencyTypeMetaDataBridge} </li>
     *   <li> {@link LockMetaDataBridge} </li>
     *   <li> {@link AccessTimeoutMetaDataBridge} </li>
+    *   <li> {@link AdaptiveAdmissionMetaDataBridge} </li>
     * </ul>
     * @see org.jboss.ejb3.EJBContainer#initMetaDataBasedAnnotationRepository()
     * 
@@ -203,6 +371,7 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
       this.metadataBasedAnnotationRepo.addMetaDataBridge(new ConcurrencyTypeMetaDataBridge());
       this.metadataBasedAnnotationRepo.addMetaDataBridge(new LockMetaDataBridge());
       this.metadataBasedAnnotationRepo.addMetaDataBridge(new AccessTimeoutMetaDataBridge());
+      this.metadataBasedAnnotationRepo.addMetaDataBridge(new AdaptiveAdmissionMetaDataBridge());
    }
 
    /**
@@ -226,6 +395,13 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
          for (EJBContainer container : this.iDependOnSingletonBeanContainers)
          {
             EJBInstanceManager instanceManager = container.getBeanInstanceManager();
+            if (instanceManager instanceof ClusteredSingletonEJBInstanceManager)
+            {
+               // a cluster wide singleton isn't necessarily active on this member, so it can't be created on our behalf
+               logger.debug("Ignoring @DependsOn cluster wide singleton " + container.getEJBName() + " of bean "
+                     + this.ejbName);
+               continue;
+            }
             if (instanceManager instanceof SingletonEJBInstanceManager)
             {
                dependsOn.add((SingletonEJBInstanceManager) instanceManager);
@@ -234,10 +410,58 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
       }
       // create the instance manager
       SingletonEJBInstanceManager instanceManager  = new AOPBasedSingletonInstanceManager(this, this.getBeanInstantiator(), dependsOn);
-      this.delegate.setBeanInstanceManager(instanceManager);
+      this.initStateSnapshot(instanceManager);
 
       // init the timeout method
       this.initTimeout();
+      
+      // setup the concurrency attributes table for the methods that we know of. Beans with bean managed 
+      // concurrency don't need one, since they aren't subject to container managed locking
+      List<Method> knownMethods = this.getKnownMethods();
+      this.beanManagedConcurrency = this.isBeanManagedConcurrency();
+      if (!this.beanManagedConcurrency)
+      {
+         this.concurrencyAttributesTable = new ConcurrencyAttributesTable(this, knownMethods);
+      }
+      else
+      {
+         logger.debug("Bean " + this.ejbName + " uses bean managed concurrency, invocations will bypass container managed concurrency");
+      }
+      // read replicas route the invocations by the lock type of the method, so the table has to be setup first
+      this.delegate.setBeanInstanceManager(this.initClusteredSingleton(instanceManager));
+      // bind the invokers of the bean methods, so that invocations don't have to go through reflection
+      this.beanMethodInvokerTable = new BeanMethodInvokerTable(this.getBeanMethods(knownMethods), this.classloader);
+      
+      // setup striped locking, write batching, adaptive admission and contention profiling, if the bean has opted for it
+      if (!this.replicaLocking)
+      {
+         this.initStripedLocking();
+         this.initWriteBatching(knownMethods);
+         this.initAdaptiveAdmission();
+         this.initContentionProfiling();
+      }
+      else
+      {
+         logger.debug("Bean " + this.ejbName + " is locked by its read replicas, container managed concurrency "
+               + "options don't apply");
+      }
+      
+      // setup the method info table, along with the effective interceptor chains, for the methods that we know of
+      this.passThroughInterceptorFilter = new PassThroughInterceptorFilter(this);
+      InterceptorChainCompiler chainCompiler = new InterceptorChainCompiler()
+      {
+         @Override
+         public Interceptor[] compile(MethodInfo methodInfo, Interceptor[] interceptors)
+         {
+            return AOPBasedSingletonContainer.this.compileInterceptorChain(methodInfo, interceptors);
+         }
+      };
+      this.methodInfoTable = new MethodInfoTable(this.getAdvisor(), knownMethods, chainCompiler, this.delegate
+            .getInvocationStatistics());
+      if (this.classloader != null)
+      {
+         this.serializableMethodTable = new SerializableMethodTable(this.classloader);
+      }
 
       // let the delegate any of its create work
       this.delegate.create();
@@ -256,7 +480,24 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
       Ejb3Registry.register(this);
 
       // pass on the control to our simple singleton container
+      this.delegate.setAsynchronousExecutor(this.getAsynchronousExecutor(), super.getAsynchronousExecutor());
       this.delegate.start();
+
+      // expose the invocation statistics and contention profile
+      this.registerManagementMBeans();
+      
+      // a cluster wide singleton is created if (and when) this member is elected
+      EJBInstanceManager beanInstanceManager = this.delegate.getBeanInstanceManager();
+      if (beanInstanceManager instanceof ClusteredSingletonEJBInstanceManager)
+      {
+         ((ClusteredSingletonEJBInstanceManager) beanInstanceManager).join();
+      }
+      
+      // start creating the bean instance, if the bean has opted for a background warmup
+      if (this.getWarmupPolicy() == WarmupPolicy.EAGER_BACKGROUND)
+      {
+         this.warmupInBackground();
+      }
    }
 
    /**
@@ -274,7 +515,7 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
    @Override
    protected void pushEnc()
    {
-      CurrentComponent.push(this.javaComp);
+      this.getEncPropagation().push(this.javaComp);
    }
    
    /**
@@ -283,17 +524,33 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
    @Override
    protected void popEnc()
    {
-      JavaEEComponent previousComponent = CurrentComponent.pop();
-      if (previousComponent != this.javaComp)
+      this.getEncPropagation().pop(this.javaComp);
+   }
+   
+   /**
+    * Returns the {@link EncPropagation} which pushes the java:comp of this container around invocations
+    */
+   private EncPropagation getEncPropagation()
+   {
+      EncPropagation propagation = this.encPropagation;
+      if (propagation == null)
       {
-         throw new IllegalStateException("Unexpected ENC context " + previousComponent
-               + " popped by EJB container of bean " + this.getBeanClassName());
+         synchronized (this)
+         {
+            if (this.encPropagation == null)
+            {
+               this.encPropagation = new EncPropagation(this.getBeanClassName());
+            }
+            propagation = this.encPropagation;
+         }
       }
+      return propagation;
    }
    
    public void setJavaComp(JavaEEComponent javaeeComp)
    {
       this.javaComp = javaeeComp;
+      this.getDeferredEnc().setJavaComp(javaeeComp);
    }
    
    /**
@@ -302,42 +559,29 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
    @Override
    public Context getEnc()
    {
-      // if the java:comp is not yet setup, we return a proxy to javax.naming.Context
-      // on a call to getEnc(). This is a really brittle and tricky piece of thing.
-      // Any code which calls this method, is *not* expected to invoke 
-      // any methods on the returned proxy context, until the java:comp for this container
-      // is setup (i.e. the context is unusable until the create() of the container is called).
+      // if the java:comp is not yet setup, we return the (deferred) ENC of this container, which 
+      // is unusable until the java:comp for this container is setup (i.e. until the create() of the 
+      // container is called). 
       // TODO: This hack (and a similar on in org.jboss.ejb3.EJBContainer)
       // MUST be removed once we have a better integration with naming/switchboard 
-      if (this.javaComp == null)
+      JavaEEComponent component = this.javaComp;
+      if (component == null)
       {
-         // postpone the inevitable
-         ClassLoader tccl = Thread.currentThread().getContextClassLoader();
-         Class<?> interfaces[] =
-         {Context.class};
-         InvocationHandler handler = new InvocationHandler()
-         {
-            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
-            {
-               try
-               {
-                  if (AOPBasedSingletonContainer.this.javaComp == null)
-                  {
-                     throw new IllegalStateException(
-                           "java:comp is not expected to be used before CREATE of EJB container. Failing bean: "
-                                 + AOPBasedSingletonContainer.this.getBeanClassName());
-                  }
-                  return method.invoke(AOPBasedSingletonContainer.this.javaComp.getContext(), args);
-               }
-               catch (InvocationTargetException e)
-               {
-                  throw e.getTargetException();
-               }
-            }
-         };
-         return (Context) Proxy.newProxyInstance(tccl, interfaces, handler);
+         return this.getDeferredEnc();
+      }
+      return component.getContext();
+   }
+   
+   /**
+    * Returns the ENC handed out before the java:comp of this container is set
+    */
+   private synchronized DeferredEncContext getDeferredEnc()
+   {
+      if (this.deferredEnc == null)
+      {
+         this.deferredEnc = new DeferredEncContext(this);
       }
-      return this.javaComp.getContext();
+      return this.deferredEnc;
    }
 
    /**
@@ -346,6 +590,14 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
    @Override
    protected void lockedStop() throws Exception
    {
+      // the business objects are bound to the JNDI bindings of this deployment of the bean
+      this.businessObjects.clear();
+      this.unregisterManagementMBeans();
+      EJBInstanceManager beanInstanceManager = this.delegate.getBeanInstanceManager();
+      if (beanInstanceManager instanceof ClusteredSingletonEJBInstanceManager)
+      {
+         ((ClusteredSingletonEJBInstanceManager) beanInstanceManager).leave();
+      }
       this.delegate.stop();
       if (Ejb3Registry.hasContainer(this))
       {
@@ -408,13 +660,17 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
          {
             logger.trace("Received dynamic invocation for method with hash: " + methodHash);
          }
+         if (methodHash == INVOKE_BATCH_METHOD_HASH)
+         {
+            return this.dynamicInvokeBatch(methodInvocation);
+         }
    
          // Get the Method via MethodInfo from the Advisor
          Advisor advisor = this.getAdvisor();
          MethodInfo methodInfo = advisor.getMethodInfo(methodHash);
    
          // create a container invocation
-         AOPBasedContainerInvocation containerInvocation = new AOPBasedContainerInvocation(methodInfo,
+         AOPBasedContainerInvocation containerInvocation = this.createContainerInvocation(methodInfo,
                methodInvocation.getArguments());
          try
          {
@@ -451,6 +707,147 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
 
    }
 
+   /**
+    * Runs the batch of invocations sent by a remote client through {@link #invokeBatch(List)}
+    */
+   @SuppressWarnings("unchecked")
+   private InvocationResponse dynamicInvokeBatch(MethodInvocation invocation)
+   {
+      Map<Object, Object> responseContextInfo = new HashMap<Object, Object>();
+      try
+      {
+         List<BatchedCall> calls = (List<BatchedCall>) invocation.getArguments()[0];
+         return marshallResponse(invocation, this.invokeBatch(calls), responseContextInfo);
+      }
+      catch (Throwable throwable)
+      {
+         return marshallException(invocation, throwable, responseContextInfo);
+      }
+   }
+
+   /**
+    * Runs the passed calls, in order, each of them through the interceptors and under the lock of the invoked 
+    * method, just as if they had been invoked one by one
+    * 
+    * @throws IllegalArgumentException If any of the calls isn't on a method of a remote business interface
+    *           of the bean, in which case none of the calls is run
+    * @see org.jboss.ejb3.singleton.aop.impl.remoting.BatchInvoker#invokeBatch(java.util.List)
+    */
+   @Override
+   public List<BatchedCallResult> invokeBatch(List<BatchedCall> calls)
+   {
+      SerializableMethodTable table = this.serializableMethodTable;
+      if (table == null)
+      {
+         throw new IllegalStateException("Cannot run a batch of invocations on bean " + this.ejbName
+               + " before its container is created");
+      }
+      // resolve and check all the calls before running any of them
+      List<SerializableMethodTable.ResolvedMethod> resolvedMethods = 
+            new ArrayList<SerializableMethodTable.ResolvedMethod>(calls.size());
+      for (BatchedCall call : calls)
+      {
+         SerializableMethodTable.ResolvedMethod resolvedMethod;
+         try
+         {
+            resolvedMethod = table.resolve(call.getMethod());
+         }
+         catch (Exception e)
+         {
+            throw new IllegalArgumentException("Could not resolve method " + call.getMethod()
+                  + " of remote batch on bean " + this.ejbName, e);
+         }
+         this.checkRemoteBusinessMethod(resolvedMethod);
+         resolvedMethods.add(resolvedMethod);
+      }
+      List<BatchedCallResult> results = new ArrayList<BatchedCallResult>(calls.size());
+      for (int i = 0; i < calls.size(); i++)
+      {
+         SerializableMethodTable.ResolvedMethod resolvedMethod = resolvedMethods.get(i);
+         try
+         {
+            results.add(BatchedCallResult.returned(this.invoke((Serializable) null, resolvedMethod
+                  .getBusinessInterface(), resolvedMethod.getMethod(), calls.get(i).getArgs())));
+         }
+         catch (Throwable t)
+         {
+            results.add(BatchedCallResult.failed(t));
+         }
+      }
+      if (logger.isTraceEnabled())
+      {
+         logger.trace("Ran batch of " + calls.size() + " invocations on bean " + this.ejbName);
+      }
+      return results;
+   }
+
+   /**
+    * Checks that the passed method, of a call in a remote batch, is a method of a remote business interface
+    * of the bean, and that it's invoked through such an interface. The outcome is cached on the 
+    * resolved method.
+    * 
+    * @throws IllegalArgumentException If it isn't
+    */
+   private void checkRemoteBusinessMethod(SerializableMethodTable.ResolvedMethod resolvedMethod)
+   {
+      Boolean remoteBusinessMethod = resolvedMethod.isRemoteBusinessMethod();
+      if (remoteBusinessMethod == null)
+      {
+         remoteBusinessMethod = false;
+         Class<?> declaringClass = resolvedMethod.getMethod().getDeclaringClass();
+         Class<?> invokedClass = resolvedMethod.getBusinessInterface();
+         if (declaringClass.isInterface())
+         {
+            for (Class<?> remoteBusinessInterface : this.getRemoteBusinessInterfaces())
+            {
+               if (declaringClass.isAssignableFrom(remoteBusinessInterface)
+                     && invokedClass.isAssignableFrom(remoteBusinessInterface))
+               {
+                  remoteBusinessMethod = true;
+                  break;
+               }
+            }
+         }
+         resolvedMethod.setRemoteBusinessMethod(remoteBusinessMethod);
+      }
+      if (!remoteBusinessMethod)
+      {
+         throw new IllegalArgumentException(resolvedMethod.getMethod() + " invoked through "
+               + resolvedMethod.getBusinessInterface().getName() + " isn't a method of a remote business interface "
+               + "of bean " + this.ejbName + ", hence cannot be invoked through a remote batch");
+      }
+   }
+
+   /**
+    * Returns the remote business interfaces of the bean
+    */
+   private List<Class<?>> getRemoteBusinessInterfaces()
+   {
+      List<Class<?>> interfaces = this.remoteBusinessInterfaces;
+      if (interfaces == null)
+      {
+         interfaces = new ArrayList<Class<?>>();
+         BusinessRemotesMetaData businessRemotes = this.sessionBean31MetaData.getBusinessRemotes();
+         if (businessRemotes != null)
+         {
+            for (String businessRemote : businessRemotes)
+            {
+               try
+               {
+                  interfaces.add(this.classloader.loadClass(businessRemote));
+               }
+               catch (ClassNotFoundException cnfe)
+               {
+                  throw new IllegalStateException("Could not load remote business interface " + businessRemote
+                        + " of bean " + this.ejbName, cnfe);
+               }
+            }
+         }
+         this.remoteBusinessInterfaces = interfaces;
+      }
+      return interfaces;
+   }
+
    /**
     * @see org.jboss.ejb3.session.SessionSpecContainer#invoke(java.io.Serializable, java.lang.Class, java.lang.reflect.Method, java.lang.Object[])
     */
@@ -458,9 +855,8 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
    public Object invoke(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
          throws Exception
    {
-      // create a (AOP) MethodInfo first so that a AOP based container invocation can be created out of it
-      long hash = MethodHashing.calculateHash(method);
-      MethodInfo methodInfo = getAdvisor().getMethodInfo(hash);
+      // get the (AOP) MethodInfo first so that a AOP based container invocation can be created out of it
+      MethodInfo methodInfo = this.getMethodInfo(method);
       if (methodInfo == null)
       {
          throw new RuntimeException("Method invocation via Proxy could not be found handled for EJB "
@@ -468,7 +864,7 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
                + ", probable error in virtual method registration w/ Advisor for the Container");
       }
       // create a container invocation
-      ContainerInvocation containerInvocation = new AOPBasedContainerInvocation(methodInfo, args);
+      ContainerInvocation containerInvocation = this.createContainerInvocation(methodInfo, args);
 
       // pass the control to the simple singleton container
       return this.delegate.invoke(containerInvocation);
@@ -481,9 +877,16 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
    @Override
    public Object invoke(Object proxy, SerializableMethod serializableMethod, Object[] args) throws Throwable
    {
-      Class<?> invokedBusinessInterface = this.classloader.loadClass(serializableMethod.getActualClassName());
-      Method invokedMethod = serializableMethod.toMethod(this.classloader);
-      return this.invoke((Serializable) null, invokedBusinessInterface, invokedMethod, args);
+      SerializableMethodTable table = this.serializableMethodTable;
+      if (table == null)
+      {
+         // not yet created
+         Class<?> invokedBusinessInterface = this.classloader.loadClass(serializableMethod.getActualClassName());
+         Method invokedMethod = serializableMethod.toMethod(this.classloader);
+         return this.invoke((Serializable) null, invokedBusinessInterface, invokedMethod, args);
+      }
+      SerializableMethodTable.ResolvedMethod resolvedMethod = table.resolve(serializableMethod);
+      return this.invoke((Serializable) null, resolvedMethod.getBusinessInterface(), resolvedMethod.getMethod(), args);
    }
    
    /**
@@ -548,13 +951,65 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
       throw new UnsupportedOperationException("createBeanContext() is no longer supported");
    }
 
+   /**
+    * Returns the effective {@link Lock} and {@link AccessTimeout} of the <code>method</code> from the
+    * {@link #concurrencyAttributesTable} (once it's setup), instead of resolving them again on each call.
+    * All other annotations, and those of methods which aren't in the table, are resolved by the super class.
+    * 
+    * @see org.jboss.ejb3.EJBContainer#getAnnotation(java.lang.Class, java.lang.reflect.Method)
+    */
+   @Override
+   public <T extends Annotation> T getAnnotation(Class<T> annotationType, Method method)
+   {
+      ConcurrencyAttributesTable table = this.concurrencyAttributesTable;
+      if (table != null && method != null && (annotationType == Lock.class || annotationType == AccessTimeout.class))
+      {
+         ConcurrencyAttributes attributes = table.getKnownConcurrencyAttributes(method);
+         if (attributes != null)
+         {
+            Annotation annotation = annotationType == Lock.class ? attributes.getLock() : attributes.getAccessTimeout();
+            return annotationType.cast(annotation);
+         }
+      }
+      return super.getAnnotation(annotationType, method);
+   }
+
    /**
     * @see org.jboss.ejb3.Container#getMBean()
     */
    @Override
    public Object getMBean()
    {
-      throw new UnsupportedOperationException("NYI");
+      // the management view of a singleton container is its invocation statistics
+      if (this.delegate == null)
+      {
+         return null;
+      }
+      return this.delegate.getInvocationStatistics();
+   }
+
+   /**
+    * Returns the {@link ObjectName} under which the invocation statistics of this container
+    * are registered
+    * 
+    * @return
+    * @throws Exception
+    */
+   public ObjectName getStatisticsObjectName() throws Exception
+   {
+      return new ObjectName(this.getObjectName().getCanonicalName() + ",component=InvocationStatistics");
+   }
+
+   /**
+    * Returns the {@link ObjectName} under which the {@link ContentionProfiler} (if any) of this container
+    * is registered
+    * 
+    * @return
+    * @throws Exception
+    */
+   public ObjectName getContentionProfilerObjectName() throws Exception
+   {
+      return new ObjectName(this.getObjectName().getCanonicalName() + ",component=ContentionProfiler");
    }
 
    /**
@@ -595,6 +1050,44 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
       
    }
 
+   /**
+    * Submits the passed <code>containerInvocation</code> to the asynchronous executor of this container. Invocations
+    * on {@link LockType#WRITE} methods (of beans with container managed concurrency) are queued up and run one at a time,
+    * so that at most one worker thread waits for the WRITE lock.
+    * 
+    * @see org.jboss.ejb3.singleton.spi.AsyncInvocationContainer#invokeAsync(org.jboss.ejb3.container.spi.ContainerInvocation)
+    */
+   @Override
+   public AsyncInvocation<Object> invokeAsync(final ContainerInvocation containerInvocation) throws IllegalStateException
+   {
+      if (this.delegate == null)
+      {
+         throw new IllegalStateException("Container of bean " + this.ejbName + " hasn't been created yet");
+      }
+      boolean exclusive = this.isWriteLocked(containerInvocation.getMethod());
+      return this.delegate.dispatchAsync(new Callable<Object>()
+      {
+         @Override
+         public Object call() throws Exception
+         {
+            return AOPBasedSingletonContainer.this.invoke(containerInvocation);
+         }
+      }, exclusive);
+   }
+   
+   /**
+    * Returns true if an invocation on the passed <code>method</code> acquires the WRITE lock of the bean
+    */
+   private boolean isWriteLocked(Method method)
+   {
+      ConcurrencyAttributesTable table = this.concurrencyAttributesTable;
+      if (this.beanManagedConcurrency || table == null || method == null)
+      {
+         return false;
+      }
+      return table.getConcurrencyAttributes(method).getLockType() == LockType.WRITE;
+   }
+
    /**
     * @see EJBContainer#getInterceptorRegistry()
     */
@@ -863,9 +1356,8 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
       ClassLoader oldLoader = Thread.currentThread().getContextClassLoader();
       try
       {
-         // create a (AOP) MethodInfo first so that a AOP based container invocation can be created out of it
-         long hash = MethodHashing.calculateHash(tMethod);
-         MethodInfo methodInfo = getAdvisor().getMethodInfo(hash);
+         // get the (AOP) MethodInfo first so that a AOP based container invocation can be created out of it
+         MethodInfo methodInfo = this.getMethodInfo(tMethod);
          if (methodInfo == null)
          {
             throw new RuntimeException("MethodInfo not found for timeout method " + tMethod.toString()
@@ -879,6 +1371,14 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
          // the timeout method (even if private, protected etc...) should pass through the AOP interceptor
          // chain. Hence we have a specific AOP interceptor stack for timeout method. Get hold of those interceptors
          Interceptor[] timeoutMethodAOPInterceptors = this.getInterceptors(methodInfo.getJoinpoint(),SINGLETON_BEAN_TIMEOUT_METHOD_AOP_INTERCEPTOR_STACK_NAME);
+         if (this.beanManagedConcurrency || this.replicaLocking)
+         {
+            timeoutMethodAOPInterceptors = this.removeConcurrencyInterceptor(timeoutMethodAOPInterceptors);
+         }
+         else if (this.stripedLockInterceptor != null || this.contentionProfiler != null)
+         {
+            timeoutMethodAOPInterceptors = this.substituteConcurrencyInterceptor(timeoutMethodAOPInterceptors);
+         }
          // create a container invocation
          ContainerInvocation containerInvocation = new AOPBasedContainerInvocation(methodInfo, args, null, timeoutMethodAOPInterceptors);
 
@@ -892,22 +1392,763 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
       }
    }
    
-   // TODO: We don't do anything special here, except for making it
-   // package protected for use in AOPBasedInterceptorRegistry. This
-   // needs a revisit.
-   @Override
-   public ExecutorService getAsynchronousExecutor()
+   /**
+    * Returns the AOP {@link MethodInfo} corresponding to the passed <code>method</code>. Returns null if 
+    * there's no such {@link MethodInfo} registered with the advisor of this container.
+    * 
+    * @param method The method being invoked
+    * @return
+    */
+   protected MethodInfo getMethodInfo(Method method)
    {
-      return super.getAsynchronousExecutor();
+      MethodInfoTable table = this.methodInfoTable;
+      if (table == null)
+      {
+         // not yet created
+         long hash = MethodHashing.calculateHash(method);
+         return this.getAdvisor().getMethodInfo(hash);
+      }
+      return table.getMethodInfo(method);
    }
    
-   @Override
-   public <T> T getBusinessObject(BeanContext<?> beanContext, Class<T> businessInterface) throws IllegalStateException
+   /**
+    * Creates a {@link AOPBasedContainerInvocation} for the passed <code>methodInfo</code> 
+    * 
+    * @param methodInfo The AOP method info of the method being invoked
+    * @param args The method arguments
+    * @return
+    */
+   protected AOPBasedContainerInvocation createContainerInvocation(MethodInfo methodInfo, Object[] args)
+   {
+      MethodInfoTable table = this.methodInfoTable;
+      if (table == null)
+      {
+         // not yet created
+         return new AOPBasedContainerInvocation(methodInfo, args);
+      }
+      MethodInfoTable.Entry entry = table.getEntry(methodInfo);
+      AOPBasedContainerInvocation containerInvocation = new AOPBasedContainerInvocation(methodInfo, args, null,
+            entry.getInterceptors());
+      containerInvocation.setMethodStatistics(entry.getMethodStatistics());
+      return containerInvocation;
+   }
+   
+   /**
+    * Returns the AOP interceptors which apply to an invocation of the passed <code>methodInfo</code>.
+    * Returns null if the interceptors of the <code>methodInfo</code> apply as-is.
+    * 
+    * @param methodInfo The AOP method info
+    * @return
+    */
+   protected Interceptor[] getInvocationInterceptors(MethodInfo methodInfo)
+   {
+      MethodInfoTable table = this.methodInfoTable;
+      if (table == null)
+      {
+         // not yet created
+         return null;
+      }
+      return table.getInterceptorChain(methodInfo);
+   }
+   
+   /**
+    * Returns the effective interceptor chain for an invocation on the passed <code>methodInfo</code>: the passed
+    * <code>interceptors</code> minus the {@link PassThroughInterceptorFilter pass-through} ones, with the default
+    * concurrency interceptor {@link #substituteConcurrencyInterceptor(Interceptor[]) substituted} if required.
+    * 
+    * @param methodInfo The AOP method info
+    * @param interceptors The interceptors which the AOP bindings apply to the method
+    * @return
+    */
+   protected Interceptor[] compileInterceptorChain(MethodInfo methodInfo, Interceptor[] interceptors)
+   {
+      Interceptor[] compiled = this.passThroughInterceptorFilter.filter(methodInfo.getUnadvisedMethod(), interceptors);
+      if (this.beanManagedConcurrency || this.replicaLocking)
+      {
+         compiled = this.removeConcurrencyInterceptor(compiled);
+      }
+      else if (this.stripedLockInterceptor != null || this.contentionProfiler != null)
+      {
+         compiled = this.substituteConcurrencyInterceptor(compiled);
+      }
+      if (this.asyncExecutorRouter != null && this.isWriteLocked(methodInfo.getUnadvisedMethod()))
+      {
+         compiled = this.pinAsyncInvocationsToPlatformThreads(compiled);
+      }
+      if (logger.isTraceEnabled() && compiled != null && interceptors != null && compiled.length != interceptors.length)
+      {
+         logger.trace("Interceptor chain of method " + methodInfo.getUnadvisedMethod() + " of bean " + this.ejbName
+               + " compiled from " + interceptors.length + " to " + compiled.length + " interceptors");
+      }
+      return compiled;
+   }
+   
+   /**
+    * Returns a copy of the passed <code>interceptors</code> with the asynchronous invocation interceptor wrapped
+    * in a {@link PlatformThreadAsyncInterceptor}, so that the asynchronous invocations which go through the
+    * interceptors run on platform threads. Returns the passed <code>interceptors</code> as-is if they don't 
+    * contain the asynchronous invocation interceptor.
+    * 
+    * @param interceptors AOP interceptors
+    * @return
+    */
+   protected Interceptor[] pinAsyncInvocationsToPlatformThreads(Interceptor[] interceptors)
+   {
+      return new InterceptorChainRewriter()
+      {
+         @Override
+         protected boolean matches(Interceptor interceptor)
+         {
+            return PassThroughInterceptorFilter.isAsynchronousInterceptor(interceptor);
+         }
+
+         @Override
+         protected void replace(Interceptor interceptor, List<Interceptor> rewritten)
+         {
+            rewritten.add(new PlatformThreadAsyncInterceptor(interceptor));
+         }
+      }.rewrite(interceptors);
+   }
+   
+   /**
+    * Returns a copy of the passed <code>interceptors</code> with the default container managed concurrency
+    * interceptor replaced by the {@link #stripedLockInterceptor} (if in use) and surrounded by the
+    * {@link #contentionProfiler} interceptors (if in use). Returns the passed <code>interceptors</code>
+    * as-is if they don't contain the default concurrency interceptor.
+    * 
+    * @param interceptors AOP interceptors
+    * @return
+    */
+   protected Interceptor[] substituteConcurrencyInterceptor(Interceptor[] interceptors)
+   {
+      return new InterceptorChainRewriter()
+      {
+         @Override
+         protected boolean matches(Interceptor interceptor)
+         {
+            return isContainerManagedConcurrencyInterceptor(interceptor);
+         }
+
+         @Override
+         protected void replace(Interceptor interceptor, List<Interceptor> rewritten)
+         {
+            if (contentionProfiler != null)
+            {
+               rewritten.add(contentionProfiler.getWaitInterceptor());
+            }
+            rewritten.add(stripedLockInterceptor != null ? stripedLockInterceptor : interceptor);
+            if (contentionProfiler != null)
+            {
+               rewritten.add(contentionProfiler.getAcquiredInterceptor());
+            }
+         }
+      }.rewrite(interceptors);
+   }
+   
+   /**
+    * Returns a copy of the passed <code>interceptors</code> without the default container managed concurrency
+    * interceptor. Returns the passed <code>interceptors</code> as-is if they don't contain that interceptor.
+    * 
+    * @param interceptors AOP interceptors
+    * @return
+    */
+   protected Interceptor[] removeConcurrencyInterceptor(Interceptor[] interceptors)
+   {
+      return new InterceptorChainRewriter()
+      {
+         @Override
+         protected boolean matches(Interceptor interceptor)
+         {
+            return isContainerManagedConcurrencyInterceptor(interceptor);
+         }
+      }.rewrite(interceptors);
+   }
+   
+   /**
+    * Returns true if the bean is marked for bean managed concurrency (either through 
+    * {@link ConcurrencyManagement @ConcurrencyManagement} or the deployment descriptor)
+    */
+   private boolean isBeanManagedConcurrency()
+   {
+      ConcurrencyManagement concurrencyManagement = this.getAnnotation(ConcurrencyManagement.class);
+      return concurrencyManagement != null && concurrencyManagement.value() == ConcurrencyManagementType.BEAN;
+   }
+   
+   /**
+    * Returns true if the passed interceptor is the default container managed concurrency interceptor. Scoped
+    * interceptors are wrapped by AOP, hence the check is (also) on the interceptor name, which is the name of the
+    * interceptor factory for such wrapped interceptors.
+    */
+   private boolean isContainerManagedConcurrencyInterceptor(Interceptor interceptor)
+   {
+      if (interceptor.getClass().getName().startsWith(CONTAINER_MANAGED_CONCURRENCY_INTERCEPTOR_NAME))
+      {
+         return true;
+      }
+      String name = interceptor.getName();
+      return name != null && name.startsWith(CONTAINER_MANAGED_CONCURRENCY_INTERCEPTOR_NAME);
+   }
+   
+   /**
+    * Registers the invocation statistics (and the contention profiler, if any) of this container with the 
+    * platform {@link MBeanServer}. Failure to register is logged and otherwise ignored, since it doesn't affect 
+    * the functioning of the container.
+    */
+   private void registerManagementMBeans()
+   {
+      try
+      {
+         this.registerMBean(this.getMBean(), this.getStatisticsObjectName());
+         if (this.contentionProfiler != null)
+         {
+            this.registerMBean(this.contentionProfiler, this.getContentionProfilerObjectName());
+         }
+      }
+      catch (Exception e)
+      {
+         logger.warn("Could not register management MBeans of bean " + this.ejbName, e);
+      }
+   }
+
+   /**
+    * Unregisters the MBeans registered by {@link #registerManagementMBeans()}
+    */
+   private void unregisterManagementMBeans()
+   {
+      try
+      {
+         this.unregisterMBean(this.getStatisticsObjectName());
+         this.unregisterMBean(this.getContentionProfilerObjectName());
+      }
+      catch (Exception e)
+      {
+         logger.warn("Could not unregister management MBeans of bean " + this.ejbName, e);
+      }
+   }
+
+   private void registerMBean(Object mbean, ObjectName objectName) throws Exception
+   {
+      MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+      if (!mbeanServer.isRegistered(objectName))
+      {
+         mbeanServer.registerMBean(mbean, objectName);
+      }
+   }
+
+   private void unregisterMBean(ObjectName objectName) throws Exception
+   {
+      MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+      if (mbeanServer.isRegistered(objectName))
+      {
+         mbeanServer.unregisterMBean(objectName);
+      }
+   }
+
+   /**
+    * Returns the {@link WarmupPolicy} of this bean. @Startup beans are always {@link WarmupPolicy#EAGER_BLOCKING}.
+    * Other beans have the policy specified through {@link Warmup}, if any, or else the default warmup policy.
+    * 
+    * @return
+    */
+   public WarmupPolicy getWarmupPolicy()
+   {
+      if (this.sessionBean31MetaData.isInitOnStartup())
+      {
+         return WarmupPolicy.EAGER_BLOCKING;
+      }
+      Warmup warmup = this.getAnnotation(Warmup.class);
+      if (warmup != null)
+      {
+         return warmup.value();
+      }
+      return this.defaultWarmupPolicy;
+   }
+   
+   /**
+    * Sets the {@link WarmupPolicy} which applies if the bean isn't marked with {@link Warmup}
+    * 
+    * @param defaultWarmupPolicy The default warmup policy. Null means {@link WarmupPolicy#LAZY}
+    */
+   public void setDefaultWarmupPolicy(WarmupPolicy defaultWarmupPolicy)
+   {
+      this.defaultWarmupPolicy = defaultWarmupPolicy == null ? WarmupPolicy.LAZY : defaultWarmupPolicy;
+   }
+   
+   /**
+    * Sets the executor which creates the bean instance, if the bean has a {@link WarmupPolicy#EAGER_BACKGROUND}
+    * warmup policy
+    * 
+    * @param warmupExecutor The executor. Can be null, in which case a dedicated thread is used.
+    */
+   public void setWarmupExecutor(Executor warmupExecutor)
+   {
+      this.warmupExecutor = warmupExecutor;
+   }
+   
+   /**
+    * Sets the executor which runs the asynchronous invocations on this bean on virtual threads. The 
+    * asynchronous invocations on {@link LockType#WRITE} locked methods continue to run on the asynchronous
+    * executor passed to the constructor of this container. 
+    * <p>
+    *  Has to be set before the container is created, since the interceptor chains of the bean methods 
+    *  are compiled during creation.
+    * </p>
+    * 
+    * @param virtualThreadExecutor The executor. Can be null, in which case all asynchronous invocations 
+    *           run on the asynchronous executor passed to the constructor of this container.
+    */
+   public void setVirtualThreadAsyncExecutor(ExecutorService virtualThreadExecutor)
+   {
+      this.asyncExecutorRouter = virtualThreadExecutor == null ? null : new AsyncExecutorRouter(
+            virtualThreadExecutor, super.getAsynchronousExecutor());
+   }
+   
+   /**
+    * Sets the directory into which the {@link SnapshotState} fields of the bean are snapshot, when the bean 
+    * instance is destroyed. Has to be set before the container is created.
+    * 
+    * @param snapshotDirectory The snapshot directory. Can be null, in which case the bean state isn't snapshot.
+    */
+   public void setSnapshotDirectory(File snapshotDirectory)
+   {
+      this.snapshotDirectory = snapshotDirectory;
+   }
+   
+   /**
+    * Returns the file into which the {@link SnapshotState} fields of the bean are snapshot. Null if the
+    * bean state isn't snapshot.
+    * @return
+    */
+   public File getSnapshotFile()
+   {
+      if (this.snapshotDirectory == null)
+      {
+         return null;
+      }
+      // the object name is unique across deployments, unlike the ejb name
+      String fileName = this.getObjectName().getCanonicalName().replaceAll("[^A-Za-z0-9._-]", "_");
+      return new File(this.snapshotDirectory, fileName + ".snapshot");
+   }
+   
+   /**
+    * Sets the cluster membership through which the member, on which the bean is active, is elected, if the bean
+    * is marked with {@link ClusteredSingleton}. Has to be set before the container is created.
+    * 
+    * @param singletonMembership The cluster membership. Can be null, in which case the bean is a singleton 
+    *           per server, even if it's marked with {@link ClusteredSingleton}
+    */
+   public void setSingletonMembership(SingletonMembership singletonMembership)
+   {
+      this.singletonMembership = singletonMembership;
+   }
+   
+   /**
+    * Sets the transport through which the state of the bean is propagated to its read replicas, if the bean is 
+    * marked with {@link ClusteredSingleton#readReplicas()}. Has to be set before the container is created.
+    * 
+    * @param replicaTransport The replica transport. Can be null, in which case a bean marked with 
+    *           {@link ClusteredSingleton#readReplicas()} is active on the elected member only
+    */
+   public void setReplicaTransport(ReplicaTransport replicaTransport)
+   {
+      this.replicaTransport = replicaTransport;
+   }
+   
+   /**
+    * Returns the cluster wide name of the bean, if it's marked with {@link ClusteredSingleton}. The name
+    * defaults to the name of the container, which is derived from the deployment and the ejb name and 
+    * hence is the same on all the members of the cluster.
+    * 
+    * @return
+    */
+   public String getClusteredSingletonName()
+   {
+      ClusteredSingleton clusteredSingleton = this.getAnnotation(ClusteredSingleton.class);
+      if (clusteredSingleton == null)
+      {
+         return null;
+      }
+      if (clusteredSingleton.name().trim().length() > 0)
+      {
+         return clusteredSingleton.name().trim();
+      }
+      return this.getObjectName().getCanonicalName();
+   }
+   
+   /**
+    * Returns a {@link ClusteredSingletonEJBInstanceManager} wrapping the passed instance manager, if the bean is marked 
+    * with {@link ClusteredSingleton} and a {@link SingletonMembership} has been set. Else returns the passed 
+    * instance manager. If the bean is marked for read replicas, and they can be supported, the returned instance 
+    * manager is a {@link ReplicatedSingletonEJBInstanceManager}.
+    */
+   private SingletonEJBInstanceManager initClusteredSingleton(SingletonEJBInstanceManager instanceManager)
+   {
+      String singletonName = this.getClusteredSingletonName();
+      if (singletonName == null)
+      {
+         return instanceManager;
+      }
+      if (this.singletonMembership == null)
+      {
+         logger.warn("Bean " + this.ejbName + " is marked @" + ClusteredSingleton.class.getSimpleName()
+               + ", but no cluster membership is configured. It will be a singleton per server");
+         return instanceManager;
+      }
+      if (this.getAnnotation(ClusteredSingleton.class).readReplicas())
+      {
+         String reason = null;
+         if (this.replicaTransport == null)
+         {
+            reason = "no replica transport is configured";
+         }
+         else if (this.concurrencyAttributesTable == null)
+         {
+            reason = "it uses bean managed concurrency, so READ methods can't be told apart";
+         }
+         else if (StateSnapshot.getSnapshotFields(this.getBeanClass()).isEmpty())
+         {
+            reason = "it has no @" + SnapshotState.class.getSimpleName() + " fields to replicate";
+         }
+         if (reason == null)
+         {
+            logger.debug("Bean " + this.ejbName + " is a cluster wide singleton named " + singletonName
+                  + ", with read replicas");
+            this.replicaLocking = true;
+            return new ReplicatedSingletonEJBInstanceManager(singletonName, instanceManager, this.singletonMembership,
+                  this.replicaTransport, this.concurrencyAttributesTable, this.getBeanClass());
+         }
+         logger.warn("Bean " + this.ejbName + " is marked for read replicas, but " + reason
+               + ". It will be active on the elected member only");
+      }
+      logger.debug("Bean " + this.ejbName + " is a cluster wide singleton named " + singletonName);
+      return new ClusteredSingletonEJBInstanceManager(singletonName, instanceManager, this.singletonMembership);
+   }
+   
+   /**
+    * Sets up a {@link StateSnapshot} on the passed instance manager, if a snapshot directory has been set
+    * and the bean has {@link SnapshotState} fields
+    */
+   private void initStateSnapshot(SingletonEJBInstanceManager instanceManager)
+   {
+      File snapshotFile = this.getSnapshotFile();
+      if (snapshotFile == null || StateSnapshot.getSnapshotFields(this.getBeanClass()).isEmpty())
+      {
+         return;
+      }
+      if (!(instanceManager instanceof SingletonEJBInstanceManagerImpl))
+      {
+         logger.debug("State snapshots not supported by instance manager " + instanceManager + " of bean "
+               + this.ejbName);
+         return;
+      }
+      StateSnapshot stateSnapshot = new StateSnapshot(snapshotFile, this.getBeanClass());
+      ((SingletonEJBInstanceManagerImpl) instanceManager).setStateSnapshot(stateSnapshot);
+      // the state is snapshot on destroy, so it must not be changing at that time. The invocations in progress are
+      // waited for as long as an invocation would wait for the bean lock
+      AccessTimeout accessTimeout = this.getAnnotation(AccessTimeout.class);
+      if (accessTimeout != null && accessTimeout.value() >= 0)
+      {
+         this.delegate.setDrainInvocationsOnDestroy(stateSnapshot, accessTimeout.value(), accessTimeout.unit());
+      }
+      else
+      {
+         this.delegate.setDrainInvocationsOnDestroy(stateSnapshot,
+               StripedLockConcurrencyInterceptor.DEFAULT_ACCESS_TIMEOUT, TimeUnit.MILLISECONDS);
+      }
+      logger.debug("State of bean " + this.ejbName + " will be snapshot to " + snapshotFile);
+   }
+   
+   /**
+    * Hands over the creation of the bean instance to the warmup executor. Invocations which arrive
+    * while the instance is being created, wait for that creation to complete.
+    */
+   private void warmupInBackground()
+   {
+      EJBInstanceManager instanceManager = this.delegate.getBeanInstanceManager();
+      if (!(instanceManager instanceof SingletonEJBInstanceManagerImpl))
+      {
+         logger.debug("Background warmup not supported by instance manager " + instanceManager + " of bean "
+               + this.ejbName);
+         return;
+      }
+      final Executor executor = this.warmupExecutor;
+      final String threadName = "singleton-warmup-" + this.ejbName;
+      final ClassLoader beanClassLoader = this.getClassloader();
+      // the bean instance is created with the bean's classloader as the TCCL, whichever thread creates it
+      Executor tcclSettingExecutor = new Executor()
+      {
+         @Override
+         public void execute(final Runnable task)
+         {
+            Runnable warmup = new Runnable()
+            {
+               @Override
+               public void run()
+               {
+                  ClassLoader previousTCCL = Thread.currentThread().getContextClassLoader();
+                  Thread.currentThread().setContextClassLoader(beanClassLoader);
+                  try
+                  {
+                     task.run();
+                  }
+                  finally
+                  {
+                     Thread.currentThread().setContextClassLoader(previousTCCL);
+                  }
+               }
+            };
+            if (executor != null)
+            {
+               executor.execute(warmup);
+               return;
+            }
+            Thread thread = new Thread(warmup, threadName);
+            thread.setDaemon(true);
+            thread.start();
+         }
+      };
+      ((SingletonEJBInstanceManagerImpl) instanceManager).warmupInBackground(tcclSettingExecutor);
+      logger.debug("Started background warmup of bean " + this.ejbName);
+   }
+
+   /**
+    * Sets up the {@link ContentionProfiler} if the bean is marked with {@link ContentionProfiling}
+    * and uses container managed concurrency
+    */
+   private void initContentionProfiling()
+   {
+      ContentionProfiling contentionProfiling = this.getAnnotation(ContentionProfiling.class);
+      if (contentionProfiling == null)
+      {
+         return;
+      }
+      if (this.beanManagedConcurrency)
+      {
+         logger.warn("Ignoring @" + ContentionProfiling.class.getSimpleName() + " on bean " + this.ejbName
+               + " since it uses bean managed concurrency");
+         return;
+      }
+      this.contentionProfiler = new ContentionProfiler(this, this.concurrencyAttributesTable, contentionProfiling);
+      logger.debug("Contention profiling enabled for bean " + this.ejbName);
+   }
+
+   /**
+    * Sets up the {@link StripedLockConcurrencyInterceptor} if the bean is marked with {@link StripedLocking}
+    * and uses container managed concurrency
+    */
+   private void initStripedLocking()
+   {
+      StripedLocking stripedLocking = this.getAnnotation(StripedLocking.class);
+      if (stripedLocking == null)
+      {
+         return;
+      }
+      if (this.beanManagedConcurrency)
+      {
+         logger.warn("Ignoring @" + StripedLocking.class.getSimpleName() + " on bean " + this.ejbName
+               + " since it uses bean managed concurrency");
+         return;
+      }
+      this.stripedLockInterceptor = new StripedLockConcurrencyInterceptor(this, this.concurrencyAttributesTable,
+            stripedLocking.stripes());
+      this.stripedLockInterceptor.setInvocationStatistics(this.delegate.getInvocationStatistics());
+      logger.debug("Using striped locking with " + this.stripedLockInterceptor.getLock().getStripeCount()
+            + " stripes for bean " + this.ejbName);
+   }
+   
+   /**
+    * Sets up a {@link WriteCombiner}, if any of the passed <code>methods</code> is write batched (see {@link BatchedWrite}).
+    * Write batching needs the lock of the container's own concurrency interceptor, so the {@link #stripedLockInterceptor}
+    * is setup (with a single stripe), if the bean hasn't opted for striped locking.
+    * 
+    * @param methods The methods known to be invoked on the bean
+    */
+   private void initWriteBatching(List<Method> methods)
+   {
+      if (this.beanManagedConcurrency || this.concurrencyAttributesTable == null)
+      {
+         return;
+      }
+      boolean writeBatched = false;
+      for (Method method : methods)
+      {
+         if (this.concurrencyAttributesTable.getConcurrencyAttributes(method).isWriteBatched())
+         {
+            writeBatched = true;
+            break;
+         }
+      }
+      if (!writeBatched)
+      {
+         return;
+      }
+      this.initConcurrencyInterceptor();
+      this.stripedLockInterceptor.setWriteCombiner(new WriteCombiner(this.stripedLockInterceptor.getLock(),
+            WriteCombiner.DEFAULT_MAX_BATCH_SIZE));
+      logger.debug("Using write batching for bean " + this.ejbName);
+   }
+   
+   /**
+    * Sets up an {@link AdmissionController} if the bean is marked with {@link AdaptiveAdmission} (either
+    * on the bean class or through the deployment descriptor) and uses container managed concurrency. 
+    * Admission control needs the container's own concurrency interceptor, so the {@link #stripedLockInterceptor}
+    * is setup (with a single stripe), if the bean hasn't opted for striped locking.
+    */
+   private void initAdaptiveAdmission()
+   {
+      AdaptiveAdmission adaptiveAdmission = this.getAnnotation(AdaptiveAdmission.class);
+      if (adaptiveAdmission == null)
+      {
+         return;
+      }
+      if (this.beanManagedConcurrency)
+      {
+         logger.warn("Ignoring @" + AdaptiveAdmission.class.getSimpleName() + " on bean " + this.ejbName
+               + " since it uses bean managed concurrency");
+         return;
+      }
+      if (adaptiveAdmission.maxWaitingCallers() < 1 && adaptiveAdmission.maxLockWaitMillis() < 1)
+      {
+         logger.warn("Ignoring @" + AdaptiveAdmission.class.getSimpleName() + " on bean " + this.ejbName
+               + " since it configures neither a maximum number of waiting callers nor a maximum lock wait time");
+         return;
+      }
+      this.initConcurrencyInterceptor();
+      AdmissionController admissionController = new AdmissionController(adaptiveAdmission);
+      this.stripedLockInterceptor.setAdmissionController(admissionController);
+      logger.debug("Using adaptive admission (" + admissionController + ") for bean " + this.ejbName);
+   }
+   
+   /**
+    * Sets up the {@link #stripedLockInterceptor} with a single stripe, if the bean hasn't opted for striped locking
+    */
+   private void initConcurrencyInterceptor()
+   {
+      if (this.stripedLockInterceptor == null)
+      {
+         this.stripedLockInterceptor = new StripedLockConcurrencyInterceptor(this, this.concurrencyAttributesTable, 1);
+         this.stripedLockInterceptor.setInvocationStatistics(this.delegate.getInvocationStatistics());
+      }
+   }
+   
+   /**
+    * Returns the {@link BeanMethodInvoker} which invokes the passed bean <code>method</code> on a bean instance
+    * 
+    * @param method The bean method
+    * @return
+    */
+   public BeanMethodInvoker getBeanMethodInvoker(Method method)
+   {
+      BeanMethodInvokerTable invokerTable = this.beanMethodInvokerTable;
+      if (invokerTable == null)
+      {
+         // not yet created
+         return new ReflectionBeanMethodInvoker(method);
+      }
+      return invokerTable.getInvoker(method);
+   }
+   
+   /**
+    * Returns those of the passed <code>methods</code> which can be invoked on a bean instance (i.e. the
+    * methods of the bean class and its super classes)
+    * 
+    * @param methods The methods
+    * @return
+    */
+   private List<Method> getBeanMethods(List<Method> methods)
+   {
+      Class<?> beanClass = this.getBeanClass();
+      List<Method> beanMethods = new ArrayList<Method>();
+      for (Method method : methods)
+      {
+         Class<?> declaringClass = method.getDeclaringClass();
+         if (!declaringClass.isInterface() && declaringClass.isAssignableFrom(beanClass))
+         {
+            beanMethods.add(method);
+         }
+      }
+      return beanMethods;
+   }
+   
+   /**
+    * Returns the methods which are known (at this point) to be invoked through this container. This
+    * includes the methods of the bean class (and its super classes), the timeout method and the 
+    * methods on the business interfaces of the bean.
+    * 
+    * @return
+    */
+   private List<Method> getKnownMethods()
+   {
+      List<Method> methods = new ArrayList<Method>();
+      Class<?> klass = this.getBeanClass();
+      while (klass != null && klass != Object.class)
+      {
+         for (Method method : klass.getDeclaredMethods())
+         {
+            methods.add(method);
+         }
+         klass = klass.getSuperclass();
+      }
+      if (this.timeoutMethod != null)
+      {
+         methods.add(this.timeoutMethod);
+      }
+      List<String> businessInterfaces = new ArrayList<String>();
+      BusinessLocalsMetaData businessLocals = this.sessionBean31MetaData.getBusinessLocals();
+      if (businessLocals != null)
+      {
+         businessInterfaces.addAll(businessLocals);
+      }
+      BusinessRemotesMetaData businessRemotes = this.sessionBean31MetaData.getBusinessRemotes();
+      if (businessRemotes != null)
+      {
+         businessInterfaces.addAll(businessRemotes);
+      }
+      for (String businessInterface : businessInterfaces)
+      {
+         try
+         {
+            Class<?> businessInterfaceClass = this.classloader.loadClass(businessInterface);
+            for (Method method : businessInterfaceClass.getMethods())
+            {
+               methods.add(method);
+            }
+         }
+         catch (ClassNotFoundException cnfe)
+         {
+            // the method info for this interface's methods will be lazily looked up
+            logger.debug("Could not load business interface " + businessInterface + " of bean " + this.ejbName, cnfe);
+         }
+      }
+      return methods;
+   }
+   
+   /**
+    * Returns the {@link AsyncExecutorRouter}, if the asynchronous invocations on this bean run on virtual threads.
+    * Else returns the asynchronous executor passed to the constructor of this container.
+    * 
+    * @see org.jboss.ejb3.session.SessionSpecContainer#getAsynchronousExecutor()
+    */
+   @Override
+   public ExecutorService getAsynchronousExecutor()
+   {
+      AsyncExecutorRouter router = this.asyncExecutorRouter;
+      return router == null ? super.getAsynchronousExecutor() : router;
+   }
+   
+   @Override
+   public <T> T getBusinessObject(BeanContext<?> beanContext, Class<T> businessInterface) throws IllegalStateException
    {
       if (businessInterface == null)
       {
          throw new IllegalArgumentException("Business interface type cannot be null, for getBusinessObject method call");
       }
+      // the business interface was validated and the business object was looked up, when it was cached
+      Object cached = this.businessObjects.get(businessInterface);
+      if (cached != null)
+      {
+         return businessInterface.cast(cached);
+      }
       // check the validity of the business interface
       if (!this.isValidBusinessInterface(businessInterface))
       {
@@ -927,7 +2168,12 @@ public class AOPBasedSingletonContainer extends SessionSpecContainer implements
       }
       try
       {
-         return businessInterface.cast(getInitialContext().lookup(jndiName));
+         T businessObject = businessInterface.cast(getInitialContext().lookup(jndiName));
+         if (businessObject != null)
+         {
+            this.businessObjects.putIfAbsent(businessInterface, businessObject);
+         }
+         return businessObject;
       }
       catch (NamingException ne)
       {
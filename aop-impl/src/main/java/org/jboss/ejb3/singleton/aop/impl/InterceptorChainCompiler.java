@@ -0,0 +1,45 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl;
+
+import org.jboss.aop.MethodInfo;
+import org.jboss.aop.advice.Interceptor;
+
+/**
+ * Computes the effective AOP interceptor chain of a method, out of the interceptors which the
+ * AOP bindings apply to that method
+ *
+ * @version $Revision: $
+ */
+public interface InterceptorChainCompiler
+{
+   /**
+    * Returns the interceptors which have to be invoked for an invocation on the method of the 
+    * passed <code>methodInfo</code>
+    * 
+    * @param methodInfo The AOP method info
+    * @param interceptors The interceptors which the AOP bindings apply to the method. Can be null.
+    * @return Returns the effective interceptors. Can be the passed <code>interceptors</code> array itself, 
+    *           if all of them apply. The passed array is never modified. 
+    */
+   Interceptor[] compile(MethodInfo methodInfo, Interceptor[] interceptors);
+}
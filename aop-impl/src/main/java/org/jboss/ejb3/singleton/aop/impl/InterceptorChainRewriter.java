@@ -0,0 +1,96 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.aop.advice.Interceptor;
+
+/**
+ * Rewrites an AOP interceptor chain by dropping, or replacing, the interceptors which {@link #matches(Interceptor) match}.
+ * <p>
+ *  The passed chain is never modified. It's copied on the first matching interceptor, so a chain without any
+ *  matching interceptor is returned as-is.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public abstract class InterceptorChainRewriter
+{
+
+   /**
+    * Returns the passed <code>interceptors</code> with each matching interceptor {@link #replace(Interceptor, List) replaced}. 
+    * Returns the passed <code>interceptors</code> as-is if none of them match.
+    * 
+    * @param interceptors The interceptors. Can be null, in which case null is returned.
+    * @return
+    */
+   public Interceptor[] rewrite(Interceptor[] interceptors)
+   {
+      if (interceptors == null)
+      {
+         return null;
+      }
+      List<Interceptor> rewritten = null;
+      for (int i = 0; i < interceptors.length; i++)
+      {
+         if (this.matches(interceptors[i]))
+         {
+            if (rewritten == null)
+            {
+               // room for a couple of replacements, without having to grow the list
+               rewritten = new ArrayList<Interceptor>(interceptors.length + 2);
+               for (int j = 0; j < i; j++)
+               {
+                  rewritten.add(interceptors[j]);
+               }
+            }
+            this.replace(interceptors[i], rewritten);
+         }
+         else if (rewritten != null)
+         {
+            rewritten.add(interceptors[i]);
+         }
+      }
+      return rewritten == null ? interceptors : rewritten.toArray(new Interceptor[rewritten.size()]);
+   }
+
+   /**
+    * Returns true if the passed <code>interceptor</code> has to be dropped or replaced
+    * 
+    * @param interceptor The interceptor
+    * @return
+    */
+   protected abstract boolean matches(Interceptor interceptor);
+
+   /**
+    * Adds the replacement(s) of the matching <code>interceptor</code> to the <code>rewritten</code> chain.
+    * This implementation adds nothing, i.e. drops the interceptor.
+    * 
+    * @param interceptor The matching interceptor
+    * @param rewritten The rewritten chain, which contains the interceptors preceding the matching one
+    */
+   protected void replace(Interceptor interceptor, List<Interceptor> rewritten)
+   {
+   }
+}
@@ -0,0 +1,285 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.aop.Advisor;
+import org.jboss.aop.MethodInfo;
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.util.MethodHashing;
+import org.jboss.ejb3.singleton.impl.statistics.InvocationStatistics;
+import org.jboss.ejb3.singleton.impl.statistics.MethodStatistics;
+
+/**
+ * Maintains the {@link Method} to AOP {@link MethodInfo} mapping for a container, so that the 
+ * (expensive) {@link MethodHashing#calculateHash(Method)} and the {@link Advisor#getMethodInfo(long)}
+ * lookup aren't done on each invocation.
+ * <p>
+ *  The table consists of:
+ *  <ul>
+ *    <li>A immutable, identity keyed, map of the {@link Method methods} known at the time of creation of
+ *    this table. Lookups of those very same {@link Method} objects (for example, the timeout method of the bean)
+ *    don't need anything more than a identity hash lookup</li>
+ *    <li>A {@link ConcurrentHashMap}, keyed by {@link Method#equals(Object)}, which is pre-filled with the 
+ *    same known methods and lazily populated for any other method (for example, methods on interfaces
+ *    which weren't known at the time of creation of this table). This takes care of the (common) case where the
+ *    invoked {@link Method} is equal to, but not the same object as, the one which was registered.</li>
+ *  </ul>
+ * </p>
+ * <p>
+ *  If the table is created with a {@link InterceptorChainCompiler}, it also maintains the compiled (effective)
+ *  interceptor chain of each {@link MethodInfo}. The chains of the known methods are compiled upfront. A chain
+ *  is recompiled if the interceptors of the {@link MethodInfo} change (for example, because of a change in the
+ *  AOP bindings).
+ * </p>
+ * <p>
+ *  If the table is created with the {@link InvocationStatistics} of the container, it also resolves the 
+ *  {@link MethodStatistics} of each {@link MethodInfo} once, along with its interceptor chain, so that an
+ *  invocation gets both from a single {@link Entry}.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class MethodInfoTable
+{
+
+   /**
+    * The advisor which is consulted for the methods that aren't available in this table
+    */
+   private final Advisor advisor;
+
+   /**
+    * Identity keyed (immutable) map of the methods known at construction time
+    */
+   private final Map<Method, MethodInfo> registeredMethods;
+
+   /**
+    * Equality keyed map of methods, pre-filled with the methods known at construction time
+    * and lazily populated with the rest
+    */
+   private final ConcurrentMap<Method, MethodInfo> methodInfos = new ConcurrentHashMap<Method, MethodInfo>();
+
+   /**
+    * Compiles the effective interceptor chains. Can be null.
+    */
+   private final InterceptorChainCompiler chainCompiler;
+
+   /**
+    * The statistics of the container. Can be null.
+    */
+   private final InvocationStatistics invocationStatistics;
+
+   /**
+    * The compiled interceptor chain and the statistics of each {@link MethodInfo}
+    */
+   private final ConcurrentMap<MethodInfo, Entry> entries = new ConcurrentHashMap<MethodInfo, Entry>();
+
+   /**
+    * Creates a {@link MethodInfoTable} for the passed <code>methods</code>
+    * 
+    * @param advisor The advisor of the container
+    * @param methods The methods which will be pre-registered in this table. Methods for which the <code>advisor</code>
+    *               doesn't have a {@link MethodInfo}, are skipped.
+    */
+   public MethodInfoTable(Advisor advisor, Collection<Method> methods)
+   {
+      this(advisor, methods, null);
+   }
+
+   /**
+    * Creates a {@link MethodInfoTable} for the passed <code>methods</code>, and compiles their interceptor chains
+    * 
+    * @param advisor The advisor of the container
+    * @param methods The methods which will be pre-registered in this table. Methods for which the <code>advisor</code>
+    *               doesn't have a {@link MethodInfo}, are skipped.
+    * @param chainCompiler Compiles the effective interceptor chains. Can be null, in which case 
+    *                   {@link #getInterceptorChain(MethodInfo)} returns the interceptors of the {@link MethodInfo} as-is
+    */
+   public MethodInfoTable(Advisor advisor, Collection<Method> methods, InterceptorChainCompiler chainCompiler)
+   {
+      this(advisor, methods, chainCompiler, null);
+   }
+
+   /**
+    * Creates a {@link MethodInfoTable} for the passed <code>methods</code>, and compiles their interceptor chains
+    * and resolves their statistics
+    * 
+    * @param advisor The advisor of the container
+    * @param methods The methods which will be pre-registered in this table. Methods for which the <code>advisor</code>
+    *               doesn't have a {@link MethodInfo}, are skipped.
+    * @param chainCompiler Compiles the effective interceptor chains. Can be null, in which case the interceptors of
+    *                   the {@link MethodInfo} apply as-is
+    * @param invocationStatistics The statistics of the container. Can be null, in which case the {@link Entry entries}
+    *                   have no statistics
+    */
+   public MethodInfoTable(Advisor advisor, Collection<Method> methods, InterceptorChainCompiler chainCompiler,
+         InvocationStatistics invocationStatistics)
+   {
+      if (advisor == null)
+      {
+         throw new IllegalArgumentException("Advisor cannot be null while creating a " + MethodInfoTable.class.getSimpleName());
+      }
+      this.advisor = advisor;
+      this.chainCompiler = chainCompiler;
+      this.invocationStatistics = invocationStatistics;
+      Map<Method, MethodInfo> known = new IdentityHashMap<Method, MethodInfo>();
+      if (methods != null)
+      {
+         for (Method method : methods)
+         {
+            MethodInfo methodInfo = this.lookupAdvisor(method);
+            if (methodInfo == null)
+            {
+               continue;
+            }
+            known.put(method, methodInfo);
+            this.methodInfos.putIfAbsent(method, methodInfo);
+            this.getEntry(methodInfo);
+         }
+      }
+      this.registeredMethods = Collections.unmodifiableMap(known);
+   }
+
+   /**
+    * Returns the AOP {@link MethodInfo} corresponding to the passed <code>method</code>. Returns null
+    * if the advisor doesn't know of such a method.
+    * 
+    * @param method The method
+    * @return
+    */
+   public MethodInfo getMethodInfo(Method method)
+   {
+      MethodInfo methodInfo = this.registeredMethods.get(method);
+      if (methodInfo != null)
+      {
+         return methodInfo;
+      }
+      methodInfo = this.methodInfos.get(method);
+      if (methodInfo != null)
+      {
+         return methodInfo;
+      }
+      // not (yet) known to us, so consult the advisor
+      methodInfo = this.lookupAdvisor(method);
+      if (methodInfo != null)
+      {
+         this.methodInfos.putIfAbsent(method, methodInfo);
+      }
+      return methodInfo;
+   }
+
+   /**
+    * Returns the effective interceptor chain for an invocation on the passed <code>methodInfo</code>
+    * 
+    * @param methodInfo The AOP method info
+    * @return
+    */
+   public Interceptor[] getInterceptorChain(MethodInfo methodInfo)
+   {
+      if (this.chainCompiler == null)
+      {
+         return methodInfo.getInterceptors();
+      }
+      return this.getEntry(methodInfo).getInterceptors();
+   }
+
+   /**
+    * Returns the effective interceptor chain and the statistics for an invocation on the passed 
+    * <code>methodInfo</code>
+    * 
+    * @param methodInfo The AOP method info
+    * @return
+    */
+   public Entry getEntry(MethodInfo methodInfo)
+   {
+      Interceptor[] interceptors = methodInfo.getInterceptors();
+      Entry entry = this.entries.get(methodInfo);
+      if (entry != null && entry.source == interceptors)
+      {
+         return entry;
+      }
+      // not yet compiled, or the AOP interceptors have changed since
+      Interceptor[] compiled = this.chainCompiler == null ? interceptors : this.chainCompiler.compile(methodInfo,
+            interceptors);
+      MethodStatistics statistics = null;
+      if (entry != null)
+      {
+         statistics = entry.statistics;
+      }
+      else if (this.invocationStatistics != null)
+      {
+         statistics = this.invocationStatistics.getMethodStatistics(methodInfo.getUnadvisedMethod());
+      }
+      entry = new Entry(interceptors, compiled, statistics);
+      this.entries.put(methodInfo, entry);
+      return entry;
+   }
+
+   private MethodInfo lookupAdvisor(Method method)
+   {
+      long hash = MethodHashing.calculateHash(method);
+      return this.advisor.getMethodInfo(hash);
+   }
+
+   /**
+    * The compiled interceptor chain of a {@link MethodInfo}, along with the interceptors it was compiled from,
+    * and the statistics of the method
+    */
+   public static class Entry
+   {
+      private final Interceptor[] source;
+
+      private final Interceptor[] compiled;
+
+      private final MethodStatistics statistics;
+
+      Entry(Interceptor[] source, Interceptor[] compiled, MethodStatistics statistics)
+      {
+         this.source = source;
+         this.compiled = compiled;
+         this.statistics = statistics;
+      }
+
+      /**
+       * @return The effective interceptor chain
+       */
+      public Interceptor[] getInterceptors()
+      {
+         return this.compiled;
+      }
+
+      /**
+       * @return The statistics of the method. Null if the table has no statistics
+       */
+      public MethodStatistics getMethodStatistics()
+      {
+         return this.statistics;
+      }
+   }
+}
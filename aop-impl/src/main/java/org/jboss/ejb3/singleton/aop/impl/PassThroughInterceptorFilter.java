@@ -0,0 +1,206 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import javax.annotation.security.RunAs;
+import javax.ejb.Asynchronous;
+import javax.ejb.TransactionManagement;
+import javax.ejb.TransactionManagementType;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.logging.Logger;
+import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeanMetaData;
+
+/**
+ * Drops the interceptors, which the bean (and method) metadata proves to be pass-through, from an 
+ * interceptor chain. The following interceptors are dropped:
+ * <ul>
+ *   <li>Null interceptors, which the interceptor factories hand out when they don't apply to a joinpoint</li>
+ *   <li>The asynchronous invocation interceptor, for methods which aren't {@link Asynchronous @Asynchronous}
+ *   (either on the method, on the bean class or on the superclass declaring the method)</li>
+ *   <li>The run-as security interceptor, for beans without a {@link RunAs @RunAs} or a run-as security 
+ *   identity in the deployment descriptor</li>
+ *   <li>The bean managed transaction interceptor, for beans with container managed transactions</li>
+ * </ul>
+ * <p>
+ *  Like the check for the container managed concurrency interceptor, the interceptors are identified by the
+ *  name of their class or, for interceptors wrapped by AOP (scoped interceptors), by their name (which is the 
+ *  name of the interceptor factory). Any interceptor which isn't identified is retained.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class PassThroughInterceptorFilter
+{
+
+   /** Logger */
+   private static Logger logger = Logger.getLogger(PassThroughInterceptorFilter.class);
+
+   private static final String NULL_INTERCEPTOR_SIMPLE_NAME = "NullInterceptor";
+
+   private static final String ASYNCHRONOUS_INTERCEPTOR_PREFIX = "org.jboss.ejb3.async.impl.interceptor.Asynchronous";
+
+   private static final String RUN_AS_INTERCEPTOR_PREFIX = "org.jboss.ejb3.security.RunAsSecurityInterceptor";
+
+   private static final String BMT_INTERCEPTOR_PREFIX = "org.jboss.ejb3.tx.BMTTxInterceptor";
+
+   /**
+    * The container whose bean (and method) metadata is consulted
+    */
+   private final EJBContainer container;
+
+   /**
+    * True if the bean has a run-as identity
+    */
+   private final boolean runAs;
+
+   /**
+    * True if the bean uses bean managed transactions
+    */
+   private final boolean beanManagedTx;
+
+   /**
+    * True if the bean class is marked {@link Asynchronous @Asynchronous}
+    */
+   private final boolean asynchronousBean;
+
+   /**
+    * @param container The container whose metadata is consulted 
+    */
+   public PassThroughInterceptorFilter(EJBContainer container)
+   {
+      if (container == null)
+      {
+         throw new IllegalArgumentException("Container cannot be null while creating a " + PassThroughInterceptorFilter.class.getSimpleName());
+      }
+      this.container = container;
+      JBossEnterpriseBeanMetaData metaData = container.getXml();
+      this.runAs = container.getAnnotation(RunAs.class) != null
+            || (metaData != null && metaData.getSecurityIdentity() != null);
+      TransactionManagement txManagement = container.getAnnotation(TransactionManagement.class);
+      this.beanManagedTx = txManagement != null && txManagement.value() == TransactionManagementType.BEAN;
+      this.asynchronousBean = container.getAnnotation(Asynchronous.class) != null;
+   }
+
+   /**
+    * Returns the passed <code>interceptors</code> minus the pass-through ones, for an invocation on the passed
+    * <code>method</code>. Returns the passed <code>interceptors</code> as-is if none of them are pass-through.
+    * 
+    * @param method The (unadvised) bean method. Can be null, in which case only null interceptors are dropped.
+    * @param interceptors The interceptors
+    * @return
+    */
+   public Interceptor[] filter(final Method method, Interceptor[] interceptors)
+   {
+      return new InterceptorChainRewriter()
+      {
+         @Override
+         protected boolean matches(Interceptor interceptor)
+         {
+            return isPassThrough(method, interceptor);
+         }
+
+         @Override
+         protected void replace(Interceptor interceptor, List<Interceptor> rewritten)
+         {
+            if (logger.isTraceEnabled())
+            {
+               logger.trace("Dropping pass-through interceptor " + interceptor.getName() + " for method " + method);
+            }
+         }
+      }.rewrite(interceptors);
+   }
+
+   /**
+    * Returns true if the passed <code>interceptor</code> is known to be pass-through for an invocation on
+    * the passed <code>method</code>
+    */
+   protected boolean isPassThrough(Method method, Interceptor interceptor)
+   {
+      if (interceptor.getClass().getSimpleName().equals(NULL_INTERCEPTOR_SIMPLE_NAME))
+      {
+         return true;
+      }
+      if (method == null)
+      {
+         return false;
+      }
+      if (isInterceptor(interceptor, ASYNCHRONOUS_INTERCEPTOR_PREFIX))
+      {
+         return !this.isAsynchronous(method);
+      }
+      if (isInterceptor(interceptor, RUN_AS_INTERCEPTOR_PREFIX))
+      {
+         return !this.runAs;
+      }
+      if (isInterceptor(interceptor, BMT_INTERCEPTOR_PREFIX))
+      {
+         return !this.beanManagedTx;
+      }
+      return false;
+   }
+
+   /**
+    * Returns true if the passed <code>method</code> is (or might be) {@link Asynchronous @Asynchronous}, either 
+    * on the method itself, on the bean class or on the class declaring the method
+    */
+   private boolean isAsynchronous(Method method)
+   {
+      if (this.asynchronousBean || this.container.getAnnotation(Asynchronous.class, method) != null)
+      {
+         return true;
+      }
+      // a class level @Asynchronous applies to the methods declared on that class, which can be a superclass 
+      // of the bean class (EJB3.1 spec, section 4.5.1). The container only knows about the bean class, so
+      // look it up on the declaring class itself
+      return method.getDeclaringClass().isAnnotationPresent(Asynchronous.class);
+   }
+
+   /**
+    * Returns true if the passed <code>interceptor</code> is the asynchronous invocation interceptor
+    * 
+    * @param interceptor The interceptor
+    * @return
+    */
+   public static boolean isAsynchronousInterceptor(Interceptor interceptor)
+   {
+      return isInterceptor(interceptor, ASYNCHRONOUS_INTERCEPTOR_PREFIX);
+   }
+
+   /**
+    * Returns true if the class name, or the name, of the passed <code>interceptor</code> starts with the
+    * passed <code>prefix</code>
+    */
+   protected static boolean isInterceptor(Interceptor interceptor, String prefix)
+   {
+      if (interceptor.getClass().getName().startsWith(prefix))
+      {
+         return true;
+      }
+      String name = interceptor.getName();
+      return name != null && name.startsWith(prefix);
+   }
+}
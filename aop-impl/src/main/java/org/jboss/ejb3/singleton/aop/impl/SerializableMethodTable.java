@@ -0,0 +1,131 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.ejb3.common.lang.SerializableMethod;
+
+/**
+ * Maintains the {@link SerializableMethod} to invoked business interface and {@link Method} mapping for 
+ * a container, so that the classloading and the reflective method lookup, which resolve the 
+ * {@link SerializableMethod} of a remote invocation, aren't done on each invocation.
+ * <p>
+ *  Each remote invocation carries a freshly unmarshalled {@link SerializableMethod}, so the table is keyed by
+ *  {@link SerializableMethod#equals(Object)} rather than by identity. The table is lazily populated, since the
+ *  methods which are invoked remotely aren't known upfront. Methods which can't be resolved aren't added to 
+ *  the table.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class SerializableMethodTable
+{
+
+   /**
+    * The classloader through which the methods are resolved
+    */
+   private final ClassLoader classLoader;
+
+   /**
+    * Equality keyed map of the methods resolved so far
+    */
+   private final ConcurrentMap<SerializableMethod, ResolvedMethod> resolvedMethods = new ConcurrentHashMap<SerializableMethod, ResolvedMethod>();
+
+   /**
+    * @param classLoader The classloader of the container, through which the methods are resolved
+    */
+   public SerializableMethodTable(ClassLoader classLoader)
+   {
+      if (classLoader == null)
+      {
+         throw new IllegalArgumentException("Classloader cannot be null while creating a "
+               + SerializableMethodTable.class.getSimpleName());
+      }
+      this.classLoader = classLoader;
+   }
+
+   /**
+    * Returns the invoked business interface and {@link Method} of the passed <code>serializableMethod</code>
+    * 
+    * @param serializableMethod The method of a remote invocation
+    * @return
+    * @throws ClassNotFoundException If the business interface can't be loaded
+    */
+   public ResolvedMethod resolve(SerializableMethod serializableMethod) throws ClassNotFoundException
+   {
+      ResolvedMethod resolvedMethod = this.resolvedMethods.get(serializableMethod);
+      if (resolvedMethod != null)
+      {
+         return resolvedMethod;
+      }
+      Class<?> businessInterface = this.classLoader.loadClass(serializableMethod.getActualClassName());
+      Method method = serializableMethod.toMethod(this.classLoader);
+      resolvedMethod = new ResolvedMethod(businessInterface, method);
+      ResolvedMethod existing = this.resolvedMethods.putIfAbsent(serializableMethod, resolvedMethod);
+      return existing == null ? resolvedMethod : existing;
+   }
+
+   /**
+    * The invoked business interface and {@link Method} of a {@link SerializableMethod}
+    */
+   public static final class ResolvedMethod
+   {
+      private final Class<?> businessInterface;
+
+      private final Method method;
+
+      /**
+       * Whether the method is a remote business method of the bean, invoked through a remote business interface. 
+       * Null until checked by the container.
+       */
+      private volatile Boolean remoteBusinessMethod;
+
+      ResolvedMethod(Class<?> businessInterface, Method method)
+      {
+         this.businessInterface = businessInterface;
+         this.method = method;
+      }
+
+      Boolean isRemoteBusinessMethod()
+      {
+         return this.remoteBusinessMethod;
+      }
+
+      void setRemoteBusinessMethod(boolean remoteBusinessMethod)
+      {
+         this.remoteBusinessMethod = remoteBusinessMethod;
+      }
+
+      public Class<?> getBusinessInterface()
+      {
+         return this.businessInterface;
+      }
+
+      public Method getMethod()
+      {
+         return this.method;
+      }
+   }
+}
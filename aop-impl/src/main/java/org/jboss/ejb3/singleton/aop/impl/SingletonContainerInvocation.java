@@ -0,0 +1,93 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl;
+
+import org.jboss.aop.MethodInfo;
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.ejb3.session.SessionContainerInvocation;
+import org.jboss.ejb3.singleton.aop.impl.context.LegacySingletonBeanContext;
+import org.jboss.ejb3.singleton.impl.statistics.MethodStatistics;
+
+/**
+ * A {@link SessionContainerInvocation} whose terminal dispatch (i.e. the invocation of the bean method,
+ * once all the interceptors have been invoked) goes through the bean method invoker of the 
+ * {@link LegacySingletonBeanContext}, instead of reflection.
+ *
+ * @version $Revision: $
+ */
+public class SingletonContainerInvocation extends SessionContainerInvocation<AOPBasedSingletonContainer, LegacySingletonBeanContext>
+{
+
+   /**
+    * The statistics of the invoked method. Can be null
+    */
+   private MethodStatistics methodStatistics;
+
+   /**
+    * @param businessInterface The business interface on which the method was invoked
+    * @param methodInfo The AOP method info
+    * @param interceptors The interceptors applicable for this invocation
+    * @param container The container
+    */
+   public SingletonContainerInvocation(Class<?> businessInterface, MethodInfo methodInfo, Interceptor[] interceptors,
+         AOPBasedSingletonContainer container)
+   {
+      super(businessInterface, methodInfo, interceptors, container);
+   }
+
+   /**
+    * Returns the statistics of the invoked method, as resolved by the container. Null if they haven't been 
+    * resolved
+    * 
+    * @return
+    */
+   public MethodStatistics getMethodStatistics()
+   {
+      return this.methodStatistics;
+   }
+
+   /**
+    * Sets the statistics of the invoked method
+    * 
+    * @param methodStatistics Can be null
+    */
+   public void setMethodStatistics(MethodStatistics methodStatistics)
+   {
+      this.methodStatistics = methodStatistics;
+   }
+
+   /**
+    * @see org.jboss.aop.joinpoint.MethodInvocation#invokeTarget()
+    */
+   @Override
+   public Object invokeTarget() throws Throwable
+   {
+      LegacySingletonBeanContext beanContext = this.getBeanContext();
+      // the target may have been replaced by a interceptor, in which case we let the AOP
+      // invocation take care of it
+      if (beanContext == null || beanContext.getInstance() != this.getTargetObject())
+      {
+         return super.invokeTarget();
+      }
+      return beanContext.invokeBeanMethod(this.getActualMethod(), this.getArguments());
+   }
+}
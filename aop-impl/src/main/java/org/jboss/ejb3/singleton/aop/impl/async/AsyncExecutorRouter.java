@@ -0,0 +1,200 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.async;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The asynchronous executor of a singleton container which runs the asynchronous invocations on virtual 
+ * threads, except for the ones which are submitted from within a platform thread scope (see 
+ * {@link PlatformThreadAsyncInterceptor}). Those are run by the platform thread executor of the deployment.
+ * <p>
+ *  A virtual thread which blocks while holding a monitor (for example, in synchronized bean or resource code)
+ *  pins its carrier thread. Invocations which hold the WRITE lock of a bean serialize all the other 
+ *  invocations on the bean, so they are run on platform threads, to keep a blocked WRITE invocation from 
+ *  also tying up one of the few carrier threads.
+ * </p>
+ * <p>
+ *  This executor doesn't own the executors it routes to. The lifecycle methods ({@link #shutdown()} and the
+ *  like) are passed on to the virtual thread executor, which is owned by the deployer.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class AsyncExecutorRouter extends AbstractExecutorService
+{
+
+   /**
+    * True while the current thread is within a platform thread scope
+    */
+   private static final ThreadLocal<Boolean> platformThreadScope = new ThreadLocal<Boolean>();
+
+   /**
+    * Runs the invocations on virtual threads
+    */
+   private final ExecutorService virtualThreadExecutor;
+
+   /**
+    * Runs the invocations which are submitted within a platform thread scope
+    */
+   private final ExecutorService platformThreadExecutor;
+
+   /**
+    * @param virtualThreadExecutor The executor which runs the invocations on virtual threads 
+    * @param platformThreadExecutor The executor which runs the invocations submitted within a platform thread scope
+    */
+   public AsyncExecutorRouter(ExecutorService virtualThreadExecutor, ExecutorService platformThreadExecutor)
+   {
+      if (virtualThreadExecutor == null || platformThreadExecutor == null)
+      {
+         throw new IllegalArgumentException("Neither the virtual thread executor nor the platform thread executor can be null while creating a "
+               + AsyncExecutorRouter.class.getSimpleName());
+      }
+      this.virtualThreadExecutor = virtualThreadExecutor;
+      this.platformThreadExecutor = platformThreadExecutor;
+   }
+
+   /**
+    * Marks the start of a platform thread scope on the current thread. Returns the previous state, which has
+    * to be passed to {@link #exitPlatformThreadScope(boolean)}
+    * 
+    * @return
+    */
+   static boolean enterPlatformThreadScope()
+   {
+      boolean previous = isInPlatformThreadScope();
+      platformThreadScope.set(Boolean.TRUE);
+      return previous;
+   }
+
+   /**
+    * Marks the end of a platform thread scope on the current thread
+    * 
+    * @param previous The value returned by the corresponding {@link #enterPlatformThreadScope()}
+    */
+   static void exitPlatformThreadScope(boolean previous)
+   {
+      if (previous)
+      {
+         platformThreadScope.set(Boolean.TRUE);
+      }
+      else
+      {
+         platformThreadScope.remove();
+      }
+   }
+
+   /**
+    * Returns true if the current thread is within a platform thread scope
+    */
+   static boolean isInPlatformThreadScope()
+   {
+      return Boolean.TRUE.equals(platformThreadScope.get());
+   }
+
+   /**
+    * Runs the passed <code>task</code> on the platform thread executor, if the current thread is within a 
+    * platform thread scope. Else runs it on a virtual thread.
+    * 
+    * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+    */
+   @Override
+   public void execute(Runnable task)
+   {
+      if (isInPlatformThreadScope())
+      {
+         this.platformThreadExecutor.execute(task);
+      }
+      else
+      {
+         this.virtualThreadExecutor.execute(task);
+      }
+   }
+
+   /**
+    * Returns the executor which runs the invocations submitted within a platform thread scope
+    * 
+    * @return
+    */
+   public ExecutorService getPlatformThreadExecutor()
+   {
+      return this.platformThreadExecutor;
+   }
+
+   /**
+    * Returns the executor which runs the invocations on virtual threads
+    * 
+    * @return
+    */
+   public ExecutorService getVirtualThreadExecutor()
+   {
+      return this.virtualThreadExecutor;
+   }
+
+   /**
+    * @see java.util.concurrent.ExecutorService#shutdown()
+    */
+   @Override
+   public void shutdown()
+   {
+      this.virtualThreadExecutor.shutdown();
+   }
+
+   /**
+    * @see java.util.concurrent.ExecutorService#shutdownNow()
+    */
+   @Override
+   public List<Runnable> shutdownNow()
+   {
+      return this.virtualThreadExecutor.shutdownNow();
+   }
+
+   /**
+    * @see java.util.concurrent.ExecutorService#isShutdown()
+    */
+   @Override
+   public boolean isShutdown()
+   {
+      return this.virtualThreadExecutor.isShutdown();
+   }
+
+   /**
+    * @see java.util.concurrent.ExecutorService#isTerminated()
+    */
+   @Override
+   public boolean isTerminated()
+   {
+      return this.virtualThreadExecutor.isTerminated();
+   }
+
+   /**
+    * @see java.util.concurrent.ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)
+    */
+   @Override
+   public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      return this.virtualThreadExecutor.awaitTermination(timeout, unit);
+   }
+}
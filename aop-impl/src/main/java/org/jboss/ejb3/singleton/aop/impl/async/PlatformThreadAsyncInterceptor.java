@@ -0,0 +1,83 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.async;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.joinpoint.Invocation;
+
+/**
+ * Wraps the asynchronous invocation interceptor of a method and runs it within a platform thread scope of
+ * the {@link AsyncExecutorRouter}. The asynchronous invocations on the method are hence run by the platform 
+ * thread executor, rather than on virtual threads. 
+ * <p>
+ *  Used for the {@link javax.ejb.LockType#WRITE} locked asynchronous methods of beans whose asynchronous
+ *  invocations are otherwise run on virtual threads.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class PlatformThreadAsyncInterceptor implements Interceptor
+{
+
+   /**
+    * The asynchronous invocation interceptor
+    */
+   private final Interceptor delegate;
+
+   /**
+    * @param delegate The asynchronous invocation interceptor
+    */
+   public PlatformThreadAsyncInterceptor(Interceptor delegate)
+   {
+      if (delegate == null)
+      {
+         throw new IllegalArgumentException("Interceptor cannot be null while creating a " + PlatformThreadAsyncInterceptor.class.getSimpleName());
+      }
+      this.delegate = delegate;
+   }
+
+   /**
+    * @see org.jboss.aop.advice.Interceptor#getName()
+    */
+   @Override
+   public String getName()
+   {
+      return this.delegate.getName();
+   }
+
+   /**
+    * @see org.jboss.aop.advice.Interceptor#invoke(org.jboss.aop.joinpoint.Invocation)
+    */
+   @Override
+   public Object invoke(Invocation invocation) throws Throwable
+   {
+      boolean previous = AsyncExecutorRouter.enterPlatformThreadScope();
+      try
+      {
+         return this.delegate.invoke(invocation);
+      }
+      finally
+      {
+         AsyncExecutorRouter.exitPlatformThreadScope(previous);
+      }
+   }
+}
@@ -0,0 +1,130 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.async;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Gives access to the virtual threads of the JVM, if it has any. The project is built against an older Java
+ * release, so the virtual thread APIs are looked up reflectively. 
+ *
+ * @version $Revision: $
+ */
+public class VirtualThreads
+{
+
+   /** Logger */
+   private static Logger logger = Logger.getLogger(VirtualThreads.class);
+
+   /**
+    * <code>java.util.concurrent.Executors#newVirtualThreadPerTaskExecutor()</code>. Null if the JVM doesn't 
+    * support virtual threads
+    */
+   private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR;
+
+   /**
+    * <code>java.lang.Thread#isVirtual()</code>. Null if the JVM doesn't support virtual threads
+    */
+   private static final Method IS_VIRTUAL;
+
+   static
+   {
+      Method newExecutor = null;
+      Method isVirtual = null;
+      try
+      {
+         newExecutor = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         isVirtual = Thread.class.getMethod("isVirtual");
+      }
+      catch (NoSuchMethodException nsme)
+      {
+         logger.debug("Virtual threads aren't supported by this JVM");
+         newExecutor = null;
+         isVirtual = null;
+      }
+      NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = newExecutor;
+      IS_VIRTUAL = isVirtual;
+   }
+
+   private VirtualThreads()
+   {
+      // no instances
+   }
+
+   /**
+    * Returns true if the JVM supports virtual threads
+    * 
+    * @return
+    */
+   public static boolean isSupported()
+   {
+      return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+   }
+
+   /**
+    * Returns an executor which runs each task on a new virtual thread. Returns null if the JVM doesn't
+    * support virtual threads.
+    * 
+    * @return
+    */
+   public static ExecutorService newVirtualThreadPerTaskExecutor()
+   {
+      if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null)
+      {
+         return null;
+      }
+      try
+      {
+         return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+      }
+      catch (Exception e)
+      {
+         logger.warn("Could not create a virtual thread executor", e);
+         return null;
+      }
+   }
+
+   /**
+    * Returns true if the passed <code>thread</code> is a virtual thread
+    * 
+    * @param thread The thread
+    * @return
+    */
+   public static boolean isVirtual(Thread thread)
+   {
+      if (IS_VIRTUAL == null || thread == null)
+      {
+         return false;
+      }
+      try
+      {
+         return (Boolean) IS_VIRTUAL.invoke(thread);
+      }
+      catch (Exception e)
+      {
+         return false;
+      }
+   }
+}
@@ -0,0 +1,215 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.ejb3.singleton.spi.annotation.AdaptiveAdmission;
+
+/**
+ * Decides whether a caller which can't get the bean lock right away, is allowed to wait for it 
+ * (see {@link AdaptiveAdmission}).
+ * <p>
+ *  The controller keeps track of the number of callers which are currently waiting for the lock and of an 
+ *  exponentially weighted moving average of the time they wait. The bean is considered overloaded as long as 
+ *  either of them exceeds its budget. While overloaded, only the callers which get the lock without waiting are 
+ *  admitted. Those admissions bring the moving average down again, once the bean has caught up.
+ * </p>
+ * <p>
+ *  The budgets are checked without any coordination between the callers, so the number of waiting callers 
+ *  can briefly overshoot the budget by the number of callers arriving at the same time.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class AdmissionController
+{
+
+   /**
+    * The weight of a new lock wait time in the moving average, expressed as a right shift (i.e. 1/8)
+    */
+   private static final int AVERAGE_WEIGHT_SHIFT = 3;
+
+   /**
+    * The maximum number of waiting callers, 0 if not limited
+    */
+   private final int maxWaitingCallers;
+
+   /**
+    * The budget for the moving average of the lock wait time (in nano seconds), 0 if none
+    */
+   private final long maxLockWaitNanos;
+
+   /**
+    * The number of callers currently waiting for the lock
+    */
+   private final AtomicInteger waitingCallers = new AtomicInteger();
+
+   /**
+    * The moving average of the lock wait time (in nano seconds)
+    */
+   private final AtomicLong averageLockWaitNanos = new AtomicLong();
+
+   /**
+    * The number of rejected callers
+    */
+   private final AtomicLong rejectedCount = new AtomicLong();
+
+   /**
+    * Creates an {@link AdmissionController} with the budgets of the passed {@link AdaptiveAdmission}
+    * 
+    * @param adaptiveAdmission The admission budgets
+    */
+   public AdmissionController(AdaptiveAdmission adaptiveAdmission)
+   {
+      this(adaptiveAdmission.maxWaitingCallers(), adaptiveAdmission.maxLockWaitMillis(), TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * @param maxWaitingCallers The maximum number of callers waiting for the lock. A value less than 1 means no limit.
+    * @param maxLockWait The budget for the moving average of the lock wait time. A value less than 1 means no budget.
+    * @param unit The unit of <code>maxLockWait</code>
+    */
+   public AdmissionController(int maxWaitingCallers, long maxLockWait, TimeUnit unit)
+   {
+      if (unit == null)
+      {
+         throw new IllegalArgumentException("Time unit cannot be null");
+      }
+      this.maxWaitingCallers = maxWaitingCallers < 1 ? 0 : maxWaitingCallers;
+      this.maxLockWaitNanos = maxLockWait < 1 ? 0 : unit.toNanos(maxLockWait);
+   }
+
+   /**
+    * Returns true if either of the budgets is exceeded, in which case callers which can't get the lock right away
+    * have to be rejected
+    * @return
+    */
+   public boolean isOverloaded()
+   {
+      if (this.maxWaitingCallers > 0 && this.waitingCallers.get() >= this.maxWaitingCallers)
+      {
+         return true;
+      }
+      return this.maxLockWaitNanos > 0 && this.averageLockWaitNanos.get() > this.maxLockWaitNanos;
+   }
+
+   /**
+    * Has to be called when a caller starts waiting for the lock. Every call has to be followed by a call
+    * to {@link #waitEnded(long)} or {@link #waitEnded()}.
+    */
+   public void waitStarted()
+   {
+      this.waitingCallers.incrementAndGet();
+   }
+
+   /**
+    * Has to be called when a caller stops waiting for the lock, whether or not it got the lock
+    * 
+    * @param waitNanos The time (in nano seconds) the caller waited
+    */
+   public void waitEnded(long waitNanos)
+   {
+      this.waitingCallers.decrementAndGet();
+      this.recordLockWait(waitNanos);
+   }
+
+   /**
+    * Has to be called when a caller stops waiting for the lock, if the time it waited isn't known (for example
+    * because it includes the time spent on running the invocation). The moving average of the lock wait time
+    * is left unchanged.
+    */
+   public void waitEnded()
+   {
+      this.waitingCallers.decrementAndGet();
+   }
+
+   /**
+    * Has to be called when a caller is admitted, while the bean is overloaded, since it got the lock without waiting
+    */
+   public void admittedWithoutWait()
+   {
+      this.recordLockWait(0);
+   }
+
+   /**
+    * Has to be called when a caller is rejected
+    */
+   public void rejected()
+   {
+      this.rejectedCount.incrementAndGet();
+   }
+
+   /**
+    * Returns the number of callers currently waiting for the lock
+    * @return
+    */
+   public int getWaitingCallers()
+   {
+      return this.waitingCallers.get();
+   }
+
+   /**
+    * Returns the moving average of the lock wait time, in nano seconds
+    * @return
+    */
+   public long getAverageLockWaitNanos()
+   {
+      return this.averageLockWaitNanos.get();
+   }
+
+   /**
+    * Returns the number of callers rejected so far
+    * @return
+    */
+   public long getRejectedCount()
+   {
+      return this.rejectedCount.get();
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "maxWaitingCallers=" + this.maxWaitingCallers + ", maxLockWait="
+            + TimeUnit.NANOSECONDS.toMillis(this.maxLockWaitNanos) + "ms";
+   }
+
+   private void recordLockWait(long waitNanos)
+   {
+      if (this.maxLockWaitNanos == 0)
+      {
+         return;
+      }
+      long average;
+      do
+      {
+         average = this.averageLockWaitNanos.get();
+      }
+      while (!this.averageLockWaitNanos.compareAndSet(average, average
+            + ((waitNanos - average) >> AVERAGE_WEIGHT_SHIFT)));
+   }
+}
@@ -0,0 +1,145 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency;
+
+import javax.ejb.AccessTimeout;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+
+/**
+ * The effective (i.e. resolved from metadata, annotations and the defaults) container managed 
+ * concurrency attributes of a bean method. Instances are immutable.
+ *
+ * @version $Revision: $
+ */
+public final class ConcurrencyAttributes
+{
+
+   /**
+    * The effective lock. Never null
+    */
+   private final Lock lock;
+
+   /**
+    * The effective access timeout. Null if neither the method nor the bean specify one
+    */
+   private final AccessTimeout accessTimeout;
+
+   /**
+    * The access timeout in milli seconds, -1 for wait indefinitely. Only valid if {@link #accessTimeout} 
+    * isn't null
+    */
+   private final long accessTimeoutMillis;
+
+   /**
+    * True if the invocations on the method are run in batches, while holding the WRITE lock
+    */
+   private final boolean writeBatched;
+
+   /**
+    * @param lock The effective lock
+    * @param accessTimeout The effective access timeout, null if none specified
+    */
+   public ConcurrencyAttributes(Lock lock, AccessTimeout accessTimeout)
+   {
+      this(lock, accessTimeout, false);
+   }
+
+   /**
+    * @param lock The effective lock
+    * @param accessTimeout The effective access timeout, null if none specified
+    * @param writeBatched True if the invocations on the method are run in batches. Ignored unless the 
+    *           <code>lock</code> is {@link LockType#WRITE}
+    */
+   public ConcurrencyAttributes(Lock lock, AccessTimeout accessTimeout, boolean writeBatched)
+   {
+      if (lock == null)
+      {
+         throw new IllegalArgumentException("Lock cannot be null");
+      }
+      this.lock = lock;
+      this.accessTimeout = accessTimeout;
+      this.writeBatched = writeBatched && lock.value() == LockType.WRITE;
+      if (accessTimeout == null)
+      {
+         this.accessTimeoutMillis = -1;
+      }
+      else if (accessTimeout.value() < 0)
+      {
+         // wait indefinitely
+         this.accessTimeoutMillis = -1;
+      }
+      else
+      {
+         this.accessTimeoutMillis = accessTimeout.unit().toMillis(accessTimeout.value());
+      }
+   }
+
+   public Lock getLock()
+   {
+      return this.lock;
+   }
+
+   public LockType getLockType()
+   {
+      return this.lock.value();
+   }
+
+   /**
+    * @return The effective {@link AccessTimeout}, null if neither the method nor the bean specify one
+    */
+   public AccessTimeout getAccessTimeout()
+   {
+      return this.accessTimeout;
+   }
+
+   /**
+    * Returns the access timeout in milli seconds (-1 meaning wait indefinitely), or the passed 
+    * <code>defaultAccessTimeout</code> if no access timeout is specified
+    * 
+    * @param defaultAccessTimeout The access timeout to use, if none is specified (milli seconds)
+    * @return
+    */
+   public long getAccessTimeoutMillis(long defaultAccessTimeout)
+   {
+      return this.accessTimeout == null ? defaultAccessTimeout : this.accessTimeoutMillis;
+   }
+
+   /**
+    * Returns true if the invocations on the method are run in batches, while holding the WRITE lock
+    * (see {@link org.jboss.ejb3.singleton.spi.annotation.BatchedWrite})
+    * 
+    * @return
+    */
+   public boolean isWriteBatched()
+   {
+      return this.writeBatched;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "[lock=" + this.lock.value() + ", accessTimeout="
+            + (this.accessTimeout == null ? "<default>" : this.accessTimeoutMillis + "ms")
+            + (this.writeBatched ? ", batched" : "") + "]";
+   }
+}
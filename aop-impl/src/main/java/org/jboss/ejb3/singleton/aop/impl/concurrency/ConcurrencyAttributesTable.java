@@ -0,0 +1,358 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.ejb.AccessTimeout;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.ejb.TransactionManagement;
+import javax.ejb.TransactionManagementType;
+
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.ejb3.singleton.impl.cluster.LockClassifier;
+import org.jboss.ejb3.singleton.spi.annotation.BatchedWrite;
+import org.jboss.logging.Logger;
+
+/**
+ * A table of the effective {@link ConcurrencyAttributes} of the methods of a singleton bean. 
+ * <p>
+ *  The attributes of the methods, known at the time of construction, are resolved once (through the 
+ *  container, and hence through the metadata bridges) and the table of those is never modified
+ *  afterwards. Methods which weren't known at construction are resolved on first lookup.
+ * </p>
+ * <p>
+ *  The {@link Lock} of a method is resolved as follows:
+ *  <ul>
+ *    <li>The {@link Lock} of the method, as specified through metadata or annotation on the method</li>
+ *    <li>If the method is declared on a superclass of the bean class, the {@link Lock} on that superclass
+ *       or {@link LockType#WRITE} if there's none (EJB3.1 spec, section 4.8.5.5)</li>
+ *    <li>Else the {@link Lock} of the bean or {@link LockType#WRITE} if there's none</li>
+ *  </ul>
+ *  and similarly the {@link AccessTimeout} (which is null if not specified). Methods of the business interfaces
+ *  resolve to the attributes of the implementing bean method.
+ * </p>
+ * <p>
+ *  A WRITE method marked {@link BatchedWrite @BatchedWrite} is write batched, if it runs outside of a 
+ *  container managed transaction. 
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class ConcurrencyAttributesTable implements LockClassifier
+{
+
+   /** Logger */
+   private static Logger logger = Logger.getLogger(ConcurrencyAttributesTable.class);
+
+   /**
+    * Shared {@link Lock} instances
+    */
+   private static final Lock READ_LOCK = new LockImpl(LockType.READ);
+
+   private static final Lock WRITE_LOCK = new LockImpl(LockType.WRITE);
+
+   /**
+    * The container of the bean
+    */
+   private final EJBContainer container;
+
+   /**
+    * Attributes of the known methods, keyed by the {@link Method} instances passed during construction
+    */
+   private final Map<Method, ConcurrencyAttributes> byIdentity;
+
+   /**
+    * Attributes of the known methods, keyed by method equality
+    */
+   private final Map<Method, ConcurrencyAttributes> byEquality;
+
+   /**
+    * Attributes of methods which weren't known during construction
+    */
+   private final ConcurrentMap<Method, ConcurrencyAttributes> lateResolved = new ConcurrentHashMap<Method, ConcurrencyAttributes>();
+
+   /**
+    * Creates the table for the passed methods of the bean of the passed container
+    * 
+    * @param container The container of the bean
+    * @param methods The methods which are known to be invoked on the bean
+    */
+   public ConcurrencyAttributesTable(EJBContainer container, Collection<Method> methods)
+   {
+      if (container == null)
+      {
+         throw new IllegalArgumentException("Container cannot be null");
+      }
+      this.container = container;
+      Map<Method, ConcurrencyAttributes> byIdentity = new IdentityHashMap<Method, ConcurrencyAttributes>();
+      Map<Method, ConcurrencyAttributes> byEquality = new HashMap<Method, ConcurrencyAttributes>();
+      if (methods != null)
+      {
+         for (Method method : methods)
+         {
+            // equal Method instances share the attributes
+            ConcurrencyAttributes attributes = byEquality.get(method);
+            if (attributes == null)
+            {
+               attributes = this.resolve(method);
+               byEquality.put(method, attributes);
+            }
+            byIdentity.put(method, attributes);
+         }
+      }
+      this.byIdentity = Collections.unmodifiableMap(byIdentity);
+      this.byEquality = Collections.unmodifiableMap(byEquality);
+      if (logger.isTraceEnabled())
+      {
+         logger.trace("Concurrency attributes of bean " + container.getEjbName() + ": " + this.byEquality);
+      }
+   }
+
+   /**
+    * Returns the effective concurrency attributes of the passed method
+    * 
+    * @param method A method of the bean class or one of its business interfaces
+    * @return
+    */
+   public ConcurrencyAttributes getConcurrencyAttributes(Method method)
+   {
+      ConcurrencyAttributes attributes = this.getKnownConcurrencyAttributes(method);
+      if (attributes != null)
+      {
+         return attributes;
+      }
+      attributes = this.lateResolved.get(method);
+      if (attributes != null)
+      {
+         return attributes;
+      }
+      attributes = this.resolve(method);
+      ConcurrencyAttributes existing = this.lateResolved.putIfAbsent(method, attributes);
+      return existing == null ? attributes : existing;
+   }
+
+   /**
+    * Returns the effective concurrency attributes of the passed method, if the method was known at
+    * the time of construction of this table. Returns null otherwise.
+    * 
+    * @param method A method of the bean class or one of its business interfaces
+    * @return
+    */
+   public ConcurrencyAttributes getKnownConcurrencyAttributes(Method method)
+   {
+      ConcurrencyAttributes attributes = this.byIdentity.get(method);
+      if (attributes != null)
+      {
+         return attributes;
+      }
+      return this.byEquality.get(method);
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.cluster.LockClassifier#getLockType(java.lang.reflect.Method)
+    */
+   @Override
+   public LockType getLockType(Method method)
+   {
+      return this.getConcurrencyAttributes(method).getLockType();
+   }
+
+   /**
+    * Returns the effective access timeout of the passed method, or 
+    * {@link StripedLockConcurrencyInterceptor#DEFAULT_ACCESS_TIMEOUT} if none is specified
+    * 
+    * @see org.jboss.ejb3.singleton.impl.cluster.LockClassifier#getAccessTimeoutMillis(java.lang.reflect.Method)
+    */
+   @Override
+   public long getAccessTimeoutMillis(Method method)
+   {
+      return this.getConcurrencyAttributes(method).getAccessTimeoutMillis(
+            StripedLockConcurrencyInterceptor.DEFAULT_ACCESS_TIMEOUT);
+   }
+
+   private ConcurrencyAttributes resolve(Method method)
+   {
+      Class<?> beanClass = this.container.getBeanClass();
+      Class<?> declaringClass = method.getDeclaringClass();
+      if (beanClass != null && declaringClass.isInterface())
+      {
+         // resolve to the implementing method of the bean
+         try
+         {
+            method = beanClass.getMethod(method.getName(), method.getParameterTypes());
+            declaringClass = method.getDeclaringClass();
+         }
+         catch (NoSuchMethodException nsme)
+         {
+            // let the container resolve whatever applies to the interface method
+         }
+      }
+      boolean superClassMethod = beanClass != null && declaringClass != beanClass
+            && declaringClass.isAssignableFrom(beanClass);
+
+      Lock lock = this.container.getAnnotation(Lock.class, method);
+      if (lock == null)
+      {
+         lock = this.getClassLevelAnnotation(Lock.class, declaringClass, superClassMethod);
+      }
+      AccessTimeout accessTimeout = this.container.getAnnotation(AccessTimeout.class, method);
+      if (accessTimeout == null)
+      {
+         accessTimeout = this.getClassLevelAnnotation(AccessTimeout.class, declaringClass, superClassMethod);
+      }
+      // share the Lock instances (EJB3.1 spec, section 4.8.5.5: default lock type is WRITE)
+      Lock effectiveLock = (lock == null || lock.value() == LockType.WRITE) ? WRITE_LOCK : READ_LOCK;
+      boolean writeBatched = effectiveLock == WRITE_LOCK && this.isWriteBatchingApplicable(method, declaringClass, superClassMethod);
+      return new ConcurrencyAttributes(effectiveLock, accessTimeout, writeBatched);
+   }
+
+   /**
+    * Returns true if the passed (WRITE) <code>method</code> is marked {@link BatchedWrite} and can be write batched.
+    * A batched invocation runs on the thread of another caller, so the method has to run outside of a 
+    * container managed transaction.
+    */
+   private boolean isWriteBatchingApplicable(Method method, Class<?> declaringClass, boolean superClassMethod)
+   {
+      if (this.container.getAnnotation(BatchedWrite.class, method) == null)
+      {
+         return false;
+      }
+      TransactionManagement txManagement = this.container.getAnnotation(TransactionManagement.class);
+      if (txManagement != null && txManagement.value() == TransactionManagementType.BEAN)
+      {
+         logger.warn("Ignoring @" + BatchedWrite.class.getSimpleName() + " on method " + method + " of bean "
+               + this.container.getEjbName() + " since the bean uses bean managed transactions, which can't be "
+               + "run on the thread of another caller");
+         return false;
+      }
+      TransactionAttribute txAttribute = this.container.getAnnotation(TransactionAttribute.class, method);
+      if (txAttribute == null)
+      {
+         txAttribute = this.getClassLevelAnnotation(TransactionAttribute.class, declaringClass, superClassMethod);
+      }
+      TransactionAttributeType txType = txAttribute == null ? TransactionAttributeType.REQUIRED : txAttribute.value();
+      if (txType != TransactionAttributeType.NOT_SUPPORTED && txType != TransactionAttributeType.NEVER)
+      {
+         logger.warn("Ignoring @" + BatchedWrite.class.getSimpleName() + " on method " + method + " of bean "
+               + this.container.getEjbName() + " since it doesn't run outside of a container managed transaction "
+               + "(transaction attribute " + txType + ")");
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Returns the class level annotation which applies to a method declared on <code>declaringClass</code>
+    */
+   private <A extends Annotation> A getClassLevelAnnotation(Class<A> annotationType, Class<?> declaringClass,
+         boolean superClassMethod)
+   {
+      if (superClassMethod)
+      {
+         // a class level annotation on the bean class doesn't apply to methods of its superclasses
+         return declaringClass.getAnnotation(annotationType);
+      }
+      return this.container.getAnnotation(annotationType);
+   }
+
+   /**
+    * Implementation of {@link Lock} annotation
+    */
+   private static class LockImpl implements Lock
+   {
+      private final LockType lockType;
+
+      LockImpl(LockType lockType)
+      {
+         this.lockType = lockType;
+      }
+
+      /**
+       * @see javax.ejb.Lock#value()
+       */
+      @Override
+      public LockType value()
+      {
+         return this.lockType;
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#annotationType()
+       */
+      @Override
+      public Class<? extends Annotation> annotationType()
+      {
+         return Lock.class;
+      }
+
+      /**
+       * Compares as specified by {@link Annotation#equals(Object)}, so that this instance equals any 
+       * {@link Lock} with the same {@link #value()}, including the ones created by the JVM
+       * 
+       * @see java.lang.annotation.Annotation#equals(java.lang.Object)
+       */
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+         {
+            return true;
+         }
+         if (!(obj instanceof Lock))
+         {
+            return false;
+         }
+         return this.lockType == ((Lock) obj).value();
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#hashCode()
+       */
+      @Override
+      public int hashCode()
+      {
+         // sum of (127 * member name hash) ^ member value hash, of all members
+         return (127 * "value".hashCode()) ^ this.lockType.hashCode();
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return "@" + Lock.class.getName() + "(value=" + this.lockType + ")";
+      }
+   }
+}
@@ -0,0 +1,632 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ejb.ConcurrentAccessException;
+import javax.ejb.LockType;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.aop.joinpoint.MethodInvocation;
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.ejb3.singleton.spi.annotation.ContentionProfiling;
+
+/**
+ * Records the contention on the bean lock of a singleton bean which is marked {@link ContentionProfiling @ContentionProfiling}.
+ * <p>
+ *  The profiler doesn't have access to the bean lock itself. Instead, it provides two interceptors which are placed
+ *  around the container managed concurrency interceptor in the interceptor chain: the {@link #getWaitInterceptor() wait interceptor}
+ *  is invoked before the lock is acquired and the {@link #getAcquiredInterceptor() acquired interceptor} once the lock
+ *  has been acquired. The time between the two is the time spent waiting for the lock. While a WRITE locked method is 
+ *  being invoked, the profiler remembers it as the holder of the lock.
+ * </p>
+ * <p>
+ *  The wait of an invocation is tracked per thread, except for {@link ConcurrencyAttributes#isWriteBatched() write batched}
+ *  methods: a batched invocation may be run on the thread of another caller (see {@link WriteCombiner}), so its 
+ *  wait is tracked by invocation instead.
+ * </p>
+ * <p>
+ *  The recorded waits are retained for the configured window (or until the configured maximum number of waits
+ *  is reached) and are aggregated into {@link Hotspot hotspots} on request.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class ContentionProfiler implements ContentionProfilerMBean
+{
+
+   /**
+    * Holder name reported when no WRITE locked method was holding the lock, at the time the invocation
+    * started waiting (i.e. the invocation was blocked by READ locked methods)
+    */
+   public static final String NO_WRITE_HOLDER = "<no WRITE lock holder>";
+
+   /**
+    * The container of the bean
+    */
+   private final EJBContainer container;
+
+   /**
+    * Length of the sliding window in milli seconds
+    */
+   private final long windowMillis;
+
+   /**
+    * Waits shorter than this are not recorded
+    */
+   private final long thresholdNanos;
+
+   /**
+    * Max number of retained waits
+    */
+   private final int maxEvents;
+
+   /**
+    * The recorded waits, oldest first
+    */
+   private final Queue<ContentionEvent> events = new ConcurrentLinkedQueue<ContentionEvent>();
+
+   /**
+    * Size of {@link #events} (which is a O(n) operation on the queue)
+    */
+   private final AtomicInteger eventCount = new AtomicInteger();
+
+   /**
+    * Number of invocations currently waiting for the lock
+    */
+   private final AtomicInteger waiting = new AtomicInteger();
+
+   /**
+    * The WRITE locked method currently holding the lock. Null if the lock is free or held by READ locked
+    * methods
+    */
+   private volatile Method writeHolder;
+
+   /**
+    * The concurrency attributes of the bean methods
+    */
+   private final ConcurrencyAttributesTable concurrencyAttributes;
+
+   /**
+    * The wait of the current thread, which is in progress 
+    */
+   private final ThreadLocal<Wait> currentWait = new ThreadLocal<Wait>();
+
+   /**
+    * The waits of write batched invocations, which are in progress
+    */
+   private final ConcurrentMap<InvocationKey, Wait> batchedWaits = new ConcurrentHashMap<InvocationKey, Wait>();
+
+   private final Interceptor waitInterceptor = new WaitInterceptor();
+
+   private final Interceptor acquiredInterceptor = new AcquiredInterceptor();
+
+   /**
+    * Creates a {@link ContentionProfiler} for the passed container, as configured by the 
+    * <code>contentionProfiling</code>
+    * 
+    * @param container The container of the bean
+    * @param contentionProfiling The profiler configuration
+    */
+   public ContentionProfiler(EJBContainer container, ContentionProfiling contentionProfiling)
+   {
+      this(container, new ConcurrencyAttributesTable(container, null), contentionProfiling.windowSeconds(),
+            contentionProfiling.thresholdMillis(), contentionProfiling.maxEvents());
+   }
+
+   /**
+    * Creates a {@link ContentionProfiler} for the passed container, as configured by the 
+    * <code>contentionProfiling</code>
+    * 
+    * @param container The container of the bean
+    * @param concurrencyAttributes The concurrency attributes of the bean methods
+    * @param contentionProfiling The profiler configuration
+    */
+   public ContentionProfiler(EJBContainer container, ConcurrencyAttributesTable concurrencyAttributes,
+         ContentionProfiling contentionProfiling)
+   {
+      this(container, concurrencyAttributes, contentionProfiling.windowSeconds(), contentionProfiling
+            .thresholdMillis(), contentionProfiling.maxEvents());
+   }
+
+   /**
+    * Creates a {@link ContentionProfiler} for the passed container
+    * 
+    * @param container The container of the bean
+    * @param windowSeconds Length of the sliding window, in seconds
+    * @param thresholdMillis Waits shorter than this (milli seconds) are not recorded
+    * @param maxEvents Max number of waits to retain
+    */
+   public ContentionProfiler(EJBContainer container, int windowSeconds, long thresholdMillis, int maxEvents)
+   {
+      this(container, new ConcurrencyAttributesTable(container, null), windowSeconds, thresholdMillis, maxEvents);
+   }
+
+   /**
+    * Creates a {@link ContentionProfiler} for the passed container
+    * 
+    * @param container The container of the bean
+    * @param concurrencyAttributes The concurrency attributes of the bean methods
+    * @param windowSeconds Length of the sliding window, in seconds
+    * @param thresholdMillis Waits shorter than this (milli seconds) are not recorded
+    * @param maxEvents Max number of waits to retain
+    */
+   public ContentionProfiler(EJBContainer container, ConcurrencyAttributesTable concurrencyAttributes,
+         int windowSeconds, long thresholdMillis, int maxEvents)
+   {
+      if (container == null || concurrencyAttributes == null)
+      {
+         throw new IllegalArgumentException("Container and concurrency attributes cannot be null");
+      }
+      if (windowSeconds < 1 || maxEvents < 1)
+      {
+         throw new IllegalArgumentException("Window (" + windowSeconds + " seconds) and max events (" + maxEvents
+               + ") of contention profiler for bean " + container.getEjbName() + " must be positive");
+      }
+      this.container = container;
+      this.concurrencyAttributes = concurrencyAttributes;
+      this.windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+      this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, thresholdMillis));
+      this.maxEvents = maxEvents;
+   }
+
+   /**
+    * Returns the interceptor which is expected to be placed (immediately) before the container managed
+    * concurrency interceptor
+    * @return
+    */
+   public Interceptor getWaitInterceptor()
+   {
+      return this.waitInterceptor;
+   }
+
+   /**
+    * Returns the interceptor which is expected to be placed (immediately) after the container managed
+    * concurrency interceptor
+    * @return
+    */
+   public Interceptor getAcquiredInterceptor()
+   {
+      return this.acquiredInterceptor;
+   }
+
+   /**
+    * Returns (at most) <code>topN</code> hotspots within the window, ordered by the total wait time
+    * 
+    * @param topN
+    * @return
+    */
+   public List<Hotspot> getHotspots(int topN)
+   {
+      Map<String, Hotspot> hotspots = new HashMap<String, Hotspot>();
+      long windowStart = System.currentTimeMillis() - this.windowMillis;
+      for (ContentionEvent event : this.events)
+      {
+         if (event.timestamp < windowStart)
+         {
+            continue;
+         }
+         String key = event.waiter + "|" + event.holder;
+         Hotspot hotspot = hotspots.get(key);
+         if (hotspot == null)
+         {
+            hotspot = new Hotspot(event.waiter, event.holder);
+            hotspots.put(key, hotspot);
+         }
+         hotspot.add(event);
+      }
+      List<Hotspot> sorted = new ArrayList<Hotspot>(hotspots.values());
+      Collections.sort(sorted, new Comparator<Hotspot>()
+      {
+         @Override
+         public int compare(Hotspot o1, Hotspot o2)
+         {
+            long diff = o2.totalWaitNanos - o1.totalWaitNanos;
+            return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+         }
+      });
+      return sorted.size() > topN ? new ArrayList<Hotspot>(sorted.subList(0, Math.max(0, topN))) : sorted;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.aop.impl.concurrency.ContentionProfilerMBean#getWindowSeconds()
+    */
+   @Override
+   public int getWindowSeconds()
+   {
+      return (int) TimeUnit.MILLISECONDS.toSeconds(this.windowMillis);
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.aop.impl.concurrency.ContentionProfilerMBean#getContendedInvocationCount()
+    */
+   @Override
+   public long getContendedInvocationCount()
+   {
+      long count = 0;
+      for (Hotspot hotspot : this.getHotspots(Integer.MAX_VALUE))
+      {
+         count += hotspot.count;
+      }
+      return count;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.aop.impl.concurrency.ContentionProfilerMBean#getAccessTimeoutCount()
+    */
+   @Override
+   public long getAccessTimeoutCount()
+   {
+      long count = 0;
+      for (Hotspot hotspot : this.getHotspots(Integer.MAX_VALUE))
+      {
+         count += hotspot.accessTimeouts;
+      }
+      return count;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.aop.impl.concurrency.ContentionProfilerMBean#listHotspots(int)
+    */
+   @Override
+   public String listHotspots(int topN)
+   {
+      StringBuilder sb = new StringBuilder();
+      for (Hotspot hotspot : this.getHotspots(topN))
+      {
+         sb.append(hotspot).append('\n');
+      }
+      return sb.toString();
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.aop.impl.concurrency.ContentionProfilerMBean#reset()
+    */
+   @Override
+   public void reset()
+   {
+      while (this.events.poll() != null)
+      {
+         this.eventCount.decrementAndGet();
+      }
+   }
+
+   private void record(Wait wait, boolean timedOut)
+   {
+      long waitNanos = System.nanoTime() - wait.startTime;
+      if (!timedOut && waitNanos < this.thresholdNanos)
+      {
+         return;
+      }
+      String holder = wait.holder == null ? NO_WRITE_HOLDER : toString(wait.holder);
+      this.events.offer(new ContentionEvent(toString(wait.method), holder, waitNanos, wait.queueDepth, timedOut));
+      if (this.eventCount.incrementAndGet() > this.maxEvents)
+      {
+         // discard the oldest
+         if (this.events.poll() != null)
+         {
+            this.eventCount.decrementAndGet();
+         }
+      }
+   }
+
+   private static String toString(Method method)
+   {
+      return method.getDeclaringClass().getSimpleName() + "." + method.getName();
+   }
+
+   /**
+    * Placed before the container managed concurrency interceptor. Starts the wait and records it
+    * if the lock couldn't be acquired
+    */
+   private class WaitInterceptor implements Interceptor
+   {
+      /**
+       * @see org.jboss.aop.advice.Interceptor#getName()
+       */
+      @Override
+      public String getName()
+      {
+         return ContentionProfiler.class.getName() + ".WaitInterceptor";
+      }
+
+      /**
+       * @see org.jboss.aop.advice.Interceptor#invoke(org.jboss.aop.joinpoint.Invocation)
+       */
+      @Override
+      public Object invoke(Invocation invocation) throws Throwable
+      {
+         Method method = ((MethodInvocation) invocation).getActualMethod();
+         Wait previous = currentWait.get();
+         Wait wait = new Wait(invocation, method, writeHolder, waiting.getAndIncrement());
+         currentWait.set(wait);
+         InvocationKey batchedKey = null;
+         if (concurrencyAttributes.getConcurrencyAttributes(method).isWriteBatched())
+         {
+            batchedKey = new InvocationKey(invocation);
+            batchedWaits.put(batchedKey, wait);
+         }
+         try
+         {
+            return invocation.invokeNext();
+         }
+         catch (ConcurrentAccessException cae)
+         {
+            if (!wait.acquired)
+            {
+               record(wait, true);
+            }
+            throw cae;
+         }
+         finally
+         {
+            if (!wait.acquired)
+            {
+               waiting.decrementAndGet();
+            }
+            if (batchedKey != null)
+            {
+               batchedWaits.remove(batchedKey);
+            }
+            currentWait.set(previous);
+         }
+      }
+   }
+
+   /**
+    * Placed after the container managed concurrency interceptor. Ends the wait and tracks the 
+    * holder of the WRITE lock
+    */
+   private class AcquiredInterceptor implements Interceptor
+   {
+      /**
+       * @see org.jboss.aop.advice.Interceptor#getName()
+       */
+      @Override
+      public String getName()
+      {
+         return ContentionProfiler.class.getName() + ".AcquiredInterceptor";
+      }
+
+      /**
+       * @see org.jboss.aop.advice.Interceptor#invoke(org.jboss.aop.joinpoint.Invocation)
+       */
+      @Override
+      public Object invoke(Invocation invocation) throws Throwable
+      {
+         Wait wait = currentWait.get();
+         if ((wait == null || wait.invocation != invocation) && !batchedWaits.isEmpty())
+         {
+            // a batched invocation, run on the thread of another caller
+            wait = batchedWaits.get(new InvocationKey(invocation));
+         }
+         if (wait == null || wait.acquired)
+         {
+            // not preceded by the wait interceptor
+            return invocation.invokeNext();
+         }
+         wait.acquired = true;
+         waiting.decrementAndGet();
+         record(wait, false);
+         if (concurrencyAttributes.getConcurrencyAttributes(wait.method).getLockType() != LockType.WRITE)
+         {
+            return invocation.invokeNext();
+         }
+         Method previousHolder = writeHolder;
+         writeHolder = wait.method;
+         try
+         {
+            return invocation.invokeNext();
+         }
+         finally
+         {
+            writeHolder = previousHolder;
+         }
+      }
+   }
+
+   /**
+    * A wait for the lock, which is in progress
+    */
+   private static class Wait
+   {
+      private final Invocation invocation;
+
+      private final Method method;
+
+      private final Method holder;
+
+      private final int queueDepth;
+
+      private final long startTime = System.nanoTime();
+
+      /**
+       * Set by the thread which runs the invocation, which isn't necessarily the waiting thread
+       */
+      private volatile boolean acquired;
+
+      Wait(Invocation invocation, Method method, Method holder, int queueDepth)
+      {
+         this.invocation = invocation;
+         this.method = method;
+         this.holder = holder;
+         this.queueDepth = queueDepth;
+      }
+   }
+
+   /**
+    * Identifies an invocation by identity
+    */
+   private static class InvocationKey
+   {
+      private final Invocation invocation;
+
+      InvocationKey(Invocation invocation)
+      {
+         this.invocation = invocation;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return System.identityHashCode(this.invocation);
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         return obj instanceof InvocationKey && ((InvocationKey) obj).invocation == this.invocation;
+      }
+   }
+
+   /**
+    * A recorded wait
+    */
+   private static class ContentionEvent
+   {
+      private final long timestamp = System.currentTimeMillis();
+
+      private final String waiter;
+
+      private final String holder;
+
+      private final long waitNanos;
+
+      private final int queueDepth;
+
+      private final boolean timedOut;
+
+      ContentionEvent(String waiter, String holder, long waitNanos, int queueDepth, boolean timedOut)
+      {
+         this.waiter = waiter;
+         this.holder = holder;
+         this.waitNanos = waitNanos;
+         this.queueDepth = queueDepth;
+         this.timedOut = timedOut;
+      }
+   }
+
+   /**
+    * The aggregated waits of a method, for a given lock holder
+    */
+   public static class Hotspot
+   {
+      private final String waiter;
+
+      private final String holder;
+
+      private long count;
+
+      private long accessTimeouts;
+
+      private long totalWaitNanos;
+
+      private long maxWaitNanos;
+
+      private int maxQueueDepth;
+
+      Hotspot(String waiter, String holder)
+      {
+         this.waiter = waiter;
+         this.holder = holder;
+      }
+
+      private void add(ContentionEvent event)
+      {
+         this.count++;
+         if (event.timedOut)
+         {
+            this.accessTimeouts++;
+         }
+         this.totalWaitNanos += event.waitNanos;
+         this.maxWaitNanos = Math.max(this.maxWaitNanos, event.waitNanos);
+         this.maxQueueDepth = Math.max(this.maxQueueDepth, event.queueDepth);
+      }
+
+      /**
+       * @return The waiting method
+       */
+      public String getWaiter()
+      {
+         return this.waiter;
+      }
+
+      /**
+       * @return The WRITE locked method which was holding the lock, or {@link ContentionProfiler#NO_WRITE_HOLDER}
+       */
+      public String getHolder()
+      {
+         return this.holder;
+      }
+
+      public long getCount()
+      {
+         return this.count;
+      }
+
+      public long getAccessTimeouts()
+      {
+         return this.accessTimeouts;
+      }
+
+      public long getTotalWaitNanos()
+      {
+         return this.totalWaitNanos;
+      }
+
+      public long getMaxWaitNanos()
+      {
+         return this.maxWaitNanos;
+      }
+
+      /**
+       * @return The max number of other invocations which were waiting ahead of the waiting method
+       */
+      public int getMaxQueueDepth()
+      {
+         return this.maxQueueDepth;
+      }
+
+      @Override
+      public String toString()
+      {
+         return this.waiter + " waiting on " + this.holder + ": count=" + this.count + ", accessTimeouts="
+               + this.accessTimeouts + ", totalWait=" + TimeUnit.NANOSECONDS.toMillis(this.totalWaitNanos)
+               + "ms, maxWait=" + TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos) + "ms, maxQueueDepth="
+               + this.maxQueueDepth;
+      }
+   }
+}
@@ -0,0 +1,61 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency;
+
+/**
+ * Management interface of the {@link ContentionProfiler} of a singleton container
+ *
+ * @version $Revision: $
+ */
+public interface ContentionProfilerMBean
+{
+
+   /**
+    * @return The length (in seconds) of the sliding window over which the contention is reported
+    */
+   int getWindowSeconds();
+
+   /**
+    * @return Number of invocations within the window, which waited for the bean lock
+    *           (for longer than the threshold)
+    */
+   long getContendedInvocationCount();
+
+   /**
+    * @return Number of invocations within the window, which failed because their @AccessTimeout expired
+    */
+   long getAccessTimeoutCount();
+
+   /**
+    * Returns a printable list of (at most) <code>topN</code> hotspots within the window. A hotspot is a 
+    * waiting method and lock holder pair, and the hotspots are ordered by the total time spent waiting.
+    * 
+    * @param topN Maximum number of hotspots to list
+    * @return
+    */
+   String listHotspots(int topN);
+
+   /**
+    * Discards all the recorded waits
+    */
+   void reset();
+}
@@ -0,0 +1,397 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.ejb.AccessTimeout;
+import javax.ejb.ConcurrentAccessException;
+import javax.ejb.ConcurrentAccessTimeoutException;
+import javax.ejb.IllegalLoopbackException;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.aop.joinpoint.MethodInvocation;
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.ejb3.singleton.aop.impl.SingletonContainerInvocation;
+import org.jboss.ejb3.singleton.impl.statistics.InvocationStatistics;
+import org.jboss.ejb3.singleton.impl.statistics.MethodStatistics;
+import org.jboss.ejb3.singleton.spi.annotation.StripedLocking;
+
+/**
+ * A container managed concurrency interceptor for singleton beans, which are marked 
+ * {@link StripedLocking @StripedLocking}. It's used in place of the (default) container managed 
+ * concurrency interceptor and uses a {@link StripedReadWriteLock} to implement the {@link Lock @Lock} semantics.
+ * <p>
+ *  The {@link Lock} type and the {@link AccessTimeout} of each method are looked up in the 
+ *  {@link ConcurrencyAttributesTable} of the bean.
+ * </p>
+ * <p>
+ *  If an {@link AdmissionController} is set, callers which would have to wait for the lock while the bean is 
+ *  overloaded are rejected right away (see {@link org.jboss.ejb3.singleton.spi.annotation.AdaptiveAdmission}).
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class StripedLockConcurrencyInterceptor implements Interceptor
+{
+
+   /**
+    * The access timeout (in milli seconds) which applies to methods without a {@link AccessTimeout}
+    */
+   public static final long DEFAULT_ACCESS_TIMEOUT = 5000;
+
+   /**
+    * The container of the bean
+    */
+   private final EJBContainer container;
+
+   /**
+    * The bean lock
+    */
+   private final StripedReadWriteLock lock;
+
+   /**
+    * The concurrency attributes of the bean methods
+    */
+   private final ConcurrencyAttributesTable concurrencyAttributes;
+
+   /**
+    * The statistics to which the lock wait times are reported. Can be null
+    */
+   private volatile InvocationStatistics invocationStatistics;
+
+   /**
+    * Runs the invocations on write batched methods. Null if write batching isn't in use
+    */
+   private volatile WriteCombiner writeCombiner;
+
+   /**
+    * Rejects callers while the bean is overloaded. Null if adaptive admission isn't in use
+    */
+   private volatile AdmissionController admissionController;
+
+   /**
+    * Creates a {@link StripedLockConcurrencyInterceptor} for the passed container
+    * 
+    * @param container The container of the bean
+    * @param numStripes The number of lock stripes. If less than 1, then the number of stripes is twice the 
+    *                   number of available processors
+    */
+   public StripedLockConcurrencyInterceptor(EJBContainer container, int numStripes)
+   {
+      this(container, new ConcurrencyAttributesTable(container, null), numStripes);
+   }
+
+   /**
+    * Creates a {@link StripedLockConcurrencyInterceptor} for the passed container
+    * 
+    * @param container The container of the bean
+    * @param concurrencyAttributes The concurrency attributes of the bean methods
+    * @param numStripes The number of lock stripes. If less than 1, then the number of stripes is twice the 
+    *                   number of available processors
+    */
+   public StripedLockConcurrencyInterceptor(EJBContainer container, ConcurrencyAttributesTable concurrencyAttributes,
+         int numStripes)
+   {
+      if (container == null || concurrencyAttributes == null)
+      {
+         throw new IllegalArgumentException("Container and concurrency attributes cannot be null");
+      }
+      this.container = container;
+      this.concurrencyAttributes = concurrencyAttributes;
+      if (numStripes < 1)
+      {
+         numStripes = Runtime.getRuntime().availableProcessors() * 2;
+      }
+      this.lock = new StripedReadWriteLock(numStripes);
+   }
+
+   /**
+    * @see org.jboss.aop.advice.Interceptor#getName()
+    */
+   @Override
+   public String getName()
+   {
+      return this.getClass().getName();
+   }
+
+   /**
+    * @see org.jboss.aop.advice.Interceptor#invoke(org.jboss.aop.joinpoint.Invocation)
+    */
+   @Override
+   public Object invoke(Invocation invocation) throws Throwable
+   {
+      Method method = ((MethodInvocation) invocation).getActualMethod();
+      ConcurrencyAttributes attributes = this.concurrencyAttributes.getConcurrencyAttributes(method);
+      LockType lockType = attributes.getLockType();
+      long accessTimeout = attributes.getAccessTimeoutMillis(DEFAULT_ACCESS_TIMEOUT);
+      MethodStatistics statistics = this.getMethodStatistics(invocation, method);
+      if (lockType == LockType.READ)
+      {
+         this.acquireLock(false, method, accessTimeout, statistics);
+         try
+         {
+            return invocation.invokeNext();
+         }
+         finally
+         {
+            this.lock.readUnlock();
+         }
+      }
+      // WRITE lock
+      if (this.lock.isReadLockedByCurrentThread())
+      {
+         // EJB3.1 spec, section 4.8.5.1.1
+         throw new IllegalLoopbackException("Cannot invoke WRITE locked method " + method + " on bean "
+               + this.container.getEjbName() + " while holding a READ lock on the bean");
+      }
+      WriteCombiner combiner = this.writeCombiner;
+      if (combiner != null && attributes.isWriteBatched() && accessTimeout != 0
+            && !this.lock.isWriteLockedByCurrentThread())
+      {
+         AdmissionController admission = this.admissionController;
+         if (admission != null && admission.isOverloaded())
+         {
+            // a batched invocation can't tell whether it would have to wait, so it's rejected outright
+            admission.rejected();
+            throw this.admissionRejected(method, admission);
+         }
+         if (admission != null)
+         {
+            // batched invocations count as waiting callers, but their wait time (which includes the 
+            // execution of the batch) isn't taken into the moving average
+            admission.waitStarted();
+         }
+         try
+         {
+            return combiner.invoke(invocation, accessTimeout, TimeUnit.MILLISECONDS, statistics);
+         }
+         catch (TimeoutException te)
+         {
+            throw this.accessTimedOut(method, accessTimeout);
+         }
+         catch (InterruptedException ie)
+         {
+            throw this.interrupted(method, ie);
+         }
+         finally
+         {
+            if (admission != null)
+            {
+               admission.waitEnded();
+            }
+         }
+      }
+      this.acquireLock(true, method, accessTimeout, statistics);
+      try
+      {
+         return invocation.invokeNext();
+      }
+      finally
+      {
+         this.lock.writeUnlock();
+      }
+   }
+
+   /**
+    * Returns the lock used by this interceptor
+    * @return
+    */
+   public StripedReadWriteLock getLock()
+   {
+      return this.lock;
+   }
+
+   /**
+    * Sets the {@link WriteCombiner} which runs the invocations on the write batched methods
+    * @param writeCombiner Can be null, in which case the invocations on the write batched methods acquire 
+    *           the write lock one at a time, like the other WRITE methods
+    */
+   public void setWriteCombiner(WriteCombiner writeCombiner)
+   {
+      this.writeCombiner = writeCombiner;
+   }
+
+   /**
+    * Returns the {@link WriteCombiner} which runs the invocations on the write batched methods. Null if
+    * write batching isn't in use
+    * @return
+    */
+   public WriteCombiner getWriteCombiner()
+   {
+      return this.writeCombiner;
+   }
+
+   /**
+    * Sets the statistics to which the time spent waiting for the lock is reported
+    * @param invocationStatistics Can be null, in which case the lock wait times are not recorded
+    */
+   public void setInvocationStatistics(InvocationStatistics invocationStatistics)
+   {
+      this.invocationStatistics = invocationStatistics;
+   }
+
+   /**
+    * Sets the {@link AdmissionController} which decides whether callers are allowed to wait for the lock
+    * @param admissionController Can be null, in which case every caller waits upto the access timeout of the method
+    */
+   public void setAdmissionController(AdmissionController admissionController)
+   {
+      this.admissionController = admissionController;
+   }
+
+   /**
+    * Returns the {@link AdmissionController} which decides whether callers are allowed to wait for the lock.
+    * Null if adaptive admission isn't in use
+    * @return
+    */
+   public AdmissionController getAdmissionController()
+   {
+      return this.admissionController;
+   }
+
+   /**
+    * Returns the statistics to which the lock wait time of the passed <code>invocation</code> is reported, 
+    * preferably the ones the container resolved for the invocation. Null if the lock wait times aren't recorded.
+    */
+   private MethodStatistics getMethodStatistics(Invocation invocation, Method method)
+   {
+      InvocationStatistics statistics = this.invocationStatistics;
+      if (statistics == null)
+      {
+         return null;
+      }
+      if (invocation instanceof SingletonContainerInvocation)
+      {
+         MethodStatistics methodStatistics = ((SingletonContainerInvocation) invocation).getMethodStatistics();
+         if (methodStatistics != null)
+         {
+            return methodStatistics;
+         }
+      }
+      return statistics.getMethodStatistics(method);
+   }
+
+   /**
+    * Acquires the READ or WRITE lock for an invocation on the passed <code>method</code>, subject to 
+    * the {@link #admissionController} (if any)
+    * 
+    * @throws ConcurrentAccessException If the lock couldn't be acquired within the access timeout, or if the
+    *           caller was rejected since the bean is overloaded
+    */
+   private void acquireLock(boolean write, Method method, long accessTimeout, MethodStatistics statistics)
+   {
+      AdmissionController admission = this.admissionController;
+      if (admission != null && accessTimeout != 0 && admission.isOverloaded())
+      {
+         // fail fast, unless the lock is available right away
+         if (!this.tryLock(write, method, 0))
+         {
+            admission.rejected();
+            throw this.admissionRejected(method, admission);
+         }
+         admission.admittedWithoutWait();
+         if (statistics != null)
+         {
+            statistics.lockWaited(0);
+         }
+         return;
+      }
+      long waitStart = statistics == null && admission == null ? 0 : System.nanoTime();
+      if (admission != null)
+      {
+         admission.waitStarted();
+      }
+      boolean locked;
+      try
+      {
+         locked = this.tryLock(write, method, accessTimeout);
+      }
+      finally
+      {
+         if (admission != null)
+         {
+            admission.waitEnded(System.nanoTime() - waitStart);
+         }
+      }
+      if (statistics != null)
+      {
+         statistics.lockWaited(System.nanoTime() - waitStart);
+      }
+      if (!locked)
+      {
+         throw this.accessTimedOut(method, accessTimeout);
+      }
+   }
+
+   /**
+    * Tries to acquire the READ or WRITE lock within <code>timeoutMillis</code>
+    * 
+    * @throws ConcurrentAccessException If the current thread is interrupted while waiting for the lock. The 
+    *           interrupt status of the thread is restored before throwing the exception
+    */
+   private boolean tryLock(boolean write, Method method, long timeoutMillis)
+   {
+      try
+      {
+         return write ? this.lock.tryWriteLock(timeoutMillis, TimeUnit.MILLISECONDS) : this.lock.tryReadLock(
+               timeoutMillis, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException ie)
+      {
+         throw this.interrupted(method, ie);
+      }
+   }
+
+   private ConcurrentAccessException interrupted(Method method, InterruptedException ie)
+   {
+      // let the caller (and whoever else is interested) know that the thread was interrupted
+      Thread.currentThread().interrupt();
+      return new ConcurrentAccessException("Interrupted while waiting for lock on method " + method + " of bean "
+            + this.container.getEjbName(), ie);
+   }
+
+   private ConcurrentAccessTimeoutException admissionRejected(Method method, AdmissionController admission)
+   {
+      return new ConcurrentAccessTimeoutException("Rejected invocation on method " + method + " of bean "
+            + this.container.getEjbName() + " since the bean is overloaded (" + admission.getWaitingCallers()
+            + " waiting callers, average lock wait of "
+            + TimeUnit.NANOSECONDS.toMillis(admission.getAverageLockWaitNanos()) + "ms; budget " + admission + ")");
+   }
+
+   private ConcurrentAccessException accessTimedOut(Method method, long accessTimeout)
+   {
+      if (accessTimeout == 0)
+      {
+         // concurrent access not permitted (EJB3.1 spec, section 4.8.5.5.1)
+         return new ConcurrentAccessException("Concurrent access not permitted on method " + method + " of bean "
+               + this.container.getEjbName());
+      }
+      return new ConcurrentAccessTimeoutException("Could not obtain lock within " + accessTimeout
+            + " milli seconds for method " + method + " on bean " + this.container.getEjbName());
+   }
+}
@@ -0,0 +1,234 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A read/write lock which is split into a number of stripes, each of which is a {@link ReentrantReadWriteLock}.
+ * <p>
+ *  A read lock is acquired on just one stripe, which is selected based on the current thread. This
+ *  spreads the reader count updates across the stripes, instead of having all readers update the 
+ *  same reader count. A write lock is acquired on all the stripes (always in the same order), which 
+ *  makes it exclusive of all the readers and other writers.
+ * </p>
+ * <p>
+ *  Both read and write locks are reentrant. A thread holding the write lock can acquire the read lock, 
+ *  but a thread holding the read lock can't acquire the write lock (just like {@link ReentrantReadWriteLock}).  
+ * </p>
+ * <p>
+ *  Each stripe is padded (see {@link PaddedStripe}), so that the reader count updates on one stripe
+ *  don't invalidate the cache line holding the state of the neighbouring stripe.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class StripedReadWriteLock
+{
+
+   /**
+    * The lock stripes
+    */
+   private final ReentrantReadWriteLock[] stripes;
+
+   /**
+    * Creates a {@link StripedReadWriteLock}
+    * 
+    * @param numStripes Number of stripes. Must be greater than zero
+    */
+   public StripedReadWriteLock(int numStripes)
+   {
+      if (numStripes < 1)
+      {
+         throw new IllegalArgumentException("Number of lock stripes must be greater than zero, was " + numStripes);
+      }
+      this.stripes = new ReentrantReadWriteLock[numStripes];
+      for (int i = 0; i < numStripes; i++)
+      {
+         this.stripes[i] = new PaddedStripe();
+      }
+   }
+
+   /**
+    * Returns the number of stripes of this lock
+    * @return
+    */
+   public int getStripeCount()
+   {
+      return this.stripes.length;
+   }
+
+   /**
+    * Acquires the read lock, waiting at most for the passed <code>timeout</code>.
+    * 
+    * @param timeout The maximum time to wait. A negative value means wait indefinitely
+    * @param unit Unit of <code>timeout</code>
+    * @return Returns true if the lock was acquired. Else returns false.
+    * @throws InterruptedException If the current thread is interrupted while waiting for the lock
+    */
+   public boolean tryReadLock(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      ReentrantReadWriteLock.ReadLock readLock = this.currentStripe().readLock();
+      if (timeout < 0)
+      {
+         readLock.lockInterruptibly();
+         return true;
+      }
+      return readLock.tryLock(timeout, unit);
+   }
+
+   /**
+    * Releases the read lock held by the current thread
+    */
+   public void readUnlock()
+   {
+      this.currentStripe().readLock().unlock();
+   }
+
+   /**
+    * Returns true if the current thread holds the read lock (and not the write lock). Else returns false.
+    * @return
+    */
+   public boolean isReadLockedByCurrentThread()
+   {
+      ReentrantReadWriteLock stripe = this.currentStripe();
+      return stripe.getReadHoldCount() > 0 && !stripe.isWriteLockedByCurrentThread();
+   }
+
+   /**
+    * Acquires the write lock (i.e. the write lock of each of the stripes), waiting at most for the 
+    * passed <code>timeout</code> in total.
+    * 
+    * @param timeout The maximum time to wait. A negative value means wait indefinitely
+    * @param unit Unit of <code>timeout</code>
+    * @return Returns true if the lock was acquired. Else returns false, in which case none of the stripes
+    *           is locked by the current thread.
+    * @throws InterruptedException If the current thread is interrupted while waiting for the lock
+    */
+   public boolean tryWriteLock(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      long deadline = timeout < 0 ? 0 : System.nanoTime() + unit.toNanos(timeout);
+      int locked = 0;
+      try
+      {
+         for (; locked < this.stripes.length; locked++)
+         {
+            ReentrantReadWriteLock.WriteLock writeLock = this.stripes[locked].writeLock();
+            if (timeout < 0)
+            {
+               writeLock.lockInterruptibly();
+            }
+            else if (!writeLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+            {
+               break;
+            }
+         }
+      }
+      finally
+      {
+         // release whatever we acquired, if we couldn't acquire all the stripes (timeout or interrupt)
+         if (locked < this.stripes.length)
+         {
+            this.unlockWrite(locked);
+         }
+      }
+      return locked == this.stripes.length;
+   }
+
+   /**
+    * Releases the write lock held by the current thread
+    */
+   public void writeUnlock()
+   {
+      this.unlockWrite(this.stripes.length);
+   }
+
+   /**
+    * Returns true if the current thread holds the write lock
+    * @return
+    */
+   public boolean isWriteLockedByCurrentThread()
+   {
+      // the last stripe is locked only after all the others have been locked
+      return this.stripes[this.stripes.length - 1].isWriteLockedByCurrentThread();
+   }
+
+   /**
+    * Returns the number of threads waiting for the read or the write lock. This is an estimate,
+    * meant for monitoring purposes.
+    * @return
+    */
+   public int getQueueLength()
+   {
+      int queueLength = 0;
+      for (ReentrantReadWriteLock stripe : this.stripes)
+      {
+         queueLength += stripe.getQueueLength();
+      }
+      return queueLength;
+   }
+
+   /**
+    * Unlocks the write lock of the first <code>count</code> stripes, in the reverse order
+    * of their acquisition
+    */
+   private void unlockWrite(int count)
+   {
+      for (int i = count - 1; i >= 0; i--)
+      {
+         this.stripes[i].writeLock().unlock();
+      }
+   }
+
+   /**
+    * A {@link ReentrantReadWriteLock} followed by enough padding to fill (at least) two cache lines.
+    * <p>
+    *  The state of a {@link ReentrantReadWriteLock}, which is updated on every lock and unlock, is held in 
+    *  an internal object which gets allocated by the lock constructor, right after the lock itself. 
+    *  Without the padding, the stripes (which are created one after the other) end up next to each other
+    *  on the heap and the readers on different stripes keep invalidating each other's cache line (false 
+    *  sharing), which defeats the purpose of striping. The padding keeps the state of adjacent stripes 
+    *  apart. The JVM doesn't guarantee the field and object layout, so this is a best effort, but it 
+    *  holds for the allocation and copying strategies of the HotSpot collectors.
+    * </p>
+    */
+   private static class PaddedStripe extends ReentrantReadWriteLock
+   {
+      private static final long serialVersionUID = 1L;
+
+      // 16 longs, i.e. 128 bytes, which covers the adjacent cache line prefetch on x86
+      @SuppressWarnings("unused")
+      private long p0, p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+   }
+
+   /**
+    * Returns the stripe used by the current thread for read locking. The same thread always gets 
+    * the same stripe, which is what allows the read lock to be reentrant and to be released
+    * without keeping track of the stripe which was locked.
+    */
+   private ReentrantReadWriteLock currentStripe()
+   {
+      long threadId = Thread.currentThread().getId();
+      return this.stripes[(int) (threadId % this.stripes.length)];
+   }
+}
@@ -0,0 +1,424 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.ejb3.singleton.impl.statistics.MethodStatistics;
+import org.jboss.reloaded.naming.CurrentComponent;
+import org.jboss.reloaded.naming.spi.JavaEEComponent;
+import org.jboss.security.SecurityContext;
+import org.jboss.security.SecurityContextAssociation;
+
+/**
+ * Runs batches of WRITE invocations under a single acquisition of the write lock of a bean (flat combining).
+ * <p>
+ *  Each invocation is queued up. One of the queued callers at a time becomes the combiner: it acquires the 
+ *  write lock, runs the queued invocations (its own and those of the other callers) one after the other, and 
+ *  releases the lock. The other callers wait for their own invocation to complete and then return its result
+ *  or throw its exception. After releasing the lock, the combiner wakes up the next queued caller (if any), 
+ *  which takes over as the combiner.
+ * </p>
+ * <p>
+ *  An invocation of another caller is run with the thread context of that caller, which is captured when the 
+ *  invocation is queued: the context classloader, the security context and the current ENC component 
+ *  ({@link CurrentComponent}). Other thread bound state of the caller isn't available to the invocation, in 
+ *  particular a transaction, which is why only methods which run outside of a container managed transaction are 
+ *  batched.
+ * </p>
+ * <p>
+ *  A caller which doesn't get its invocation started within the timeout removes it from the queue and 
+ *  fails with a {@link TimeoutException}. An invocation which has been started is always waited for.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class WriteCombiner
+{
+
+   /**
+    * The default maximum number of invocations run by a combiner, in addition to its own invocation
+    */
+   public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+   /**
+    * The states of a queued invocation
+    */
+   private static final int PENDING = 0;
+
+   private static final int RUNNING = 1;
+
+   private static final int DONE = 2;
+
+   private static final int CANCELLED = 3;
+
+   /**
+    * The lock of the bean
+    */
+   private final StripedReadWriteLock lock;
+
+   /**
+    * The maximum number of invocations run by a combiner, in addition to its own invocation
+    */
+   private final int maxBatchSize;
+
+   /**
+    * The queued invocations
+    */
+   private final Queue<QueuedInvocation> queue = new ConcurrentLinkedQueue<QueuedInvocation>();
+
+   /**
+    * True while a caller is acting as the combiner
+    */
+   private final AtomicBoolean combining = new AtomicBoolean();
+
+   /**
+    * The number of times the write lock was acquired to run a batch
+    */
+   private final AtomicLong batchCount = new AtomicLong();
+
+   /**
+    * The number of invocations run in batches
+    */
+   private final AtomicLong invocationCount = new AtomicLong();
+
+   /**
+    * @param lock The lock of the bean
+    * @param maxBatchSize The maximum number of invocations run by a combiner, in addition to its own 
+    *           invocation. If less than 1, then {@link #DEFAULT_MAX_BATCH_SIZE} is used.
+    */
+   public WriteCombiner(StripedReadWriteLock lock, int maxBatchSize)
+   {
+      if (lock == null)
+      {
+         throw new IllegalArgumentException("Lock cannot be null while creating a " + WriteCombiner.class.getSimpleName());
+      }
+      this.lock = lock;
+      this.maxBatchSize = maxBatchSize < 1 ? DEFAULT_MAX_BATCH_SIZE : maxBatchSize;
+   }
+
+   /**
+    * Runs the passed <code>invocation</code> under the write lock, as part of a batch, and returns its result
+    * 
+    * @param invocation The invocation
+    * @param timeout The maximum time to wait for the invocation to start. A negative value means wait indefinitely
+    * @param unit Unit of <code>timeout</code>
+    * @param statistics The statistics to which the time spent waiting is reported. Can be null.
+    * @return
+    * @throws TimeoutException If the invocation couldn't be started within the <code>timeout</code>
+    * @throws InterruptedException If the current thread is interrupted before the invocation is started
+    * @throws Throwable The exception thrown by the invocation
+    */
+   public Object invoke(Invocation invocation, long timeout, TimeUnit unit, MethodStatistics statistics)
+         throws Throwable
+   {
+      QueuedInvocation queued = new QueuedInvocation(invocation, Thread.currentThread());
+      this.queue.add(queued);
+      long deadline = timeout < 0 ? 0 : queued.queuedAt + unit.toNanos(timeout);
+      boolean interrupted = false;
+      try
+      {
+         while (true)
+         {
+            int state = queued.state.get();
+            if (state == DONE)
+            {
+               break;
+            }
+            if (state == PENDING)
+            {
+               long remaining = timeout < 0 ? Long.MAX_VALUE : deadline - System.nanoTime();
+               if (remaining <= 0 || interrupted)
+               {
+                  if (queued.state.compareAndSet(PENDING, CANCELLED))
+                  {
+                     this.queue.remove(queued);
+                     if (interrupted)
+                     {
+                        // don't restore the interrupt status, we report it instead
+                        interrupted = false;
+                        throw new InterruptedException("Interrupted while waiting for the write lock");
+                     }
+                     throw new TimeoutException("Invocation not started within " + timeout + " " + unit);
+                  }
+                  // it's being run
+                  continue;
+               }
+               if (this.combining.compareAndSet(false, true))
+               {
+                  try
+                  {
+                     interrupted |= this.combine(queued, timeout < 0 ? -1 : remaining);
+                  }
+                  finally
+                  {
+                     this.combining.set(false);
+                  }
+                  this.wakeUpNextCombiner();
+                  continue;
+               }
+               if (timeout < 0)
+               {
+                  LockSupport.park(this);
+               }
+               else
+               {
+                  LockSupport.parkNanos(this, remaining);
+               }
+            }
+            else
+            {
+               // running on the combiner's thread
+               LockSupport.park(this);
+            }
+            interrupted |= Thread.interrupted();
+         }
+      }
+      finally
+      {
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+      if (statistics != null)
+      {
+         statistics.lockWaited(queued.startedAt - queued.queuedAt);
+      }
+      if (queued.failure != null)
+      {
+         throw queued.failure;
+      }
+      return queued.result;
+   }
+
+   /**
+    * Returns the number of times the write lock was acquired to run a batch of invocations
+    * 
+    * @return
+    */
+   public long getBatchCount()
+   {
+      return this.batchCount.get();
+   }
+
+   /**
+    * Returns the number of invocations which were run in batches
+    * 
+    * @return
+    */
+   public long getInvocationCount()
+   {
+      return this.invocationCount.get();
+   }
+
+   /**
+    * Returns the number of queued invocations which haven't been started yet
+    * 
+    * @return
+    */
+   public int getQueuedCount()
+   {
+      int count = 0;
+      for (QueuedInvocation queued : this.queue)
+      {
+         if (queued.state.get() == PENDING)
+         {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Acquires the write lock and runs the queued invocations, until the passed <code>own</code> invocation
+    * has been run and either the batch is full or the queue is empty. 
+    * 
+    * @return Returns true if the current thread was interrupted while waiting for the lock
+    */
+   private boolean combine(QueuedInvocation own, long timeoutNanos)
+   {
+      try
+      {
+         if (!this.lock.tryWriteLock(timeoutNanos, TimeUnit.NANOSECONDS))
+         {
+            return false;
+         }
+      }
+      catch (InterruptedException ie)
+      {
+         return true;
+      }
+      try
+      {
+         int run = 0;
+         QueuedInvocation next;
+         while ((run <= this.maxBatchSize || own.state.get() == PENDING) && (next = this.queue.poll()) != null)
+         {
+            if (next.state.compareAndSet(PENDING, RUNNING))
+            {
+               next.run();
+               run++;
+            }
+         }
+         this.batchCount.incrementAndGet();
+         this.invocationCount.addAndGet(run);
+      }
+      finally
+      {
+         this.lock.writeUnlock();
+      }
+      return false;
+   }
+
+   /**
+    * Wakes up the first pending caller, if any, so that it takes over as the combiner
+    */
+   private void wakeUpNextCombiner()
+   {
+      for (QueuedInvocation queued : this.queue)
+      {
+         if (queued.state.get() == PENDING)
+         {
+            LockSupport.unpark(queued.caller);
+            return;
+         }
+      }
+   }
+
+   /**
+    * An invocation waiting in the queue
+    */
+   private static class QueuedInvocation
+   {
+      private final Invocation invocation;
+
+      private final Thread caller;
+
+      private final CallerContext callerContext = new CallerContext();
+
+      private final AtomicInteger state = new AtomicInteger(PENDING);
+
+      private final long queuedAt = System.nanoTime();
+
+      /**
+       * The fields below are written by the combiner before the state is set to DONE, and read by the
+       * caller after it sees the DONE state
+       */
+      private long startedAt;
+
+      private Object result;
+
+      private Throwable failure;
+
+      QueuedInvocation(Invocation invocation, Thread caller)
+      {
+         this.invocation = invocation;
+         this.caller = caller;
+      }
+
+      void run()
+      {
+         this.startedAt = System.nanoTime();
+         boolean foreign = this.caller != Thread.currentThread();
+         CallerContext combinerContext = foreign ? this.callerContext.associate() : null;
+         try
+         {
+            this.result = this.invocation.invokeNext();
+         }
+         catch (Throwable t)
+         {
+            this.failure = t;
+         }
+         finally
+         {
+            if (foreign)
+            {
+               combinerContext.restore(this.callerContext);
+            }
+         }
+         this.state.set(DONE);
+         if (foreign)
+         {
+            LockSupport.unpark(this.caller);
+         }
+      }
+   }
+
+   /**
+    * The thread context of a caller, which is captured on creation
+    */
+   private static class CallerContext
+   {
+      private final ClassLoader classLoader;
+
+      private final SecurityContext securityContext;
+
+      private final JavaEEComponent component;
+
+      CallerContext()
+      {
+         this.classLoader = Thread.currentThread().getContextClassLoader();
+         this.securityContext = SecurityContextAssociation.getSecurityContext();
+         this.component = CurrentComponent.get();
+      }
+
+      /**
+       * Associates this context with the current thread
+       * 
+       * @return The context which was previously associated with the current thread
+       */
+      CallerContext associate()
+      {
+         CallerContext previous = new CallerContext();
+         Thread.currentThread().setContextClassLoader(this.classLoader);
+         SecurityContextAssociation.setSecurityContext(this.securityContext);
+         if (this.component != null)
+         {
+            CurrentComponent.push(this.component);
+         }
+         return previous;
+      }
+
+      /**
+       * Undoes the {@link #associate()} of the passed <code>associated</code> context, by associating this 
+       * (previous) context with the current thread
+       */
+      void restore(CallerContext associated)
+      {
+         if (associated.component != null)
+         {
+            CurrentComponent.pop();
+         }
+         SecurityContextAssociation.setSecurityContext(this.securityContext);
+         Thread.currentThread().setContextClassLoader(this.classLoader);
+      }
+   }
+}
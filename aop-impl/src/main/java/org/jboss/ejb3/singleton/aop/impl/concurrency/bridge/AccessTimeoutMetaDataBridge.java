@@ -34,11 +34,18 @@ import org.jboss.metadata.spi.signature.DeclaredMethodSignature;
 import javax.ejb.AccessTimeout;
 import java.lang.annotation.Annotation;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * An implementation of {@link MetaDataBridge} which is responsible for
  * resolving the {@link AccessTimeout} annotation from EJB metadata
+ * <p>
+ *  The method level {@link AccessTimeout} resolved for the bean metadata, which this bridge is first used with, is
+ *  memoized per method. A bridge is expected to be used for the metadata of a single bean.
+ * </p>
  *
  * @author Jaikiran Pai
  * @version $Revision: $
@@ -46,6 +53,21 @@ import java.util.concurrent.TimeUnit;
 public class AccessTimeoutMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMetaData>
 {
 
+   /**
+    * Marks the methods without a method level {@link AccessTimeout} in {@link #methodAccessTimeouts}
+    */
+   private static final AccessTimeout NO_ACCESS_TIMEOUT = new AccessTimeoutImpl(0, null);
+
+   /**
+    * The bean metadata for which the {@link #methodAccessTimeouts} are memoized
+    */
+   private final AtomicReference<JBossEnterpriseBeanMetaData> memoizedMetaData = new AtomicReference<JBossEnterpriseBeanMetaData>();
+
+   /**
+    * Memoized method level {@link AccessTimeout}s
+    */
+   private final ConcurrentMap<DeclaredMethodSignature, AccessTimeout> methodAccessTimeouts = new ConcurrentHashMap<DeclaredMethodSignature, AccessTimeout>();
+
    /**
     * @see org.jboss.ejb3.metadata.MetaDataBridge#retrieveAnnotation(java.lang.Class, java.lang.Object, java.lang.ClassLoader)
     */
@@ -89,7 +111,28 @@ public class AccessTimeoutMetaDataBridge implements MetaDataBridge<JBossEnterpri
       {
          return null;
       }
-      JBossSessionBean31MetaData sessionBean = (JBossSessionBean31MetaData) metaData;
+      this.memoizedMetaData.compareAndSet(null, metaData);
+      if (this.memoizedMetaData.get() != metaData)
+      {
+         // not the bean this bridge memoizes for
+         return annotationClass.cast(this.resolveMethodAccessTimeout((JBossSessionBean31MetaData) metaData, method));
+      }
+      AccessTimeout accessTimeout = this.methodAccessTimeouts.get(method);
+      if (accessTimeout == null)
+      {
+         accessTimeout = this.resolveMethodAccessTimeout((JBossSessionBean31MetaData) metaData, method);
+         this.methodAccessTimeouts.putIfAbsent(method, accessTimeout == null ? NO_ACCESS_TIMEOUT : accessTimeout);
+      }
+      return accessTimeout == NO_ACCESS_TIMEOUT ? null : annotationClass.cast(accessTimeout);
+   }
+
+   /**
+    * Resolves the method level {@link AccessTimeout} of the passed <code>method</code> from the metadata of 
+    * the <code>sessionBean</code>. Returns null if there's none.
+    */
+   private AccessTimeout resolveMethodAccessTimeout(JBossSessionBean31MetaData sessionBean,
+         DeclaredMethodSignature method)
+   {
       // create  a named method metadata to represent the method being queried
       NamedMethodMetaData namedMethod = new NamedMethodMetaData();
       namedMethod.setName(method.getName());
@@ -113,15 +156,18 @@ public class AccessTimeoutMetaDataBridge implements MetaDataBridge<JBossEnterpri
          // get access timeout for method "*"
          accessTimeoutMetaData = getAccessTimeoutApplicableForAllMethods(sessionBean);
       }
+      else
+      {
+         // the access timeout specified for this method
+         accessTimeoutMetaData = concurrentMethodMetaData.getAccessTimeout();
+      }
       // access timeout was not specified for this method nor for the 
       // method "*"
       if (accessTimeoutMetaData == null)
       {
          return null;
       }
-      AccessTimeout accessTimeout = new AccessTimeoutImpl(accessTimeoutMetaData.getTimeout(), accessTimeoutMetaData
-            .getUnit());
-      return annotationClass.cast(accessTimeout);
+      return new AccessTimeoutImpl(accessTimeoutMetaData.getTimeout(), accessTimeoutMetaData.getUnit());
    }
 
    /**
@@ -150,7 +196,7 @@ public class AccessTimeoutMetaDataBridge implements MetaDataBridge<JBossEnterpri
     * @author Jaikiran Pai
     * @version $Revision: $
     */
-   private class AccessTimeoutImpl implements AccessTimeout
+   private static class AccessTimeoutImpl implements AccessTimeout
    {
 
       private TimeUnit unit;
@@ -198,5 +244,47 @@ public class AccessTimeoutMetaDataBridge implements MetaDataBridge<JBossEnterpri
          return AccessTimeout.class;
       }
 
+      /**
+       * Compares as specified by {@link Annotation#equals(Object)}, so that this instance equals any 
+       * {@link AccessTimeout} with the same {@link #value()} and {@link #unit()}, including the ones 
+       * created by the JVM
+       * 
+       * @see java.lang.annotation.Annotation#equals(java.lang.Object)
+       */
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+         {
+            return true;
+         }
+         if (!(obj instanceof AccessTimeout))
+         {
+            return false;
+         }
+         AccessTimeout other = (AccessTimeout) obj;
+         return this.value() == other.value() && this.unit() == other.unit();
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#hashCode()
+       */
+      @Override
+      public int hashCode()
+      {
+         // sum of (127 * member name hash) ^ member value hash, of all members
+         long value = this.value();
+         return ((127 * "value".hashCode()) ^ (int) (value ^ (value >>> 32)))
+               + ((127 * "unit".hashCode()) ^ this.unit().hashCode());
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return "@" + AccessTimeout.class.getName() + "(value=" + this.value() + ", unit=" + this.unit() + ")";
+      }
    }
 }
@@ -0,0 +1,221 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.concurrency.bridge;
+
+import java.lang.annotation.Annotation;
+
+import org.jboss.ejb3.metadata.MetaDataBridge;
+import org.jboss.ejb3.singleton.spi.annotation.AdaptiveAdmission;
+import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeanMetaData;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.javaee.spec.EnvironmentEntriesMetaData;
+import org.jboss.metadata.javaee.spec.EnvironmentEntryMetaData;
+import org.jboss.metadata.spi.signature.DeclaredMethodSignature;
+
+/**
+ * An implementation of {@link MetaDataBridge} which is responsible for resolving
+ * the {@link AdaptiveAdmission} annotation from EJB metadata.
+ * <p>
+ *  The ejb-jar and jboss.xml concurrency metadata has no elements for the admission budgets, so they are 
+ *  configured through the env-entries {@link AdaptiveAdmission#MAX_WAITING_CALLERS_ENV_ENTRY} and
+ *  {@link AdaptiveAdmission#MAX_LOCK_WAIT_MILLIS_ENV_ENTRY} of the bean. A budget which isn't configured in the
+ *  metadata is taken from the {@link AdaptiveAdmission} on the bean class, if any.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class AdaptiveAdmissionMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMetaData>
+{
+
+   /**
+    * @see org.jboss.ejb3.metadata.MetaDataBridge#retrieveAnnotation(java.lang.Class, java.lang.Object, java.lang.ClassLoader)
+    */
+   @Override
+   public <A extends Annotation> A retrieveAnnotation(Class<A> annotationClass, JBossEnterpriseBeanMetaData metaData,
+         ClassLoader classLoader)
+   {
+      if (annotationClass == null || annotationClass.equals(AdaptiveAdmission.class) == false)
+      {
+         return null;
+      }
+      // only session beans and that too of type JBossSessionBean31MetaData
+      if (metaData.isSession() == false || (metaData instanceof JBossSessionBean31MetaData) == false)
+      {
+         return null;
+      }
+      EnvironmentEntriesMetaData envEntries = metaData.getEnvironmentEntries();
+      if (envEntries == null)
+      {
+         return null;
+      }
+      EnvironmentEntryMetaData maxWaitingCallers = envEntries.get(AdaptiveAdmission.MAX_WAITING_CALLERS_ENV_ENTRY);
+      EnvironmentEntryMetaData maxLockWaitMillis = envEntries.get(AdaptiveAdmission.MAX_LOCK_WAIT_MILLIS_ENV_ENTRY);
+      if (maxWaitingCallers == null && maxLockWaitMillis == null)
+      {
+         return null;
+      }
+      AdaptiveAdmission annotated = this.getBeanClassAnnotation(metaData, classLoader);
+      int waitingCallers = maxWaitingCallers != null ? (int) this.parse(maxWaitingCallers, metaData) : annotated == null
+            ? 0
+            : annotated.maxWaitingCallers();
+      long lockWaitMillis = maxLockWaitMillis != null ? this.parse(maxLockWaitMillis, metaData) : annotated == null
+            ? 0
+            : annotated.maxLockWaitMillis();
+      return annotationClass.cast(new AdaptiveAdmissionImpl(waitingCallers, lockWaitMillis));
+   }
+
+   /**
+    * @see org.jboss.ejb3.metadata.MetaDataBridge#retrieveAnnotation(java.lang.Class, java.lang.Object, java.lang.ClassLoader, org.jboss.metadata.spi.signature.DeclaredMethodSignature)
+    */
+   @Override
+   public <A extends Annotation> A retrieveAnnotation(Class<A> annotationClass, JBossEnterpriseBeanMetaData metaData,
+         ClassLoader classLoader, DeclaredMethodSignature method)
+   {
+      // @AdaptiveAdmission applies only to class
+      return null;
+   }
+
+   /**
+    * Returns the {@link AdaptiveAdmission} on the bean class, or null if there's none (or the bean class 
+    * can't be loaded)
+    */
+   private AdaptiveAdmission getBeanClassAnnotation(JBossEnterpriseBeanMetaData metaData, ClassLoader classLoader)
+   {
+      if (metaData.getEjbClass() == null || classLoader == null)
+      {
+         return null;
+      }
+      try
+      {
+         return classLoader.loadClass(metaData.getEjbClass()).getAnnotation(AdaptiveAdmission.class);
+      }
+      catch (ClassNotFoundException cnfe)
+      {
+         return null;
+      }
+   }
+
+   private long parse(EnvironmentEntryMetaData envEntry, JBossEnterpriseBeanMetaData metaData)
+   {
+      String value = envEntry.getValue();
+      try
+      {
+         return Long.parseLong(value == null ? "" : value.trim());
+      }
+      catch (NumberFormatException nfe)
+      {
+         throw new IllegalArgumentException("Invalid value " + value + " for env-entry " + envEntry.getEnvEntryName()
+               + " of bean " + metaData.getEjbName(), nfe);
+      }
+   }
+
+   /**
+    * Implementation of {@link AdaptiveAdmission} annotation
+    *
+    * @version $Revision: $
+    */
+   private static class AdaptiveAdmissionImpl implements AdaptiveAdmission
+   {
+
+      private final int maxWaitingCallers;
+
+      private final long maxLockWaitMillis;
+
+      public AdaptiveAdmissionImpl(int maxWaitingCallers, long maxLockWaitMillis)
+      {
+         this.maxWaitingCallers = maxWaitingCallers;
+         this.maxLockWaitMillis = maxLockWaitMillis;
+      }
+
+      /**
+       * @see org.jboss.ejb3.singleton.spi.annotation.AdaptiveAdmission#maxWaitingCallers()
+       */
+      @Override
+      public int maxWaitingCallers()
+      {
+         return this.maxWaitingCallers;
+      }
+
+      /**
+       * @see org.jboss.ejb3.singleton.spi.annotation.AdaptiveAdmission#maxLockWaitMillis()
+       */
+      @Override
+      public long maxLockWaitMillis()
+      {
+         return this.maxLockWaitMillis;
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#annotationType()
+       */
+      @Override
+      public Class<? extends Annotation> annotationType()
+      {
+         return AdaptiveAdmission.class;
+      }
+
+      /**
+       * Compares as specified by {@link Annotation#equals(Object)}, so that this instance equals any 
+       * {@link AdaptiveAdmission} with the same {@link #maxWaitingCallers()} and {@link #maxLockWaitMillis()}, 
+       * including the ones created by the JVM
+       * 
+       * @see java.lang.annotation.Annotation#equals(java.lang.Object)
+       */
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+         {
+            return true;
+         }
+         if (!(obj instanceof AdaptiveAdmission))
+         {
+            return false;
+         }
+         AdaptiveAdmission other = (AdaptiveAdmission) obj;
+         return this.maxWaitingCallers() == other.maxWaitingCallers()
+               && this.maxLockWaitMillis() == other.maxLockWaitMillis();
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#hashCode()
+       */
+      @Override
+      public int hashCode()
+      {
+         // sum of (127 * member name hash) ^ member value hash, of all members
+         long lockWaitMillis = this.maxLockWaitMillis();
+         return ((127 * "maxWaitingCallers".hashCode()) ^ this.maxWaitingCallers())
+               + ((127 * "maxLockWaitMillis".hashCode()) ^ (int) (lockWaitMillis ^ (lockWaitMillis >>> 32)));
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return "@" + AdaptiveAdmission.class.getName() + "(maxWaitingCallers=" + this.maxWaitingCallers()
+               + ", maxLockWaitMillis=" + this.maxLockWaitMillis() + ")";
+      }
+   }
+}
@@ -34,10 +34,17 @@ import javax.ejb.Lock;
 import javax.ejb.LockType;
 import java.lang.annotation.Annotation;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * An implementation of {@link MetaDataBridge} which is responsible for
  * resolving the {@link Lock} annotation from EJB metadata
+ * <p>
+ *  The method level {@link Lock} resolved for the bean metadata, which this bridge is first used with, is
+ *  memoized per method. A bridge is expected to be used for the metadata of a single bean.
+ * </p>
  *
  * @author Jaikiran Pai
  * @version $Revision: $
@@ -45,6 +52,28 @@ import java.util.Arrays;
 public class LockMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMetaData>
 {
 
+   /**
+    * Shared {@link Lock} instances
+    */
+   private static final Lock READ_LOCK = new LockImpl(LockType.READ);
+
+   private static final Lock WRITE_LOCK = new LockImpl(LockType.WRITE);
+
+   /**
+    * Marks the methods without a method level {@link Lock} in {@link #methodLocks}
+    */
+   private static final Lock NO_LOCK = new LockImpl(null);
+
+   /**
+    * The bean metadata for which the {@link #methodLocks} are memoized
+    */
+   private final AtomicReference<JBossEnterpriseBeanMetaData> memoizedMetaData = new AtomicReference<JBossEnterpriseBeanMetaData>();
+
+   /**
+    * Memoized method level {@link Lock}s
+    */
+   private final ConcurrentMap<DeclaredMethodSignature, Lock> methodLocks = new ConcurrentHashMap<DeclaredMethodSignature, Lock>();
+
    /**
     * @see org.jboss.ejb3.metadata.MetaDataBridge#retrieveAnnotation(java.lang.Class, java.lang.Object, java.lang.ClassLoader)
     */
@@ -69,8 +98,7 @@ public class LockMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMet
       {
          return null;
       }
-      Lock lock = new LockImpl(lockType);
-      return annotationClass.cast(lock);
+      return annotationClass.cast(getLock(lockType));
 
    }
 
@@ -90,7 +118,27 @@ public class LockMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMet
       {
          return null;
       }
-      JBossSessionBean31MetaData sessionBean = (JBossSessionBean31MetaData) metaData;
+      this.memoizedMetaData.compareAndSet(null, metaData);
+      if (this.memoizedMetaData.get() != metaData)
+      {
+         // not the bean this bridge memoizes for
+         return annotationClass.cast(this.resolveMethodLock((JBossSessionBean31MetaData) metaData, method));
+      }
+      Lock lock = this.methodLocks.get(method);
+      if (lock == null)
+      {
+         lock = this.resolveMethodLock((JBossSessionBean31MetaData) metaData, method);
+         this.methodLocks.putIfAbsent(method, lock == null ? NO_LOCK : lock);
+      }
+      return lock == NO_LOCK ? null : annotationClass.cast(lock);
+   }
+
+   /**
+    * Resolves the method level {@link Lock} of the passed <code>method</code> from the metadata of 
+    * the <code>sessionBean</code>. Returns null if there's none.
+    */
+   private Lock resolveMethodLock(JBossSessionBean31MetaData sessionBean, DeclaredMethodSignature method)
+   {
       // create  a named method metadata to represent the method being queried
       NamedMethodMetaData namedMethod = new NamedMethodMetaData();
       namedMethod.setName(method.getName());
@@ -119,8 +167,7 @@ public class LockMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMet
             {
                lockType = LockType.WRITE;
             }
-            Lock lock = new LockImpl(lockType);
-            return annotationClass.cast(lock);
+            return getLock(lockType);
          }
          // the method was invoked on the bean class (and not on super class of bean).
          // So return null. Later resolveClassAnnotation will pick up the correct bean level
@@ -160,16 +207,22 @@ public class LockMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMet
             {
                lockType = LockType.WRITE;
             }
-            Lock lock = new LockImpl(lockType);
-            return annotationClass.cast(lock);
+            return getLock(lockType);
          }
          // the method was invoked on the bean class (and not on super class of bean).
          // So return null. Later resolveClassAnnotation will pick up the correct bean level
          // lock semantics (either via the annotation or via metadata)
          return null;
       }
-      Lock lock = new LockImpl(lockType);
-      return annotationClass.cast(lock);
+      return getLock(lockType);
+   }
+
+   /**
+    * Returns the shared {@link Lock} instance for the passed <code>lockType</code>
+    */
+   private static Lock getLock(LockType lockType)
+   {
+      return lockType == LockType.READ ? READ_LOCK : WRITE_LOCK;
    }
 
    /**
@@ -198,7 +251,7 @@ public class LockMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMet
     * @author Jaikiran Pai
     * @version $Revision: $
     */
-   private class LockImpl implements Lock
+   private static class LockImpl implements Lock
    {
 
       private LockType lockType;
@@ -231,5 +284,43 @@ public class LockMetaDataBridge implements MetaDataBridge<JBossEnterpriseBeanMet
          return Lock.class;
       }
 
+      /**
+       * Compares as specified by {@link Annotation#equals(Object)}, so that this instance equals any 
+       * {@link Lock} with the same {@link #value()}, including the ones created by the JVM
+       * 
+       * @see java.lang.annotation.Annotation#equals(java.lang.Object)
+       */
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+         {
+            return true;
+         }
+         if (!(obj instanceof Lock))
+         {
+            return false;
+         }
+         return this.lockType == ((Lock) obj).value();
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#hashCode()
+       */
+      @Override
+      public int hashCode()
+      {
+         // sum of (127 * member name hash) ^ member value hash, of all members
+         return (127 * "value".hashCode()) ^ this.lockType.hashCode();
+      }
+
+      /**
+       * @see java.lang.annotation.Annotation#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return "@" + Lock.class.getName() + "(value=" + this.lockType + ")";
+      }
    }
 }
@@ -0,0 +1,368 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.context;
+
+import java.util.Hashtable;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.reloaded.naming.spi.JavaEEComponent;
+
+/**
+ * The ENC of a bean, as handed out before the java:comp of the bean is available. 
+ * <p>
+ *  The ENC is resolved from the java:comp, on the first use after the java:comp is {@link #setJavaComp(JavaEEComponent) set},
+ *  and every operation is delegated to it from there on. Using the ENC before the java:comp is set results in 
+ *  an {@link IllegalStateException}.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class DeferredEncContext implements Context
+{
+
+   /**
+    * The container of the bean
+    */
+   private final EJBContainer container;
+
+   /**
+    * The java:comp of the bean. Null until set
+    */
+   private volatile JavaEEComponent javaComp;
+
+   /**
+    * The ENC, resolved from {@link #javaComp} on first use
+    */
+   private volatile Context enc;
+
+   /**
+    * @param container The container of the bean
+    */
+   public DeferredEncContext(EJBContainer container)
+   {
+      this.container = container;
+   }
+
+   /**
+    * Sets the java:comp of the bean, from which the ENC is resolved
+    * 
+    * @param javaComp The java:comp of the bean. Can be null, in which case the ENC is unusable again.
+    */
+   public void setJavaComp(JavaEEComponent javaComp)
+   {
+      this.javaComp = javaComp;
+      this.enc = null;
+   }
+
+   /**
+    * Returns the ENC of the bean 
+    * 
+    * @return
+    * @throws IllegalStateException If the java:comp of the bean isn't yet available
+    */
+   public Context getContext() throws IllegalStateException
+   {
+      Context context = this.enc;
+      if (context != null)
+      {
+         return context;
+      }
+      JavaEEComponent component = this.javaComp;
+      if (component == null)
+      {
+         throw new IllegalStateException("java:comp is not expected to be used before CREATE of EJB container. Failing bean: "
+               + this.container.getBeanClassName());
+      }
+      context = component.getContext();
+      this.enc = context;
+      return context;
+   }
+
+   /**
+    * @see javax.naming.Context#lookup(javax.naming.Name)
+    */
+   @Override
+   public Object lookup(Name name) throws NamingException
+   {
+      return this.getContext().lookup(name);
+   }
+
+   /**
+    * @see javax.naming.Context#lookup(java.lang.String)
+    */
+   @Override
+   public Object lookup(String name) throws NamingException
+   {
+      return this.getContext().lookup(name);
+   }
+
+   /**
+    * @see javax.naming.Context#bind(javax.naming.Name, java.lang.Object)
+    */
+   @Override
+   public void bind(Name name, Object obj) throws NamingException
+   {
+      this.getContext().bind(name, obj);
+   }
+
+   /**
+    * @see javax.naming.Context#bind(java.lang.String, java.lang.Object)
+    */
+   @Override
+   public void bind(String name, Object obj) throws NamingException
+   {
+      this.getContext().bind(name, obj);
+   }
+
+   /**
+    * @see javax.naming.Context#rebind(javax.naming.Name, java.lang.Object)
+    */
+   @Override
+   public void rebind(Name name, Object obj) throws NamingException
+   {
+      this.getContext().rebind(name, obj);
+   }
+
+   /**
+    * @see javax.naming.Context#rebind(java.lang.String, java.lang.Object)
+    */
+   @Override
+   public void rebind(String name, Object obj) throws NamingException
+   {
+      this.getContext().rebind(name, obj);
+   }
+
+   /**
+    * @see javax.naming.Context#unbind(javax.naming.Name)
+    */
+   @Override
+   public void unbind(Name name) throws NamingException
+   {
+      this.getContext().unbind(name);
+   }
+
+   /**
+    * @see javax.naming.Context#unbind(java.lang.String)
+    */
+   @Override
+   public void unbind(String name) throws NamingException
+   {
+      this.getContext().unbind(name);
+   }
+
+   /**
+    * @see javax.naming.Context#rename(javax.naming.Name, javax.naming.Name)
+    */
+   @Override
+   public void rename(Name oldName, Name newName) throws NamingException
+   {
+      this.getContext().rename(oldName, newName);
+   }
+
+   /**
+    * @see javax.naming.Context#rename(java.lang.String, java.lang.String)
+    */
+   @Override
+   public void rename(String oldName, String newName) throws NamingException
+   {
+      this.getContext().rename(oldName, newName);
+   }
+
+   /**
+    * @see javax.naming.Context#list(javax.naming.Name)
+    */
+   @Override
+   public NamingEnumeration<NameClassPair> list(Name name) throws NamingException
+   {
+      return this.getContext().list(name);
+   }
+
+   /**
+    * @see javax.naming.Context#list(java.lang.String)
+    */
+   @Override
+   public NamingEnumeration<NameClassPair> list(String name) throws NamingException
+   {
+      return this.getContext().list(name);
+   }
+
+   /**
+    * @see javax.naming.Context#listBindings(javax.naming.Name)
+    */
+   @Override
+   public NamingEnumeration<Binding> listBindings(Name name) throws NamingException
+   {
+      return this.getContext().listBindings(name);
+   }
+
+   /**
+    * @see javax.naming.Context#listBindings(java.lang.String)
+    */
+   @Override
+   public NamingEnumeration<Binding> listBindings(String name) throws NamingException
+   {
+      return this.getContext().listBindings(name);
+   }
+
+   /**
+    * @see javax.naming.Context#destroySubcontext(javax.naming.Name)
+    */
+   @Override
+   public void destroySubcontext(Name name) throws NamingException
+   {
+      this.getContext().destroySubcontext(name);
+   }
+
+   /**
+    * @see javax.naming.Context#destroySubcontext(java.lang.String)
+    */
+   @Override
+   public void destroySubcontext(String name) throws NamingException
+   {
+      this.getContext().destroySubcontext(name);
+   }
+
+   /**
+    * @see javax.naming.Context#createSubcontext(javax.naming.Name)
+    */
+   @Override
+   public Context createSubcontext(Name name) throws NamingException
+   {
+      return this.getContext().createSubcontext(name);
+   }
+
+   /**
+    * @see javax.naming.Context#createSubcontext(java.lang.String)
+    */
+   @Override
+   public Context createSubcontext(String name) throws NamingException
+   {
+      return this.getContext().createSubcontext(name);
+   }
+
+   /**
+    * @see javax.naming.Context#lookupLink(javax.naming.Name)
+    */
+   @Override
+   public Object lookupLink(Name name) throws NamingException
+   {
+      return this.getContext().lookupLink(name);
+   }
+
+   /**
+    * @see javax.naming.Context#lookupLink(java.lang.String)
+    */
+   @Override
+   public Object lookupLink(String name) throws NamingException
+   {
+      return this.getContext().lookupLink(name);
+   }
+
+   /**
+    * @see javax.naming.Context#getNameParser(javax.naming.Name)
+    */
+   @Override
+   public NameParser getNameParser(Name name) throws NamingException
+   {
+      return this.getContext().getNameParser(name);
+   }
+
+   /**
+    * @see javax.naming.Context#getNameParser(java.lang.String)
+    */
+   @Override
+   public NameParser getNameParser(String name) throws NamingException
+   {
+      return this.getContext().getNameParser(name);
+   }
+
+   /**
+    * @see javax.naming.Context#composeName(javax.naming.Name, javax.naming.Name)
+    */
+   @Override
+   public Name composeName(Name name, Name prefix) throws NamingException
+   {
+      return this.getContext().composeName(name, prefix);
+   }
+
+   /**
+    * @see javax.naming.Context#composeName(java.lang.String, java.lang.String)
+    */
+   @Override
+   public String composeName(String name, String prefix) throws NamingException
+   {
+      return this.getContext().composeName(name, prefix);
+   }
+
+   /**
+    * @see javax.naming.Context#addToEnvironment(java.lang.String, java.lang.Object)
+    */
+   @Override
+   public Object addToEnvironment(String propName, Object propVal) throws NamingException
+   {
+      return this.getContext().addToEnvironment(propName, propVal);
+   }
+
+   /**
+    * @see javax.naming.Context#removeFromEnvironment(java.lang.String)
+    */
+   @Override
+   public Object removeFromEnvironment(String propName) throws NamingException
+   {
+      return this.getContext().removeFromEnvironment(propName);
+   }
+
+   /**
+    * @see javax.naming.Context#getEnvironment()
+    */
+   @Override
+   public Hashtable<?, ?> getEnvironment() throws NamingException
+   {
+      return this.getContext().getEnvironment();
+   }
+
+   /**
+    * @see javax.naming.Context#close()
+    */
+   @Override
+   public void close() throws NamingException
+   {
+      this.getContext().close();
+   }
+
+   /**
+    * @see javax.naming.Context#getNameInNamespace()
+    */
+   @Override
+   public String getNameInNamespace() throws NamingException
+   {
+      return this.getContext().getNameInNamespace();
+   }
+}
@@ -0,0 +1,148 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.context;
+
+import org.jboss.reloaded.naming.CurrentComponent;
+import org.jboss.reloaded.naming.spi.JavaEEComponent;
+
+/**
+ * Pushes (and pops) the java:comp of a bean onto the {@link CurrentComponent} stack of the current thread,
+ * around the invocations on the bean.
+ * <p>
+ *  A push is skipped if the java:comp of the bean is already the current component of the thread (for 
+ *  example, on a call from the bean to itself), since it wouldn't change the current component. 
+ *  The pushes which were skipped (and those which weren't) are tracked per thread in a bit stack, so that the
+ *  corresponding pops do the same, without allocating anything per invocation. 
+ * </p>
+ * <p>
+ *  Like a plain pop of the {@link CurrentComponent}, a pop which doesn't match the push results in an 
+ *  {@link IllegalStateException}.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class EncPropagation
+{
+
+   /**
+    * The maximum nesting depth which is tracked in the bit stack. Deeper pushes are never skipped.
+    */
+   private static final int MAX_TRACKED_DEPTH = 64;
+
+   /**
+    * The pushes of the current thread
+    */
+   private final ThreadLocal<Pushes> pushes = new ThreadLocal<Pushes>()
+   {
+      @Override
+      protected Pushes initialValue()
+      {
+         return new Pushes();
+      }
+   };
+
+   /**
+    * Description of the bean, for error messages
+    */
+   private final String beanDescription;
+
+   /**
+    * @param beanDescription Description of the bean, for error messages
+    */
+   public EncPropagation(String beanDescription)
+   {
+      this.beanDescription = beanDescription;
+   }
+
+   /**
+    * Makes the passed <code>javaComp</code> the current component of the current thread
+    * 
+    * @param javaComp The java:comp of the bean
+    */
+   public void push(JavaEEComponent javaComp)
+   {
+      Pushes pushes = this.pushes.get();
+      if (pushes.depth >= MAX_TRACKED_DEPTH)
+      {
+         CurrentComponent.push(javaComp);
+         pushes.untracked++;
+         return;
+      }
+      boolean skip = javaComp != null && CurrentComponent.get() == javaComp;
+      if (!skip)
+      {
+         CurrentComponent.push(javaComp);
+      }
+      pushes.skipped = (pushes.skipped << 1) | (skip ? 1L : 0L);
+      pushes.depth++;
+   }
+
+   /**
+    * Undoes the corresponding {@link #push(JavaEEComponent)}
+    * 
+    * @param javaComp The java:comp of the bean
+    * @throws IllegalStateException If the current component isn't the passed <code>javaComp</code>
+    */
+   public void pop(JavaEEComponent javaComp) throws IllegalStateException
+   {
+      Pushes pushes = this.pushes.get();
+      boolean skipped = false;
+      if (pushes.untracked > 0)
+      {
+         pushes.untracked--;
+      }
+      else if (pushes.depth > 0)
+      {
+         skipped = (pushes.skipped & 1L) != 0;
+         pushes.skipped >>>= 1;
+         pushes.depth--;
+      }
+      JavaEEComponent current = skipped ? CurrentComponent.get() : CurrentComponent.pop();
+      if (current != javaComp)
+      {
+         throw new IllegalStateException("Unexpected ENC context " + current + " popped by EJB container of bean "
+               + this.beanDescription);
+      }
+   }
+
+   /**
+    * The pushes of a thread
+    */
+   private static class Pushes
+   {
+      /**
+       * The number of tracked pushes which haven't been popped yet
+       */
+      private int depth;
+
+      /**
+       * The bit stack of the tracked pushes. A bit is set if the corresponding push was skipped. The 
+       * latest push is the lowest bit.
+       */
+      private long skipped;
+
+      /**
+       * The number of pushes, beyond the tracked depth, which haven't been popped yet
+       */
+      private int untracked;
+   }
+}
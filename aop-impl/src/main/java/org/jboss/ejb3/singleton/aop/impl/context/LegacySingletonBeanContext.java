@@ -27,10 +27,12 @@ import org.jboss.ejb3.context.spi.EJBContext;
 import org.jboss.ejb3.context.spi.SessionInvocationContext;
 import org.jboss.ejb3.session.SessionSpecBeanContext;
 import org.jboss.ejb3.singleton.aop.impl.AOPBasedSingletonContainer;
+import org.jboss.ejb3.singleton.aop.impl.invoker.BeanMethodInvoker;
 import org.jboss.ejb3.timerservice.spi.TimerServiceInvocationContext;
 import org.jboss.logging.Logger;
 
 import java.io.Serializable;
+import java.lang.reflect.Method;
 
 /**
  * LegacySingletonBeanContext
@@ -103,6 +105,21 @@ public class LegacySingletonBeanContext extends SessionSpecBeanContext<AOPBasedS
       return null;
    }
    
+   /**
+    * Invokes the passed bean <code>method</code> on the bean instance of this bean context, through the 
+    * {@link BeanMethodInvoker} of the method. No interceptors are involved.
+    * 
+    * @param method The bean method
+    * @param args The arguments to the method
+    * @return Returns the result of the method invocation
+    * @throws Throwable The exception thrown by the bean method (as-is)
+    */
+   public Object invokeBeanMethod(Method method, Object[] args) throws Throwable
+   {
+      BeanMethodInvoker invoker = this.aopBasedSingletonContainer.getBeanMethodInvoker(method);
+      return invoker.invoke(this.getInstance(), args);
+   }
+   
    @Override
    public SessionInvocationContext createLifecycleInvocation()
    {
@@ -0,0 +1,42 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.invoker;
+
+/**
+ * Invokes one particular bean method on a bean instance. Unlike {@link java.lang.reflect.Method#invoke(Object, Object...)},
+ * the exceptions thrown by the bean method are thrown as-is (i.e. not wrapped in a 
+ * {@link java.lang.reflect.InvocationTargetException}).
+ *
+ * @version $Revision: $
+ */
+public interface BeanMethodInvoker
+{
+   /**
+    * Invokes the bean method on the passed <code>bean</code> instance
+    * 
+    * @param bean The bean instance
+    * @param args The arguments to the bean method
+    * @return Returns the result of the bean method (primitives are wrapped). Returns null for void methods.
+    * @throws Throwable The exception thrown by the bean method
+    */
+   Object invoke(Object bean, Object[] args) throws Throwable;
+}
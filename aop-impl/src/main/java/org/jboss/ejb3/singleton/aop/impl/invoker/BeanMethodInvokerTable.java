@@ -0,0 +1,135 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.invoker;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maintains the {@link BeanMethodInvoker} of each bean method of a container. The invokers of the methods 
+ * known at the time of creation of this table are bound upfront, so that no invoker is generated during
+ * invocations on those methods.
+ * <p>
+ *  Like the {@link org.jboss.ejb3.singleton.aop.impl.MethodInfoTable}, the table consists of an immutable,
+ *  identity keyed, map of the known methods and an equality keyed {@link ConcurrentHashMap}, which is lazily 
+ *  populated for any other method.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class BeanMethodInvokerTable
+{
+
+   /**
+    * Identity keyed (immutable) map of the methods known at construction time
+    */
+   private final Map<Method, BeanMethodInvoker> registeredMethods;
+
+   /**
+    * Equality keyed map of methods, pre-filled with the methods known at construction time
+    * and lazily populated with the rest
+    */
+   private final ConcurrentMap<Method, BeanMethodInvoker> invokers = new ConcurrentHashMap<Method, BeanMethodInvoker>();
+
+   /**
+    * Generates the invokers
+    */
+   private final GeneratedBeanMethodInvokerFactory invokerFactory;
+
+   /**
+    * Creates a {@link BeanMethodInvokerTable} for the passed bean <code>methods</code>
+    * 
+    * @param methods The bean methods whose invokers will be bound upfront. Static methods are skipped. Can be null.
+    * @param classLoader The classloader of the container. Invokers are only generated for the methods declared
+    *           by its classes, the other methods are invoked through reflection.
+    */
+   public BeanMethodInvokerTable(Collection<Method> methods, ClassLoader classLoader)
+   {
+      this.invokerFactory = new GeneratedBeanMethodInvokerFactory(classLoader);
+      Map<Method, BeanMethodInvoker> known = new IdentityHashMap<Method, BeanMethodInvoker>();
+      if (methods != null)
+      {
+         for (Method method : methods)
+         {
+            if (Modifier.isStatic(method.getModifiers()) || known.containsKey(method))
+            {
+               continue;
+            }
+            BeanMethodInvoker invoker = this.invokers.get(method);
+            if (invoker == null)
+            {
+               invoker = this.createInvoker(method);
+               this.invokers.put(method, invoker);
+            }
+            known.put(method, invoker);
+         }
+      }
+      this.registeredMethods = Collections.unmodifiableMap(known);
+   }
+
+   /**
+    * Returns the {@link BeanMethodInvoker} for the passed bean <code>method</code>
+    * 
+    * @param method The bean method
+    * @return
+    */
+   public BeanMethodInvoker getInvoker(Method method)
+   {
+      BeanMethodInvoker invoker = this.registeredMethods.get(method);
+      if (invoker != null)
+      {
+         return invoker;
+      }
+      invoker = this.invokers.get(method);
+      if (invoker != null)
+      {
+         return invoker;
+      }
+      // not (yet) known to us
+      invoker = this.createInvoker(method);
+      BeanMethodInvoker existing = this.invokers.putIfAbsent(method, invoker);
+      return existing == null ? invoker : existing;
+   }
+
+   /**
+    * Returns a generated {@link BeanMethodInvoker} for the passed <code>method</code>, falling back on
+    * a {@link ReflectionBeanMethodInvoker} if an invoker can't be generated
+    * 
+    * @param method The bean method
+    * @return
+    */
+   private BeanMethodInvoker createInvoker(Method method)
+   {
+      BeanMethodInvoker invoker = this.invokerFactory.createInvoker(method);
+      if (invoker == null)
+      {
+         invoker = new ReflectionBeanMethodInvoker(method);
+      }
+      return invoker;
+   }
+}
@@ -0,0 +1,301 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.invoker;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Generates a {@link BeanMethodInvoker} class per bean method, whose {@link BeanMethodInvoker#invoke(Object, Object[])}
+ * invokes the bean method through a plain (virtual) method call, instead of reflection. The generated class is 
+ * defined in the classloader (and package) of the class which declares the bean method.
+ * <p>
+ *  Invokers are only generated for public, non-static, methods of public classes, which are declared by a class
+ *  of the container's classloader. That way the generated classes go away along with the deployment, instead of
+ *  piling up in a shared (library) classloader, which declares an inherited bean method, on each redeploy. 
+ *  For any other method, or if the generation fails (for example, because the classloader doesn't allow 
+ *  defining classes), {@link #createInvoker(Method)} returns null and the caller is expected to fall back on a 
+ *  {@link ReflectionBeanMethodInvoker}.
+ * </p>
+ * <p>
+ *  Like {@link java.lang.reflect.Method#invoke(Object, Object...)}, the generated invokers throw an 
+ *  {@link IllegalArgumentException} if the number of arguments is wrong or if an argument isn't an instance of 
+ *  the (wrapper type of the) parameter type. Unlike reflection, they don't apply widening conversions to 
+ *  primitive arguments.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class GeneratedBeanMethodInvokerFactory
+{
+
+   /** Logger */
+   private static Logger logger = Logger.getLogger(GeneratedBeanMethodInvokerFactory.class);
+
+   /**
+    * Used to generate unique class names for the invokers
+    */
+   private static final AtomicInteger invokerCount = new AtomicInteger();
+
+   /**
+    * The classloader of the container. Invokers are only generated for methods declared by its classes.
+    */
+   private final ClassLoader classLoader;
+
+   /**
+    * The class pool through which the invokers are generated, created on first use. Guarded by this factory.
+    */
+   private ClassPool classPool;
+
+   /**
+    * @param classLoader The classloader of the container. Can be null, in which case no invoker is generated.
+    */
+   public GeneratedBeanMethodInvokerFactory(ClassLoader classLoader)
+   {
+      this.classLoader = classLoader;
+   }
+
+   /**
+    * Returns a generated {@link BeanMethodInvoker} for the passed <code>method</code>. Returns null
+    * if no invoker could be generated for the method.
+    * 
+    * @param method The bean method
+    * @return
+    */
+   public BeanMethodInvoker createInvoker(Method method)
+   {
+      Class<?> declaringClass = method.getDeclaringClass();
+      int modifiers = method.getModifiers();
+      if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || !Modifier.isPublic(declaringClass.getModifiers()))
+      {
+         return null;
+      }
+      if (this.classLoader == null || declaringClass.getClassLoader() != this.classLoader)
+      {
+         // don't leave generated classes behind in a classloader which outlives the container
+         return null;
+      }
+      String invokerClassName = declaringClass.getName() + "$$SingletonBeanMethodInvoker$" + invokerCount.incrementAndGet();
+      try
+      {
+         Class<?> generatedClass;
+         synchronized (this)
+         {
+            ClassPool classPool = this.getClassPool();
+            CtClass invokerClass = classPool.makeClass(invokerClassName);
+            invokerClass.addInterface(classPool.get(BeanMethodInvoker.class.getName()));
+            invokerClass.addMethod(CtNewMethod.make(getInvokeMethodSource(method), invokerClass));
+            generatedClass = invokerClass.toClass(this.classLoader, declaringClass.getProtectionDomain());
+            invokerClass.detach();
+         }
+         return (BeanMethodInvoker) generatedClass.newInstance();
+      }
+      catch (Throwable t)
+      {
+         // we can do without a generated invoker
+         logger.debug("Could not generate invoker for bean method " + method + ", reflection will be used instead", t);
+         return null;
+      }
+   }
+
+   private ClassPool getClassPool()
+   {
+      if (this.classPool == null)
+      {
+         ClassPool classPool = new ClassPool(false);
+         classPool.appendClassPath(new LoaderClassPath(this.classLoader));
+         classPool.appendClassPath(new LoaderClassPath(BeanMethodInvoker.class.getClassLoader()));
+         this.classPool = classPool;
+      }
+      return this.classPool;
+   }
+
+   /**
+    * Returns the source of the {@link BeanMethodInvoker#invoke(Object, Object[])} implementation, for the
+    * passed <code>method</code>
+    * 
+    * @param method The bean method
+    * @return
+    */
+   static String getInvokeMethodSource(Method method)
+   {
+      StringBuilder checks = new StringBuilder();
+      StringBuilder call = new StringBuilder();
+      call.append("((").append(getSourceName(method.getDeclaringClass())).append(") bean).");
+      call.append(method.getName()).append('(');
+      Class<?>[] paramTypes = method.getParameterTypes();
+      if (paramTypes.length == 0)
+      {
+         // like reflection, null is accepted for no arguments
+         checks.append("if (args != null && args.length != 0) ");
+      }
+      else
+      {
+         checks.append("if (args == null || args.length != ").append(paramTypes.length).append(") ");
+      }
+      checks.append("throw new IllegalArgumentException(\"wrong number of arguments\"); ");
+      for (int i = 0; i < paramTypes.length; i++)
+      {
+         String arg = "args[" + i + "]";
+         String argType = getSourceName(getWrapperType(paramTypes[i]));
+         // a null argument is only valid for a reference parameter
+         checks.append("if (").append(paramTypes[i].isPrimitive() ? "" : arg + " != null && ");
+         checks.append("!(").append(arg).append(" instanceof ").append(argType).append(")) ");
+         checks.append("throw new IllegalArgumentException(\"argument type mismatch\"); ");
+         if (i > 0)
+         {
+            call.append(", ");
+         }
+         call.append(unwrap(paramTypes[i], arg));
+      }
+      call.append(')');
+
+      StringBuilder source = new StringBuilder();
+      source.append("public Object invoke(Object bean, Object[] args) throws Throwable { ");
+      source.append(checks);
+      Class<?> returnType = method.getReturnType();
+      if (returnType == Void.TYPE)
+      {
+         source.append(call).append("; return null; ");
+      }
+      else
+      {
+         source.append("return ").append(wrap(returnType, call.toString())).append("; ");
+      }
+      source.append('}');
+      return source.toString();
+   }
+
+   /**
+    * Returns the source which converts the passed <code>expression</code> (of type {@link Object})
+    * to the passed <code>type</code>
+    */
+   private static String unwrap(Class<?> type, String expression)
+   {
+      if (!type.isPrimitive())
+      {
+         return "(" + getSourceName(type) + ") " + expression;
+      }
+      return "((" + getSourceName(getWrapperType(type)) + ") " + expression + ")." + type.getName() + "Value()";
+   }
+
+   /**
+    * Returns the wrapper type of the passed <code>type</code>, if it's a primitive. Else returns the type itself.
+    */
+   private static Class<?> getWrapperType(Class<?> type)
+   {
+      if (!type.isPrimitive())
+      {
+         return type;
+      }
+      if (type == Boolean.TYPE)
+      {
+         return Boolean.class;
+      }
+      if (type == Character.TYPE)
+      {
+         return Character.class;
+      }
+      if (type == Byte.TYPE)
+      {
+         return Byte.class;
+      }
+      if (type == Short.TYPE)
+      {
+         return Short.class;
+      }
+      if (type == Integer.TYPE)
+      {
+         return Integer.class;
+      }
+      if (type == Long.TYPE)
+      {
+         return Long.class;
+      }
+      if (type == Float.TYPE)
+      {
+         return Float.class;
+      }
+      return Double.class;
+   }
+
+   /**
+    * Returns the source which converts the passed <code>expression</code> (of the passed <code>type</code>)
+    * to an {@link Object}
+    */
+   private static String wrap(Class<?> type, String expression)
+   {
+      if (!type.isPrimitive())
+      {
+         return expression;
+      }
+      if (type == Boolean.TYPE)
+      {
+         return "Boolean.valueOf(" + expression + ")";
+      }
+      if (type == Character.TYPE)
+      {
+         return "Character.valueOf(" + expression + ")";
+      }
+      if (type == Byte.TYPE)
+      {
+         return "Byte.valueOf(" + expression + ")";
+      }
+      if (type == Short.TYPE)
+      {
+         return "Short.valueOf(" + expression + ")";
+      }
+      if (type == Integer.TYPE)
+      {
+         return "Integer.valueOf(" + expression + ")";
+      }
+      if (type == Long.TYPE)
+      {
+         return "Long.valueOf(" + expression + ")";
+      }
+      if (type == Float.TYPE)
+      {
+         return "Float.valueOf(" + expression + ")";
+      }
+      return "Double.valueOf(" + expression + ")";
+   }
+
+   /**
+    * Returns the name of the passed <code>type</code>, as used in source code
+    */
+   private static String getSourceName(Class<?> type)
+   {
+      if (type.isArray())
+      {
+         return getSourceName(type.getComponentType()) + "[]";
+      }
+      return type.getName();
+   }
+}
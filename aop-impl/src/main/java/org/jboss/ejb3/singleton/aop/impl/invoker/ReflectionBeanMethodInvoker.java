@@ -0,0 +1,89 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.invoker;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * A {@link BeanMethodInvoker} which invokes the bean method through reflection. Used for the
+ * bean methods for which a {@link GeneratedBeanMethodInvokerFactory generated invoker} isn't available.
+ *
+ * @version $Revision: $
+ */
+public class ReflectionBeanMethodInvoker implements BeanMethodInvoker
+{
+
+   /**
+    * The bean method
+    */
+   private final Method method;
+
+   /**
+    * @param method The bean method
+    */
+   public ReflectionBeanMethodInvoker(Method method)
+   {
+      if (method == null)
+      {
+         throw new IllegalArgumentException("Method cannot be null while creating a " + ReflectionBeanMethodInvoker.class.getSimpleName());
+      }
+      this.method = method;
+      // the access checks are done once, here, instead of on each invocation
+      if (!method.isAccessible())
+      {
+         try
+         {
+            method.setAccessible(true);
+         }
+         catch (SecurityException se)
+         {
+            // invoke with access checks
+         }
+      }
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.aop.impl.invoker.BeanMethodInvoker#invoke(java.lang.Object, java.lang.Object[])
+    */
+   @Override
+   public Object invoke(Object bean, Object[] args) throws Throwable
+   {
+      try
+      {
+         return this.method.invoke(bean, args);
+      }
+      catch (InvocationTargetException ite)
+      {
+         throw ite.getCause();
+      }
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return ReflectionBeanMethodInvoker.class.getSimpleName() + "[" + this.method + "]";
+   }
+}
@@ -0,0 +1,50 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.remoting;
+
+import java.util.List;
+
+/**
+ * The view through which a batch of remote invocations is sent to a singleton container, as a single 
+ * remote invocation on {@link #invokeBatch(List)}. The container recognizes that invocation by the
+ * declaring class of the invoked method and runs the batched calls in order, each of them 
+ * under the lock of the invoked bean method.
+ *
+ * @version $Revision: $
+ */
+public interface BatchInvoker
+{
+
+   /**
+    * The name of the {@link #invokeBatch(List)} method
+    */
+   String INVOKE_BATCH_METHOD_NAME = "invokeBatch";
+
+   /**
+    * Runs the passed calls in order and returns their results, in the same order. A call which fails 
+    * doesn't prevent the calls which follow it from running.
+    * 
+    * @param calls The calls
+    * @return
+    */
+   List<BatchedCallResult> invokeBatch(List<BatchedCall> calls);
+}
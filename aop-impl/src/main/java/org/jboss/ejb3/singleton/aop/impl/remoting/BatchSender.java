@@ -0,0 +1,43 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.remoting;
+
+import java.util.List;
+
+/**
+ * Sends a batch of calls to the singleton container, in a single round trip, and returns their results
+ * (see {@link BatchInvoker#invokeBatch(List)})
+ *
+ * @version $Revision: $
+ */
+public interface BatchSender
+{
+
+   /**
+    * Sends the passed calls and returns their results, in the same order
+    * 
+    * @param calls The calls
+    * @return
+    * @throws Throwable If the batch couldn't be sent or its results couldn't be received
+    */
+   List<BatchedCallResult> send(List<BatchedCall> calls) throws Throwable;
+}
@@ -0,0 +1,82 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.remoting;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.jboss.ejb3.common.lang.SerializableMethod;
+
+/**
+ * A call on a business method of a singleton bean, which is sent to the container as part of a batch
+ * (see {@link BatchInvoker})
+ *
+ * @version $Revision: $
+ */
+public class BatchedCall implements Serializable
+{
+
+   /**
+    * 
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The invoked method
+    */
+   private final SerializableMethod method;
+
+   /**
+    * The arguments of the call
+    */
+   private final Object[] args;
+
+   /**
+    * @param method The invoked method
+    * @param args The arguments of the call. Can be null if the method has no parameters.
+    */
+   public BatchedCall(SerializableMethod method, Object[] args)
+   {
+      if (method == null)
+      {
+         throw new IllegalArgumentException("Invoked method cannot be null");
+      }
+      this.method = method;
+      this.args = args;
+   }
+
+   public SerializableMethod getMethod()
+   {
+      return this.method;
+   }
+
+   public Object[] getArgs()
+   {
+      return this.args;
+   }
+
+   @Override
+   public String toString()
+   {
+      return this.method.getName() + (this.args == null ? "()" : Arrays.toString(this.args));
+   }
+}
@@ -0,0 +1,121 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.remoting;
+
+import java.io.Serializable;
+
+/**
+ * The result of a {@link BatchedCall}: either the value returned by the invoked method or the exception
+ * thrown by it
+ *
+ * @version $Revision: $
+ */
+public class BatchedCallResult implements Serializable
+{
+
+   /**
+    * 
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The value returned by the call
+    */
+   private final Object value;
+
+   /**
+    * The exception thrown by the call, null if the call succeeded
+    */
+   private final Throwable exception;
+
+   private BatchedCallResult(Object value, Throwable exception)
+   {
+      this.value = value;
+      this.exception = exception;
+   }
+
+   /**
+    * Returns the result of a call which returned the passed <code>value</code>
+    * 
+    * @param value The value returned by the call
+    * @return
+    */
+   public static BatchedCallResult returned(Object value)
+   {
+      return new BatchedCallResult(value, null);
+   }
+
+   /**
+    * Returns the result of a call which threw the passed <code>exception</code>
+    * 
+    * @param exception The exception thrown by the call
+    * @return
+    */
+   public static BatchedCallResult failed(Throwable exception)
+   {
+      if (exception == null)
+      {
+         throw new IllegalArgumentException("Exception cannot be null");
+      }
+      return new BatchedCallResult(null, exception);
+   }
+
+   /**
+    * Returns true if the call threw an exception
+    * @return
+    */
+   public boolean isFailed()
+   {
+      return this.exception != null;
+   }
+
+   public Object getValue()
+   {
+      return this.value;
+   }
+
+   public Throwable getException()
+   {
+      return this.exception;
+   }
+
+   /**
+    * Returns the value returned by the call, or throws the exception thrown by it
+    * 
+    * @return
+    * @throws Throwable The exception thrown by the call
+    */
+   public Object recreate() throws Throwable
+   {
+      if (this.exception != null)
+      {
+         throw this.exception;
+      }
+      return this.value;
+   }
+
+   @Override
+   public String toString()
+   {
+      return this.exception != null ? "[failed: " + this.exception + "]" : "[returned: " + this.value + "]";
+   }
+}
@@ -0,0 +1,311 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.remoting;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Gathers the remote calls on a singleton bean into batches, each of which is sent to the container in a
+ * single round trip (see {@link BatchInvoker}). Calls are batched within an explicit batch scope 
+ * ({@link #beginBatch()} / {@link #endBatch()}) of the current thread: calls whose result isn't needed (methods 
+ * returning void) are deferred and return immediately. Any other call is sent, along with the deferred calls, 
+ * as soon as it's made. The remaining deferred calls are sent when the scope ends, which also reports the first 
+ * exception thrown by a deferred call. Calls outside of a scope are sent on their own.
+ * <p>
+ * A batch only ever holds the calls of a single thread. The batch is sent, and invoked on the server, with 
+ * the security and transaction context of the thread which sends it, so calls of different threads (and 
+ * hence possibly different callers) are never coalesced.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class RemoteInvocationBatcher
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(RemoteInvocationBatcher.class);
+
+   /**
+    * The system property which specifies the maximum number of calls in a batch
+    */
+   public static final String MAX_BATCH_SIZE_PROPERTY = "org.jboss.ejb3.singleton.remote.maxBatchSize";
+
+   /**
+    * The default maximum number of calls in a batch
+    */
+   public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+   /**
+    * The {@link BatchInvoker#invokeBatch(List)} method, which is remotely invoked to send a batch
+    */
+   public static final Method INVOKE_BATCH_METHOD = getInvokeBatchMethod();
+
+   /**
+    * The maximum number of calls in a batch
+    */
+   private final int maxBatchSize;
+
+   /**
+    * The explicit batch scope of the current thread, if any
+    */
+   private final ThreadLocal<BatchScope> scopes = new ThreadLocal<BatchScope>();
+
+   /**
+    * The number of batches sent
+    */
+   private final AtomicLong batchesSent = new AtomicLong();
+
+   /**
+    * The number of calls sent
+    */
+   private final AtomicLong callsSent = new AtomicLong();
+
+   /**
+    * @param maxBatchSize The maximum number of calls in a batch
+    */
+   public RemoteInvocationBatcher(int maxBatchSize)
+   {
+      if (maxBatchSize < 1)
+      {
+         throw new IllegalArgumentException("Maximum batch size has to be at least 1, but is " + maxBatchSize);
+      }
+      this.maxBatchSize = maxBatchSize;
+   }
+
+   /**
+    * Creates a {@link RemoteInvocationBatcher} configured through the {@link #MAX_BATCH_SIZE_PROPERTY} system 
+    * property
+    * 
+    * @return
+    */
+   public static RemoteInvocationBatcher fromSystemProperties()
+   {
+      int maxBatchSize = Integer.getInteger(MAX_BATCH_SIZE_PROPERTY, DEFAULT_MAX_BATCH_SIZE);
+      try
+      {
+         return new RemoteInvocationBatcher(maxBatchSize);
+      }
+      catch (IllegalArgumentException iae)
+      {
+         logger.warn("Ignoring invalid remote invocation batching configuration: " + iae.getMessage());
+         return new RemoteInvocationBatcher(DEFAULT_MAX_BATCH_SIZE);
+      }
+   }
+
+   /**
+    * Returns true if calls on the current thread are batched, i.e. if the current thread is within a batch scope
+    * 
+    * @return
+    */
+   public boolean isBatching()
+   {
+      return this.scopes.get() != null;
+   }
+
+   /**
+    * Begins a batch scope on the current thread. Scopes can be nested, in which case the calls are sent when
+    * the outermost scope ends.
+    */
+   public void beginBatch()
+   {
+      BatchScope scope = this.scopes.get();
+      if (scope == null)
+      {
+         scope = new BatchScope();
+         this.scopes.set(scope);
+      }
+      scope.depth++;
+   }
+
+   /**
+    * Ends the batch scope of the current thread and, if it's the outermost scope, sends the deferred calls
+    * 
+    * @throws IllegalStateException If the current thread isn't within a batch scope
+    * @throws Throwable The first exception thrown by a deferred call of the scope, or the exception thrown 
+    *           while sending the deferred calls
+    */
+   public void endBatch() throws Throwable
+   {
+      BatchScope scope = this.scopes.get();
+      if (scope == null)
+      {
+         throw new IllegalStateException("No batch scope to end on the current thread");
+      }
+      if (--scope.depth > 0)
+      {
+         return;
+      }
+      this.scopes.remove();
+      scope.flush(false);
+      if (scope.firstFailure != null)
+      {
+         throw scope.firstFailure;
+      }
+   }
+
+   /**
+    * Makes the passed call, as part of a batch if calls are being batched on the current thread
+    * 
+    * @param call The call
+    * @param deferrable True if the result of the call isn't needed by the caller, i.e. if the call can return
+    *           before it has been sent (in which case it returns null)
+    * @param sender Sends the batch
+    * @return Returns the result of the call
+    * @throws Throwable The exception thrown by the call, or the exception thrown while sending the call
+    */
+   public Object invoke(BatchedCall call, boolean deferrable, BatchSender sender) throws Throwable
+   {
+      BatchScope scope = this.scopes.get();
+      if (scope != null)
+      {
+         return scope.invoke(call, deferrable, sender);
+      }
+      return this.send(Collections.singletonList(call), sender).get(0).recreate();
+   }
+
+   /**
+    * Returns the number of batches sent
+    * @return
+    */
+   public long getBatchesSent()
+   {
+      return this.batchesSent.get();
+   }
+
+   /**
+    * Returns the number of calls sent
+    * @return
+    */
+   public long getCallsSent()
+   {
+      return this.callsSent.get();
+   }
+
+   private static Method getInvokeBatchMethod()
+   {
+      try
+      {
+         return BatchInvoker.class.getMethod(BatchInvoker.INVOKE_BATCH_METHOD_NAME, new Class<?>[]
+         {List.class});
+      }
+      catch (NoSuchMethodException nsme)
+      {
+         throw new RuntimeException("Could not find method " + BatchInvoker.INVOKE_BATCH_METHOD_NAME + " on "
+               + BatchInvoker.class, nsme);
+      }
+   }
+
+   /**
+    * Sends the passed calls through the passed sender
+    */
+   private List<BatchedCallResult> send(List<BatchedCall> calls, BatchSender sender) throws Throwable
+   {
+      List<BatchedCallResult> results = sender.send(calls);
+      if (results == null || results.size() != calls.size())
+      {
+         throw new IllegalStateException("Received " + (results == null ? "no" : results.size())
+               + " results for a batch of " + calls.size() + " calls");
+      }
+      this.batchesSent.incrementAndGet();
+      this.callsSent.addAndGet(calls.size());
+      if (logger.isTraceEnabled())
+      {
+         logger.trace("Sent batch of " + calls.size() + " calls " + calls);
+      }
+      return results;
+   }
+
+   /**
+    * The explicit batch scope of a thread
+    */
+   private class BatchScope
+   {
+      /**
+       * The nesting depth of the scope
+       */
+      private int depth;
+
+      /**
+       * The deferred calls
+       */
+      private final List<BatchedCall> deferred = new ArrayList<BatchedCall>();
+
+      /**
+       * Sends the deferred calls
+       */
+      private BatchSender sender;
+
+      /**
+       * The first exception thrown by a deferred call
+       */
+      private Throwable firstFailure;
+
+      Object invoke(BatchedCall call, boolean deferrable, BatchSender sender) throws Throwable
+      {
+         this.sender = sender;
+         this.deferred.add(call);
+         if (deferrable)
+         {
+            if (this.deferred.size() >= RemoteInvocationBatcher.this.maxBatchSize)
+            {
+               this.flush(false);
+            }
+            return null;
+         }
+         List<BatchedCallResult> results = this.flush(true);
+         return results.get(results.size() - 1).recreate();
+      }
+
+      /**
+       * Sends the pending calls and records the first exception thrown by a deferred call
+       * 
+       * @param lastCallSynchronous True if the last call isn't deferred, i.e. its result is left to its caller 
+       */
+      List<BatchedCallResult> flush(boolean lastCallSynchronous) throws Throwable
+      {
+         if (this.deferred.isEmpty())
+         {
+            return Collections.emptyList();
+         }
+         List<BatchedCall> calls = new ArrayList<BatchedCall>(this.deferred);
+         this.deferred.clear();
+         List<BatchedCallResult> results = RemoteInvocationBatcher.this.send(calls, this.sender);
+         int deferredCalls = lastCallSynchronous ? results.size() - 1 : results.size();
+         for (int i = 0; i < deferredCalls && this.firstFailure == null; i++)
+         {
+            if (results.get(i).isFailed())
+            {
+               this.firstFailure = results.get(i).getException();
+            }
+         }
+         return results;
+      }
+   }
+}
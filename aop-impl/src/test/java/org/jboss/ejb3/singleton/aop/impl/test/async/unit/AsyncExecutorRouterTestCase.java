@@ -0,0 +1,186 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.async.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.ejb3.singleton.aop.impl.async.AsyncExecutorRouter;
+import org.jboss.ejb3.singleton.aop.impl.async.PlatformThreadAsyncInterceptor;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AsyncExecutorRouter} and the {@link PlatformThreadAsyncInterceptor}
+ *
+ * @version $Revision: $
+ */
+public class AsyncExecutorRouterTestCase
+{
+
+   /**
+    * Tests that tasks are routed to the virtual thread executor by default, and to the platform thread 
+    * executor when submitted through a {@link PlatformThreadAsyncInterceptor}
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testRouting() throws Throwable
+   {
+      RecordingExecutor virtualThreads = new RecordingExecutor();
+      RecordingExecutor platformThreads = new RecordingExecutor();
+      final AsyncExecutorRouter router = new AsyncExecutorRouter(virtualThreads, platformThreads);
+
+      Runnable plainTask = new NoopTask();
+      router.execute(plainTask);
+      Assert.assertEquals("Task wasn't routed to virtual threads", 1, virtualThreads.tasks.size());
+      Assert.assertTrue("Task unexpectedly routed to platform threads", platformThreads.tasks.isEmpty());
+
+      // an "async interceptor" which submits the invocation to the router
+      final Runnable pinnedTask = new NoopTask();
+      Interceptor asyncInterceptor = new Interceptor()
+      {
+         @Override
+         public String getName()
+         {
+            return "org.jboss.ejb3.async.impl.interceptor.AsynchronousInterceptorFactory";
+         }
+
+         @Override
+         public Object invoke(Invocation invocation) throws Throwable
+         {
+            router.execute(pinnedTask);
+            return null;
+         }
+      };
+      Interceptor pinned = new PlatformThreadAsyncInterceptor(asyncInterceptor);
+      Assert.assertEquals("Unexpected interceptor name", asyncInterceptor.getName(), pinned.getName());
+      pinned.invoke(null);
+      Assert.assertEquals("Task wasn't routed to platform threads", 1, platformThreads.tasks.size());
+      Assert.assertSame("Unexpected task routed to platform threads", pinnedTask, platformThreads.tasks.get(0));
+
+      // the platform thread scope ends with the interceptor invocation
+      router.execute(plainTask);
+      Assert.assertEquals("Task wasn't routed to virtual threads", 2, virtualThreads.tasks.size());
+      Assert.assertEquals("Task unexpectedly routed to platform threads", 1, platformThreads.tasks.size());
+   }
+
+   /**
+    * Tests that the platform thread scope ends, even if the wrapped interceptor fails
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testScopeEndsOnFailure() throws Throwable
+   {
+      RecordingExecutor virtualThreads = new RecordingExecutor();
+      RecordingExecutor platformThreads = new RecordingExecutor();
+      AsyncExecutorRouter router = new AsyncExecutorRouter(virtualThreads, platformThreads);
+
+      final IllegalStateException failure = new IllegalStateException("Intentional failure");
+      Interceptor failing = new PlatformThreadAsyncInterceptor(new Interceptor()
+      {
+         @Override
+         public String getName()
+         {
+            return "failing";
+         }
+
+         @Override
+         public Object invoke(Invocation invocation) throws Throwable
+         {
+            throw failure;
+         }
+      });
+      try
+      {
+         failing.invoke(null);
+         Assert.fail("Interceptor was expected to fail");
+      }
+      catch (IllegalStateException ise)
+      {
+         Assert.assertSame("Unexpected failure", failure, ise);
+      }
+      router.execute(new NoopTask());
+      Assert.assertEquals("Task wasn't routed to virtual threads", 1, virtualThreads.tasks.size());
+      Assert.assertTrue("Task unexpectedly routed to platform threads", platformThreads.tasks.isEmpty());
+   }
+
+   private static class NoopTask implements Runnable
+   {
+      @Override
+      public void run()
+      {
+      }
+   }
+
+   /**
+    * Records the submitted tasks, without running them
+    */
+   private static class RecordingExecutor extends AbstractExecutorService
+   {
+      private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+      private boolean shutdown;
+
+      @Override
+      public void execute(Runnable task)
+      {
+         this.tasks.add(task);
+      }
+
+      @Override
+      public void shutdown()
+      {
+         this.shutdown = true;
+      }
+
+      @Override
+      public List<Runnable> shutdownNow()
+      {
+         this.shutdown = true;
+         return new ArrayList<Runnable>(this.tasks);
+      }
+
+      @Override
+      public boolean isShutdown()
+      {
+         return this.shutdown;
+      }
+
+      @Override
+      public boolean isTerminated()
+      {
+         return this.shutdown;
+      }
+
+      @Override
+      public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+      {
+         return this.shutdown;
+      }
+   }
+}
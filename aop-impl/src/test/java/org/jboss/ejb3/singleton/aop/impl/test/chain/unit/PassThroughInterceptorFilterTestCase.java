@@ -0,0 +1,150 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.chain.unit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+
+import javax.annotation.security.RunAs;
+import javax.ejb.Asynchronous;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.ejb3.singleton.aop.impl.PassThroughInterceptorFilter;
+import org.jboss.ejb3.singleton.aop.impl.test.container.SimpleSingletonBean;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link PassThroughInterceptorFilter}
+ *
+ * @version $Revision: $
+ */
+public class PassThroughInterceptorFilterTestCase
+{
+
+   private static final String ASYNC_INTERCEPTOR_FACTORY = "org.jboss.ejb3.async.impl.interceptor.AsynchronousInterceptorFactory";
+
+   private static final String RUN_AS_INTERCEPTOR_FACTORY = "org.jboss.ejb3.security.RunAsSecurityInterceptorFactory";
+
+   private static final String BMT_INTERCEPTOR_FACTORY = "org.jboss.ejb3.tx.BMTTxInterceptorFactory";
+
+   private static final String TX_PROPAGATION_INTERCEPTOR = "org.jboss.aspects.tx.TxPropagationInterceptor";
+
+   /**
+    * Tests that the async, run-as and BMT interceptors are dropped for a plain method of a CMT bean
+    * without run-as, and the rest of the interceptors are retained in order
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testPassThroughInterceptorsDropped() throws Exception
+   {
+      Method getCount = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+      EJBContainer container = mock(EJBContainer.class);
+      PassThroughInterceptorFilter filter = new PassThroughInterceptorFilter(container);
+
+      Interceptor async = createInterceptor(ASYNC_INTERCEPTOR_FACTORY);
+      Interceptor runAs = createInterceptor(RUN_AS_INTERCEPTOR_FACTORY);
+      Interceptor txPropagation = createInterceptor(TX_PROPAGATION_INTERCEPTOR);
+      Interceptor bmt = createInterceptor(BMT_INTERCEPTOR_FACTORY);
+      Interceptor custom = createInterceptor("custom");
+      Interceptor[] filtered = filter.filter(getCount, new Interceptor[]
+      {async, runAs, txPropagation, bmt, custom});
+
+      Assert.assertArrayEquals("Unexpected interceptor chain", new Interceptor[]
+      {txPropagation, custom}, filtered);
+   }
+
+   /**
+    * Tests that the interceptors are retained when the metadata says that they apply
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testApplicableInterceptorsRetained() throws Exception
+   {
+      Method getCount = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+      EJBContainer container = mock(EJBContainer.class);
+      when(container.getAnnotation(RunAs.class)).thenReturn(mock(RunAs.class));
+      when(container.getAnnotation(Asynchronous.class, getCount)).thenReturn(mock(Asynchronous.class));
+      PassThroughInterceptorFilter filter = new PassThroughInterceptorFilter(container);
+
+      Interceptor[] interceptors = new Interceptor[]
+      {createInterceptor(ASYNC_INTERCEPTOR_FACTORY), createInterceptor(RUN_AS_INTERCEPTOR_FACTORY)};
+      Assert.assertSame("Interceptor chain unexpectedly changed", interceptors, filter.filter(getCount, interceptors));
+   }
+
+   /**
+    * Tests that the async interceptor is retained for a method inherited from a superclass which is marked
+    * {@link Asynchronous @Asynchronous}, even though neither the bean class nor the method are
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInheritedAsynchronousMethod() throws Exception
+   {
+      Method fireAndForget = AsyncSubclassBean.class.getMethod("fireAndForget", new Class<?>[]
+      {});
+      EJBContainer container = mock(EJBContainer.class);
+      PassThroughInterceptorFilter filter = new PassThroughInterceptorFilter(container);
+
+      Interceptor async = createInterceptor(ASYNC_INTERCEPTOR_FACTORY);
+      Interceptor custom = createInterceptor("custom");
+      Interceptor[] interceptors = new Interceptor[]
+      {async, custom};
+      Assert.assertSame("Async interceptor dropped for inherited asynchronous method", interceptors, filter.filter(
+            fireAndForget, interceptors));
+
+      // a method declared on the bean class itself isn't asynchronous
+      Method sync = AsyncSubclassBean.class.getMethod("sync", new Class<?>[]
+      {});
+      Assert.assertArrayEquals("Async interceptor retained for synchronous method", new Interceptor[]
+      {custom}, filter.filter(sync, interceptors));
+   }
+
+   @Asynchronous
+   public static class AsyncBase
+   {
+      public void fireAndForget()
+      {
+      }
+   }
+
+   public static class AsyncSubclassBean extends AsyncBase
+   {
+      public void sync()
+      {
+      }
+   }
+
+   private static Interceptor createInterceptor(String name)
+   {
+      Interceptor interceptor = mock(Interceptor.class);
+      when(interceptor.getName()).thenReturn(name);
+      return interceptor;
+   }
+}
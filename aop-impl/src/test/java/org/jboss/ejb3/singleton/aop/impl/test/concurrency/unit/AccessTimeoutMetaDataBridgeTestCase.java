@@ -0,0 +1,122 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.concurrency.unit;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.AccessTimeout;
+
+import org.jboss.ejb3.singleton.aop.impl.concurrency.bridge.AccessTimeoutMetaDataBridge;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.spec.AccessTimeoutMetaData;
+import org.jboss.metadata.ejb.spec.ConcurrentMethodMetaData;
+import org.jboss.metadata.ejb.spec.ConcurrentMethodsMetaData;
+import org.jboss.metadata.ejb.spec.NamedMethodMetaData;
+import org.jboss.metadata.spi.signature.DeclaredMethodSignature;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AccessTimeoutMetaDataBridge}
+ *
+ * @version $Revision: $
+ */
+public class AccessTimeoutMetaDataBridgeTestCase
+{
+
+   private JBossSessionBean31MetaData sessionBean;
+
+   @Before
+   public void before()
+   {
+      this.sessionBean = new JBossSessionBean31MetaData();
+      this.sessionBean.setEjbName("SimpleSingletonBean");
+      ConcurrentMethodsMetaData concurrentMethods = new ConcurrentMethodsMetaData();
+      this.addConcurrentMethod(concurrentMethods, "*", 3, TimeUnit.SECONDS);
+      this.addConcurrentMethod(concurrentMethods, "incrementCount", 100, null);
+      this.addConcurrentMethod(concurrentMethods, "getCount", -1, null);
+      this.sessionBean.setConcurrentMethods(concurrentMethods);
+   }
+
+   /**
+    * Tests that the access timeout specified for a method, in the deployment descriptor, applies to that method
+    */
+   @Test
+   public void testMethodLevelAccessTimeout()
+   {
+      AccessTimeout accessTimeout = this.retrieveAccessTimeout(new AccessTimeoutMetaDataBridge(), "incrementCount");
+      Assert.assertNotNull("No access timeout for incrementCount", accessTimeout);
+      Assert.assertEquals("Unexpected access timeout", 100, accessTimeout.value());
+      Assert.assertEquals("Unexpected access timeout unit", TimeUnit.MILLISECONDS, accessTimeout.unit());
+   }
+
+   /**
+    * Tests that the access timeout specified for method "*" applies to the methods without an access timeout 
+    * of their own
+    */
+   @Test
+   public void testAccessTimeoutForAllMethods()
+   {
+      AccessTimeoutMetaDataBridge bridge = new AccessTimeoutMetaDataBridge();
+      // concurrency metadata but no access timeout
+      AccessTimeout accessTimeout = this.retrieveAccessTimeout(bridge, "getCount");
+      Assert.assertNotNull("No access timeout for getCount", accessTimeout);
+      Assert.assertEquals("Unexpected access timeout", 3, accessTimeout.value());
+      Assert.assertEquals("Unexpected access timeout unit", TimeUnit.SECONDS, accessTimeout.unit());
+      // no concurrency metadata at all
+      accessTimeout = this.retrieveAccessTimeout(bridge, "toString");
+      Assert.assertNotNull("No access timeout for toString", accessTimeout);
+      Assert.assertEquals("Unexpected access timeout", 3, accessTimeout.value());
+      // the method level access timeout still applies when resolved through the same (memoizing) bridge
+      Assert.assertEquals("Unexpected access timeout", 100, this.retrieveAccessTimeout(bridge, "incrementCount")
+            .value());
+   }
+
+   private AccessTimeout retrieveAccessTimeout(AccessTimeoutMetaDataBridge bridge, String methodName)
+   {
+      DeclaredMethodSignature method = new DeclaredMethodSignature("SimpleSingletonBean", methodName, new String[0]);
+      return bridge.retrieveAnnotation(AccessTimeout.class, this.sessionBean, this.getClass().getClassLoader(),
+            method);
+   }
+
+   /**
+    * Adds concurrency metadata for the method named <code>methodName</code>, with an access timeout 
+    * unless <code>timeout</code> is negative
+    */
+   private void addConcurrentMethod(ConcurrentMethodsMetaData concurrentMethods, String methodName, long timeout,
+         TimeUnit unit)
+   {
+      NamedMethodMetaData namedMethod = new NamedMethodMetaData();
+      namedMethod.setName(methodName);
+      ConcurrentMethodMetaData concurrentMethod = new ConcurrentMethodMetaData();
+      concurrentMethod.setMethod(namedMethod);
+      if (timeout >= 0)
+      {
+         AccessTimeoutMetaData accessTimeout = new AccessTimeoutMetaData();
+         accessTimeout.setTimeout(timeout);
+         accessTimeout.setUnit(unit);
+         concurrentMethod.setAccessTimeout(accessTimeout);
+      }
+      concurrentMethods.put(namedMethod, concurrentMethod);
+   }
+}
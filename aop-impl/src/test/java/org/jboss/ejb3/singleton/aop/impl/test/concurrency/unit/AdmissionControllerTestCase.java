@@ -0,0 +1,108 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.concurrency.unit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.singleton.aop.impl.concurrency.AdmissionController;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AdmissionController}
+ *
+ * @version $Revision: $
+ */
+public class AdmissionControllerTestCase
+{
+
+   /**
+    * Tests that the bean is overloaded while the number of waiting callers is at the budget
+    */
+   @Test
+   public void testWaitingCallersBudget()
+   {
+      AdmissionController admission = new AdmissionController(2, 0, TimeUnit.MILLISECONDS);
+      admission.waitStarted();
+      Assert.assertFalse("Overloaded with a single waiting caller", admission.isOverloaded());
+      admission.waitStarted();
+      Assert.assertTrue("Not overloaded with the maximum number of waiting callers", admission.isOverloaded());
+      admission.waitEnded(TimeUnit.SECONDS.toNanos(10));
+      Assert.assertFalse("Still overloaded after a waiting caller left", admission.isOverloaded());
+      Assert.assertEquals("Lock wait time recorded without a lock wait budget", 0, admission.getAverageLockWaitNanos());
+   }
+
+   /**
+    * Tests that the bean is overloaded while the moving average of the lock wait time is over the budget, 
+    * and that callers admitted without waiting bring the average back under the budget
+    */
+   @Test
+   public void testLockWaitBudget()
+   {
+      AdmissionController admission = new AdmissionController(0, 100, TimeUnit.MILLISECONDS);
+      for (int i = 0; i < 20; i++)
+      {
+         admission.waitStarted();
+         admission.waitEnded(TimeUnit.SECONDS.toNanos(1));
+      }
+      Assert.assertTrue("Not overloaded after long lock waits", admission.isOverloaded());
+      Assert.assertEquals("Unexpected number of waiting callers", 0, admission.getWaitingCallers());
+      int admissions = 0;
+      while (admission.isOverloaded())
+      {
+         Assert.assertTrue("Lock wait average isn't coming down: " + admission.getAverageLockWaitNanos(),
+               admissions < 100);
+         admission.admittedWithoutWait();
+         admissions++;
+      }
+      Assert.assertTrue("Recovered too early, after " + admissions + " admissions", admissions > 1);
+   }
+
+   /**
+    * Tests that a wait of unknown length only affects the number of waiting callers
+    */
+   @Test
+   public void testUnmeasuredWait()
+   {
+      AdmissionController admission = new AdmissionController(1, 100, TimeUnit.MILLISECONDS);
+      admission.waitStarted();
+      Assert.assertTrue("Not overloaded with the maximum number of waiting callers", admission.isOverloaded());
+      admission.waitEnded();
+      Assert.assertFalse("Still overloaded after the waiting caller left", admission.isOverloaded());
+      Assert.assertEquals("Unmeasured wait recorded", 0, admission.getAverageLockWaitNanos());
+   }
+
+   /**
+    * Tests that the bean is never overloaded, without any budget
+    */
+   @Test
+   public void testNoBudget()
+   {
+      AdmissionController admission = new AdmissionController(0, 0, TimeUnit.MILLISECONDS);
+      for (int i = 0; i < 100; i++)
+      {
+         admission.waitStarted();
+      }
+      admission.waitEnded(TimeUnit.SECONDS.toNanos(10));
+      Assert.assertFalse("Overloaded without any budget", admission.isOverloaded());
+   }
+}
@@ -0,0 +1,218 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.concurrency.unit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.AccessTimeout;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.ConcurrencyAttributes;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.ConcurrencyAttributesTable;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the resolution of the effective {@link Lock} and {@link AccessTimeout} by {@link ConcurrencyAttributesTable}
+ *
+ * @version $Revision: $
+ */
+public class ConcurrencyAttributesTableTestCase
+{
+
+   private EJBContainer container;
+
+   @Before
+   public void before()
+   {
+      // a container which resolves the annotations straight from the bean class
+      this.container = mock(EJBContainer.class);
+      when(this.container.getEjbName()).thenReturn(ReadBean.class.getSimpleName());
+      when(this.container.getBeanClass()).thenAnswer(new Answer<Class<?>>()
+      {
+         @Override
+         public Class<?> answer(InvocationOnMock invocation) throws Throwable
+         {
+            return ReadBean.class;
+         }
+      });
+      when(this.container.getAnnotation(any(Class.class))).thenAnswer(new Answer<Annotation>()
+      {
+         @SuppressWarnings("unchecked")
+         @Override
+         public Annotation answer(InvocationOnMock invocation) throws Throwable
+         {
+            return ReadBean.class.getAnnotation((Class<? extends Annotation>) invocation.getArguments()[0]);
+         }
+      });
+      when(this.container.getAnnotation(any(Class.class), any(Method.class))).thenAnswer(new Answer<Annotation>()
+      {
+         @SuppressWarnings("unchecked")
+         @Override
+         public Annotation answer(InvocationOnMock invocation) throws Throwable
+         {
+            Method method = (Method) invocation.getArguments()[1];
+            return method.getAnnotation((Class<? extends Annotation>) invocation.getArguments()[0]);
+         }
+      });
+   }
+
+   /**
+    * Tests the method level, bean level and superclass level resolution of the concurrency attributes
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testResolution() throws Exception
+   {
+      Method read = ReadBean.class.getMethod("read");
+      Method write = ReadBean.class.getMethod("write");
+      Method inherited = Base.class.getMethod("inherited");
+      ConcurrencyAttributesTable table = new ConcurrencyAttributesTable(this.container, Arrays.asList(read, write,
+            inherited));
+
+      ConcurrencyAttributes readAttributes = table.getConcurrencyAttributes(read);
+      Assert.assertEquals("Bean level @Lock not applied", LockType.READ, readAttributes.getLockType());
+      Assert.assertEquals("Bean level @AccessTimeout not applied", 2000, readAttributes.getAccessTimeoutMillis(5000));
+
+      ConcurrencyAttributes writeAttributes = table.getConcurrencyAttributes(write);
+      Assert.assertEquals("Method level @Lock not applied", LockType.WRITE, writeAttributes.getLockType());
+      Assert.assertEquals("Method level @AccessTimeout not applied", 100, writeAttributes.getAccessTimeoutMillis(5000));
+
+      // EJB3.1 spec, section 4.8.5.5: the bean class @Lock doesn't apply to superclass methods
+      ConcurrencyAttributes inheritedAttributes = table.getConcurrencyAttributes(inherited);
+      Assert.assertEquals("Superclass method not WRITE locked", LockType.WRITE, inheritedAttributes.getLockType());
+      Assert.assertNull("Unexpected access timeout on superclass method", inheritedAttributes.getAccessTimeout());
+      Assert.assertEquals("Default access timeout not applied", 5000, inheritedAttributes.getAccessTimeoutMillis(5000));
+   }
+
+   /**
+    * Tests that the attributes are shared between equal {@link Method} instances and that the {@link Lock}
+    * instances are shared between methods
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testSharedAttributes() throws Exception
+   {
+      Method read = ReadBean.class.getMethod("read");
+      Method otherRead = ReadBean.class.getMethod("otherRead");
+      ConcurrencyAttributesTable table = new ConcurrencyAttributesTable(this.container, Arrays.asList(read,
+            otherRead));
+
+      // Class.getMethod returns a new Method instance on each call
+      Method sameRead = ReadBean.class.getMethod("read");
+      Assert.assertSame("Attributes not shared for equal methods", table.getConcurrencyAttributes(read), table
+            .getConcurrencyAttributes(sameRead));
+      Assert.assertSame("Lock instance not shared", table.getConcurrencyAttributes(read).getLock(), table
+            .getConcurrencyAttributes(otherRead).getLock());
+   }
+
+   /**
+    * Tests that the methods of a business interface resolve to the attributes of the implementing bean method and
+    * that methods which weren't known to the table are resolved on lookup
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInterfaceAndUnknownMethods() throws Exception
+   {
+      ConcurrencyAttributesTable table = new ConcurrencyAttributesTable(this.container, null);
+      Method interfaceWrite = Writer.class.getMethod("write");
+      Assert.assertNull("Unexpected known method", table.getKnownConcurrencyAttributes(interfaceWrite));
+
+      ConcurrencyAttributes attributes = table.getConcurrencyAttributes(interfaceWrite);
+      Assert.assertEquals("Interface method not resolved to bean method", LockType.WRITE, attributes.getLockType());
+      Assert.assertEquals("Interface method not resolved to bean method", 100, attributes.getAccessTimeoutMillis(5000));
+      Assert.assertSame("Late resolved attributes not cached", attributes, table.getConcurrencyAttributes(interfaceWrite));
+   }
+
+   /**
+    * Tests that the shared {@link Lock} instances handed out by the table honour the {@link Annotation} contract
+    * for equals, hashCode and toString, against the annotations created by the JVM
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testLockAnnotationContract() throws Exception
+   {
+      Method read = ReadBean.class.getMethod("read");
+      Method write = ReadBean.class.getMethod("write");
+      ConcurrencyAttributesTable table = new ConcurrencyAttributesTable(this.container, Arrays.asList(read, write));
+
+      Lock readLock = table.getConcurrencyAttributes(read).getLock();
+      Lock jvmReadLock = ReadBean.class.getAnnotation(Lock.class);
+      Assert.assertEquals("Lock not equal to JVM annotation", jvmReadLock, readLock);
+      Assert.assertEquals("JVM annotation not equal to lock", readLock, jvmReadLock);
+      Assert.assertEquals("Unexpected hash code", jvmReadLock.hashCode(), readLock.hashCode());
+
+      Lock writeLock = table.getConcurrencyAttributes(write).getLock();
+      Lock jvmWriteLock = write.getAnnotation(Lock.class);
+      Assert.assertEquals("Lock not equal to JVM annotation", jvmWriteLock, writeLock);
+      Assert.assertEquals("Unexpected hash code", jvmWriteLock.hashCode(), writeLock.hashCode());
+      Assert.assertFalse("READ lock equal to WRITE lock", readLock.equals(writeLock));
+      Assert.assertEquals("Unexpected toString", "@javax.ejb.Lock(value=WRITE)", writeLock.toString());
+   }
+
+   public interface Writer
+   {
+      void write();
+   }
+
+   public static class Base
+   {
+      public void inherited()
+      {
+      }
+   }
+
+   @Lock(LockType.READ)
+   @AccessTimeout(value = 2, unit = TimeUnit.SECONDS)
+   public static class ReadBean extends Base implements Writer
+   {
+      public void read()
+      {
+      }
+
+      public void otherRead()
+      {
+      }
+
+      @Lock(LockType.WRITE)
+      @AccessTimeout(100)
+      public void write()
+      {
+      }
+   }
+}
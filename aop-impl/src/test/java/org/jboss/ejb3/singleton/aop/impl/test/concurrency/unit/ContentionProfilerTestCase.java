@@ -0,0 +1,271 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.concurrency.unit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.ejb.ConcurrentAccessTimeoutException;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.aop.joinpoint.MethodInvocation;
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.ContentionProfiler;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.ContentionProfiler.Hotspot;
+import org.jboss.ejb3.singleton.aop.impl.test.container.SimpleSingletonBean;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the {@link ContentionProfiler}
+ *
+ * @version $Revision: $
+ */
+public class ContentionProfilerTestCase
+{
+
+   private ExecutorService executor;
+
+   private ContentionProfiler profiler;
+
+   /**
+    * Stands in for the bean lock of the container managed concurrency interceptor
+    */
+   private ReentrantLock beanLock;
+
+   private Method incrementCount;
+
+   private Method getCount;
+
+   @Before
+   public void before() throws Exception
+   {
+      this.executor = Executors.newSingleThreadExecutor();
+      EJBContainer container = mock(EJBContainer.class);
+      when(container.getEjbName()).thenReturn("SimpleSingletonBean");
+      // no @Lock, so all methods are WRITE locked
+      this.profiler = new ContentionProfiler(container, 60, 1, 100);
+      this.beanLock = new ReentrantLock();
+      this.incrementCount = SimpleSingletonBean.class.getMethod("incrementCount", new Class<?>[]
+      {});
+      this.getCount = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+   }
+
+   @After
+   public void after()
+   {
+      this.executor.shutdownNow();
+   }
+
+   /**
+    * Tests that a invocation waiting for the lock is recorded along with the method holding the lock
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testWaitIsRecordedWithHolder() throws Exception
+   {
+      CountDownLatch holding = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      Future<?> holder = this.hold(this.incrementCount, holding, release);
+      Assert.assertTrue("Lock holder did not start", holding.await(5, TimeUnit.SECONDS));
+
+      // release the holder after a while, so that the waiting invocation below does wait
+      ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+      try
+      {
+         scheduler.schedule(new LatchReleaser(release), 100, TimeUnit.MILLISECONDS);
+         this.invoke(this.getCount, 5000, null);
+         holder.get();
+      }
+      finally
+      {
+         scheduler.shutdown();
+      }
+
+      List<Hotspot> hotspots = this.profiler.getHotspots(10);
+      Assert.assertEquals("Unexpected number of hotspots", 1, hotspots.size());
+      Hotspot hotspot = hotspots.get(0);
+      Assert.assertEquals("Unexpected waiter", "SimpleSingletonBean.getCount", hotspot.getWaiter());
+      Assert.assertEquals("Unexpected holder", "SimpleSingletonBean.incrementCount", hotspot.getHolder());
+      Assert.assertEquals("Unexpected access timeouts", 0, hotspot.getAccessTimeouts());
+      Assert.assertTrue("Unexpected wait time " + hotspot.getMaxWaitNanos(),
+            hotspot.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+   }
+
+   /**
+    * Tests that a invocation whose access timeout expires is recorded
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testAccessTimeoutIsRecorded() throws Exception
+   {
+      CountDownLatch holding = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      Future<?> holder = this.hold(this.incrementCount, holding, release);
+      Assert.assertTrue("Lock holder did not start", holding.await(5, TimeUnit.SECONDS));
+      try
+      {
+         this.invoke(this.getCount, 10, null);
+         Assert.fail("Access timeout did not expire");
+      }
+      catch (ConcurrentAccessTimeoutException expected)
+      {
+         // expected
+      }
+      finally
+      {
+         release.countDown();
+      }
+      holder.get();
+
+      Assert.assertEquals("Unexpected access timeout count", 1, this.profiler.getAccessTimeoutCount());
+      Hotspot hotspot = this.profiler.getHotspots(1).get(0);
+      Assert.assertEquals("Unexpected holder", "SimpleSingletonBean.incrementCount", hotspot.getHolder());
+      Assert.assertEquals("Unexpected queue depth", 0, hotspot.getMaxQueueDepth());
+
+      this.profiler.reset();
+      Assert.assertTrue("Hotspots not reset", this.profiler.getHotspots(10).isEmpty());
+   }
+
+   /**
+    * Invokes <code>method</code>, in a separate thread, and holds the lock till <code>release</code> is 
+    * counted down 
+    */
+   private Future<?> hold(final Method method, final CountDownLatch holding, final CountDownLatch release)
+   {
+      return this.executor.submit(new Callable<Object>()
+      {
+         @Override
+         public Object call() throws Exception
+         {
+            return invoke(method, 5000, new Callable<Object>()
+            {
+               @Override
+               public Object call() throws Exception
+               {
+                  holding.countDown();
+                  release.await(5, TimeUnit.SECONDS);
+                  return null;
+               }
+            });
+         }
+      });
+   }
+
+   /**
+    * Invokes <code>method</code> through the profiler interceptors and a simple lock interceptor
+    */
+   private Object invoke(Method method, final long accessTimeout, final Callable<?> target) throws Exception
+   {
+      Interceptor lockInterceptor = new Interceptor()
+      {
+         @Override
+         public String getName()
+         {
+            return "LockInterceptor";
+         }
+
+         @Override
+         public Object invoke(Invocation invocation) throws Throwable
+         {
+            if (!beanLock.tryLock(accessTimeout, TimeUnit.MILLISECONDS))
+            {
+               throw new ConcurrentAccessTimeoutException("Timed out");
+            }
+            try
+            {
+               return invocation.invokeNext();
+            }
+            finally
+            {
+               beanLock.unlock();
+            }
+         }
+      };
+      final Interceptor[] chain = new Interceptor[]
+      {this.profiler.getWaitInterceptor(), lockInterceptor, this.profiler.getAcquiredInterceptor()};
+      final MethodInvocation invocation = mock(MethodInvocation.class);
+      when(invocation.getActualMethod()).thenReturn(method);
+      final AtomicInteger next = new AtomicInteger();
+      try
+      {
+         when(invocation.invokeNext()).thenAnswer(new Answer<Object>()
+         {
+            @Override
+            public Object answer(InvocationOnMock mockInvocation) throws Throwable
+            {
+               int index = next.getAndIncrement();
+               if (index < chain.length)
+               {
+                  return chain[index].invoke(invocation);
+               }
+               return target == null ? null : target.call();
+            }
+         });
+         return invocation.invokeNext();
+      }
+      catch (Exception e)
+      {
+         throw e;
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException(t);
+      }
+   }
+
+   private static class LatchReleaser implements Runnable
+   {
+      private final CountDownLatch latch;
+
+      LatchReleaser(CountDownLatch latch)
+      {
+         this.latch = latch;
+      }
+
+      @Override
+      public void run()
+      {
+         this.latch.countDown();
+      }
+   }
+}
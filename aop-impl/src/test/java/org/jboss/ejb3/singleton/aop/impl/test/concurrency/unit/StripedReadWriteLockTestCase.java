@@ -0,0 +1,162 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.concurrency.unit;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.singleton.aop.impl.concurrency.StripedReadWriteLock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StripedReadWriteLock}
+ *
+ * @version $Revision: $
+ */
+public class StripedReadWriteLockTestCase
+{
+
+   private ExecutorService executor;
+
+   @Before
+   public void beforeTest()
+   {
+      this.executor = Executors.newCachedThreadPool();
+   }
+
+   @After
+   public void afterTest()
+   {
+      this.executor.shutdownNow();
+   }
+
+   /**
+    * Tests that multiple threads can hold the read lock at the same time
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testConcurrentReaders() throws Exception
+   {
+      final StripedReadWriteLock lock = new StripedReadWriteLock(4);
+      Assert.assertTrue("Could not acquire read lock", lock.tryReadLock(0, TimeUnit.MILLISECONDS));
+      try
+      {
+         Assert.assertTrue("Read lock wasn't shared", this.executor.submit(this.tryReadLock(lock)).get());
+      }
+      finally
+      {
+         lock.readUnlock();
+      }
+   }
+
+   /**
+    * Tests that the write lock excludes the readers and other writers and that once released, 
+    * the lock can be acquired again
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testWriteExclusion() throws Exception
+   {
+      final StripedReadWriteLock lock = new StripedReadWriteLock(4);
+      Assert.assertTrue("Could not acquire write lock", lock.tryWriteLock(0, TimeUnit.MILLISECONDS));
+      try
+      {
+         Assert.assertTrue("Write lock holder could not acquire read lock", lock.tryReadLock(0, TimeUnit.MILLISECONDS));
+         lock.readUnlock();
+
+         Assert.assertFalse("Read lock acquired while write locked", this.executor.submit(this.tryReadLock(lock)).get());
+         Assert.assertFalse("Write lock acquired while write locked", this.executor.submit(this.tryWriteLock(lock)).get());
+      }
+      finally
+      {
+         lock.writeUnlock();
+      }
+      Assert.assertTrue("Could not acquire write lock after release", this.executor.submit(this.tryWriteLock(lock)).get());
+   }
+
+   /**
+    * Tests that a writer which times out, because of a reader, doesn't leave any stripe locked
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testWriteTimeoutReleasesStripes() throws Exception
+   {
+      final StripedReadWriteLock lock = new StripedReadWriteLock(4);
+      Assert.assertTrue("Could not acquire read lock", lock.tryReadLock(0, TimeUnit.MILLISECONDS));
+      try
+      {
+         Assert.assertTrue("Read lock not held", lock.isReadLockedByCurrentThread());
+         Assert.assertFalse("Write lock acquired while read locked", this.executor.submit(this.tryWriteLock(lock)).get());
+      }
+      finally
+      {
+         lock.readUnlock();
+      }
+      Assert.assertFalse("Read lock still held after release", lock.isReadLockedByCurrentThread());
+      // all the stripes must be available again
+      Assert.assertTrue("Could not acquire write lock", lock.tryWriteLock(0, TimeUnit.MILLISECONDS));
+      Assert.assertTrue("Write lock not held", lock.isWriteLockedByCurrentThread());
+      lock.writeUnlock();
+   }
+
+   private Callable<Boolean> tryReadLock(final StripedReadWriteLock lock)
+   {
+      return new Callable<Boolean>()
+      {
+         @Override
+         public Boolean call() throws Exception
+         {
+            if (!lock.tryReadLock(100, TimeUnit.MILLISECONDS))
+            {
+               return false;
+            }
+            lock.readUnlock();
+            return true;
+         }
+      };
+   }
+
+   private Callable<Boolean> tryWriteLock(final StripedReadWriteLock lock)
+   {
+      return new Callable<Boolean>()
+      {
+         @Override
+         public Boolean call() throws Exception
+         {
+            if (!lock.tryWriteLock(100, TimeUnit.MILLISECONDS))
+            {
+               return false;
+            }
+            lock.writeUnlock();
+            return true;
+         }
+      };
+   }
+}
@@ -0,0 +1,382 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.concurrency.unit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.StripedReadWriteLock;
+import org.jboss.ejb3.singleton.aop.impl.concurrency.WriteCombiner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the {@link WriteCombiner}
+ *
+ * @version $Revision: $
+ */
+public class WriteCombinerTestCase
+{
+
+   private ExecutorService executor;
+
+   /**
+    * The (non thread safe) state which is updated by the invocations
+    */
+   private int counter;
+
+   @Before
+   public void beforeTest()
+   {
+      this.executor = Executors.newCachedThreadPool();
+      this.counter = 0;
+   }
+
+   @After
+   public void afterTest()
+   {
+      this.executor.shutdownNow();
+   }
+
+   /**
+    * Tests that invocations which queue up while the write lock is held, are run as a batch, each caller
+    * getting its own result
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testQueuedInvocationsAreBatched() throws Throwable
+   {
+      StripedReadWriteLock lock = new StripedReadWriteLock(1);
+      WriteCombiner combiner = new WriteCombiner(lock, 0);
+      int numInvocations = 10;
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      Assert.assertTrue("Could not acquire write lock", lock.tryWriteLock(0, TimeUnit.MILLISECONDS));
+      try
+      {
+         for (int i = 0; i < numInvocations; i++)
+         {
+            results.add(this.executor.submit(this.invoke(combiner, this.increment(), 10000)));
+         }
+         this.awaitQueued(combiner, numInvocations);
+      }
+      finally
+      {
+         lock.writeUnlock();
+      }
+      List<Object> seen = new ArrayList<Object>();
+      for (Future<Object> result : results)
+      {
+         Object value = result.get(10, TimeUnit.SECONDS);
+         Assert.assertFalse("Result " + value + " handed out to more than one caller", seen.contains(value));
+         seen.add(value);
+      }
+      Assert.assertEquals("Unexpected number of invocations", numInvocations, this.counter);
+      Assert.assertEquals("Unexpected number of batched invocations", numInvocations, combiner.getInvocationCount());
+      Assert.assertTrue("Invocations weren't batched: " + combiner.getBatchCount() + " batches",
+            combiner.getBatchCount() < numInvocations);
+   }
+
+   /**
+    * Tests that the exception thrown by a batched invocation is thrown to its caller only
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testFailureIsHandedToItsCaller() throws Throwable
+   {
+      StripedReadWriteLock lock = new StripedReadWriteLock(1);
+      WriteCombiner combiner = new WriteCombiner(lock, 0);
+      final IllegalStateException failure = new IllegalStateException("Intentional failure");
+      Invocation failing = mock(Invocation.class);
+      when(failing.invokeNext()).thenAnswer(new Answer<Object>()
+      {
+         @Override
+         public Object answer(InvocationOnMock invocation) throws Throwable
+         {
+            throw failure;
+         }
+      });
+      Future<Object> failed;
+      Future<Object> succeeded;
+      Assert.assertTrue("Could not acquire write lock", lock.tryWriteLock(0, TimeUnit.MILLISECONDS));
+      try
+      {
+         failed = this.executor.submit(this.invoke(combiner, failing, 10000));
+         succeeded = this.executor.submit(this.invoke(combiner, this.increment(), 10000));
+         this.awaitQueued(combiner, 2);
+      }
+      finally
+      {
+         lock.writeUnlock();
+      }
+      try
+      {
+         failed.get(10, TimeUnit.SECONDS);
+         Assert.fail("Invocation was expected to fail");
+      }
+      catch (ExecutionException ee)
+      {
+         Assert.assertSame("Unexpected failure", failure, ee.getCause());
+      }
+      Assert.assertEquals("Unexpected result", 1, succeeded.get(10, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Tests that each batched invocation runs with the context classloader of its own caller, also when it's
+    * run on the thread of another caller
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testInvocationRunsWithContextOfItsCaller() throws Throwable
+   {
+      StripedReadWriteLock lock = new StripedReadWriteLock(1);
+      WriteCombiner combiner = new WriteCombiner(lock, 0);
+      int numInvocations = 5;
+      List<ClassLoader> callerLoaders = new ArrayList<ClassLoader>();
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      Assert.assertTrue("Could not acquire write lock", lock.tryWriteLock(0, TimeUnit.MILLISECONDS));
+      try
+      {
+         for (int i = 0; i < numInvocations; i++)
+         {
+            ClassLoader callerLoader = new URLClassLoader(new URL[0]);
+            callerLoaders.add(callerLoader);
+            results.add(this.executor.submit(this.withContextClassLoader(callerLoader, this.invoke(combiner, this
+                  .contextClassLoader(), 10000))));
+         }
+         this.awaitQueued(combiner, numInvocations);
+      }
+      finally
+      {
+         lock.writeUnlock();
+      }
+      for (int i = 0; i < numInvocations; i++)
+      {
+         Assert.assertSame("Invocation didn't run with the context classloader of its caller", callerLoaders.get(i),
+               results.get(i).get(10, TimeUnit.SECONDS));
+      }
+      Assert.assertTrue("Invocations weren't batched: " + combiner.getBatchCount() + " batches",
+            combiner.getBatchCount() < numInvocations);
+   }
+
+   /**
+    * Tests that an invocation which can't be started within the timeout isn't run, and the caller gets a 
+    * {@link TimeoutException}
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testTimeout() throws Throwable
+   {
+      StripedReadWriteLock lock = new StripedReadWriteLock(1);
+      WriteCombiner combiner = new WriteCombiner(lock, 0);
+      final AtomicBoolean invoked = new AtomicBoolean();
+      Invocation invocation = mock(Invocation.class);
+      when(invocation.invokeNext()).thenAnswer(new Answer<Object>()
+      {
+         @Override
+         public Object answer(InvocationOnMock mockInvocation) throws Throwable
+         {
+            invoked.set(true);
+            return null;
+         }
+      });
+      // hold a read lock, to keep the write lock from being acquired
+      Assert.assertTrue("Could not acquire read lock", lock.tryReadLock(0, TimeUnit.MILLISECONDS));
+      try
+      {
+         combiner.invoke(invocation, 100, TimeUnit.MILLISECONDS, null);
+         Assert.fail("Invocation was expected to time out");
+      }
+      catch (TimeoutException te)
+      {
+         // expected
+      }
+      catch (Throwable t)
+      {
+         throw new AssertionError(t);
+      }
+      finally
+      {
+         lock.readUnlock();
+      }
+      Assert.assertFalse("Timed out invocation was run", invoked.get());
+   }
+
+   /**
+    * Tests that the invocations are mutually exclusive, under contention
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testMutualExclusion() throws Throwable
+   {
+      final StripedReadWriteLock lock = new StripedReadWriteLock(1);
+      final WriteCombiner combiner = new WriteCombiner(lock, 4);
+      final Invocation increment = this.increment();
+      int numThreads = 8;
+      final int invocationsPerThread = 1000;
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int i = 0; i < numThreads; i++)
+      {
+         results.add(this.executor.submit(new Callable<Void>()
+         {
+            @Override
+            public Void call() throws Exception
+            {
+               for (int j = 0; j < invocationsPerThread; j++)
+               {
+                  try
+                  {
+                     combiner.invoke(increment, -1, TimeUnit.MILLISECONDS, null);
+                  }
+                  catch (Throwable t)
+                  {
+                     throw new RuntimeException(t);
+                  }
+               }
+               return null;
+            }
+         }));
+      }
+      for (Future<Void> result : results)
+      {
+         result.get(30, TimeUnit.SECONDS);
+      }
+      Assert.assertEquals("Updates were lost", numThreads * invocationsPerThread, this.counter);
+   }
+
+   /**
+    * Waits until the passed number of invocations are queued up in the <code>combiner</code>
+    */
+   private void awaitQueued(WriteCombiner combiner, int numInvocations) throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (combiner.getQueuedCount() < numInvocations)
+      {
+         Assert.assertTrue("Only " + combiner.getQueuedCount() + " of " + numInvocations + " invocations queued up",
+               System.currentTimeMillis() < deadline);
+         Thread.sleep(1);
+      }
+   }
+
+   /**
+    * Returns an invocation which increments the counter (without any synchronization) and returns the new value
+    */
+   private Invocation increment() throws Throwable
+   {
+      Invocation invocation = mock(Invocation.class);
+      when(invocation.invokeNext()).thenAnswer(new Answer<Object>()
+      {
+         @Override
+         public Object answer(InvocationOnMock mockInvocation) throws Throwable
+         {
+            return ++WriteCombinerTestCase.this.counter;
+         }
+      });
+      return invocation;
+   }
+
+   /**
+    * Returns an invocation which returns the context classloader it runs with
+    */
+   private Invocation contextClassLoader() throws Throwable
+   {
+      Invocation invocation = mock(Invocation.class);
+      when(invocation.invokeNext()).thenAnswer(new Answer<Object>()
+      {
+         @Override
+         public Object answer(InvocationOnMock mockInvocation) throws Throwable
+         {
+            return Thread.currentThread().getContextClassLoader();
+         }
+      });
+      return invocation;
+   }
+
+   /**
+    * Returns a task which runs the passed <code>task</code> with the passed context classloader
+    */
+   private Callable<Object> withContextClassLoader(final ClassLoader loader, final Callable<Object> task)
+   {
+      return new Callable<Object>()
+      {
+         @Override
+         public Object call() throws Exception
+         {
+            ClassLoader previous = Thread.currentThread().getContextClassLoader();
+            Thread.currentThread().setContextClassLoader(loader);
+            try
+            {
+               return task.call();
+            }
+            finally
+            {
+               Thread.currentThread().setContextClassLoader(previous);
+            }
+         }
+      };
+   }
+
+   private Callable<Object> invoke(final WriteCombiner combiner, final Invocation invocation, final long timeout)
+   {
+      return new Callable<Object>()
+      {
+         @Override
+         public Object call() throws Exception
+         {
+            try
+            {
+               return combiner.invoke(invocation, timeout, TimeUnit.MILLISECONDS, null);
+            }
+            catch (Exception e)
+            {
+               throw e;
+            }
+            catch (Throwable t)
+            {
+               throw new RuntimeException(t);
+            }
+         }
+      };
+   }
+}
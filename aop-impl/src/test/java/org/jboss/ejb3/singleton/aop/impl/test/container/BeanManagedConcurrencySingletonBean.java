@@ -0,0 +1,56 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.container;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+/**
+ * A singleton bean with bean managed concurrency, whose method only returns once another caller
+ * is in the method at the same time
+ *
+ * @version $Revision: $
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class BeanManagedConcurrencySingletonBean
+{
+   private final CountDownLatch callers = new CountDownLatch(2);
+
+   /**
+    * Waits for another caller to enter this method
+    * 
+    * @param timeoutMillis The maximum time to wait for the other caller
+    * @return Returns true if the other caller entered the method within <code>timeoutMillis</code>. Else
+    *           returns false
+    * @throws InterruptedException
+    */
+   public boolean awaitConcurrentCaller(long timeoutMillis) throws InterruptedException
+   {
+      this.callers.countDown();
+      return this.callers.await(timeoutMillis, TimeUnit.MILLISECONDS);
+   }
+}
@@ -27,20 +27,34 @@ import static org.mockito.Mockito.when;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.aop.AspectManager;
 import org.jboss.aop.AspectXmlLoader;
 import org.jboss.aop.Domain;
 import org.jboss.aop.DomainDefinition;
+import org.jboss.aop.MethodInfo;
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.ejb3.common.lang.SerializableMethod;
 import org.jboss.ejb3.container.spi.ContainerInvocation;
 import org.jboss.ejb3.instantiator.impl.Ejb31SpecBeanInstantiator;
 import org.jboss.ejb3.instantiator.spi.BeanInstantiator;
 import org.jboss.ejb3.singleton.aop.impl.AOPBasedSingletonContainer;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCall;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCallResult;
+import org.jboss.ejb3.singleton.aop.impl.test.container.BeanManagedConcurrencySingletonBean;
+import org.jboss.ejb3.singleton.aop.impl.test.container.Counter;
 import org.jboss.ejb3.singleton.aop.impl.test.container.InVMContainerInvocationImpl;
+import org.jboss.ejb3.singleton.aop.impl.test.container.RemoteSingletonBean;
 import org.jboss.ejb3.singleton.aop.impl.test.container.SimpleSingletonBean;
 import org.jboss.ejb3.timerservice.spi.TimerServiceFactory;
 import org.jboss.metadata.annotation.creator.ejb.jboss.JBoss50Creator;
@@ -66,6 +80,8 @@ import org.mockito.Matchers;
 public class AOPBasedSingletonContainerTestCase
 {
 
+   private static final String CONTAINER_MANAGED_CONCURRENCY_INTERCEPTOR_NAME = "org.jboss.ejb3.concurrency.aop.interceptor.ContainerManagedConcurrencyInterceptor";
+
    private Domain singletonAOPDomain;
 
    private JavaCompInitializer javaCompInitializer;
@@ -99,44 +115,7 @@ public class AOPBasedSingletonContainerTestCase
    @Test
    public void testSimpleInvocation() throws Exception
    {
-      AnnotationFinder<AnnotatedElement> finder = new DefaultAnnotationFinder<AnnotatedElement>();
-      JBoss50Creator metadataCreator = new JBoss50Creator(finder);
-      Set<Class<?>> classes = new HashSet<Class<?>>();
-      classes.add(SimpleSingletonBean.class);
-      JBossMetaData metadata = metadataCreator.create(classes);
-
-      Assert.assertNotNull("Metadata created out of class is null", metadata);
-
-      JBossEnterpriseBeanMetaData enterpriseBean = metadata
-            .getEnterpriseBean(SimpleSingletonBean.class.getSimpleName());
-
-      Assert.assertNotNull("Metadata was not created for " + SimpleSingletonBean.class, enterpriseBean);
-      Assert.assertTrue(SimpleSingletonBean.class + " wasn't considered a session bean ", enterpriseBean.isSession());
-
-      // somewhat OK to cast
-      JBossSessionBean31MetaData sessionBeanMetaData = (JBossSessionBean31MetaData) enterpriseBean;
-      Assert.assertTrue(SimpleSingletonBean.class + " wasn't considered a singleton bean ", sessionBeanMetaData
-            .isSingleton());
-
-
-      ClassLoader cl = Thread.currentThread().getContextClassLoader();
-      String beanClassName = SimpleSingletonBean.class.getName();
-      String beanName = SimpleSingletonBean.class.getSimpleName();
-      String containerName = "jboss.j2ee:service=EJB3,name=" + beanName;
-      sessionBeanMetaData.setContainerName(containerName);
-      Hashtable props = new Hashtable();
-      AOPBasedSingletonContainer singletonContainer = new AOPBasedSingletonContainer(cl, beanClassName, beanName,
-            this.singletonAOPDomain, props, sessionBeanMetaData, Executors.newCachedThreadPool());
-      singletonContainer.setBeanInstantiator(new Ejb31SpecBeanInstantiator());
-      // setup dummy java:/comp
-      JavaEEComponent mockJavaEEComponent = mock(JavaEEComponent.class);
-      when(mockJavaEEComponent.getContext()).thenReturn(this.javaCompInitializer.getIniCtx());
-      singletonContainer.setJavaComp(mockJavaEEComponent);
-      
-      // mock timerservice factory
-      TimerServiceFactory mockTimerServiceFactory = mock(TimerServiceFactory.class);
-      singletonContainer.setTimerServiceFactory(mockTimerServiceFactory);
-      
+      AOPBasedSingletonContainer singletonContainer = this.createContainer(SimpleSingletonBean.class);
       singletonContainer.create();
       singletonContainer.start();
       
@@ -169,6 +148,185 @@ public class AOPBasedSingletonContainerTestCase
       count = (Integer) result;
       Assert.assertEquals("Incorrect count after incrementing", 2, count);
    }
+
+   /**
+    * Tests that the container managed concurrency interceptor isn't part of the interceptor chain of a bean with
+    * bean managed concurrency, and hence that concurrent invocations on such a bean aren't serialized
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testBeanManagedConcurrency() throws Exception
+   {
+      InspectableSingletonContainer cmcContainer = this.createContainer(SimpleSingletonBean.class);
+      cmcContainer.create();
+      Method getCount = SimpleSingletonBean.class.getDeclaredMethod("getCount", new Class<?>[]
+      {});
+      Assert.assertTrue("Container managed concurrency interceptor not applied to " + SimpleSingletonBean.class,
+            containsConcurrencyInterceptor(cmcContainer.getInterceptorChain(getCount)));
+
+      final InspectableSingletonContainer bmcContainer = this.createContainer(BeanManagedConcurrencySingletonBean.class);
+      bmcContainer.create();
+      bmcContainer.start();
+      final Method awaitConcurrentCaller = BeanManagedConcurrencySingletonBean.class.getDeclaredMethod(
+            "awaitConcurrentCaller", new Class<?>[]
+            {long.class});
+      Assert.assertFalse("Container managed concurrency interceptor applied to bean managed concurrency bean",
+            containsConcurrencyInterceptor(bmcContainer.getInterceptorChain(awaitConcurrentCaller)));
+
+      // each invocation waits for the other one to enter the bean method, which never happens if the
+      // invocations are serialized
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try
+      {
+         Callable<Object> invoker = new Callable<Object>()
+         {
+            @Override
+            public Object call() throws Exception
+            {
+               return bmcContainer.invoke(new InVMContainerInvocationImpl(awaitConcurrentCaller, new Object[]
+               {5000L}));
+            }
+         };
+         Future<Object> first = executor.submit(invoker);
+         Future<Object> second = executor.submit(invoker);
+         Assert.assertEquals("Invocations on bean managed concurrency bean were serialized", Boolean.TRUE, first
+               .get(10, TimeUnit.SECONDS));
+         Assert.assertEquals("Invocations on bean managed concurrency bean were serialized", Boolean.TRUE, second
+               .get(10, TimeUnit.SECONDS));
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Tests that a remote batch is run only if all its calls are on methods of a remote business interface of 
+    * the bean, and that none of its calls is run otherwise
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testBatchRestrictedToRemoteBusinessMethods() throws Throwable
+   {
+      AOPBasedSingletonContainer singletonContainer = this.createContainer(RemoteSingletonBean.class);
+      singletonContainer.create();
+      singletonContainer.start();
+
+      BatchedCall increment = new BatchedCall(new SerializableMethod(Counter.class.getMethod("incrementCount",
+            new Class<?>[]
+            {})), new Object[]
+      {});
+      BatchedCall getCount = new BatchedCall(new SerializableMethod(Counter.class.getMethod("getCount",
+            new Class<?>[]
+            {})), new Object[]
+      {});
+      // a method of the bean class, which isn't exposed through the remote business interface
+      BatchedCall reset = new BatchedCall(new SerializableMethod(RemoteSingletonBean.class.getMethod("reset",
+            new Class<?>[]
+            {})), new Object[]
+      {});
+      // a method of the remote business interface, but invoked through the bean class
+      BatchedCall incrementThroughBeanClass = new BatchedCall(new SerializableMethod(Counter.class.getMethod(
+            "incrementCount", new Class<?>[]
+            {}), RemoteSingletonBean.class), new Object[]
+      {});
+
+      List<BatchedCallResult> results = singletonContainer.invokeBatch(Arrays.asList(increment, increment, getCount));
+      Assert.assertEquals("Unexpected count", 2, results.get(2).recreate());
+
+      for (BatchedCall illegalCall : Arrays.asList(reset, incrementThroughBeanClass))
+      {
+         try
+         {
+            singletonContainer.invokeBatch(Arrays.asList(increment, illegalCall));
+            Assert.fail("Batch with a call on " + illegalCall.getMethod() + " was run");
+         }
+         catch (IllegalArgumentException expected)
+         {
+            // expected
+         }
+      }
+      results = singletonContainer.invokeBatch(Arrays.asList(getCount));
+      Assert.assertEquals("Calls of a rejected batch were run", 2, results.get(0).recreate());
+   }
+
+   /**
+    * Creates (but doesn't create() or start()) a container for the passed singleton <code>beanClass</code>
+    */
+   private InspectableSingletonContainer createContainer(Class<?> beanClass) throws Exception
+   {
+      AnnotationFinder<AnnotatedElement> finder = new DefaultAnnotationFinder<AnnotatedElement>();
+      JBoss50Creator metadataCreator = new JBoss50Creator(finder);
+      Set<Class<?>> classes = new HashSet<Class<?>>();
+      classes.add(beanClass);
+      JBossMetaData metadata = metadataCreator.create(classes);
+
+      Assert.assertNotNull("Metadata created out of class is null", metadata);
+
+      JBossEnterpriseBeanMetaData enterpriseBean = metadata.getEnterpriseBean(beanClass.getSimpleName());
+
+      Assert.assertNotNull("Metadata was not created for " + beanClass, enterpriseBean);
+      Assert.assertTrue(beanClass + " wasn't considered a session bean ", enterpriseBean.isSession());
+
+      // somewhat OK to cast
+      JBossSessionBean31MetaData sessionBeanMetaData = (JBossSessionBean31MetaData) enterpriseBean;
+      Assert.assertTrue(beanClass + " wasn't considered a singleton bean ", sessionBeanMetaData.isSingleton());
+
+      ClassLoader cl = Thread.currentThread().getContextClassLoader();
+      String beanClassName = beanClass.getName();
+      String beanName = beanClass.getSimpleName();
+      String containerName = "jboss.j2ee:service=EJB3,name=" + beanName;
+      sessionBeanMetaData.setContainerName(containerName);
+      Hashtable props = new Hashtable();
+      InspectableSingletonContainer singletonContainer = new InspectableSingletonContainer(cl, beanClassName,
+            beanName, this.singletonAOPDomain, props, sessionBeanMetaData, Executors.newCachedThreadPool());
+      singletonContainer.setBeanInstantiator(new Ejb31SpecBeanInstantiator());
+      // setup dummy java:/comp
+      JavaEEComponent mockJavaEEComponent = mock(JavaEEComponent.class);
+      when(mockJavaEEComponent.getContext()).thenReturn(this.javaCompInitializer.getIniCtx());
+      singletonContainer.setJavaComp(mockJavaEEComponent);
+
+      // mock timerservice factory
+      TimerServiceFactory mockTimerServiceFactory = mock(TimerServiceFactory.class);
+      singletonContainer.setTimerServiceFactory(mockTimerServiceFactory);
+      return singletonContainer;
+   }
+
+   private static boolean containsConcurrencyInterceptor(Interceptor[] interceptors)
+   {
+      for (Interceptor interceptor : interceptors)
+      {
+         String name = interceptor.getName();
+         if (interceptor.getClass().getName().startsWith(CONTAINER_MANAGED_CONCURRENCY_INTERCEPTOR_NAME)
+               || (name != null && name.startsWith(CONTAINER_MANAGED_CONCURRENCY_INTERCEPTOR_NAME)))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Exposes the interceptor chain, which the container compiles for a method
+    */
+   private static class InspectableSingletonContainer extends AOPBasedSingletonContainer
+   {
+      InspectableSingletonContainer(ClassLoader cl, String beanClassName, String ejbName, Domain domain,
+            Hashtable ctxProperties, JBossSessionBean31MetaData beanMetaData, ExecutorService asyncExecutorService)
+            throws ClassNotFoundException
+      {
+         super(cl, beanClassName, ejbName, domain, ctxProperties, beanMetaData, asyncExecutorService);
+      }
+
+      Interceptor[] getInterceptorChain(Method method)
+      {
+         MethodInfo methodInfo = this.getMethodInfo(method);
+         Interceptor[] interceptors = this.getInvocationInterceptors(methodInfo);
+         return interceptors == null ? methodInfo.getInterceptors() : interceptors;
+      }
+   }
    
    
 }
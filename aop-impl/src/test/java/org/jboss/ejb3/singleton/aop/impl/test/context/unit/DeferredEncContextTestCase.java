@@ -0,0 +1,87 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.context.unit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+
+import org.jboss.ejb3.EJBContainer;
+import org.jboss.ejb3.singleton.aop.impl.context.DeferredEncContext;
+import org.jboss.reloaded.naming.spi.JavaEEComponent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the {@link DeferredEncContext}
+ *
+ * @version $Revision: $
+ */
+public class DeferredEncContextTestCase
+{
+
+   /**
+    * Tests that the ENC is unusable until the java:comp is set, and is resolved just once afterwards
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testDeferredResolution() throws Exception
+   {
+      DeferredEncContext deferredEnc = new DeferredEncContext(mock(EJBContainer.class));
+      try
+      {
+         deferredEnc.lookup("env/foo");
+         Assert.fail("ENC was usable before java:comp was set");
+      }
+      catch (IllegalStateException ise)
+      {
+         // expected
+      }
+
+      final Context enc = mock(Context.class);
+      Object foo = new Object();
+      when(enc.lookup("env/foo")).thenReturn(foo);
+      final AtomicInteger resolutions = new AtomicInteger();
+      JavaEEComponent javaComp = mock(JavaEEComponent.class);
+      when(javaComp.getContext()).thenAnswer(new Answer<Context>()
+      {
+         @Override
+         public Context answer(InvocationOnMock invocation) throws Throwable
+         {
+            resolutions.incrementAndGet();
+            return enc;
+         }
+      });
+      deferredEnc.setJavaComp(javaComp);
+
+      Assert.assertSame("Unexpected lookup result", foo, deferredEnc.lookup("env/foo"));
+      Assert.assertSame("Unexpected lookup result", foo, deferredEnc.lookup("env/foo"));
+      Assert.assertSame("Unexpected ENC", enc, deferredEnc.getContext());
+      Assert.assertEquals("ENC wasn't resolved just once", 1, resolutions.get());
+   }
+}
@@ -0,0 +1,128 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.context.unit;
+
+import static org.mockito.Mockito.mock;
+
+import org.jboss.ejb3.singleton.aop.impl.context.EncPropagation;
+import org.jboss.reloaded.naming.CurrentComponent;
+import org.jboss.reloaded.naming.spi.JavaEEComponent;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link EncPropagation}
+ *
+ * @version $Revision: $
+ */
+public class EncPropagationTestCase
+{
+
+   /**
+    * Tests nested pushes and pops of the same and of different components
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testNestedPushAndPop() throws Exception
+   {
+      JavaEEComponent a = mock(JavaEEComponent.class);
+      JavaEEComponent b = mock(JavaEEComponent.class);
+      EncPropagation propagationA = new EncPropagation("A");
+      EncPropagation propagationB = new EncPropagation("B");
+
+      propagationA.push(a);
+      // a self call
+      propagationA.push(a);
+      Assert.assertSame("Unexpected current component", a, CurrentComponent.get());
+      // a call to another bean, which calls back
+      propagationB.push(b);
+      Assert.assertSame("Unexpected current component", b, CurrentComponent.get());
+      propagationA.push(a);
+      Assert.assertSame("Unexpected current component", a, CurrentComponent.get());
+      propagationA.pop(a);
+      Assert.assertSame("Unexpected current component", b, CurrentComponent.get());
+      propagationB.pop(b);
+      Assert.assertSame("Unexpected current component", a, CurrentComponent.get());
+      propagationA.pop(a);
+      Assert.assertSame("Unexpected current component", a, CurrentComponent.get());
+      propagationA.pop(a);
+      Assert.assertNull("Component left on the stack", CurrentComponent.get());
+   }
+
+   /**
+    * Tests that deeply nested self calls are handled
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testDeepNesting() throws Exception
+   {
+      JavaEEComponent a = mock(JavaEEComponent.class);
+      EncPropagation propagation = new EncPropagation("A");
+      int depth = 200;
+      for (int i = 0; i < depth; i++)
+      {
+         propagation.push(a);
+      }
+      for (int i = 0; i < depth; i++)
+      {
+         Assert.assertSame("Unexpected current component", a, CurrentComponent.get());
+         propagation.pop(a);
+      }
+      Assert.assertNull("Component left on the stack", CurrentComponent.get());
+   }
+
+   /**
+    * Tests that a pop which doesn't match the push results in an {@link IllegalStateException}
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testMismatchedPop() throws Exception
+   {
+      JavaEEComponent a = mock(JavaEEComponent.class);
+      JavaEEComponent b = mock(JavaEEComponent.class);
+      EncPropagation propagation = new EncPropagation("A");
+      propagation.push(a);
+      propagation.push(a);
+      // someone else pushes without popping
+      CurrentComponent.push(b);
+      try
+      {
+         propagation.pop(a);
+         Assert.fail("Mismatched pop wasn't detected");
+      }
+      catch (IllegalStateException ise)
+      {
+         // expected
+      }
+      finally
+      {
+         // clean up the stack of this thread
+         while (CurrentComponent.get() != null)
+         {
+            CurrentComponent.pop();
+         }
+      }
+   }
+}
@@ -0,0 +1,115 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.interceptorregistry.unit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+
+import org.jboss.aop.MethodInfo;
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.ejb3.singleton.aop.impl.AOPBasedContainerInvocation;
+import org.jboss.ejb3.singleton.aop.impl.AOPBasedInterceptorRegistry;
+import org.jboss.ejb3.singleton.aop.impl.context.LegacySingletonBeanContext;
+import org.jboss.ejb3.singleton.aop.impl.test.container.SimpleSingletonBean;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the invocations, through the {@link AOPBasedInterceptorRegistry}, which don't
+ * have any AOP interceptors
+ *
+ * @version $Revision: $
+ */
+public class AOPBasedInterceptorRegistryTestCase
+{
+
+   /**
+    * Tests that a invocation without any interceptors is invoked on the target bean instance
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInvocationWithoutInterceptors() throws Exception
+   {
+      SimpleSingletonBean bean = new SimpleSingletonBean();
+      Method incrementCount = SimpleSingletonBean.class.getMethod("incrementCount", new Class<?>[]
+      {});
+      Method getCount = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+      LegacySingletonBeanContext beanContext = this.createBeanContext(bean);
+      AOPBasedInterceptorRegistry interceptorRegistry = new AOPBasedInterceptorRegistry(null);
+
+      interceptorRegistry.intercept(this.createInvocation(incrementCount), beanContext);
+      Object result = interceptorRegistry.intercept(this.createInvocation(getCount), beanContext);
+
+      Assert.assertEquals("Unexpected count", 1, result);
+   }
+
+   /**
+    * Tests that a exception thrown by the bean method is thrown as-is, for a invocation without any interceptors
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testExceptionWithoutInterceptors() throws Exception
+   {
+      FailingBean bean = new FailingBean();
+      Method fail = FailingBean.class.getMethod("fail", new Class<?>[]
+      {});
+      LegacySingletonBeanContext beanContext = this.createBeanContext(bean);
+      AOPBasedInterceptorRegistry interceptorRegistry = new AOPBasedInterceptorRegistry(null);
+      try
+      {
+         interceptorRegistry.intercept(this.createInvocation(fail), beanContext);
+         Assert.fail("Exception thrown by the bean method wasn't propagated");
+      }
+      catch (IllegalStateException expected)
+      {
+         // expected
+      }
+   }
+
+   private AOPBasedContainerInvocation createInvocation(Method method)
+   {
+      MethodInfo methodInfo = mock(MethodInfo.class);
+      when(methodInfo.getUnadvisedMethod()).thenReturn(method);
+      return new AOPBasedContainerInvocation(methodInfo, new Object[]
+      {}, null, new Interceptor[0]);
+   }
+
+   private LegacySingletonBeanContext createBeanContext(Object beanInstance)
+   {
+      LegacySingletonBeanContext beanContext = mock(LegacySingletonBeanContext.class);
+      when(beanContext.getBeanInstance()).thenReturn(beanInstance);
+      return beanContext;
+   }
+
+   public static class FailingBean
+   {
+      public void fail()
+      {
+         throw new IllegalStateException("Failed on purpose");
+      }
+   }
+}
@@ -0,0 +1,231 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.invoker.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import org.jboss.ejb3.singleton.aop.impl.invoker.BeanMethodInvoker;
+import org.jboss.ejb3.singleton.aop.impl.invoker.BeanMethodInvokerTable;
+import org.jboss.ejb3.singleton.aop.impl.invoker.ReflectionBeanMethodInvoker;
+import org.junit.Test;
+
+/**
+ * Tests the {@link BeanMethodInvoker}s handed out by {@link BeanMethodInvokerTable}
+ *
+ * @version $Revision: $
+ */
+public class BeanMethodInvokerTableTestCase
+{
+
+   /**
+    * The classloader of the container, which loads the bean classes
+    */
+   private static final ClassLoader CLASS_LOADER = InvokerTestBean.class.getClassLoader();
+
+   /**
+    * Tests that the invokers pass the arguments and return the results of methods with primitive, array
+    * and void signatures
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testInvoke() throws Throwable
+   {
+      Method add = InvokerTestBean.class.getMethod("add", Integer.TYPE, Long.TYPE);
+      Method join = InvokerTestBean.class.getMethod("join", String[].class);
+      Method reset = InvokerTestBean.class.getMethod("reset");
+      BeanMethodInvokerTable invokerTable = new BeanMethodInvokerTable(Arrays.asList(add, join, reset), CLASS_LOADER);
+      InvokerTestBean bean = new InvokerTestBean();
+
+      assertEquals("Unexpected result", Long.valueOf(5), invokerTable.getInvoker(add).invoke(bean, new Object[]
+      {2, 3L}));
+      assertEquals("Unexpected result", "a,b", invokerTable.getInvoker(join).invoke(bean, new Object[]
+      {new String[]
+      {"a", "b"}}));
+      assertNull("Unexpected result of void method", invokerTable.getInvoker(reset).invoke(bean, null));
+      assertEquals("Void method not invoked", 1, bean.resetCount);
+   }
+
+   /**
+    * Tests that exceptions thrown by the bean method are thrown as-is by the invoker
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testExceptionIsNotWrapped() throws Throwable
+   {
+      Method fail = InvokerTestBean.class.getMethod("fail");
+      BeanMethodInvoker invoker = new BeanMethodInvokerTable(Arrays.asList(fail), CLASS_LOADER).getInvoker(fail);
+      try
+      {
+         invoker.invoke(new InvokerTestBean(), new Object[0]);
+         fail("Expected " + InvokerTestException.class.getSimpleName());
+      }
+      catch (InvokerTestException expected)
+      {
+         // expected
+      }
+   }
+
+   /**
+    * Tests that methods which weren't known when the table was created, and methods which can't have a 
+    * generated invoker, can still be invoked
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testLateAndNonPublicMethods() throws Throwable
+   {
+      BeanMethodInvokerTable invokerTable = new BeanMethodInvokerTable(null, CLASS_LOADER);
+      Method add = InvokerTestBean.class.getMethod("add", Integer.TYPE, Long.TYPE);
+      BeanMethodInvoker invoker = invokerTable.getInvoker(add);
+      assertSame("Invoker not cached", invoker, invokerTable.getInvoker(add));
+
+      Method secret = InvokerTestBean.class.getDeclaredMethod("secret");
+      BeanMethodInvoker secretInvoker = invokerTable.getInvoker(secret);
+      assertTrue("Unexpected invoker for private method " + secretInvoker,
+            secretInvoker instanceof ReflectionBeanMethodInvoker);
+      assertEquals("Unexpected result", "secret", secretInvoker.invoke(new InvokerTestBean(), null));
+   }
+
+   /**
+    * Tests that an invoker isn't generated for a method declared by a class of another classloader than the
+    * container's (for example a superclass of the bean in a library)
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testNoInvokerGeneratedOutsideContainerClassLoader() throws Throwable
+   {
+      ClassLoader otherClassLoader = new URLClassLoader(new URL[0], CLASS_LOADER);
+      Method add = InvokerTestBean.class.getMethod("add", Integer.TYPE, Long.TYPE);
+      BeanMethodInvoker invoker = new BeanMethodInvokerTable(Arrays.asList(add), otherClassLoader).getInvoker(add);
+      assertTrue("Unexpected invoker for method of another classloader " + invoker,
+            invoker instanceof ReflectionBeanMethodInvoker);
+      assertEquals("Unexpected result", Long.valueOf(5), invoker.invoke(new InvokerTestBean(), new Object[]
+      {2, 3L}));
+   }
+
+   /**
+    * Tests that, like reflection, the invokers reject a wrong number of arguments and arguments of the wrong 
+    * type (instead of converting them) with an {@link IllegalArgumentException}
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testIllegalArguments() throws Throwable
+   {
+      Method add = InvokerTestBean.class.getMethod("add", Integer.TYPE, Long.TYPE);
+      Method join = InvokerTestBean.class.getMethod("join", String[].class);
+      BeanMethodInvokerTable invokerTable = new BeanMethodInvokerTable(Arrays.asList(add, join), CLASS_LOADER);
+      InvokerTestBean bean = new InvokerTestBean();
+      Object[][] illegalAddArgs = new Object[][]
+      {null, new Object[]
+      {2}, new Object[]
+      {2, 3L, 4}, new Object[]
+      {7L, 3L}, new Object[]
+      {2.5d, 3L}, new Object[]
+      {null, 3L}};
+      for (Object[] args : illegalAddArgs)
+      {
+         try
+         {
+            Object result = invokerTable.getInvoker(add).invoke(bean, args);
+            fail("Invocation with arguments " + Arrays.toString(args) + " returned " + result);
+         }
+         catch (IllegalArgumentException expected)
+         {
+            // expected
+         }
+      }
+      try
+      {
+         invokerTable.getInvoker(join).invoke(bean, new Object[]
+         {"a"});
+         fail("Invocation with argument of wrong type succeeded");
+      }
+      catch (IllegalArgumentException expected)
+      {
+         // expected
+      }
+   }
+
+   /**
+    * A bean on which the invokers are tested
+    */
+   public static class InvokerTestBean
+   {
+      private int resetCount;
+
+      public long add(int a, long b)
+      {
+         return a + b;
+      }
+
+      public String join(String[] values)
+      {
+         StringBuilder sb = new StringBuilder();
+         for (String value : values)
+         {
+            if (sb.length() > 0)
+            {
+               sb.append(',');
+            }
+            sb.append(value);
+         }
+         return sb.toString();
+      }
+
+      public void reset()
+      {
+         this.resetCount++;
+      }
+
+      public void fail() throws InvokerTestException
+      {
+         throw new InvokerTestException();
+      }
+
+      @SuppressWarnings("unused")
+      private String secret()
+      {
+         return "secret";
+      }
+   }
+
+   /**
+    * A checked exception thrown by {@link InvokerTestBean#fail()}
+    */
+   public static class InvokerTestException extends Exception
+   {
+      private static final long serialVersionUID = 1L;
+   }
+}
@@ -0,0 +1,185 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.methodinfo.unit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import org.jboss.aop.Advisor;
+import org.jboss.aop.MethodInfo;
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.util.MethodHashing;
+import org.jboss.ejb3.singleton.aop.impl.InterceptorChainCompiler;
+import org.jboss.ejb3.singleton.aop.impl.MethodInfoTable;
+import org.jboss.ejb3.singleton.aop.impl.test.container.SimpleSingletonBean;
+import org.jboss.ejb3.singleton.impl.statistics.InvocationStatistics;
+import org.jboss.ejb3.singleton.impl.statistics.MethodStatistics;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link MethodInfoTable}
+ *
+ * @version $Revision: $
+ */
+public class MethodInfoTableTestCase
+{
+
+   /**
+    * Tests that the lookups for registered methods (and their equal copies) are served from the
+    * table, and the lookups for other methods are done (only once) against the advisor
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testMethodInfoLookup() throws Exception
+   {
+      Method getCount = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+      Method incrementCount = SimpleSingletonBean.class.getMethod("incrementCount", new Class<?>[]
+      {});
+      long getCountHash = MethodHashing.calculateHash(getCount);
+      long incrementCountHash = MethodHashing.calculateHash(incrementCount);
+
+      MethodInfo getCountMethodInfo = mock(MethodInfo.class);
+      MethodInfo incrementCountMethodInfo = mock(MethodInfo.class);
+      Advisor advisor = mock(Advisor.class);
+      when(advisor.getMethodInfo(getCountHash)).thenReturn(getCountMethodInfo);
+      when(advisor.getMethodInfo(incrementCountHash)).thenReturn(incrementCountMethodInfo);
+
+      MethodInfoTable table = new MethodInfoTable(advisor, Collections.singletonList(getCount));
+
+      // same method object
+      Assert.assertSame("Unexpected method info", getCountMethodInfo, table.getMethodInfo(getCount));
+      // equal, but not the same, method object
+      Method getCountCopy = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+      Assert.assertSame("Unexpected method info for copy of method", getCountMethodInfo, table
+            .getMethodInfo(getCountCopy));
+      // the advisor must have been consulted only while creating the table
+      verify(advisor, times(1)).getMethodInfo(getCountHash);
+
+      // method which wasn't registered upfront
+      Assert.assertSame("Unexpected method info for lazily looked up method", incrementCountMethodInfo, table
+            .getMethodInfo(incrementCount));
+      Assert.assertSame("Unexpected method info for lazily looked up method", incrementCountMethodInfo, table
+            .getMethodInfo(incrementCount));
+      verify(advisor, times(1)).getMethodInfo(incrementCountHash);
+   }
+
+   /**
+    * Tests that a method unknown to the advisor results in a null {@link MethodInfo}
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testUnknownMethod() throws Exception
+   {
+      Advisor advisor = mock(Advisor.class);
+      MethodInfoTable table = new MethodInfoTable(advisor, null);
+      Method toString = Object.class.getMethod("toString", new Class<?>[]
+      {});
+      Assert.assertNull("Unexpected method info for unknown method", table.getMethodInfo(toString));
+   }
+
+   /**
+    * Tests that the interceptor chains of the registered methods are compiled upfront, and are
+    * recompiled only when the interceptors of the method change
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInterceptorChainCompilation() throws Exception
+   {
+      Method getCount = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+      Interceptor first = mock(Interceptor.class);
+      Interceptor second = mock(Interceptor.class);
+      Interceptor[] interceptors = new Interceptor[]
+      {first, second};
+      Interceptor[] compiled = new Interceptor[]
+      {second};
+      MethodInfo getCountMethodInfo = mock(MethodInfo.class);
+      when(getCountMethodInfo.getInterceptors()).thenReturn(interceptors);
+      Advisor advisor = mock(Advisor.class);
+      when(advisor.getMethodInfo(MethodHashing.calculateHash(getCount))).thenReturn(getCountMethodInfo);
+      InterceptorChainCompiler chainCompiler = mock(InterceptorChainCompiler.class);
+      when(chainCompiler.compile(same(getCountMethodInfo), any(Interceptor[].class))).thenReturn(compiled);
+
+      MethodInfoTable table = new MethodInfoTable(advisor, Collections.singletonList(getCount), chainCompiler);
+      verify(chainCompiler, times(1)).compile(getCountMethodInfo, interceptors);
+
+      Assert.assertSame("Unexpected interceptor chain", compiled, table.getInterceptorChain(getCountMethodInfo));
+      Assert.assertSame("Unexpected interceptor chain", compiled, table.getInterceptorChain(getCountMethodInfo));
+      verify(chainCompiler, times(1)).compile(getCountMethodInfo, interceptors);
+
+      // AOP bindings changed
+      Interceptor[] changedInterceptors = new Interceptor[]
+      {second};
+      when(getCountMethodInfo.getInterceptors()).thenReturn(changedInterceptors);
+      table.getInterceptorChain(getCountMethodInfo);
+      verify(chainCompiler, times(1)).compile(getCountMethodInfo, changedInterceptors);
+   }
+
+   /**
+    * Tests that the statistics of a method are resolved with its entry, and kept when its interceptor chain
+    * is recompiled
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testMethodStatisticsResolution() throws Exception
+   {
+      Method getCount = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+      Interceptor interceptor = mock(Interceptor.class);
+      MethodInfo getCountMethodInfo = mock(MethodInfo.class);
+      when(getCountMethodInfo.getInterceptors()).thenReturn(new Interceptor[]
+      {interceptor});
+      when(getCountMethodInfo.getUnadvisedMethod()).thenReturn(getCount);
+      Advisor advisor = mock(Advisor.class);
+      when(advisor.getMethodInfo(MethodHashing.calculateHash(getCount))).thenReturn(getCountMethodInfo);
+      InvocationStatistics statistics = new InvocationStatistics();
+
+      MethodInfoTable table = new MethodInfoTable(advisor, Collections.singletonList(getCount), null, statistics);
+      MethodStatistics getCountStatistics = table.getEntry(getCountMethodInfo).getMethodStatistics();
+      Assert.assertSame("Unexpected method statistics", statistics.getMethodStatistics(getCount), getCountStatistics);
+      Assert.assertSame("Entry not reused", table.getEntry(getCountMethodInfo), table.getEntry(getCountMethodInfo));
+
+      // AOP bindings changed
+      when(getCountMethodInfo.getInterceptors()).thenReturn(new Interceptor[0]);
+      Assert.assertSame("Method statistics not kept", getCountStatistics, table.getEntry(getCountMethodInfo)
+            .getMethodStatistics());
+      Assert.assertEquals("Interceptor chain not recompiled", 0, table.getEntry(getCountMethodInfo).getInterceptors()
+            .length);
+
+      Assert.assertNull("Unexpected method statistics", new MethodInfoTable(advisor, null).getEntry(getCountMethodInfo)
+            .getMethodStatistics());
+   }
+}
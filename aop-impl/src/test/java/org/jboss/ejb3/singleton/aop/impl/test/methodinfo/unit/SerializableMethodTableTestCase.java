@@ -0,0 +1,108 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.methodinfo.unit;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.common.lang.SerializableMethod;
+import org.jboss.ejb3.singleton.aop.impl.SerializableMethodTable;
+import org.jboss.ejb3.singleton.aop.impl.test.container.SimpleSingletonBean;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link SerializableMethodTable}
+ *
+ * @version $Revision: $
+ */
+public class SerializableMethodTableTestCase
+{
+
+   /**
+    * Tests that a method is resolved (through the classloader) once, and that the lookups of equal copies of 
+    * the {@link SerializableMethod}, as unmarshalled from each remote invocation, are served from the table
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testResolveOnce() throws Exception
+   {
+      Method incrementCount = SimpleSingletonBean.class.getMethod("incrementCount", new Class<?>[]
+      {});
+      CountingClassLoader classLoader = new CountingClassLoader(SimpleSingletonBean.class.getClassLoader());
+      SerializableMethodTable table = new SerializableMethodTable(classLoader);
+
+      SerializableMethodTable.ResolvedMethod resolved = table.resolve(new SerializableMethod(incrementCount,
+            SimpleSingletonBean.class));
+      Assert.assertEquals("Unexpected business interface", SimpleSingletonBean.class, resolved.getBusinessInterface());
+      Assert.assertEquals("Unexpected method", incrementCount, resolved.getMethod());
+      int classLoads = classLoader.loads.get();
+      Assert.assertTrue("Method wasn't resolved through the classloader", classLoads > 0);
+
+      for (int i = 0; i < 5; i++)
+      {
+         Assert.assertSame("Method resolved again", resolved, table.resolve(new SerializableMethod(incrementCount,
+               SimpleSingletonBean.class)));
+      }
+      Assert.assertEquals("Classes loaded again for a resolved method", classLoads, classLoader.loads.get());
+   }
+
+   /**
+    * Tests that different methods are resolved to different entries
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testDistinctMethods() throws Exception
+   {
+      Method incrementCount = SimpleSingletonBean.class.getMethod("incrementCount", new Class<?>[]
+      {});
+      Method getCount = SimpleSingletonBean.class.getMethod("getCount", new Class<?>[]
+      {});
+      SerializableMethodTable table = new SerializableMethodTable(SimpleSingletonBean.class.getClassLoader());
+      Assert.assertEquals("Unexpected method", incrementCount, table.resolve(
+            new SerializableMethod(incrementCount, SimpleSingletonBean.class)).getMethod());
+      Assert.assertEquals("Unexpected method", getCount, table.resolve(
+            new SerializableMethod(getCount, SimpleSingletonBean.class)).getMethod());
+   }
+
+   /**
+    * Counts the classes loaded through it
+    */
+   private static class CountingClassLoader extends ClassLoader
+   {
+      private final AtomicInteger loads = new AtomicInteger();
+
+      public CountingClassLoader(ClassLoader parent)
+      {
+         super(parent);
+      }
+
+      @Override
+      public Class<?> loadClass(String name) throws ClassNotFoundException
+      {
+         this.loads.incrementAndGet();
+         return super.loadClass(name);
+      }
+   }
+}
@@ -0,0 +1,269 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.aop.impl.test.remoting.unit;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.common.lang.SerializableMethod;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchSender;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCall;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCallResult;
+import org.jboss.ejb3.singleton.aop.impl.remoting.RemoteInvocationBatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RemoteInvocationBatcher}
+ *
+ * @version $Revision: $
+ */
+public class RemoteInvocationBatcherTestCase
+{
+
+   /**
+    * Tests that calls are sent on their own, when there's no batch scope
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testNoBatching() throws Throwable
+   {
+      RemoteInvocationBatcher batcher = new RemoteInvocationBatcher(16);
+      EchoSender sender = new EchoSender();
+      Assert.assertFalse("Batching without a scope", batcher.isBatching());
+      Assert.assertEquals("Unexpected result", "a", batcher.invoke(this.echo("a"), false, sender));
+      Assert.assertEquals("Unexpected result", "b", batcher.invoke(this.echo("b"), true, sender));
+      Assert.assertEquals("Unexpected number of batches", 2, batcher.getBatchesSent());
+      Assert.assertEquals("Unexpected batch sizes", 1, sender.getLargestBatch());
+   }
+
+   /**
+    * Tests that the calls of concurrent batch scopes, on different threads, are never sent in the same batch
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testScopesOfDifferentThreadsNotCoalesced() throws Exception
+   {
+      final int callers = 4;
+      final int callsPerCaller = 3;
+      final RemoteInvocationBatcher batcher = new RemoteInvocationBatcher(callers * callsPerCaller);
+      final CountDownLatch deferred = new CountDownLatch(callers);
+      final BatchSender sender = new BatchSender()
+      {
+         private final EchoSender echoSender = new EchoSender();
+
+         @Override
+         public List<BatchedCallResult> send(List<BatchedCall> calls) throws Throwable
+         {
+            String caller = Thread.currentThread().getName();
+            for (BatchedCall call : calls)
+            {
+               Assert.assertEquals("Batch holds a call of another thread", caller, call.getArgs()[0]);
+            }
+            return this.echoSender.send(calls);
+         }
+      };
+      ExecutorService executor = Executors.newFixedThreadPool(callers);
+      try
+      {
+         List<Future<Object>> results = new ArrayList<Future<Object>>();
+         for (int i = 0; i < callers; i++)
+         {
+            results.add(executor.submit(new Callable<Object>()
+            {
+               @Override
+               public Object call() throws Exception
+               {
+                  String caller = Thread.currentThread().getName();
+                  try
+                  {
+                     batcher.beginBatch();
+                     try
+                     {
+                        for (int j = 0; j < callsPerCaller; j++)
+                        {
+                           batcher.invoke(RemoteInvocationBatcherTestCase.this.echo(caller), true, sender);
+                        }
+                        // all the scopes have deferred calls at the same time
+                        deferred.countDown();
+                        deferred.await(5, TimeUnit.SECONDS);
+                     }
+                     finally
+                     {
+                        batcher.endBatch();
+                     }
+                  }
+                  catch (Exception e)
+                  {
+                     throw e;
+                  }
+                  catch (Throwable t)
+                  {
+                     throw new Exception(t);
+                  }
+                  return null;
+               }
+            }));
+         }
+         for (Future<Object> result : results)
+         {
+            result.get(10, TimeUnit.SECONDS);
+         }
+         Assert.assertEquals("Calls of different threads were sent together", callers, batcher.getBatchesSent());
+         Assert.assertEquals("Unexpected number of calls sent", callers * callsPerCaller, batcher.getCallsSent());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Tests that void calls within a batch scope are deferred until a call whose result is needed, or the end of 
+    * the scope, and that the first failure of a deferred call is reported at the end of the scope
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testBatchScope() throws Throwable
+   {
+      RemoteInvocationBatcher batcher = new RemoteInvocationBatcher(16);
+      EchoSender sender = new EchoSender();
+      batcher.beginBatch();
+      Assert.assertTrue("Not batching within a scope", batcher.isBatching());
+      Assert.assertNull("Deferred call returned a result", batcher.invoke(this.echo("a"), true, sender));
+      Assert.assertNull("Deferred call returned a result", batcher.invoke(this.echo("b"), true, sender));
+      Assert.assertEquals("Deferred calls were sent", 0, batcher.getBatchesSent());
+      Assert.assertEquals("Unexpected result", "c", batcher.invoke(this.echo("c"), false, sender));
+      Assert.assertEquals("Deferred calls weren't sent along with the synchronous call", 1, batcher.getBatchesSent());
+      Assert.assertEquals("Unexpected batch size", 3, sender.getLargestBatch());
+
+      IllegalStateException failure = new IllegalStateException("Deferred failure");
+      batcher.invoke(this.echo(failure), true, sender);
+      batcher.invoke(this.echo(new IllegalArgumentException("Later failure")), true, sender);
+      batcher.invoke(this.echo("d"), true, sender);
+      try
+      {
+         batcher.endBatch();
+         Assert.fail("Failure of deferred call wasn't reported");
+      }
+      catch (IllegalStateException expected)
+      {
+         Assert.assertSame("Unexpected failure reported", failure, expected);
+      }
+      Assert.assertEquals("Deferred calls weren't sent at the end of the scope", 2, batcher.getBatchesSent());
+      Assert.assertFalse("Still batching after the scope ended", batcher.isBatching());
+   }
+
+   /**
+    * Tests that a failure to send a batch is reported to the caller, whether the call is deferred or not
+    * 
+    * @throws Throwable
+    */
+   @Test
+   public void testSendFailure() throws Throwable
+   {
+      RemoteInvocationBatcher batcher = new RemoteInvocationBatcher(16);
+      final IllegalStateException unreachable = new IllegalStateException("Server unreachable");
+      BatchSender sender = new BatchSender()
+      {
+         @Override
+         public List<BatchedCallResult> send(List<BatchedCall> calls) throws Throwable
+         {
+            throw unreachable;
+         }
+      };
+      try
+      {
+         batcher.invoke(this.echo("a"), false, sender);
+         Assert.fail("Send failure wasn't reported");
+      }
+      catch (IllegalStateException expected)
+      {
+         Assert.assertSame("Unexpected failure reported", unreachable, expected);
+      }
+
+      batcher.beginBatch();
+      batcher.invoke(this.echo("b"), true, sender);
+      try
+      {
+         batcher.endBatch();
+         Assert.fail("Send failure of deferred call wasn't reported");
+      }
+      catch (IllegalStateException expected)
+      {
+         Assert.assertSame("Unexpected failure reported", unreachable, expected);
+      }
+      Assert.assertFalse("Still batching after the scope ended", batcher.isBatching());
+      Assert.assertEquals("Failed batch counted as sent", 0, batcher.getBatchesSent());
+   }
+
+   private BatchedCall echo(Object arg) throws NoSuchMethodException
+   {
+      Method method = EchoSender.class.getMethod("echo", new Class<?>[]
+      {Object.class});
+      return new BatchedCall(new SerializableMethod(method), new Object[]
+      {arg});
+   }
+
+   /**
+    * Returns the argument of each call as its result, or fails the call if the argument is an exception
+    */
+   public static class EchoSender implements BatchSender
+   {
+      private int largestBatch;
+
+      public static Object echo(Object arg)
+      {
+         return arg;
+      }
+
+      @Override
+      public synchronized List<BatchedCallResult> send(List<BatchedCall> calls) throws Throwable
+      {
+         this.largestBatch = Math.max(this.largestBatch, calls.size());
+         List<BatchedCallResult> results = new ArrayList<BatchedCallResult>();
+         for (BatchedCall call : calls)
+         {
+            Object arg = call.getArgs()[0];
+            results.add(arg instanceof Throwable ? BatchedCallResult.failed((Throwable) arg) : BatchedCallResult
+                  .returned(arg));
+         }
+         return Collections.unmodifiableList(results);
+      }
+
+      public synchronized int getLargestBatch()
+      {
+         return this.largestBatch;
+      }
+   }
+}
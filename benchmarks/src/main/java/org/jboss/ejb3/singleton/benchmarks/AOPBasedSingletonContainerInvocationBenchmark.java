@@ -0,0 +1,147 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.BeanContext;
+import org.jboss.ejb3.singleton.aop.impl.AOPBasedSingletonContainer;
+import org.jboss.ejb3.singleton.benchmarks.common.AOPBasedSingletonContainerBootstrap;
+import org.jboss.ejb3.singleton.benchmarks.common.Counter;
+import org.jboss.ejb3.singleton.benchmarks.common.CounterSingletonBean;
+import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-invocation overhead of a {@link AOPBasedSingletonContainer}, i.e. a invocation
+ * through {@link AOPBasedSingletonContainer#invoke(Serializable, Class, Method, Object[])} which passes
+ * through the complete AOP interceptor stack, and the overhead of
+ * {@link AOPBasedSingletonContainer#getBusinessObject(BeanContext, Class)}.
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AOPBasedSingletonContainerInvocationBenchmark
+{
+
+   private ExecutorService asyncExecutor;
+
+   private AOPBasedSingletonContainer singletonContainer;
+
+   private BeanContext<?> beanContext;
+
+   private Method echoMethod;
+
+   private Object[] echoArgs;
+
+   private Method readMethod;
+
+   private Object[] readArgs;
+
+   @Setup(Level.Trial)
+   public void setup() throws Exception
+   {
+      this.asyncExecutor = Executors.newCachedThreadPool();
+      this.singletonContainer = AOPBasedSingletonContainerBootstrap.createContainer(CounterSingletonBean.class,
+            this.asyncExecutor, Counter.class, new CounterBusinessObject());
+      this.beanContext = (BeanContext<?>) ((SingletonEJBInstanceManager) this.singletonContainer
+            .getBeanInstanceManager()).get();
+
+      this.echoMethod = CounterSingletonBean.class.getMethod("echo", new Class<?>[]
+      {String.class});
+      this.echoArgs = new Object[]
+      {"Hello"};
+      this.readMethod = CounterSingletonBean.class.getMethod("read", new Class<?>[]
+      {});
+      this.readArgs = new Object[]
+      {};
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception
+   {
+      AOPBasedSingletonContainerBootstrap.destroyContainer(this.singletonContainer);
+      this.asyncExecutor.shutdownNow();
+   }
+
+   @Benchmark
+   public Object invokeEcho() throws Exception
+   {
+      return this.singletonContainer.invoke((Serializable) null, Counter.class, this.echoMethod, this.echoArgs);
+   }
+
+   @Benchmark
+   public Object invokeRead() throws Exception
+   {
+      return this.singletonContainer.invoke((Serializable) null, Counter.class, this.readMethod, this.readArgs);
+   }
+
+   @Benchmark
+   public Counter getBusinessObject()
+   {
+      return this.singletonContainer.getBusinessObject(this.beanContext, Counter.class);
+   }
+
+   /**
+    * Stands in for the business object (proxy) which, in the AS, would have been bound to JNDI by
+    * the singleton deployers. The benchmark only looks it up, so it isn't expected to be invoked upon
+    */
+   private static class CounterBusinessObject implements Counter, Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      public String echo(String msg)
+      {
+         throw new UnsupportedOperationException("Not expected to be invoked");
+      }
+
+      public int read()
+      {
+         throw new UnsupportedOperationException("Not expected to be invoked");
+      }
+
+      public void write()
+      {
+         throw new UnsupportedOperationException("Not expected to be invoked");
+      }
+   }
+}
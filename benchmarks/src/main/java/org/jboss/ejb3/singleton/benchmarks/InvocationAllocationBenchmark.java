@@ -0,0 +1,146 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.aop.MethodInfo;
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.util.MethodHashing;
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.container.spi.InterceptorRegistry;
+import org.jboss.ejb3.singleton.aop.impl.AOPBasedContainerInvocation;
+import org.jboss.ejb3.singleton.aop.impl.AOPBasedSingletonContainer;
+import org.jboss.ejb3.singleton.benchmarks.common.AOPBasedSingletonContainerBootstrap;
+import org.jboss.ejb3.singleton.benchmarks.common.Counter;
+import org.jboss.ejb3.singleton.benchmarks.common.CounterSingletonBean;
+import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the GC pressure (allocated bytes per invocation) of local invocations on a 
+ * {@link AOPBasedSingletonContainer}. The numbers of interest are the <code>gc.alloc.rate.norm</code>
+ * values reported by the {@link GCProfiler}. Either run this class directly (its main method enables
+ * the profiler) or pass <code>-prof gc</code> to the benchmarks jar.
+ * <ul>
+ *   <li><code>invokeThroughAOPStack</code> - a local invocation through the complete AOP interceptor stack</li>
+ *   <li><code>invokeWithoutInterceptors</code> - a local invocation whose interceptor chain is empty, which is
+ *   dispatched directly to the bean instance without creating any AOP invocation</li>
+ *   <li><code>createContainerInvocation</code> - just the creation of a container invocation, whose response
+ *   context is no longer allocated upfront</li>
+ * </ul>
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvocationAllocationBenchmark
+{
+
+   private static final Interceptor[] NO_INTERCEPTORS = new Interceptor[0];
+
+   private ExecutorService asyncExecutor;
+
+   private AOPBasedSingletonContainer singletonContainer;
+
+   private InterceptorRegistry interceptorRegistry;
+
+   private BeanContext beanContext;
+
+   private Method readMethod;
+
+   private MethodInfo readMethodInfo;
+
+   private Object[] noArgs = new Object[]
+   {};
+
+   @Setup(Level.Trial)
+   public void setup() throws Exception
+   {
+      this.asyncExecutor = Executors.newCachedThreadPool();
+      this.singletonContainer = AOPBasedSingletonContainerBootstrap.createContainer(CounterSingletonBean.class,
+            this.asyncExecutor, null, null);
+      this.interceptorRegistry = this.singletonContainer.getInterceptorRegistry();
+      this.beanContext = ((SingletonEJBInstanceManager) this.singletonContainer.getBeanInstanceManager()).get();
+      this.readMethod = CounterSingletonBean.class.getMethod("read", new Class<?>[]
+      {});
+      this.readMethodInfo = this.singletonContainer.getAdvisor().getMethodInfo(
+            MethodHashing.calculateHash(this.readMethod));
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception
+   {
+      AOPBasedSingletonContainerBootstrap.destroyContainer(this.singletonContainer);
+      this.asyncExecutor.shutdownNow();
+   }
+
+   @Benchmark
+   public Object invokeThroughAOPStack() throws Exception
+   {
+      return this.singletonContainer.invoke((Serializable) null, Counter.class, this.readMethod, this.noArgs);
+   }
+
+   @Benchmark
+   public Object invokeWithoutInterceptors() throws Exception
+   {
+      AOPBasedContainerInvocation invocation = new AOPBasedContainerInvocation(this.readMethodInfo, this.noArgs,
+            null, NO_INTERCEPTORS);
+      return this.interceptorRegistry.intercept(invocation, this.beanContext);
+   }
+
+   @Benchmark
+   public Object createContainerInvocation()
+   {
+      return new AOPBasedContainerInvocation(this.readMethodInfo, this.noArgs);
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      Options options = new OptionsBuilder().include(InvocationAllocationBenchmark.class.getSimpleName()).addProfiler(
+            GCProfiler.class).build();
+      new Runner(options).run();
+   }
+}
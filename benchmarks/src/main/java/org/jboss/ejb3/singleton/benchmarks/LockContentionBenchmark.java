@@ -0,0 +1,157 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+
+import org.jboss.ejb3.singleton.aop.impl.AOPBasedSingletonContainer;
+import org.jboss.ejb3.singleton.benchmarks.common.AOPBasedSingletonContainerBootstrap;
+import org.jboss.ejb3.singleton.benchmarks.common.Counter;
+import org.jboss.ejb3.singleton.benchmarks.common.CounterSingletonBean;
+import org.jboss.ejb3.singleton.benchmarks.common.StripedCounterSingletonBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of concurrent invocations on {@link Lock @Lock} methods of a singleton bean,
+ * through the complete AOP interceptor stack (including the container managed concurrency interceptor):
+ * <ul>
+ *   <li><code>readOnly</code> - all threads invoke a {@link LockType#READ} method</li>
+ *   <li><code>writeOnly</code> - all threads invoke a {@link LockType#WRITE} method</li>
+ *   <li><code>mixed</code> - 3 threads invoke a {@link LockType#READ} method while 1 thread invokes
+ *   a {@link LockType#WRITE} method</li>
+ * </ul>
+ * Each of these is run against a bean with the default locking and a bean with
+ * {@link org.jboss.ejb3.singleton.spi.annotation.StripedLocking striped locking}.
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockContentionBenchmark
+{
+
+   /**
+    * The locking used by the bean
+    */
+   @Param(
+   {"default", "striped"})
+   private String locking;
+
+   private ExecutorService asyncExecutor;
+
+   private AOPBasedSingletonContainer singletonContainer;
+
+   private Method readMethod;
+
+   private Method writeMethod;
+
+   private Object[] noArgs = new Object[]
+   {};
+
+   @Setup(Level.Trial)
+   public void setup() throws Exception
+   {
+      this.asyncExecutor = Executors.newCachedThreadPool();
+      Class<?> beanClass = "striped".equals(this.locking) ? StripedCounterSingletonBean.class
+            : CounterSingletonBean.class;
+      this.singletonContainer = AOPBasedSingletonContainerBootstrap.createContainer(beanClass, this.asyncExecutor,
+            null, null);
+      this.readMethod = beanClass.getMethod("read", new Class<?>[]
+      {});
+      this.writeMethod = beanClass.getMethod("write", new Class<?>[]
+      {});
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception
+   {
+      AOPBasedSingletonContainerBootstrap.destroyContainer(this.singletonContainer);
+      this.asyncExecutor.shutdownNow();
+   }
+
+   @Benchmark
+   @Group("readOnly")
+   @GroupThreads(4)
+   public Object readOnly() throws Exception
+   {
+      return this.invokeRead();
+   }
+
+   @Benchmark
+   @Group("writeOnly")
+   @GroupThreads(4)
+   public Object writeOnly() throws Exception
+   {
+      return this.invokeWrite();
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(3)
+   public Object mixedRead() throws Exception
+   {
+      return this.invokeRead();
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(1)
+   public Object mixedWrite() throws Exception
+   {
+      return this.invokeWrite();
+   }
+
+   private Object invokeRead() throws Exception
+   {
+      return this.singletonContainer.invoke((Serializable) null, Counter.class, this.readMethod, this.noArgs);
+   }
+
+   private Object invokeWrite() throws Exception
+   {
+      return this.singletonContainer.invoke((Serializable) null, Counter.class, this.writeMethod, this.noArgs);
+   }
+}
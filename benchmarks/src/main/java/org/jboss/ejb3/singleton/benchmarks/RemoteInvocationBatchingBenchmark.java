@@ -0,0 +1,188 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.ejb3.common.lang.SerializableMethod;
+import org.jboss.ejb3.singleton.aop.impl.AOPBasedSingletonContainer;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchSender;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCall;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCallResult;
+import org.jboss.ejb3.singleton.aop.impl.remoting.RemoteInvocationBatcher;
+import org.jboss.ejb3.singleton.benchmarks.common.AOPBasedSingletonContainerBootstrap;
+import org.jboss.ejb3.singleton.benchmarks.common.Counter;
+import org.jboss.ejb3.singleton.benchmarks.common.RemoteCounterSingletonBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput gain of batching remote invocations (see {@link RemoteInvocationBatcher}). The 
+ * batches are sent over a loopback transport, which marshalls the calls and their results (just like a 
+ * remoting round trip would) and simulates the network latency of a round trip, before running the calls 
+ * through {@link AOPBasedSingletonContainer#invokeBatch(List)}. A single thread invokes {@link Counter#write()}
+ * {@value #SEQUENCE_LENGTH} times, either in a round trip each (<code>unbatchedSequence</code>) or deferred within 
+ * a batch scope (<code>batchScope</code>).
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoteInvocationBatchingBenchmark
+{
+
+   /**
+    * The number of calls made by the single threaded benchmarks
+    */
+   private static final int SEQUENCE_LENGTH = 16;
+
+   /**
+    * The simulated network latency of a round trip, in micro seconds
+    */
+   @Param(
+   {"0", "100"})
+   private long roundTripMicros;
+
+   private ExecutorService asyncExecutor;
+
+   private AOPBasedSingletonContainer singletonContainer;
+
+   private BatchSender sender;
+
+   private BatchedCall writeCall;
+
+   private RemoteInvocationBatcher unbatched;
+
+   private RemoteInvocationBatcher scopeBatcher;
+
+   @Setup(Level.Trial)
+   public void setup() throws Exception
+   {
+      this.asyncExecutor = Executors.newCachedThreadPool();
+      this.singletonContainer = AOPBasedSingletonContainerBootstrap.createContainer(RemoteCounterSingletonBean.class,
+            this.asyncExecutor, null, null);
+      this.sender = new LoopbackBatchSender(this.singletonContainer, this.roundTripMicros);
+      this.writeCall = new BatchedCall(new SerializableMethod(Counter.class.getMethod("write", new Class<?>[]
+      {})), new Object[]
+      {});
+      this.unbatched = new RemoteInvocationBatcher(1);
+      this.scopeBatcher = new RemoteInvocationBatcher(SEQUENCE_LENGTH);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception
+   {
+      AOPBasedSingletonContainerBootstrap.destroyContainer(this.singletonContainer);
+      this.asyncExecutor.shutdownNow();
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(SEQUENCE_LENGTH)
+   public void unbatchedSequence() throws Throwable
+   {
+      for (int i = 0; i < SEQUENCE_LENGTH; i++)
+      {
+         this.unbatched.invoke(this.writeCall, true, this.sender);
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(SEQUENCE_LENGTH)
+   public void batchScope() throws Throwable
+   {
+      this.scopeBatcher.beginBatch();
+      try
+      {
+         for (int i = 0; i < SEQUENCE_LENGTH; i++)
+         {
+            this.scopeBatcher.invoke(this.writeCall, true, this.sender);
+         }
+      }
+      finally
+      {
+         this.scopeBatcher.endBatch();
+      }
+   }
+
+   /**
+    * Sends the batches to a container in the same JVM, marshalling the calls and their results and simulating
+    * the latency of a round trip
+    */
+   private static class LoopbackBatchSender implements BatchSender
+   {
+      private final AOPBasedSingletonContainer container;
+
+      private final long roundTripNanos;
+
+      public LoopbackBatchSender(AOPBasedSingletonContainer container, long roundTripMicros)
+      {
+         this.container = container;
+         this.roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public List<BatchedCallResult> send(List<BatchedCall> calls) throws Throwable
+      {
+         if (this.roundTripNanos > 0)
+         {
+            LockSupport.parkNanos(this.roundTripNanos);
+         }
+         List<BatchedCall> received = (List<BatchedCall>) marshall(calls);
+         return (List<BatchedCallResult>) marshall(this.container.invokeBatch(received));
+      }
+
+      private static Object marshall(Object object) throws IOException, ClassNotFoundException
+      {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         ObjectOutputStream out = new ObjectOutputStream(bytes);
+         out.writeObject(object);
+         out.close();
+         return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+      }
+   }
+}
@@ -0,0 +1,114 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.singleton.benchmarks.common.BenchmarkContainerInvocation;
+import org.jboss.ejb3.singleton.benchmarks.common.CounterSingletonBean;
+import org.jboss.ejb3.singleton.benchmarks.common.EmptyInterceptorRegistry;
+import org.jboss.ejb3.singleton.impl.container.SingletonContainer;
+import org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.spec.SessionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-invocation overhead of the {@link SingletonContainer} itself, i.e. without
+ * any interceptors (the container is configured with a {@link EmptyInterceptorRegistry}).
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SingletonContainerInvocationBenchmark
+{
+
+   private SingletonContainer singletonContainer;
+
+   private ContainerInvocation echoInvocation;
+
+   private ContainerInvocation readInvocation;
+
+   @Setup(Level.Trial)
+   public void setup() throws Exception
+   {
+      JBossSessionBean31MetaData singletonBeanMetadata = new JBossSessionBean31MetaData();
+      singletonBeanMetadata.setEjbClass(CounterSingletonBean.class.getName());
+      singletonBeanMetadata.setEjbName(CounterSingletonBean.class.getSimpleName());
+      singletonBeanMetadata.setSessionType(SessionType.Singleton);
+
+      EmptyInterceptorRegistry interceptorRegistry = new EmptyInterceptorRegistry();
+      this.singletonContainer = new SingletonContainer(CounterSingletonBean.class, singletonBeanMetadata,
+            interceptorRegistry);
+      interceptorRegistry.setEJBContainer(this.singletonContainer);
+      this.singletonContainer.setBeanInstanceManager(new SingletonEJBInstanceManagerImpl(CounterSingletonBean.class,
+            this.singletonContainer, this.singletonContainer, null, null));
+      this.singletonContainer.create();
+      this.singletonContainer.start();
+
+      Method echoMethod = CounterSingletonBean.class.getMethod("echo", new Class<?>[]
+      {String.class});
+      this.echoInvocation = new BenchmarkContainerInvocation(echoMethod, new Object[]
+      {"Hello"});
+      Method readMethod = CounterSingletonBean.class.getMethod("read", new Class<?>[]
+      {});
+      this.readInvocation = new BenchmarkContainerInvocation(readMethod, new Object[]
+      {});
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception
+   {
+      this.singletonContainer.stop();
+      this.singletonContainer.destroy();
+   }
+
+   @Benchmark
+   public Object invokeEcho() throws Exception
+   {
+      return this.singletonContainer.invoke(this.echoInvocation);
+   }
+
+   @Benchmark
+   public Object invokeRead() throws Exception
+   {
+      return this.singletonContainer.invoke(this.readInvocation);
+   }
+}
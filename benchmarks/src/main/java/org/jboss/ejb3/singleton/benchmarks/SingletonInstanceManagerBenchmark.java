@@ -0,0 +1,125 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the contention on {@link SingletonEJBInstanceManagerImpl#get()}, which is invoked
+ * on every business method invocation on a singleton bean.
+ * <p>
+ *  The <code>lockFreeGet</code> benchmark uses the {@link SingletonEJBInstanceManagerImpl} as-is,
+ *  whereas the <code>synchronizedGet</code> benchmark uses an instance manager whose get() is
+ *  <code>synchronized</code> (which is how get() used to be implemented) as the baseline.
+ *  Run with a varying thread count (for example, <code>-t 1</code>, <code>-t 8</code>, <code>-t max</code>)
+ *  to see how each of them scales with the number of concurrent invokers.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class SingletonInstanceManagerBenchmark
+{
+
+   private SingletonEJBInstanceManagerImpl lockFreeInstanceManager;
+
+   private SingletonEJBInstanceManagerImpl synchronizedInstanceManager;
+
+   @Setup(Level.Trial)
+   public void setup()
+   {
+      this.lockFreeInstanceManager = new SingletonEJBInstanceManagerImpl(BenchmarkSingletonBean.class, null, null,
+            null, null);
+      this.synchronizedInstanceManager = new SynchronizedSingletonEJBInstanceManager(BenchmarkSingletonBean.class);
+      // create the singletons upfront, we are only interested in the steady state
+      this.lockFreeInstanceManager.get();
+      this.synchronizedInstanceManager.get();
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown()
+   {
+      this.lockFreeInstanceManager.destroy();
+      this.synchronizedInstanceManager.destroy();
+   }
+
+   @Benchmark
+   public BeanContext lockFreeGet()
+   {
+      return this.lockFreeInstanceManager.get();
+   }
+
+   @Benchmark
+   public BeanContext synchronizedGet()
+   {
+      return this.synchronizedInstanceManager.get();
+   }
+
+   /**
+    * Baseline instance manager which serializes all get() calls on the instance manager monitor
+    */
+   private static class SynchronizedSingletonEJBInstanceManager extends SingletonEJBInstanceManagerImpl
+   {
+      SynchronizedSingletonEJBInstanceManager(Class<?> beanClass)
+      {
+         super(beanClass, null, null, null, null);
+      }
+
+      /**
+       * @see org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl#get()
+       */
+      @Override
+      public synchronized BeanContext get()
+      {
+         return super.get();
+      }
+   }
+
+   /**
+    * The singleton bean used in the benchmarks
+    */
+   public static class BenchmarkSingletonBean
+   {
+   }
+}
@@ -0,0 +1,186 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.benchmarks.common;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.lang.reflect.AnnotatedElement;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+import org.jboss.aop.AspectManager;
+import org.jboss.aop.AspectXmlLoader;
+import org.jboss.aop.Domain;
+import org.jboss.aop.DomainDefinition;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.ejb3.ejbref.resolver.spi.EjbReference;
+import org.jboss.ejb3.ejbref.resolver.spi.EjbReferenceResolver;
+import org.jboss.ejb3.instantiator.impl.Ejb31SpecBeanInstantiator;
+import org.jboss.ejb3.singleton.aop.impl.AOPBasedSingletonContainer;
+import org.jboss.ejb3.timerservice.spi.TimerServiceFactory;
+import org.jboss.metadata.annotation.creator.ejb.jboss.JBoss50Creator;
+import org.jboss.metadata.annotation.finder.AnnotationFinder;
+import org.jboss.metadata.annotation.finder.DefaultAnnotationFinder;
+import org.jboss.metadata.ejb.jboss.JBossMetaData;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.naming.JavaCompInitializer;
+import org.jboss.reloaded.naming.spi.JavaEEComponent;
+import org.jnp.server.SingletonNamingServer;
+import org.mockito.Matchers;
+
+/**
+ * Bootstraps a {@link AOPBasedSingletonContainer} in the current VM, outside of the AS. This is
+ * the same environment as the one used by the aop-impl testsuite: an in-VM naming server, a mock
+ * java:comp and a mock timer service factory.
+ * <p>
+ *  The naming server and the AOP interceptors are setup only once per VM.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class AOPBasedSingletonContainerBootstrap
+{
+
+   /**
+    * The AOP interceptors used by the containers created by this bootstrap
+    */
+   private static final String BENCHMARK_AOP_XML = "org/jboss/ejb3/singleton/benchmarks/singleton-benchmark-aop.xml";
+
+   private static Domain singletonAOPDomain;
+
+   private static JavaCompInitializer javaCompInitializer;
+
+   /**
+    * Sets up the in-VM naming server and deploys the AOP interceptors (if not already done)
+    *
+    * @throws Exception
+    */
+   public static synchronized void bootstrap() throws Exception
+   {
+      if (singletonAOPDomain != null)
+      {
+         return;
+      }
+      new SingletonNamingServer();
+      javaCompInitializer = new JavaCompInitializer();
+      javaCompInitializer.start();
+
+      URL url = Thread.currentThread().getContextClassLoader().getResource(BENCHMARK_AOP_XML);
+      if (url == null)
+         throw new IllegalStateException("Can't find " + BENCHMARK_AOP_XML + " on class loader "
+               + Thread.currentThread().getContextClassLoader());
+      AspectXmlLoader.deployXML(url);
+
+      DomainDefinition domainDef = AspectManager.instance().getContainer(AOPBasedSingletonContainer.getAOPDomainName());
+      if (domainDef == null)
+         throw new IllegalArgumentException(AOPBasedSingletonContainer.getAOPDomainName() + " domain not found");
+      singletonAOPDomain = (Domain) domainDef.getManager();
+   }
+
+   /**
+    * Creates, and starts, a {@link AOPBasedSingletonContainer} for the passed bean class. The
+    * metadata of the bean is created out of the annotations on the bean class.
+    * <p>
+    *  If a <code>businessObject</code> is passed, then it is bound to JNDI and made resolvable (through
+    *  {@link AOPBasedSingletonContainer#getBusinessObject(org.jboss.ejb3.BeanContext, Class)}) so that
+    *  the business object lookup path can be measured.
+    * </p>
+    *
+    * @param beanClass The bean implementation class
+    * @param asyncExecutor The executor used for asynchronous invocations
+    * @param businessInterface The business interface of the <code>businessObject</code>. Can be null
+    * @param businessObject The business object. Can be null
+    * @return
+    * @throws Exception
+    */
+   public static AOPBasedSingletonContainer createContainer(Class<?> beanClass, ExecutorService asyncExecutor,
+         Class<?> businessInterface, Serializable businessObject) throws Exception
+   {
+      bootstrap();
+
+      AnnotationFinder<AnnotatedElement> finder = new DefaultAnnotationFinder<AnnotatedElement>();
+      JBoss50Creator metadataCreator = new JBoss50Creator(finder);
+      Set<Class<?>> classes = new HashSet<Class<?>>();
+      classes.add(beanClass);
+      JBossMetaData metadata = metadataCreator.create(classes);
+      JBossSessionBean31MetaData sessionBeanMetaData = (JBossSessionBean31MetaData) metadata
+            .getEnterpriseBean(beanClass.getSimpleName());
+      if (sessionBeanMetaData == null || !sessionBeanMetaData.isSingleton())
+      {
+         throw new IllegalArgumentException(beanClass + " is not a singleton bean");
+      }
+
+      ClassLoader cl = Thread.currentThread().getContextClassLoader();
+      String beanName = beanClass.getSimpleName();
+      sessionBeanMetaData.setContainerName("jboss.j2ee:service=EJB3,name=" + beanName);
+      AOPBasedSingletonContainer singletonContainer = new AOPBasedSingletonContainer(cl, beanClass.getName(),
+            beanName, singletonAOPDomain, new Hashtable(), sessionBeanMetaData, asyncExecutor);
+      singletonContainer.setBeanInstantiator(new Ejb31SpecBeanInstantiator());
+
+      // setup dummy java:/comp
+      JavaEEComponent mockJavaEEComponent = mock(JavaEEComponent.class);
+      when(mockJavaEEComponent.getContext()).thenReturn(javaCompInitializer.getIniCtx());
+      singletonContainer.setJavaComp(mockJavaEEComponent);
+
+      // mock timerservice factory
+      singletonContainer.setTimerServiceFactory(mock(TimerServiceFactory.class));
+
+      if (businessInterface != null && businessObject != null)
+      {
+         String jndiName = beanName + "/" + businessInterface.getName();
+         Context ctx = new InitialContext();
+         ctx.rebind(jndiName, businessObject);
+         EjbReferenceResolver ejbRefResolver = mock(EjbReferenceResolver.class);
+         when(ejbRefResolver.resolveEjb(Matchers.any(DeploymentUnit.class), Matchers.any(EjbReference.class)))
+               .thenReturn(jndiName);
+         singletonContainer.setEjbReferenceResolver(ejbRefResolver);
+      }
+
+      singletonContainer.create();
+      singletonContainer.start();
+      return singletonContainer;
+   }
+
+   /**
+    * Stops and destroys the passed container
+    *
+    * @param singletonContainer
+    * @throws Exception
+    */
+   public static void destroyContainer(AOPBasedSingletonContainer singletonContainer) throws Exception
+   {
+      if (singletonContainer == null)
+      {
+         return;
+      }
+      singletonContainer.stop();
+      singletonContainer.destroy();
+   }
+}
@@ -0,0 +1,115 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.benchmarks.common;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.container.spi.EJBContainer;
+import org.jboss.ejb3.container.spi.InterceptorRegistry;
+
+/**
+ * A {@link InterceptorRegistry} without any interceptors. It directly invokes the target method
+ * on the bean instance and is used to measure the bare overhead of the
+ * {@link org.jboss.ejb3.singleton.impl.container.SingletonContainer}
+ *
+ * @version $Revision: $
+ */
+public class EmptyInterceptorRegistry implements InterceptorRegistry
+{
+
+   private EJBContainer container;
+
+   /**
+    * Sets the container to which this interceptor registry belongs
+    * @param container
+    */
+   public void setEJBContainer(EJBContainer container)
+   {
+      this.container = container;
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.InterceptorRegistry#getEJBContainer()
+    */
+   @Override
+   public EJBContainer getEJBContainer()
+   {
+      return this.container;
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.InterceptorRegistry#intercept(org.jboss.ejb3.container.spi.ContainerInvocation, org.jboss.ejb3.container.spi.BeanContext)
+    */
+   @Override
+   public Object intercept(ContainerInvocation containerInvocation, BeanContext targetBeanContext) throws Exception
+   {
+      Object target = targetBeanContext.getBeanInstance();
+      Method methodToInvoke = containerInvocation.getMethod();
+      return methodToInvoke.invoke(target, containerInvocation.getArgs());
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.InterceptorRegistry#invokePostActivate(org.jboss.ejb3.container.spi.BeanContext)
+    */
+   @Override
+   public void invokePostActivate(BeanContext targetBeanContext) throws Exception
+   {
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.InterceptorRegistry#invokePostConstruct(org.jboss.ejb3.container.spi.BeanContext)
+    */
+   @Override
+   public void invokePostConstruct(BeanContext targetBeanContext) throws Exception
+   {
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.InterceptorRegistry#invokePreDestroy(org.jboss.ejb3.container.spi.BeanContext)
+    */
+   @Override
+   public void invokePreDestroy(BeanContext targetBeanContext) throws Exception
+   {
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.InterceptorRegistry#invokePrePassivate(org.jboss.ejb3.container.spi.BeanContext)
+    */
+   @Override
+   public void invokePrePassivate(BeanContext targetBeanContext) throws Exception
+   {
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.InterceptorRegistry#getInterceptorClasses()
+    */
+   @Override
+   public List<Class<?>> getInterceptorClasses()
+   {
+      return Collections.emptyList();
+   }
+
+}
@@ -21,12 +21,19 @@
 */
 package org.jboss.ejb3.singleton.deployer;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.aop.AspectManager;
 import org.jboss.aop.Domain;
@@ -49,12 +56,20 @@ import org.jboss.ejb3.DependencyPolicy;
 import org.jboss.ejb3.MCDependencyPolicy;
 import org.jboss.ejb3.common.deployers.spi.AttachmentNames;
 import org.jboss.ejb3.container.spi.EJBContainer;
+import org.jboss.ejb3.container.spi.EJBInstanceManager;
 import org.jboss.ejb3.ejbref.resolver.spi.EjbReferenceResolver;
 import org.jboss.ejb3.instantiator.spi.BeanInstantiatorRegistration;
 import org.jboss.ejb3.kernel.JNDIKernelRegistryPlugin;
 import org.jboss.ejb3.resolvers.MessageDestinationReferenceResolver;
 import org.jboss.ejb3.singleton.aop.impl.AOPBasedSingletonContainer;
+import org.jboss.ejb3.singleton.aop.impl.async.VirtualThreads;
+import org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager;
 import org.jboss.ejb3.singleton.impl.resolver.EjbLinkResolver;
+import org.jboss.ejb3.singleton.impl.startup.StartupSingletonScheduler;
+import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
+import org.jboss.ejb3.singleton.spi.WarmupPolicy;
+import org.jboss.ejb3.singleton.spi.cluster.ReplicaTransport;
+import org.jboss.ejb3.singleton.spi.cluster.SingletonMembership;
 import org.jboss.injection.injector.EEInjector;
 import org.jboss.injection.injector.metadata.EnvironmentEntryType;
 import org.jboss.injection.injector.metadata.InjectionTargetType;
@@ -99,7 +114,7 @@ import org.jboss.switchboard.spi.Barrier;
  */
 public class SingletonContainerDeployer extends AbstractRealDeployerWithInput<JBossEnterpriseBeanMetaData>
       implements
-         DeploymentVisitor<JBossEnterpriseBeanMetaData>
+         DeploymentVisitor<JBossEnterpriseBeanMetaData>, SingletonContainerDeployerMBean
 {
 
    /**
@@ -130,6 +145,52 @@ public class SingletonContainerDeployer extends AbstractRealDeployerWithInput<JB
     */
    private JavaEEComponentInformer javaeeComponentInformer;
    
+   /**
+    * The max number of threads used to initialize the @Startup singleton beans of a deployment.
+    * A value less than 1 means the number of available processors
+    */
+   private int startupSingletonInitializationThreads;
+   
+   /**
+    * The warmup policy of the singleton beans which don't specify one of their own
+    */
+   private WarmupPolicy defaultWarmupPolicy = WarmupPolicy.LAZY;
+   
+   /**
+    * The directory into which the state of singleton beans with 
+    * {@link org.jboss.ejb3.singleton.spi.annotation.SnapshotState} fields is snapshot. Null if the bean state
+    * isn't snapshot.
+    */
+   private File snapshotDirectory;
+   
+   /**
+    * The cluster membership through which the member, on which a cluster wide singleton bean is active, is elected.
+    * Null if there's no cluster.
+    */
+   private SingletonMembership singletonMembership;
+   
+   /**
+    * Propagates the state of cluster wide singleton beans with read replicas to the other members. Null if 
+    * there's no cluster.
+    */
+   private ReplicaTransport replicaTransport;
+   
+   /**
+    * Creates the bean instances of the singleton beans with {@link WarmupPolicy#EAGER_BACKGROUND}
+    * warmup policy. Created on first use.
+    */
+   private ThreadPoolExecutor warmupExecutor;
+   
+   /**
+    * True if the asynchronous invocations on singleton beans are run on virtual threads
+    */
+   private volatile boolean virtualThreadAsyncInvocations;
+   
+   /**
+    * Runs the asynchronous invocations on singleton beans, on virtual threads. Created on first use.
+    */
+   private ExecutorService virtualThreadAsyncExecutor;
+   
    /**
     * Constructs a {@link SingletonContainerDeployer} for
     * processing singleton beans
@@ -211,21 +272,31 @@ public class SingletonContainerDeployer extends AbstractRealDeployerWithInput<JB
       singletonContainer.setEjbReferenceResolver(this.ejbReferenceResolver);
       singletonContainer.setMessageDestinationResolver(this.messageDestinationResolver);
       singletonContainer.setPersistenceUnitResolver(this.puResolver);
+      singletonContainer.setDefaultWarmupPolicy(this.defaultWarmupPolicy);
+      singletonContainer.setSnapshotDirectory(this.snapshotDirectory);
+      singletonContainer.setSingletonMembership(this.singletonMembership);
+      singletonContainer.setReplicaTransport(this.replicaTransport);
+      if (this.virtualThreadAsyncInvocations)
+      {
+         singletonContainer.setVirtualThreadAsyncExecutor(this.getVirtualThreadAsyncExecutor());
+      }
 
       singletonContainer.instantiated();
 
       // TODO: This will go once fully integrated with SwitchBoard
       singletonContainer.processMetadata();
+      
+      if (singletonContainer.getWarmupPolicy() == WarmupPolicy.EAGER_BACKGROUND)
+      {
+         singletonContainer.setWarmupExecutor(this.getWarmupExecutor());
+      }
 
       // attach the container to the deployment unit, with appropriate MC dependencies
       this.attachContainerBMD(unit, singletonContainer.getObjectName().getCanonicalName(), singletonContainer);
 
-      // 
-      if (singletonBean.isInitOnStartup())
-      {
-         StartupSingletonInitiator startupSingletonInitiator = new StartupSingletonInitiator(singletonContainer);
-         this.attachStartupSingletonInitiatorBMD(startupSingletonInitiator, singletonContainer, unit);
-      }
+      // register the bean with the startup singleton scheduler of the deployment, which initializes
+      // the @Startup singleton beans (in parallel, where the @DependsOn allows)
+      this.registerWithStartupSingletonScheduler(unit, singletonContainer);
    }
 
    /**
@@ -354,25 +425,12 @@ public class SingletonContainerDeployer extends AbstractRealDeployerWithInput<JB
       // Process @DependsOn/depends-on
       // Add any dependencies based on @DependsOn/depends-on elements
       JBossSessionBean31MetaData sessionBeanMetaData = (JBossSessionBean31MetaData) container.getMetaData();
-      String[] dependsOn = sessionBeanMetaData.getDependsOn();
-      if (dependsOn != null)
+      List<JBossSessionBean31MetaData> dependsOn = this.getDependsOnBeans(unit, sessionBeanMetaData);
+      if (!dependsOn.isEmpty())
       {
          AbstractListMetaData containerDependencies = new AbstractListMetaData();
-         EjbLinkResolver ejbLinkResolver = new EjbLinkResolver();
-         for (String dependency : dependsOn)
+         for (JBossSessionBean31MetaData dependencyBean : dependsOn)
          {
-            // resolve the EJB through the ejb link in depends-on
-            JBossEnterpriseBeanMetaData dependencyBean = ejbLinkResolver.resolveEJB(dependency, unit);
-            if (dependencyBean == null)
-            {
-               throw new RuntimeException("Could not resolve bean for @DependsOn/depends-on with ejb-name: "
-                     + dependency + " while processing EJB named " + container.getEJBName());
-            }
-            if (isSingletonBean(dependencyBean) == false)
-            {
-               throw new RuntimeException("@DependsOn/depends-on can only refer to Singleton beans. "
-                     + dependencyBean.getEjbClass() + " is not a singleton bean");
-            }
             // when a singleton bean depends on the other singleton bean, we add:
             // 1) A dependency on the target EJB container. This we do by injecting the target EJB container
             // into this container being installed. The injected target containers will then be used 
@@ -381,7 +439,7 @@ public class SingletonContainerDeployer extends AbstractRealDeployerWithInput<JB
             // target EJB can be accessed through JNDI within the dependent EJB)
             
             // get the exposed JNDI names
-            List<String> jndiNames = this.getExposedJNDINames((JBossSessionBean31MetaData) dependencyBean);
+            List<String> jndiNames = this.getExposedJNDINames(dependencyBean);
             for (String jndiName : jndiNames)
             {
                // add each jndi name as a dependency
@@ -493,6 +551,166 @@ public class SingletonContainerDeployer extends AbstractRealDeployerWithInput<JB
       return builder.toString();
    }
 
+   /**
+    * Sets the max number of threads used to initialize the @Startup singleton beans of a deployment.
+    * A value less than 1 (the default) means the number of available processors.
+    * 
+    * @param startupSingletonInitializationThreads
+    */
+   public void setStartupSingletonInitializationThreads(int startupSingletonInitializationThreads)
+   {
+      this.startupSingletonInitializationThreads = startupSingletonInitializationThreads;
+   }
+
+   public int getStartupSingletonInitializationThreads()
+   {
+      return this.startupSingletonInitializationThreads;
+   }
+   
+   /**
+    * Sets the warmup policy of the singleton beans which don't specify one of their own (through 
+    * {@link org.jboss.ejb3.singleton.spi.annotation.Warmup}). Defaults to {@link WarmupPolicy#LAZY}.
+    * 
+    * @param defaultWarmupPolicy
+    */
+   public void setDefaultWarmupPolicy(WarmupPolicy defaultWarmupPolicy)
+   {
+      this.defaultWarmupPolicy = defaultWarmupPolicy == null ? WarmupPolicy.LAZY : defaultWarmupPolicy;
+   }
+   
+   public WarmupPolicy getDefaultWarmupPolicy()
+   {
+      return this.defaultWarmupPolicy;
+   }
+   
+   /**
+    * Sets the directory into which the {@link org.jboss.ejb3.singleton.spi.annotation.SnapshotState} fields
+    * of the singleton beans are snapshot, when the bean instances are destroyed
+    * 
+    * @param snapshotDirectory The snapshot directory. Can be null, in which case the bean state isn't snapshot.
+    */
+   public void setSnapshotDirectory(File snapshotDirectory)
+   {
+      this.snapshotDirectory = snapshotDirectory;
+   }
+   
+   public File getSnapshotDirectory()
+   {
+      return this.snapshotDirectory;
+   }
+   
+   /**
+    * Sets the cluster membership through which the member, on which a 
+    * {@link org.jboss.ejb3.singleton.spi.annotation.ClusteredSingleton cluster wide singleton} bean is 
+    * active, is elected
+    * 
+    * @param singletonMembership The cluster membership. Can be null, in which case all singleton beans 
+    *           are singletons per server
+    */
+   public void setSingletonMembership(SingletonMembership singletonMembership)
+   {
+      this.singletonMembership = singletonMembership;
+   }
+   
+   public SingletonMembership getSingletonMembership()
+   {
+      return this.singletonMembership;
+   }
+   
+   /**
+    * Sets the transport through which the state of 
+    * {@link org.jboss.ejb3.singleton.spi.annotation.ClusteredSingleton#readReplicas() cluster wide singleton beans
+    * with read replicas} is propagated from the elected member to the other members
+    * 
+    * @param replicaTransport The replica transport. Can be null, in which case cluster wide singleton beans 
+    *           are active on the elected member only
+    */
+   public void setReplicaTransport(ReplicaTransport replicaTransport)
+   {
+      this.replicaTransport = replicaTransport;
+   }
+   
+   public ReplicaTransport getReplicaTransport()
+   {
+      return this.replicaTransport;
+   }
+   
+   /**
+    * Returns the executor which creates the bean instances of the singleton beans with
+    * {@link WarmupPolicy#EAGER_BACKGROUND} warmup policy. The threads of the executor are daemon
+    * threads, which time out when idle.
+    * 
+    * @return
+    */
+   private synchronized ExecutorService getWarmupExecutor()
+   {
+      if (this.warmupExecutor == null)
+      {
+         int threads = Runtime.getRuntime().availableProcessors();
+         this.warmupExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+               {
+                  private final AtomicInteger threadNumber = new AtomicInteger();
+
+                  @Override
+                  public Thread newThread(Runnable task)
+                  {
+                     Thread thread = new Thread(task, "singleton-warmup-" + this.threadNumber.incrementAndGet());
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+         this.warmupExecutor.allowCoreThreadTimeOut(true);
+      }
+      return this.warmupExecutor;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.deployer.SingletonContainerDeployerMBean#setVirtualThreadAsyncInvocations(boolean)
+    */
+   @Override
+   public void setVirtualThreadAsyncInvocations(boolean virtualThreadAsyncInvocations)
+   {
+      if (virtualThreadAsyncInvocations && !VirtualThreads.isSupported())
+      {
+         logger.warn("Virtual threads aren't supported by this JVM - asynchronous invocations on singleton beans will continue to run on the async executor of the deployment");
+      }
+      this.virtualThreadAsyncInvocations = virtualThreadAsyncInvocations;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.deployer.SingletonContainerDeployerMBean#isVirtualThreadAsyncInvocations()
+    */
+   @Override
+   public boolean isVirtualThreadAsyncInvocations()
+   {
+      return this.virtualThreadAsyncInvocations;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.deployer.SingletonContainerDeployerMBean#isVirtualThreadsSupported()
+    */
+   @Override
+   public boolean isVirtualThreadsSupported()
+   {
+      return VirtualThreads.isSupported();
+   }
+
+   /**
+    * Returns the executor which runs the asynchronous invocations on singleton beans, on virtual threads.
+    * Returns null if the JVM doesn't support virtual threads.
+    * 
+    * @return
+    */
+   private synchronized ExecutorService getVirtualThreadAsyncExecutor()
+   {
+      if (this.virtualThreadAsyncExecutor == null)
+      {
+         this.virtualThreadAsyncExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+      }
+      return this.virtualThreadAsyncExecutor;
+   }
+
    @Inject
    public void setPersistenceUnitResolver(PersistenceUnitDependencyResolver puResolver)
    {
@@ -702,15 +920,135 @@ public class SingletonContainerDeployer extends AbstractRealDeployerWithInput<JB
       return builder.getBeanMetaData();
    }
    
-   private void attachStartupSingletonInitiatorBMD(StartupSingletonInitiator startupSingletonInitiator, EJBContainer container, DeploymentUnit unit)
+   /**
+    * Returns the singleton beans which the passed <code>sessionBean</code> depends on, through @DependsOn/depends-on.
+    * Returns an empty list if the bean doesn't depend on any other bean.
+    * 
+    * @param unit The deployment unit of the bean
+    * @param sessionBean The bean metadata
+    * @return
+    * @throws RuntimeException If any of the depends-on can't be resolved to a singleton bean
+    */
+   private List<JBossSessionBean31MetaData> getDependsOnBeans(DeploymentUnit unit, JBossSessionBean31MetaData sessionBean)
    {
-      String initiatorName = this.getStartupSingletonInitiatorMCBeanName(unit, container);
-      BeanMetaDataBuilder builder = BeanMetaDataBuilderFactory.createBuilder(initiatorName, startupSingletonInitiator.getClass().getName());
-      builder.setConstructorValue(startupSingletonInitiator);
+      String[] dependsOn = sessionBean.getDependsOn();
+      if (dependsOn == null)
+      {
+         return Collections.emptyList();
+      }
+      List<JBossSessionBean31MetaData> dependsOnBeans = new ArrayList<JBossSessionBean31MetaData>();
+      EjbLinkResolver ejbLinkResolver = new EjbLinkResolver();
+      for (String dependency : dependsOn)
+      {
+         // resolve the EJB through the ejb link in depends-on
+         JBossEnterpriseBeanMetaData dependencyBean = ejbLinkResolver.resolveEJB(dependency, unit);
+         if (dependencyBean == null)
+         {
+            throw new RuntimeException("Could not resolve bean for @DependsOn/depends-on with ejb-name: "
+                  + dependency + " while processing EJB named " + sessionBean.getEjbName());
+         }
+         if (isSingletonBean(dependencyBean) == false)
+         {
+            throw new RuntimeException("@DependsOn/depends-on can only refer to Singleton beans. "
+                  + dependencyBean.getEjbClass() + " is not a singleton bean");
+         }
+         dependsOnBeans.add((JBossSessionBean31MetaData) dependencyBean);
+      }
+      return dependsOnBeans;
+   }
+
+   /**
+    * Registers the singleton bean of the passed <code>container</code> with the {@link StartupSingletonScheduler}
+    * of the deployment. The scheduler is created (and attached as a MC bean) on first use. 
+    * <p>
+    *  All singleton beans are registered, so that the @DependsOn ordering (and cycles) through singleton beans which aren't
+    *  @Startup beans is taken into account. Beans with {@link WarmupPolicy#EAGER_BLOCKING} warmup policy are initialized
+    *  the same way as the @Startup beans. The scheduler MC bean depends on the containers of the @Startup beans and their
+    *  SwitchBoard, so that it starts (and initializes the @Startup beans) once all those are ready. 
+    * </p>
+    * @param unit The deployment unit of the bean
+    * @param container The singleton bean container
+    * @throws DeploymentException If the bean is part of a @DependsOn cycle
+    */
+   private void registerWithStartupSingletonScheduler(DeploymentUnit unit, AOPBasedSingletonContainer container)
+         throws DeploymentException
+   {
+      // Attach it to parent if we are processing a component DU, since BeanMetaDataDeployer doesn't
+      // pick up BeanMetaData from component DU
+      DeploymentUnit schedulerUnit = unit.isComponent() ? unit.getParent() : unit;
+      String schedulerName = this.getStartupSingletonSchedulerMCBeanName(schedulerUnit);
+      StartupSingletonScheduler scheduler = schedulerUnit.getAttachment(schedulerName, StartupSingletonScheduler.class);
+      if (scheduler == null)
+      {
+         scheduler = new StartupSingletonScheduler(this.startupSingletonInitializationThreads);
+         schedulerUnit.addAttachment(schedulerName, scheduler);
+      }
+
+      JBossSessionBean31MetaData singletonBean = (JBossSessionBean31MetaData) container.getMetaData();
+      List<String> dependsOn = new ArrayList<String>();
+      for (JBossSessionBean31MetaData dependencyBean : this.getDependsOnBeans(unit, singletonBean))
+      {
+         dependsOn.add(dependencyBean.getContainerName());
+      }
+      Runnable initializer = null;
+      if (singletonBean.isInitOnStartup())
+      {
+         final StartupSingletonInitiator startupSingletonInitiator = new StartupSingletonInitiator(container);
+         initializer = new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               startupSingletonInitiator.start();
+            }
+         };
+      }
+      else if (container.getWarmupPolicy() == WarmupPolicy.EAGER_BLOCKING)
+      {
+         // initialized during deployment, just like a @Startup bean
+         final AOPBasedSingletonContainer eagerContainer = container;
+         initializer = new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               EJBInstanceManager instanceManager = eagerContainer.getBeanInstanceManager();
+               if (instanceManager instanceof ClusteredSingletonEJBInstanceManager)
+               {
+                  // created if (and when) this member is elected
+                  return;
+               }
+               ((SingletonEJBInstanceManager) instanceManager).get();
+               logger.debug("Created an instance of eagerly initialized singleton bean: " + eagerContainer.getEJBName());
+            }
+         };
+      }
+      try
+      {
+         scheduler.addSingleton(singletonBean.getContainerName(), initializer, dependsOn);
+      }
+      catch (IllegalStateException ise)
+      {
+         throw new DeploymentException(ise.getMessage() + " (in unit " + unit + ")", ise);
+      }
+      if (initializer == null)
+      {
+         // not a @Startup (or eagerly initialized) bean
+         return;
+      }
+
+      String builderAttachmentName = BeanMetaDataBuilder.class.getName() + ":" + schedulerName;
+      BeanMetaDataBuilder builder = schedulerUnit.getAttachment(builderAttachmentName, BeanMetaDataBuilder.class);
+      if (builder == null)
+      {
+         builder = BeanMetaDataBuilderFactory.createBuilder(schedulerName, scheduler.getClass().getName());
+         builder.setConstructorValue(scheduler);
+         schedulerUnit.addAttachment(builderAttachmentName, builder);
+         schedulerUnit.addAttachment(BeanMetaData.class + ":" + schedulerName, builder.getBeanMetaData());
+      }
       
       // Add dependency on container
-      String containerName = container.getMetaData().getContainerName();
-      builder.addDependency(containerName);
+      builder.addDependency(singletonBean.getContainerName());
       
       // Add dependency on switchboard
       Barrier switchBoard = unit.getAttachment(Barrier.class);
@@ -721,29 +1059,16 @@ public class SingletonContainerDeployer extends AbstractRealDeployerWithInput<JB
       }
       // add dependency on INSTALLED state (i.e. fully populated and invokable ENC) SwitchBoard 
       builder.addDemand(switchBoard.getId(), ControllerState.CREATE, ControllerState.INSTALLED, null);
-      
-      if (unit.isComponent())
-      {
-         // Attach it to parent since we are processing a component DU and BeanMetaDataDeployer doesn't
-         // pick up BeanMetaData from component DU
-         unit.getParent().addAttachment(BeanMetaData.class + ":" + initiatorName, builder.getBeanMetaData());
-      }
-      else
-      {
-         unit.addAttachment(BeanMetaData.class + ":" + initiatorName, builder.getBeanMetaData());
-      }
    }
 
-   private String getStartupSingletonInitiatorMCBeanName(DeploymentUnit unit, EJBContainer container)
+   private String getStartupSingletonSchedulerMCBeanName(DeploymentUnit unit)
    {
-      StringBuilder sb = new StringBuilder("startup-singleton-initiator:");
+      StringBuilder sb = new StringBuilder("startup-singleton-scheduler:");
       org.jboss.deployers.structure.spi.DeploymentUnit topLevelUnit = unit.isTopLevel() ? unit : unit.getTopLevel();
       sb.append("topLevelUnit=");
       sb.append(topLevelUnit.getSimpleName());
       sb.append(",unit=");
       sb.append(unit.getSimpleName());
-      sb.append(",bean=");
-      sb.append(container.getEJBName());
       
       return sb.toString();
    }
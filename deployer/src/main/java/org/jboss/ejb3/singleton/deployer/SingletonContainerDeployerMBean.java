@@ -0,0 +1,55 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.deployer;
+
+/**
+ * The management interface of the {@link SingletonContainerDeployer}. Changes apply to the singleton beans 
+ * which are deployed after the change.
+ *
+ * @version $Revision: $
+ */
+public interface SingletonContainerDeployerMBean
+{
+
+   /**
+    * Returns true if the asynchronous invocations on singleton beans are run on virtual threads
+    * 
+    * @return
+    */
+   boolean isVirtualThreadAsyncInvocations();
+
+   /**
+    * Sets whether the asynchronous invocations on singleton beans are run on virtual threads. The invocations
+    * on WRITE locked methods always run on the asynchronous executor of the deployment. 
+    * Ignored if the JVM doesn't support virtual threads.
+    * 
+    * @param virtualThreadAsyncInvocations
+    */
+   void setVirtualThreadAsyncInvocations(boolean virtualThreadAsyncInvocations);
+
+   /**
+    * Returns true if the JVM supports virtual threads
+    * 
+    * @return
+    */
+   boolean isVirtualThreadsSupported();
+}
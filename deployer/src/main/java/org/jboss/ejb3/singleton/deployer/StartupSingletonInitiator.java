@@ -24,6 +24,7 @@ package org.jboss.ejb3.singleton.deployer;
 import org.jboss.dependency.spi.ControllerState;
 import org.jboss.ejb3.container.spi.EJBContainer;
 import org.jboss.ejb3.container.spi.EJBInstanceManager;
+import org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager;
 import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeanMetaData;
@@ -76,6 +77,12 @@ public class StartupSingletonInitiator
    {
       // create the instance
       EJBInstanceManager instanceManager = this.container.getBeanInstanceManager();
+      if (instanceManager instanceof ClusteredSingletonEJBInstanceManager)
+      {
+         // created if (and when) this member is elected
+         logger.debug("Skipping creation of cluster wide @Startup @Singleton bean: " + this.container.getEJBName());
+         return;
+      }
       if (instanceManager instanceof SingletonEJBInstanceManager)
       {
          SingletonEJBInstanceManager singletonBeanInstanceManager = (SingletonEJBInstanceManager) instanceManager;
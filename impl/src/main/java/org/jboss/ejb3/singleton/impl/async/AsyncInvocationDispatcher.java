@@ -0,0 +1,158 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jboss.ejb3.singleton.spi.AsyncInvocation;
+
+/**
+ * Dispatches asynchronous invocations on a singleton container to the worker threads of an {@link Executor}.
+ * <p>
+ *  Invocations which need exclusive access to the bean instance (for example, invocations on 
+ *  {@link javax.ejb.LockType#WRITE} methods) are queued up and handed over to the executor one at a time.
+ *  Only one worker thread at a time can be waiting for the exclusive access; the rest of the invocations 
+ *  wait in the queue, without occupying any thread, and are resumed once the preceding exclusive 
+ *  invocation completes.
+ * </p>
+ * <p>
+ *  Note that this isn't a continuation which is triggered when the bean lock is released. The lock is 
+ *  acquired by the concurrency interceptor, within the invocation, so the worker thread which runs the 
+ *  exclusive invocation at the head of the queue still blocks on the lock (upto the access timeout of 
+ *  the method) while other callers, for example synchronous ones, hold it. What the queue bounds is the 
+ *  number of worker threads blocked that way: one per dispatcher, instead of one per queued invocation.
+ *  Invocations which don't need exclusive access are handed to the executor right away, so their worker 
+ *  threads block on the lock while a WRITE invocation holds it.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class AsyncInvocationDispatcher
+{
+
+   /**
+    * Runs the invocations which don't need exclusive access
+    */
+   private final Executor executor;
+
+   /**
+    * Runs the invocations which need exclusive access, one at a time
+    */
+   private final SerialExecutor exclusiveExecutor;
+
+   /**
+    * The TCCL of the worker threads, while running a invocation
+    */
+   private final ClassLoader classLoader;
+
+   /**
+    * @param executor The executor which runs the invocations
+    * @param classLoader The classloader which is set as the TCCL while running an invocation. Can be null, 
+    *               in which case the TCCL of the worker threads is left as-is
+    */
+   public AsyncInvocationDispatcher(Executor executor, ClassLoader classLoader)
+   {
+      this(executor, executor, classLoader);
+   }
+
+   /**
+    * @param executor The executor which runs the invocations which don't need exclusive access
+    * @param exclusiveExecutor The executor which runs the invocations which need exclusive access
+    * @param classLoader The classloader which is set as the TCCL while running an invocation. Can be null, 
+    *               in which case the TCCL of the worker threads is left as-is
+    */
+   public AsyncInvocationDispatcher(Executor executor, Executor exclusiveExecutor, ClassLoader classLoader)
+   {
+      if (executor == null || exclusiveExecutor == null)
+      {
+         throw new IllegalArgumentException("Executor cannot be null while creating a " + AsyncInvocationDispatcher.class.getSimpleName());
+      }
+      this.executor = executor;
+      this.exclusiveExecutor = new SerialExecutor(exclusiveExecutor);
+      this.classLoader = classLoader;
+   }
+
+   /**
+    * Submits the passed <code>invocation</code> and returns without waiting for it
+    * 
+    * @param invocation The invocation
+    * @param exclusive True if the invocation needs exclusive access to the bean instance
+    * @return Returns a handle to the submitted invocation
+    * @throws IllegalStateException If the executor doesn't accept the invocation
+    */
+   public <T> AsyncInvocation<T> dispatch(final Callable<T> invocation, boolean exclusive) throws IllegalStateException
+   {
+      final ClassLoader tccl = this.classLoader;
+      Callable<T> task = invocation;
+      if (tccl != null)
+      {
+         task = new Callable<T>()
+         {
+            @Override
+            public T call() throws Exception
+            {
+               Thread currentThread = Thread.currentThread();
+               ClassLoader previousTCCL = currentThread.getContextClassLoader();
+               currentThread.setContextClassLoader(tccl);
+               try
+               {
+                  return invocation.call();
+               }
+               finally
+               {
+                  currentThread.setContextClassLoader(previousTCCL);
+               }
+            }
+         };
+      }
+      AsyncInvocationTask<T> asyncInvocation = new AsyncInvocationTask<T>(task);
+      try
+      {
+         if (exclusive)
+         {
+            this.exclusiveExecutor.execute(asyncInvocation);
+         }
+         else
+         {
+            this.executor.execute(asyncInvocation);
+         }
+      }
+      catch (RejectedExecutionException ree)
+      {
+         asyncInvocation.cancel(false);
+         throw new IllegalStateException("Asynchronous invocation rejected by executor " + this.executor, ree);
+      }
+      return asyncInvocation;
+   }
+
+   /**
+    * Returns the number of exclusive invocations which are waiting for their turn
+    * 
+    * @return
+    */
+   public int getQueuedExclusiveInvocationCount()
+   {
+      return this.exclusiveExecutor.getQueueLength();
+   }
+}
@@ -0,0 +1,147 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.jboss.ejb3.singleton.spi.AsyncInvocation;
+import org.jboss.ejb3.singleton.spi.AsyncInvocationListener;
+import org.jboss.logging.Logger;
+
+/**
+ * A {@link FutureTask} based {@link AsyncInvocation}, which notifies its listeners on completion
+ *
+ * @param <T> The result type of the invocation
+ * @version $Revision: $
+ */
+public class AsyncInvocationTask<T> extends FutureTask<T> implements AsyncInvocation<T>
+{
+
+   /** Logger */
+   private static Logger logger = Logger.getLogger(AsyncInvocationTask.class);
+
+   /**
+    * The listeners to be notified on completion. Set to null once the listeners have been notified.
+    */
+   private List<AsyncInvocationListener<? super T>> listeners = new ArrayList<AsyncInvocationListener<? super T>>(1);
+
+   /**
+    * @param invocation The invocation
+    */
+   public AsyncInvocationTask(Callable<T> invocation)
+   {
+      super(invocation);
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.AsyncInvocation#addListener(org.jboss.ejb3.singleton.spi.AsyncInvocationListener)
+    */
+   @Override
+   public void addListener(AsyncInvocationListener<? super T> listener)
+   {
+      if (listener == null)
+      {
+         throw new IllegalArgumentException("Listener cannot be null");
+      }
+      synchronized (this)
+      {
+         if (this.listeners != null)
+         {
+            this.listeners.add(listener);
+            return;
+         }
+      }
+      // already completed
+      this.notifyListener(listener);
+   }
+
+   /**
+    * Notifies the listeners
+    * 
+    * @see java.util.concurrent.FutureTask#done()
+    */
+   @Override
+   protected void done()
+   {
+      List<AsyncInvocationListener<? super T>> toNotify;
+      synchronized (this)
+      {
+         toNotify = this.listeners;
+         this.listeners = null;
+      }
+      for (AsyncInvocationListener<? super T> listener : toNotify)
+      {
+         this.notifyListener(listener);
+      }
+   }
+
+   private void notifyListener(AsyncInvocationListener<? super T> listener)
+   {
+      T result;
+      try
+      {
+         result = this.get();
+      }
+      catch (ExecutionException ee)
+      {
+         this.notifyFailure(listener, ee.getCause());
+         return;
+      }
+      catch (CancellationException ce)
+      {
+         this.notifyFailure(listener, ce);
+         return;
+      }
+      catch (InterruptedException ie)
+      {
+         // can't happen, since the task is done
+         Thread.currentThread().interrupt();
+         this.notifyFailure(listener, ie);
+         return;
+      }
+      try
+      {
+         listener.completed(result);
+      }
+      catch (RuntimeException re)
+      {
+         logger.warn("Listener " + listener + " failed on completion of asynchronous invocation", re);
+      }
+   }
+
+   private void notifyFailure(AsyncInvocationListener<? super T> listener, Throwable failure)
+   {
+      try
+      {
+         listener.failed(failure);
+      }
+      catch (RuntimeException re)
+      {
+         logger.warn("Listener " + listener + " failed on failure of asynchronous invocation", re);
+      }
+   }
+}
@@ -0,0 +1,139 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.async;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An {@link Executor} which runs the submitted tasks one at a time, in submission order, on an underlying
+ * {@link Executor}. Tasks which are waiting for their turn don't occupy any thread of the underlying executor.
+ *
+ * @version $Revision: $
+ */
+public class SerialExecutor implements Executor
+{
+
+   /**
+    * The underlying executor
+    */
+   private final Executor executor;
+
+   /**
+    * The tasks waiting for their turn
+    */
+   private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+   /**
+    * The task which has been handed over to the underlying executor, if any
+    */
+   private Runnable active;
+
+   /**
+    * @param executor The underlying executor
+    */
+   public SerialExecutor(Executor executor)
+   {
+      if (executor == null)
+      {
+         throw new IllegalArgumentException("Executor cannot be null while creating a " + SerialExecutor.class.getSimpleName());
+      }
+      this.executor = executor;
+   }
+
+   /**
+    * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+    */
+   @Override
+   public synchronized void execute(Runnable task)
+   {
+      this.tasks.offer(task);
+      if (this.active == null)
+      {
+         this.scheduleNext();
+      }
+   }
+
+   /**
+    * Hands over the next task, if any, to the underlying executor. If the underlying executor rejects it,
+    * then that task and all the waiting tasks, which are {@link Future}s, are cancelled (so that nobody waits
+    * for them forever) and the {@link RejectedExecutionException} is thrown.
+    */
+   protected synchronized void scheduleNext()
+   {
+      final Runnable task = this.tasks.poll();
+      this.active = task;
+      if (task == null)
+      {
+         return;
+      }
+      try
+      {
+         this.executor.execute(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  task.run();
+               }
+               finally
+               {
+                  SerialExecutor.this.scheduleNext();
+               }
+            }
+         });
+      }
+      catch (RejectedExecutionException ree)
+      {
+         this.active = null;
+         List<Runnable> rejected = new ArrayList<Runnable>(this.tasks.size() + 1);
+         rejected.add(task);
+         rejected.addAll(this.tasks);
+         this.tasks.clear();
+         for (Runnable rejectedTask : rejected)
+         {
+            if (rejectedTask instanceof Future<?>)
+            {
+               ((Future<?>) rejectedTask).cancel(false);
+            }
+         }
+         throw ree;
+      }
+   }
+
+   /**
+    * Returns the number of tasks waiting for their turn
+    * 
+    * @return
+    */
+   public synchronized int getQueueLength()
+   {
+      return this.tasks.size();
+   }
+}
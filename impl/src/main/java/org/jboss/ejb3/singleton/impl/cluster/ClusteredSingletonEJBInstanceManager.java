@@ -0,0 +1,410 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.cluster;
+
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.container.spi.EJBContainer;
+import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
+import org.jboss.ejb3.singleton.spi.cluster.ElectionListener;
+import org.jboss.ejb3.singleton.spi.cluster.SingletonMembership;
+import org.jboss.logging.Logger;
+
+/**
+ * A {@link SingletonEJBInstanceManager} for a cluster wide singleton, which creates the bean instance (through 
+ * another, local, {@link SingletonEJBInstanceManager}) only while the local member is the elected member for the 
+ * singleton.
+ * <p>
+ *  The bean instance is created as soon as the local member is elected and is destroyed when the local member
+ *  is deposed. While the local member isn't elected, the bean instance isn't available on it. Invocations on
+ *  the container have to be {@link #forward(ContainerInvocation) forwarded} to the elected member instead.
+ * </p>
+ * <p>
+ *  The local invocations hold an activation lock (shared), which the election and the deposition of the local 
+ *  member acquire exclusively. So the bean instance is neither created nor destroyed while a local invocation is
+ *  in progress: a deposition waits for the local invocations in progress to complete, and an invocation which
+ *  arrives during a deposition is forwarded to the elected member once the deposition completes.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class ClusteredSingletonEJBInstanceManager implements SingletonEJBInstanceManager, ElectionListener
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(ClusteredSingletonEJBInstanceManager.class);
+
+   /**
+    * The cluster wide name of the singleton
+    */
+   private final String singletonName;
+
+   /**
+    * Creates and destroys the bean instance on the local member
+    */
+   private final SingletonEJBInstanceManager delegate;
+
+   /**
+    * The cluster membership
+    */
+   private final SingletonMembership membership;
+
+   /**
+    * True while the local member is the elected member
+    */
+   private volatile boolean elected;
+
+   /**
+    * Held (shared) by the local invocations and (exclusively) while the bean instance is activated or deactivated
+    */
+   private final ReentrantReadWriteLock activationLock = new ReentrantReadWriteLock();
+
+   /**
+    * @param singletonName The cluster wide name of the singleton
+    * @param delegate The instance manager which creates and destroys the bean instance on the local member
+    * @param membership The cluster membership through which the member, on which the singleton is active, is elected
+    */
+   public ClusteredSingletonEJBInstanceManager(String singletonName, SingletonEJBInstanceManager delegate,
+         SingletonMembership membership)
+   {
+      if (singletonName == null || delegate == null || membership == null)
+      {
+         throw new IllegalArgumentException("Singleton name, instance manager and membership cannot be null");
+      }
+      this.singletonName = singletonName;
+      this.delegate = delegate;
+      this.membership = membership;
+   }
+
+   /**
+    * Makes the local member a candidate in the election for this singleton. Has to be called once the container
+    * is ready to create the bean instance and serve invocations, since that's what happens if the local 
+    * member is elected.
+    */
+   public void join()
+   {
+      this.membership.join(this.singletonName, this.delegate.getEJBContainer(), this);
+      logger.debug("Member " + this.membership.getLocalMemberName() + " joined election for singleton "
+            + this.singletonName + ", elected member is " + this.membership.getElectedMemberName(this.singletonName));
+   }
+
+   /**
+    * Withdraws the local member from the election for this singleton, destroying the bean instance if the 
+    * local member was elected
+    */
+   public void leave()
+   {
+      this.membership.leave(this.singletonName);
+      if (this.elected)
+      {
+         // the membership is expected to have deposed us, but don't let the bean instance outlive our candidacy
+         this.deposed(this.singletonName);
+      }
+   }
+
+   /**
+    * Returns true if the local member is the elected member, i.e. if invocations can be served locally
+    * @return
+    */
+   public boolean isElected()
+   {
+      return this.elected;
+   }
+
+   /**
+    * Returns the cluster wide name of the singleton
+    * @return
+    */
+   public String getSingletonName()
+   {
+      return this.singletonName;
+   }
+
+   /**
+    * Forwards the passed invocation to the elected member
+    * 
+    * @param invocation The invocation
+    * @return Returns the result of the invocation
+    * @throws IllegalStateException If no member is elected, or the elected member can't be reached
+    * @throws Exception The exception thrown by the invocation
+    */
+   public Object forward(ContainerInvocation invocation) throws Exception
+   {
+      return this.membership.invokeOnElectedMember(this.singletonName, invocation);
+   }
+
+   /**
+    * Runs the passed invocation on the member on which it has to be served: locally through the passed 
+    * <code>localInvocation</code> if the local member is elected, else on the elected member.
+    * 
+    * @param invocation The invocation
+    * @param localInvocation Runs the invocation on the local bean instance
+    * @return Returns the result of the invocation
+    * @throws Exception The exception thrown by the invocation
+    */
+   public Object invoke(ContainerInvocation invocation, Callable<Object> localInvocation) throws Exception
+   {
+      if (this.elected)
+      {
+         Lock activation = this.activationLock.readLock();
+         activation.lock();
+         try
+         {
+            // the local member may have been deposed in the meantime
+            if (this.elected)
+            {
+               return localInvocation.call();
+            }
+         }
+         finally
+         {
+            activation.unlock();
+         }
+      }
+      // the bean is active on another member of the cluster
+      return this.forward(invocation);
+   }
+
+   /**
+    * Creates the bean instance, now that the local member has been elected. The bean instance is created
+    * with the classloader of the container as the TCCL, since the membership notifies the election on a 
+    * thread of its own choice.
+    * 
+    * @see org.jboss.ejb3.singleton.spi.cluster.ElectionListener#elected(java.lang.String)
+    */
+   @Override
+   public void elected(String name)
+   {
+      Lock activation = this.lockForActivation();
+      try
+      {
+         if (this.elected)
+         {
+            return;
+         }
+         this.elected = true;
+         logger.info("Member " + this.membership.getLocalMemberName() + " elected for singleton "
+               + this.singletonName);
+         this.activate();
+      }
+      finally
+      {
+         activation.unlock();
+      }
+   }
+
+   /**
+    * Destroys the bean instance, now that the local member has been deposed. Waits for the local invocations in 
+    * progress to complete first.
+    * 
+    * @see org.jboss.ejb3.singleton.spi.cluster.ElectionListener#deposed(java.lang.String)
+    */
+   @Override
+   public void deposed(String name)
+   {
+      Lock activation = this.lockForActivation();
+      try
+      {
+         if (!this.elected)
+         {
+            return;
+         }
+         this.elected = false;
+         logger.info("Member " + this.membership.getLocalMemberName() + " deposed for singleton "
+               + this.singletonName);
+         this.deactivate();
+      }
+      finally
+      {
+         activation.unlock();
+      }
+   }
+
+   /**
+    * Called once the local member has been elected, while holding the activation lock. Creates the bean instance.
+    */
+   protected void activate()
+   {
+      EJBContainer container = this.delegate.getEJBContainer();
+      ClassLoader previousTCCL = Thread.currentThread().getContextClassLoader();
+      Thread.currentThread().setContextClassLoader(container.getClassLoader());
+      try
+      {
+         this.delegate.get();
+      }
+      catch (RuntimeException re)
+      {
+         // the next invocation attempts the creation afresh (and reports the failure, if any, to its caller)
+         logger.error("Could not create the instance of singleton " + this.singletonName + " on election", re);
+      }
+      finally
+      {
+         Thread.currentThread().setContextClassLoader(previousTCCL);
+      }
+   }
+
+   /**
+    * Called once the local member has been deposed, while holding the activation lock. Destroys the bean instance. 
+    */
+   protected void deactivate()
+   {
+      try
+      {
+         this.delegate.destroy();
+      }
+      catch (RuntimeException re)
+      {
+         logger.error("Could not destroy the instance of singleton " + this.singletonName + " on deposition", re);
+      }
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager#get()
+    * @throws IllegalStateException If the local member isn't the elected member
+    */
+   @Override
+   public BeanContext get()
+   {
+      Lock activation = this.activationLock.readLock();
+      activation.lock();
+      try
+      {
+         this.assertElected();
+         return this.delegate.get();
+      }
+      finally
+      {
+         activation.unlock();
+      }
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager#destroy()
+    */
+   @Override
+   public void destroy()
+   {
+      this.delegate.destroy();
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.EJBInstanceManager#create()
+    * @throws IllegalStateException If the local member isn't the elected member
+    */
+   @Override
+   public Serializable create()
+   {
+      Lock activation = this.activationLock.readLock();
+      activation.lock();
+      try
+      {
+         this.assertElected();
+         return this.delegate.create();
+      }
+      finally
+      {
+         activation.unlock();
+      }
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.EJBInstanceManager#destroy(java.io.Serializable)
+    */
+   @Override
+   public void destroy(Serializable sessionId) throws IllegalArgumentException, IllegalStateException
+   {
+      this.delegate.destroy(sessionId);
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.EJBInstanceManager#getEJBContainer()
+    */
+   @Override
+   public EJBContainer getEJBContainer()
+   {
+      return this.delegate.getEJBContainer();
+   }
+
+   /**
+    * @see org.jboss.ejb3.container.spi.EJBInstanceManager#isSessionAware()
+    */
+   @Override
+   public boolean isSessionAware()
+   {
+      return false;
+   }
+
+   /**
+    * Returns the instance manager which creates and destroys the bean instance on the local member
+    * @return
+    */
+   protected SingletonEJBInstanceManager getDelegate()
+   {
+      return this.delegate;
+   }
+
+   /**
+    * Returns the cluster membership
+    * @return
+    */
+   protected SingletonMembership getMembership()
+   {
+      return this.membership;
+   }
+
+   /**
+    * Acquires the activation lock exclusively, unless the current thread is invoking the bean (and holds the lock 
+    * shared), in which case it would wait for itself. Returns the lock which has to be unlocked.
+    */
+   private Lock lockForActivation()
+   {
+      if (this.activationLock.getReadHoldCount() > 0)
+      {
+         logger.warn("Election of member " + this.membership.getLocalMemberName() + " for singleton "
+               + this.singletonName + " changed from within an invocation on it, invocations in progress won't be "
+               + "waited for");
+         Lock activation = this.activationLock.readLock();
+         activation.lock();
+         return activation;
+      }
+      Lock activation = this.activationLock.writeLock();
+      activation.lock();
+      return activation;
+   }
+
+   private void assertElected()
+   {
+      if (!this.elected)
+      {
+         throw new IllegalStateException("Singleton " + this.singletonName + " isn't active on member "
+               + this.membership.getLocalMemberName() + ", it's active on member "
+               + this.membership.getElectedMemberName(this.singletonName));
+      }
+   }
+}
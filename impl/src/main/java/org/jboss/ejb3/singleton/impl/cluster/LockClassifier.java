@@ -0,0 +1,52 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.cluster;
+
+import java.lang.reflect.Method;
+
+import javax.ejb.LockType;
+
+/**
+ * Classifies the methods of a bean by their effective {@link LockType} and access timeout, as the container
+ * managed concurrency of the bean applies them
+ *
+ * @version $Revision: $
+ */
+public interface LockClassifier
+{
+
+   /**
+    * Returns the effective {@link LockType} of the passed method
+    * 
+    * @param method A method of the bean class or one of its business interfaces
+    * @return
+    */
+   LockType getLockType(Method method);
+
+   /**
+    * Returns the effective access timeout, in milli seconds, of the passed method. -1 means wait indefinitely.
+    * 
+    * @param method A method of the bean class or one of its business interfaces
+    * @return
+    */
+   long getAccessTimeoutMillis(Method method);
+}
@@ -0,0 +1,328 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.container.spi.EJBContainer;
+import org.jboss.ejb3.singleton.spi.cluster.ElectionListener;
+import org.jboss.ejb3.singleton.spi.cluster.SingletonMembership;
+import org.jboss.logging.Logger;
+
+/**
+ * An in-JVM stand-in for a cluster, whose members are {@link LoopbackSingletonMembership}s. It allows 
+ * cluster wide singletons to be deployed on several (simulated) members within a single JVM, for example 
+ * to test the failover of a singleton on one machine.
+ * <p>
+ *  The oldest candidate (i.e. the first member to have joined the election) of a singleton, which hasn't 
+ *  failed, is the elected member. A member which {@link #crash(String) crashes} becomes unreachable right away,
+ *  but isn't deposed until the failure detection delay of this cluster has elapsed, just like with a real 
+ *  cluster whose failure detection relies on a timeout.
+ * </p>
+ * <p>
+ *  The {@link ElectionListener}s are notified while this cluster is locked, so notifications are delivered one 
+ *  at a time, in the order of the membership changes.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class LoopbackCluster
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(LoopbackCluster.class);
+
+   /**
+    * The time (in milli seconds) it takes to detect a crashed member
+    */
+   private final long failureDetectionDelayMillis;
+
+   /**
+    * The members of this cluster, by name
+    */
+   private final Map<String, LoopbackSingletonMembership> members = new HashMap<String, LoopbackSingletonMembership>();
+
+   /**
+    * The candidates in the election of each singleton, oldest first
+    */
+   private final Map<String, List<Candidate>> candidates = new HashMap<String, List<Candidate>>();
+
+   /**
+    * The elected candidate of each singleton
+    */
+   private final ConcurrentMap<String, Candidate> elected = new ConcurrentHashMap<String, Candidate>();
+
+   /**
+    * Detects the crashed members, after the failure detection delay. Created on first use.
+    */
+   private ScheduledExecutorService failureDetector;
+
+   /**
+    * Creates a {@link LoopbackCluster} which detects crashed members right away
+    */
+   public LoopbackCluster()
+   {
+      this(0, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * @param failureDetectionDelay The time it takes to detect a crashed member
+    * @param unit The unit of <code>failureDetectionDelay</code>
+    */
+   public LoopbackCluster(long failureDetectionDelay, TimeUnit unit)
+   {
+      if (unit == null)
+      {
+         throw new IllegalArgumentException("Time unit cannot be null");
+      }
+      this.failureDetectionDelayMillis = Math.max(0, unit.toMillis(failureDetectionDelay));
+   }
+
+   /**
+    * Adds a member to this cluster
+    * 
+    * @param memberName The name of the member
+    * @return Returns the {@link SingletonMembership} of the member
+    * @throws IllegalArgumentException If there's already a member with the passed name
+    */
+   public synchronized LoopbackSingletonMembership createMember(String memberName)
+   {
+      if (memberName == null || this.members.containsKey(memberName))
+      {
+         throw new IllegalArgumentException("Member name cannot be null or a duplicate: " + memberName);
+      }
+      LoopbackSingletonMembership member = new LoopbackSingletonMembership(this, memberName);
+      this.members.put(memberName, member);
+      return member;
+   }
+
+   /**
+    * Simulates a crash of the member named <code>memberName</code>. Invocations forwarded to the member fail
+    * right away, whereas the member is deposed (and its candidacies are dropped) once the failure detection delay 
+    * has elapsed.
+    * 
+    * @param memberName The name of the member
+    * @throws IllegalArgumentException If there's no such member
+    */
+   public synchronized void crash(final String memberName)
+   {
+      final LoopbackSingletonMembership member = this.members.get(memberName);
+      if (member == null)
+      {
+         throw new IllegalArgumentException("No member named " + memberName);
+      }
+      member.setCrashed();
+      logger.debug("Member " + memberName + " crashed");
+      if (this.failureDetectionDelayMillis == 0)
+      {
+         this.removeMember(member);
+         return;
+      }
+      if (this.failureDetector == null)
+      {
+         this.failureDetector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            @Override
+            public Thread newThread(Runnable task)
+            {
+               Thread thread = new Thread(task, "loopback-cluster-failure-detector");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      this.failureDetector.schedule(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            synchronized (LoopbackCluster.this)
+            {
+               LoopbackCluster.this.removeMember(member);
+            }
+         }
+      }, this.failureDetectionDelayMillis, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Stops detecting crashed members. Members whose crash hasn't been detected yet, remain elected.
+    */
+   public synchronized void shutdown()
+   {
+      if (this.failureDetector != null)
+      {
+         this.failureDetector.shutdownNow();
+         this.failureDetector = null;
+      }
+   }
+
+   synchronized void join(LoopbackSingletonMembership member, String singletonName, EJBContainer container,
+         ElectionListener listener)
+   {
+      if (member.isCrashed())
+      {
+         throw new IllegalStateException("Member " + member.getLocalMemberName() + " has crashed");
+      }
+      List<Candidate> singletonCandidates = this.candidates.get(singletonName);
+      if (singletonCandidates == null)
+      {
+         singletonCandidates = new ArrayList<Candidate>();
+         this.candidates.put(singletonName, singletonCandidates);
+      }
+      for (Candidate candidate : singletonCandidates)
+      {
+         if (candidate.member == member)
+         {
+            throw new IllegalStateException("Member " + member.getLocalMemberName()
+                  + " has already joined the election for singleton " + singletonName);
+         }
+      }
+      singletonCandidates.add(new Candidate(member, container, listener));
+      this.elect(singletonName);
+   }
+
+   synchronized void leave(LoopbackSingletonMembership member, String singletonName)
+   {
+      List<Candidate> singletonCandidates = this.candidates.get(singletonName);
+      if (singletonCandidates == null)
+      {
+         return;
+      }
+      for (Iterator<Candidate> it = singletonCandidates.iterator(); it.hasNext();)
+      {
+         if (it.next().member == member)
+         {
+            it.remove();
+         }
+      }
+      if (singletonCandidates.isEmpty())
+      {
+         this.candidates.remove(singletonName);
+      }
+      this.elect(singletonName);
+   }
+
+   LoopbackSingletonMembership getElectedMember(String singletonName)
+   {
+      Candidate candidate = this.elected.get(singletonName);
+      return candidate == null ? null : candidate.member;
+   }
+
+   Object invokeOnElectedMember(String singletonName, ContainerInvocation invocation) throws Exception
+   {
+      Candidate candidate = this.elected.get(singletonName);
+      if (candidate == null)
+      {
+         throw new IllegalStateException("No member is elected for singleton " + singletonName);
+      }
+      if (candidate.member.isCrashed())
+      {
+         throw new IllegalStateException("Elected member " + candidate.member.getLocalMemberName()
+               + " of singleton " + singletonName + " is unreachable");
+      }
+      return candidate.container.invoke(invocation);
+   }
+
+   /**
+    * Drops all the candidacies of the passed (crashed) member. Has to be called while this cluster is locked.
+    */
+   private void removeMember(LoopbackSingletonMembership member)
+   {
+      logger.debug("Removing crashed member " + member.getLocalMemberName());
+      this.members.remove(member.getLocalMemberName());
+      List<String> singletonNames = new ArrayList<String>(this.candidates.keySet());
+      for (String singletonName : singletonNames)
+      {
+         this.leave(member, singletonName);
+      }
+   }
+
+   /**
+    * Elects the oldest candidate, which hasn't crashed, for the singleton named <code>singletonName</code>, 
+    * deposing the previously elected candidate if it's a different one. Has to be called while this cluster is locked.
+    */
+   private void elect(String singletonName)
+   {
+      Candidate current = this.elected.get(singletonName);
+      Candidate next = null;
+      List<Candidate> singletonCandidates = this.candidates.get(singletonName);
+      if (singletonCandidates != null)
+      {
+         for (Candidate candidate : singletonCandidates)
+         {
+            // a crashed member stays elected until its crash has been detected
+            if (!candidate.member.isCrashed() || candidate == current)
+            {
+               next = candidate;
+               break;
+            }
+         }
+      }
+      if (next == current)
+      {
+         return;
+      }
+      if (current != null)
+      {
+         this.elected.remove(singletonName);
+         current.listener.deposed(singletonName);
+      }
+      if (next != null)
+      {
+         this.elected.put(singletonName, next);
+         logger.debug("Elected member " + next.member.getLocalMemberName() + " for singleton " + singletonName);
+         next.listener.elected(singletonName);
+      }
+   }
+
+   /**
+    * A candidate in the election of a singleton
+    */
+   private static class Candidate
+   {
+      private final LoopbackSingletonMembership member;
+
+      private final EJBContainer container;
+
+      private final ElectionListener listener;
+
+      public Candidate(LoopbackSingletonMembership member, EJBContainer container, ElectionListener listener)
+      {
+         this.member = member;
+         this.container = container;
+         this.listener = listener;
+      }
+   }
+}
@@ -0,0 +1,153 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.ejb3.singleton.spi.cluster.ReplicaListener;
+import org.jboss.ejb3.singleton.spi.cluster.ReplicaTransport;
+import org.jboss.logging.Logger;
+
+/**
+ * A {@link ReplicaTransport} for members which run in the same JVM, for example the members of a 
+ * {@link LoopbackCluster}. Publications are delivered synchronously, on the publishing thread, to the 
+ * subscribers in the order of their subscription. 
+ *
+ * @version $Revision: $
+ */
+public class LoopbackReplicaTransport implements ReplicaTransport
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(LoopbackReplicaTransport.class);
+
+   /**
+    * The current (merged) state of the singletons, keyed by the name of the singleton
+    */
+   private final Map<String, Map<String, byte[]>> states = new HashMap<String, Map<String, byte[]>>();
+
+   /**
+    * The subscribers, keyed by the name of the singleton
+    */
+   private final Map<String, List<ReplicaListener>> subscribers = new HashMap<String, List<ReplicaListener>>();
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.ReplicaTransport#publish(java.lang.String, java.util.Map)
+    */
+   @Override
+   public synchronized void publish(String singletonName, Map<String, byte[]> changedState)
+   {
+      Map<String, byte[]> state = this.states.get(singletonName);
+      if (state == null)
+      {
+         state = new LinkedHashMap<String, byte[]>();
+         this.states.put(singletonName, state);
+      }
+      state.putAll(changedState);
+      List<ReplicaListener> listeners = this.subscribers.get(singletonName);
+      if (listeners != null)
+      {
+         this.deliver(singletonName, new LinkedHashMap<String, byte[]>(changedState), listeners);
+      }
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.ReplicaTransport#subscribe(java.lang.String, org.jboss.ejb3.singleton.spi.cluster.ReplicaListener)
+    */
+   @Override
+   public synchronized void subscribe(String singletonName, ReplicaListener listener)
+   {
+      if (singletonName == null || listener == null)
+      {
+         throw new IllegalArgumentException("Singleton name and listener cannot be null");
+      }
+      List<ReplicaListener> listeners = this.subscribers.get(singletonName);
+      if (listeners == null)
+      {
+         listeners = new ArrayList<ReplicaListener>();
+         this.subscribers.put(singletonName, listeners);
+      }
+      if (listeners.contains(listener))
+      {
+         return;
+      }
+      listeners.add(listener);
+      Map<String, byte[]> state = this.states.get(singletonName);
+      if (state != null && !state.isEmpty())
+      {
+         this.deliver(singletonName, new LinkedHashMap<String, byte[]>(state), Collections.singletonList(listener));
+      }
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.ReplicaTransport#unsubscribe(java.lang.String, org.jboss.ejb3.singleton.spi.cluster.ReplicaListener)
+    */
+   @Override
+   public synchronized void unsubscribe(String singletonName, ReplicaListener listener)
+   {
+      List<ReplicaListener> listeners = this.subscribers.get(singletonName);
+      if (listeners != null)
+      {
+         listeners.remove(listener);
+      }
+   }
+
+   /**
+    * Returns the current (merged) state of the singleton named <code>singletonName</code>
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @return
+    */
+   public synchronized Map<String, byte[]> getState(String singletonName)
+   {
+      Map<String, byte[]> state = this.states.get(singletonName);
+      if (state == null)
+      {
+         return Collections.emptyMap();
+      }
+      return Collections.unmodifiableMap(new LinkedHashMap<String, byte[]>(state));
+   }
+
+   private void deliver(String singletonName, Map<String, byte[]> state, List<ReplicaListener> listeners)
+   {
+      Map<String, byte[]> publication = Collections.unmodifiableMap(state);
+      for (ReplicaListener listener : new ArrayList<ReplicaListener>(listeners))
+      {
+         try
+         {
+            listener.stateChanged(singletonName, publication);
+         }
+         catch (RuntimeException re)
+         {
+            // one failing subscriber mustn't keep the others out of sync
+            logger.error("Subscriber " + listener + " failed to process the state of singleton " + singletonName, re);
+         }
+      }
+   }
+}
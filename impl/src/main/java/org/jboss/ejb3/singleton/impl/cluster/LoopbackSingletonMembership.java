@@ -0,0 +1,148 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.cluster;
+
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.container.spi.EJBContainer;
+import org.jboss.ejb3.singleton.spi.cluster.ElectionListener;
+import org.jboss.ejb3.singleton.spi.cluster.SingletonMembership;
+
+/**
+ * The {@link SingletonMembership} of a member of a {@link LoopbackCluster}. Invocations are forwarded 
+ * to the elected member by invoking its container directly.
+ *
+ * @version $Revision: $
+ */
+public class LoopbackSingletonMembership implements SingletonMembership
+{
+
+   /**
+    * The cluster to which this member belongs
+    */
+   private final LoopbackCluster cluster;
+
+   /**
+    * The name of this member
+    */
+   private final String memberName;
+
+   /**
+    * True once this member has crashed
+    */
+   private volatile boolean crashed;
+
+   /**
+    * Use {@link LoopbackCluster#createMember(String)} to create a member
+    */
+   LoopbackSingletonMembership(LoopbackCluster cluster, String memberName)
+   {
+      this.cluster = cluster;
+      this.memberName = memberName;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.SingletonMembership#getLocalMemberName()
+    */
+   @Override
+   public String getLocalMemberName()
+   {
+      return this.memberName;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.SingletonMembership#join(java.lang.String, org.jboss.ejb3.container.spi.EJBContainer, org.jboss.ejb3.singleton.spi.cluster.ElectionListener)
+    */
+   @Override
+   public void join(String singletonName, EJBContainer container, ElectionListener listener)
+         throws IllegalStateException
+   {
+      if (singletonName == null || container == null || listener == null)
+      {
+         throw new IllegalArgumentException("Singleton name, container and listener cannot be null");
+      }
+      this.cluster.join(this, singletonName, container, listener);
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.SingletonMembership#leave(java.lang.String)
+    */
+   @Override
+   public void leave(String singletonName)
+   {
+      this.cluster.leave(this, singletonName);
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.SingletonMembership#isElected(java.lang.String)
+    */
+   @Override
+   public boolean isElected(String singletonName)
+   {
+      return this.cluster.getElectedMember(singletonName) == this;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.SingletonMembership#getElectedMemberName(java.lang.String)
+    */
+   @Override
+   public String getElectedMemberName(String singletonName)
+   {
+      LoopbackSingletonMembership member = this.cluster.getElectedMember(singletonName);
+      return member == null ? null : member.getLocalMemberName();
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.spi.cluster.SingletonMembership#invokeOnElectedMember(java.lang.String, org.jboss.ejb3.container.spi.ContainerInvocation)
+    */
+   @Override
+   public Object invokeOnElectedMember(String singletonName, ContainerInvocation invocation) throws Exception
+   {
+      if (this.crashed)
+      {
+         throw new IllegalStateException("Member " + this.memberName + " has crashed");
+      }
+      return this.cluster.invokeOnElectedMember(singletonName, invocation);
+   }
+
+   /**
+    * Returns true if this member has crashed
+    * @return
+    */
+   public boolean isCrashed()
+   {
+      return this.crashed;
+   }
+
+   void setCrashed()
+   {
+      this.crashed = true;
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.memberName;
+   }
+}
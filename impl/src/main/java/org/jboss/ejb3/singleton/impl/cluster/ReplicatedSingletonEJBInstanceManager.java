@@ -0,0 +1,461 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.cluster;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.ejb.ConcurrentAccessTimeoutException;
+import javax.ejb.IllegalLoopbackException;
+import javax.ejb.LockType;
+
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
+import org.jboss.ejb3.singleton.spi.annotation.ModifiesState;
+import org.jboss.ejb3.singleton.spi.annotation.SnapshotState;
+import org.jboss.ejb3.singleton.spi.cluster.ReplicaListener;
+import org.jboss.ejb3.singleton.spi.cluster.ReplicaTransport;
+import org.jboss.ejb3.singleton.spi.cluster.SingletonMembership;
+import org.jboss.logging.Logger;
+
+/**
+ * A {@link ClusteredSingletonEJBInstanceManager} which keeps a read replica of the bean instance on every member
+ * of the cluster. The elected member owns the singleton.
+ * <p>
+ *  Invocations are routed by the effective {@link LockType} of the invoked method (see {@link LockClassifier}):
+ *  <ul>
+ *    <li>{@link LockType#READ} methods are served by the local bean instance, whether or not the local
+ *       member is elected</li>
+ *    <li>{@link LockType#WRITE} methods are served by the owner. After each of those, the owner publishes the 
+ *       {@link SnapshotState} fields which changed through the {@link ReplicaTransport}, and the replicas
+ *       apply them to their bean instance</li>
+ *  </ul>
+ *  The replicated fields of the local bean instance are guarded by a read-write lock, which READ invocations 
+ *  hold for read, and WRITE invocations as well as the application of a publication hold for write. So a
+ *  READ invocation on a replica never observes a partially applied publication. Until the first publication
+ *  arrives, a replica serves READ invocations from the state its bean instance was constructed with.
+ *  This lock takes the place of the container managed concurrency lock of the bean, so it's the only lock to 
+ *  which the access timeout of a method applies.
+ * </p>
+ * <p>
+ *  After a WRITE invocation, the owner publishes the dirty fields, without serializing the others. A field is 
+ *  dirty if it has been assigned a value other than the published one (the same object for mutable values, an
+ *  equal one for immutable values, i.e. strings, primitive wrappers and enums), or if its mutable value may have
+ *  been changed in place by the invoked method. Which values a WRITE method changes in place is declared by its
+ *  {@link ModifiesState} annotation. Without one, the method may have changed any of them, so all the fields
+ *  with mutable values are dirty.
+ * </p>
+ * <p>
+ *  When the local member is deposed, the bean instance is kept as a replica. When the local member is elected, 
+ *  a newly created bean instance takes over the state last published by the previous owner.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class ReplicatedSingletonEJBInstanceManager extends ClusteredSingletonEJBInstanceManager
+      implements
+         ReplicaListener
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(ReplicatedSingletonEJBInstanceManager.class);
+
+   /**
+    * Propagates the state from the owner to the replicas
+    */
+   private final ReplicaTransport transport;
+
+   /**
+    * Classifies the invoked methods into READ and WRITE methods
+    */
+   private final LockClassifier lockClassifier;
+
+   /**
+    * Captures and applies the replicated fields of the bean instance
+    */
+   private final ReplicatedState replicatedState;
+
+   /**
+    * Guards the replicated fields of the local bean instance
+    */
+   private final ReentrantReadWriteLock replicaLock = new ReentrantReadWriteLock();
+
+   /**
+    * The latest state of the singleton, as published by the owner. Guarded by the write lock.
+    */
+   private final Map<String, byte[]> currentState = new HashMap<String, byte[]>();
+
+   /**
+    * The (unserialized) field values of the owned bean instance, as of the last publication. Empty if the 
+    * published state didn't come from the owned bean instance, in which case all fields are dirty. Guarded by 
+    * the write lock.
+    */
+   private final Map<String, Object> publishedValues = new HashMap<String, Object>();
+
+   /**
+    * The bean instance which is in sync with {@link #currentState}. Null if none. Only set while holding the 
+    * write lock.
+    */
+   private volatile Object syncedInstance;
+
+   /**
+    * @param singletonName The cluster wide name of the singleton
+    * @param delegate The instance manager which creates and destroys the bean instance on the local member
+    * @param membership The cluster membership through which the owner of the singleton is elected
+    * @param transport Propagates the state from the owner to the replicas
+    * @param lockClassifier Classifies the invoked methods into READ and WRITE methods
+    * @param beanClass The bean class
+    * @throws IllegalArgumentException If the bean class has no {@link SnapshotState} fields
+    */
+   public ReplicatedSingletonEJBInstanceManager(String singletonName, SingletonEJBInstanceManager delegate,
+         SingletonMembership membership, ReplicaTransport transport, LockClassifier lockClassifier, Class<?> beanClass)
+   {
+      super(singletonName, delegate, membership);
+      if (transport == null || lockClassifier == null || beanClass == null)
+      {
+         throw new IllegalArgumentException("Replica transport, lock classifier and bean class cannot be null");
+      }
+      this.transport = transport;
+      this.lockClassifier = lockClassifier;
+      this.replicatedState = new ReplicatedState(beanClass);
+   }
+
+   /**
+    * Subscribes to the state of the singleton (which brings the local replica up to date) before becoming a 
+    * candidate in the election
+    * 
+    * @see org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager#join()
+    */
+   @Override
+   public void join()
+   {
+      this.transport.subscribe(this.getSingletonName(), this);
+      super.join();
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager#leave()
+    */
+   @Override
+   public void leave()
+   {
+      super.leave();
+      this.transport.unsubscribe(this.getSingletonName(), this);
+      Lock writeLock = this.replicaLock.writeLock();
+      writeLock.lock();
+      try
+      {
+         this.currentState.clear();
+         this.publishedValues.clear();
+         this.syncedInstance = null;
+      }
+      finally
+      {
+         writeLock.unlock();
+      }
+   }
+
+   /**
+    * Serves READ methods locally and forwards WRITE methods to the owner, unless the local member is the owner
+    * 
+    * @see org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager#invoke(org.jboss.ejb3.container.spi.ContainerInvocation, java.util.concurrent.Callable)
+    */
+   @Override
+   public Object invoke(ContainerInvocation invocation, final Callable<Object> localInvocation) throws Exception
+   {
+      final Method method = invocation.getMethod();
+      if (this.lockClassifier.getLockType(method) == LockType.READ)
+      {
+         return this.invokeReplica(method, true, localInvocation);
+      }
+      // served by the owner, which can't be deposed while it serves the invocation
+      return super.invoke(invocation, new Callable<Object>()
+      {
+         @Override
+         public Object call() throws Exception
+         {
+            return ReplicatedSingletonEJBInstanceManager.this.invokeReplica(method, false, localInvocation);
+         }
+      });
+   }
+
+   /**
+    * Invokes the local bean instance, holding the replica lock for read or write
+    */
+   private Object invokeReplica(Method method, boolean read, Callable<Object> localInvocation) throws Exception
+   {
+      if (!read && this.replicaLock.getReadHoldCount() > 0)
+      {
+         throw new IllegalLoopbackException("Cannot invoke WRITE locked method " + method + " on singleton "
+               + this.getSingletonName() + " while holding a READ lock");
+      }
+      this.syncInstance();
+      Lock lock = read ? this.replicaLock.readLock() : this.replicaLock.writeLock();
+      long accessTimeout = this.lockClassifier.getAccessTimeoutMillis(method);
+      if (accessTimeout < 0)
+      {
+         lock.lock();
+      }
+      else if (!lock.tryLock(accessTimeout, TimeUnit.MILLISECONDS))
+      {
+         throw new ConcurrentAccessTimeoutException("Replica of singleton " + this.getSingletonName()
+               + " could not be locked for " + (read ? "READ" : "WRITE") + " access to method " + method
+               + " within " + accessTimeout + " milli seconds");
+      }
+      try
+      {
+         return localInvocation.call();
+      }
+      finally
+      {
+         try
+         {
+            if (!read && this.isElected())
+            {
+               // the invocation may have changed the state even if it failed
+               this.publishChanges(this.replicatedState.getInPlaceChanges(method));
+            }
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Publishes the full state of the bean instance, which is either a fresh one or a replica which is now
+    * owned by the local member
+    * 
+    * @see org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager#activate()
+    */
+   @Override
+   protected void activate()
+   {
+      super.activate();
+      Lock writeLock = this.replicaLock.writeLock();
+      writeLock.lock();
+      try
+      {
+         // unless it was published by the local member, the state of the bean instance is dirty
+         this.syncInstance();
+         this.publishChanges(Collections.<String> emptySet());
+      }
+      catch (RuntimeException re)
+      {
+         // the next WRITE invocation publishes the state
+         logger.error("Could not publish the state of singleton " + this.getSingletonName() + " on election", re);
+      }
+      finally
+      {
+         writeLock.unlock();
+      }
+   }
+
+   /**
+    * Keeps the bean instance, as a replica
+    * 
+    * @see org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager#deactivate()
+    */
+   @Override
+   protected void deactivate()
+   {
+      logger.debug("Singleton " + this.getSingletonName() + " continues as a replica on member "
+            + this.getMembership().getLocalMemberName());
+   }
+
+   /**
+    * Applies the published state to the local replica. Publications which arrive while the local member owns 
+    * the singleton are its own and are ignored.
+    * 
+    * @see org.jboss.ejb3.singleton.spi.cluster.ReplicaListener#stateChanged(java.lang.String, java.util.Map)
+    */
+   @Override
+   public void stateChanged(String name, Map<String, byte[]> changedState)
+   {
+      if (this.isElected())
+      {
+         return;
+      }
+      Lock writeLock = this.replicaLock.writeLock();
+      writeLock.lock();
+      try
+      {
+         this.currentState.putAll(changedState);
+         this.publishedValues.clear();
+         Object instance = this.syncedInstance;
+         if (instance != null)
+         {
+            this.replicatedState.apply(instance, changedState);
+         }
+      }
+      catch (Exception e)
+      {
+         // the replica is out of sync, have it re-applied from the merged state on the next invocation
+         this.syncedInstance = null;
+         logger.error("Could not apply the published state of singleton " + this.getSingletonName()
+               + " to its replica on member " + this.getMembership().getLocalMemberName(), e);
+      }
+      finally
+      {
+         writeLock.unlock();
+      }
+   }
+
+   /**
+    * The bean instance is available on every member, not only on the elected one
+    * 
+    * @see org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager#get()
+    */
+   @Override
+   public BeanContext get()
+   {
+      return this.getDelegate().get();
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager#create()
+    */
+   @Override
+   public Serializable create()
+   {
+      return this.getDelegate().create();
+   }
+
+   /**
+    * Brings the local bean instance in sync with the latest published state, if the bean instance has been
+    * (re)created since the last sync. A no-op while the current thread holds the read lock, since a nested
+    * READ invocation works on the same bean instance as its caller. 
+    */
+   private void syncInstance()
+   {
+      Object instance = this.getDelegate().get().getBeanInstance();
+      if (instance == this.syncedInstance || this.replicaLock.getReadHoldCount() > 0)
+      {
+         return;
+      }
+      Lock writeLock = this.replicaLock.writeLock();
+      writeLock.lock();
+      try
+      {
+         if (instance == this.syncedInstance)
+         {
+            return;
+         }
+         if (!this.currentState.isEmpty())
+         {
+            this.replicatedState.apply(instance, this.currentState);
+         }
+         this.publishedValues.clear();
+         this.syncedInstance = instance;
+      }
+      catch (Exception e)
+      {
+         throw new IllegalStateException("Could not apply the state of singleton " + this.getSingletonName()
+               + " to the bean instance on member " + this.getMembership().getLocalMemberName(), e);
+      }
+      finally
+      {
+         writeLock.unlock();
+      }
+   }
+
+   /**
+    * Returns true if the passed value of a field has to be published, because it isn't the published value of 
+    * the field, or because it may have been changed in place
+    */
+   private static boolean isDirty(Object value, Map<String, Object> publishedValues, String fieldName,
+         Set<String> inPlaceChanges)
+   {
+      if (!publishedValues.containsKey(fieldName))
+      {
+         return true;
+      }
+      Object publishedValue = publishedValues.get(fieldName);
+      if (ReplicatedState.isImmutable(value))
+      {
+         return value == null ? publishedValue != null : !value.equals(publishedValue);
+      }
+      return value != publishedValue || inPlaceChanges.contains(fieldName);
+   }
+
+   /**
+    * Publishes the dirty replicated fields of the owned bean instance. Has to be called while holding the 
+    * write lock.
+    * 
+    * @param inPlaceChanges The names of the fields whose (mutable) values may have been changed in place 
+    *           since the last publication
+    */
+   private void publishChanges(Set<String> inPlaceChanges)
+   {
+      Object instance = this.syncedInstance;
+      if (instance == null)
+      {
+         return;
+      }
+      Map<String, Object> values = this.replicatedState.getValues(instance);
+      Map<String, byte[]> changed = new LinkedHashMap<String, byte[]>();
+      // until the dirty fields are published, the whole state is dirty
+      Map<String, Object> previousValues = new HashMap<String, Object>(this.publishedValues);
+      this.publishedValues.clear();
+      try
+      {
+         for (Map.Entry<String, Object> field : values.entrySet())
+         {
+            if (isDirty(field.getValue(), previousValues, field.getKey(), inPlaceChanges))
+            {
+               changed.put(field.getKey(), ReplicatedState.serialize(field.getValue()));
+            }
+         }
+      }
+      catch (IOException ioe)
+      {
+         // the replicas keep the previous state, the next WRITE invocation publishes the whole state afresh
+         logger.error("Could not capture the state of singleton " + this.getSingletonName()
+               + " for publication to the replicas", ioe);
+         return;
+      }
+      if (!changed.isEmpty())
+      {
+         this.transport.publish(this.getSingletonName(), changed);
+         this.currentState.putAll(changed);
+         if (logger.isTraceEnabled())
+         {
+            logger.trace("Published " + changed.keySet() + " of singleton " + this.getSingletonName());
+         }
+      }
+      this.publishedValues.putAll(values);
+   }
+}
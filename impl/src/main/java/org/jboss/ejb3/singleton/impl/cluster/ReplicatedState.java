@@ -0,0 +1,238 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.ejb3.singleton.impl.snapshot.BeanClassObjectInputStream;
+import org.jboss.ejb3.singleton.impl.snapshot.StateSnapshot;
+import org.jboss.ejb3.singleton.spi.annotation.ModifiesState;
+import org.jboss.ejb3.singleton.spi.annotation.SnapshotState;
+
+/**
+ * Captures and applies the replicated state of a bean, i.e. the serialized values of its {@link SnapshotState} 
+ * fields, keyed by the name of the field
+ *
+ * @version $Revision: $
+ */
+class ReplicatedState
+{
+
+   /**
+    * The bean class
+    */
+   private final Class<?> beanClass;
+
+   /**
+    * The replicated fields, keyed by their name
+    */
+   private final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+
+   /**
+    * The names of the replicated fields whose values an invoked method may change in place, keyed by the 
+    * method. Holds the {@link ModifiesState} methods of the bean class upfront, the other methods are added
+    * as they're invoked.
+    */
+   private final ConcurrentMap<Method, Set<String>> inPlaceChanges = new ConcurrentHashMap<Method, Set<String>>();
+
+   /**
+    * @param beanClass The bean class
+    * @throws IllegalArgumentException If the bean class has no {@link SnapshotState} fields, or if a 
+    *           {@link ModifiesState} method of the bean class refers to an unknown field
+    */
+   ReplicatedState(Class<?> beanClass)
+   {
+      List<Field> snapshotFields = StateSnapshot.getSnapshotFields(beanClass);
+      if (snapshotFields.isEmpty())
+      {
+         throw new IllegalArgumentException("Bean class " + beanClass.getName() + " has no @"
+               + SnapshotState.class.getSimpleName() + " fields to replicate");
+      }
+      for (Field field : snapshotFields)
+      {
+         if (this.fields.containsKey(field.getName()))
+         {
+            throw new IllegalArgumentException("Field " + field + " of bean class " + beanClass.getName()
+                  + " hides another replicated field of the same name");
+         }
+         field.setAccessible(true);
+         this.fields.put(field.getName(), field);
+      }
+      for (Method method : beanClass.getMethods())
+      {
+         ModifiesState modifiesState = method.getAnnotation(ModifiesState.class);
+         if (modifiesState == null)
+         {
+            continue;
+         }
+         Set<String> fieldNames = new LinkedHashSet<String>(Arrays.asList(modifiesState.value()));
+         if (!this.fields.keySet().containsAll(fieldNames))
+         {
+            throw new IllegalArgumentException("@" + ModifiesState.class.getSimpleName() + " method " + method
+                  + " refers to fields " + fieldNames + ", which aren't all replicated fields "
+                  + this.fields.keySet() + " of bean class " + beanClass.getName());
+         }
+         this.inPlaceChanges.put(method, Collections.unmodifiableSet(fieldNames));
+      }
+      this.beanClass = beanClass;
+   }
+
+   /**
+    * Returns the names of the replicated fields whose values the passed method may change in place. Those are
+    * the fields declared by the {@link ModifiesState} annotation of the corresponding bean method, if any, else 
+    * all the replicated fields.
+    * 
+    * @param method The invoked method, either a method of the bean class or of one of its business interfaces
+    * @return
+    */
+   Set<String> getInPlaceChanges(Method method)
+   {
+      Set<String> fieldNames = this.inPlaceChanges.get(method);
+      if (fieldNames != null)
+      {
+         return fieldNames;
+      }
+      fieldNames = Collections.unmodifiableSet(this.fields.keySet());
+      try
+      {
+         // the method of a business interface is annotated on the bean class
+         Set<String> declared = this.inPlaceChanges.get(this.beanClass.getMethod(method.getName(), method
+               .getParameterTypes()));
+         if (declared != null)
+         {
+            fieldNames = declared;
+         }
+      }
+      catch (NoSuchMethodException nsme)
+      {
+         // not a method of the bean class, so nothing is known about it
+      }
+      this.inPlaceChanges.putIfAbsent(method, fieldNames);
+      return fieldNames;
+   }
+
+   /**
+    * Returns the (unserialized) values of all the replicated fields of the passed bean instance
+    * 
+    * @param beanInstance The bean instance
+    * @return
+    */
+   Map<String, Object> getValues(Object beanInstance)
+   {
+      Map<String, Object> values = new LinkedHashMap<String, Object>();
+      for (Field field : this.fields.values())
+      {
+         try
+         {
+            values.put(field.getName(), field.get(beanInstance));
+         }
+         catch (IllegalAccessException iae)
+         {
+            throw new IllegalStateException("Could not read field " + field + " of bean " + beanInstance, iae);
+         }
+      }
+      return values;
+   }
+
+   /**
+    * Returns the serialized form of the passed field value
+    * 
+    * @param value The field value
+    * @return
+    * @throws IOException If the value can't be serialized
+    */
+   static byte[] serialize(Object value) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream objectOutput = new ObjectOutputStream(bytes);
+      objectOutput.writeObject(value);
+      objectOutput.close();
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Returns true if the passed field value can't change without being replaced, i.e. if the field can be
+    * considered unchanged as long as its value equals the previous one
+    * 
+    * @param value The field value
+    * @return
+    */
+   static boolean isImmutable(Object value)
+   {
+      return value == null || value instanceof String || value instanceof Boolean || value instanceof Character
+            || value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long
+            || value instanceof Float || value instanceof Double || value instanceof Enum<?>;
+   }
+
+   /**
+    * Sets the replicated fields of the passed bean instance to the passed serialized values. Fields which
+    * aren't part of the passed <code>state</code> are left alone, as are the unknown fields in <code>state</code>.
+    * 
+    * @param beanInstance The bean instance
+    * @param state The serialized values, keyed by the name of the field
+    * @throws IOException If a value can't be deserialized
+    * @throws ClassNotFoundException If the class of a value can't be loaded
+    */
+   void apply(Object beanInstance, Map<String, byte[]> state) throws IOException, ClassNotFoundException
+   {
+      // deserialize all the values before setting any, so that a failure doesn't leave a partially applied state
+      Map<Field, Object> values = new LinkedHashMap<Field, Object>();
+      for (Map.Entry<String, byte[]> entry : state.entrySet())
+      {
+         Field field = this.fields.get(entry.getKey());
+         if (field == null)
+         {
+            continue;
+         }
+         ObjectInputStream objectInput = new BeanClassObjectInputStream(new ByteArrayInputStream(entry.getValue()),
+               this.beanClass.getClassLoader());
+         values.put(field, objectInput.readObject());
+         objectInput.close();
+      }
+      for (Map.Entry<Field, Object> value : values.entrySet())
+      {
+         try
+         {
+            value.getKey().set(beanInstance, value.getValue());
+         }
+         catch (IllegalAccessException iae)
+         {
+            throw new IllegalStateException("Could not set field " + value.getKey() + " of bean " + beanInstance, iae);
+         }
+      }
+   }
+}
@@ -21,6 +21,12 @@
 */
 package org.jboss.ejb3.singleton.impl.container;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.ejb.ConcurrentAccessTimeoutException;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -31,6 +37,14 @@ import org.jboss.ejb3.container.spi.EJBContainer;
 import org.jboss.ejb3.container.spi.EJBInstanceManager;
 import org.jboss.ejb3.container.spi.InterceptorRegistry;
 import org.jboss.ejb3.container.spi.lifecycle.EJBLifecycleHandler;
+import org.jboss.ejb3.singleton.impl.async.AsyncInvocationDispatcher;
+import org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager;
+import org.jboss.ejb3.singleton.impl.snapshot.StateSnapshot;
+import org.jboss.ejb3.singleton.impl.statistics.InvocationStatistics;
+import org.jboss.ejb3.singleton.impl.statistics.MethodStatistics;
+import org.jboss.ejb3.singleton.impl.statistics.StatisticsAwareInvocation;
+import org.jboss.ejb3.singleton.spi.AsyncInvocation;
+import org.jboss.ejb3.singleton.spi.AsyncInvocationContainer;
 import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeanMetaData;
@@ -45,7 +59,7 @@ import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
  * @author Jaikiran Pai
  * @version $Revision: $
  */
-public class SingletonContainer implements EJBContainer, EJBLifecycleHandler
+public class SingletonContainer implements AsyncInvocationContainer, EJBLifecycleHandler
 {
 
    /**
@@ -73,6 +87,33 @@ public class SingletonContainer implements EJBContainer, EJBLifecycleHandler
     */
    private InterceptorRegistry interceptorRegistry;
 
+   /**
+    * Per method invocation statistics of this container
+    */
+   private final InvocationStatistics invocationStatistics = new InvocationStatistics();
+
+   /**
+    * Dispatches the asynchronous invocations. Null until an executor is {@link #setAsynchronousExecutor(Executor) set}.
+    */
+   private volatile AsyncInvocationDispatcher asyncInvocationDispatcher;
+
+   /**
+    * Held (shared) by the invocations in progress and (exclusively) while the bean instance is {@link #destroy() destroyed},
+    * so that the bean instance isn't destroyed under the feet of an invocation. Null if the invocations in progress 
+    * aren't waited for, on destroy.
+    */
+   private volatile ReentrantReadWriteLock invocationGate;
+
+   /**
+    * How long (in milli seconds) {@link #destroy()} waits for the invocations in progress
+    */
+   private volatile long drainTimeoutMillis;
+
+   /**
+    * The state snapshot, which is taken on destroy once the invocations in progress are drained
+    */
+   private volatile StateSnapshot drainedStateSnapshot;
+
    /**
     * Creates a {@link SingletonContainer} for the EJB class <code>beanClass</code>
     * and the associated session bean metadata <code>sessionBeanMetaData</code>. The
@@ -149,7 +190,92 @@ public class SingletonContainer implements EJBContainer, EJBLifecycleHandler
     */
    public void destroy()
    {
-      this.instanceManager.destroy();
+      ReentrantReadWriteLock gate = this.invocationGate;
+      if (gate == null)
+      {
+         this.instanceManager.destroy();
+         return;
+      }
+      if (gate.getReadHoldCount() > 0)
+      {
+         // destroyed from within an invocation, which would otherwise wait for itself
+         logger.warn("Singleton " + this.getEJBName() + " destroyed from within an invocation on it, "
+               + "invocations in progress won't be waited for");
+         this.instanceManager.destroy();
+         return;
+      }
+      boolean drained;
+      try
+      {
+         drained = gate.writeLock().tryLock(this.drainTimeoutMillis, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         drained = false;
+      }
+      if (!drained)
+      {
+         // an invocation which hangs (or waits on another invocation on this bean) mustn't hold up the undeploy
+         this.destroyWithoutStateSnapshot();
+         return;
+      }
+      try
+      {
+         this.instanceManager.destroy();
+      }
+      finally
+      {
+         gate.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Sets the state snapshot, which is taken when the bean instance is {@link #destroy() destroyed}. Invocations 
+    * in progress are then waited for (at most <code>drainTimeout</code>) before the bean instance is destroyed, 
+    * so that the snapshot isn't taken while the bean state is changing. If they don't complete in time, the bean 
+    * instance is destroyed without a snapshot. Each invocation acquires (and releases) a shared lock.
+    * 
+    * @param stateSnapshot The state snapshot, taken by the instance manager on destroy. Null if the invocations 
+    *           in progress aren't waited for.
+    * @param drainTimeout How long destroy waits for the invocations in progress
+    * @param unit The unit of <code>drainTimeout</code>
+    */
+   public void setDrainInvocationsOnDestroy(StateSnapshot stateSnapshot, long drainTimeout, TimeUnit unit)
+   {
+      if (stateSnapshot != null && drainTimeout < 0)
+      {
+         throw new IllegalArgumentException("Drain timeout cannot be negative, but is " + drainTimeout + " " + unit);
+      }
+      this.drainedStateSnapshot = stateSnapshot;
+      this.drainTimeoutMillis = stateSnapshot == null ? 0 : unit.toMillis(drainTimeout);
+      this.invocationGate = stateSnapshot == null ? null : new ReentrantReadWriteLock();
+   }
+
+   /**
+    * Destroys the bean instance, while invocations may still be in progress, hence without taking the state 
+    * snapshot
+    */
+   private void destroyWithoutStateSnapshot()
+   {
+      StateSnapshot snapshot = this.drainedStateSnapshot;
+      logger.warn("Invocations in progress on singleton " + this.getEJBName() + " did not complete within "
+            + this.drainTimeoutMillis + " milli seconds, destroying the bean instance without snapshotting its state"
+            + (snapshot == null ? "" : " to " + snapshot.getFile()));
+      if (snapshot == null)
+      {
+         this.instanceManager.destroy();
+         return;
+      }
+      snapshot.setSuspended(true);
+      try
+      {
+         this.instanceManager.destroy();
+      }
+      finally
+      {
+         snapshot.setSuspended(false);
+      }
    }
 
    /**
@@ -196,15 +322,172 @@ public class SingletonContainer implements EJBContainer, EJBLifecycleHandler
     * @see org.jboss.ejb3.container.spi.EJBContainer#invoke(org.jboss.ejb3.container.spi.ContainerInvocation)
     */
    @Override
-   public Object invoke(ContainerInvocation containerInvocation) throws Exception
+   public Object invoke(final ContainerInvocation containerInvocation) throws Exception
+   {
+      final SingletonEJBInstanceManager beanInstanceManager = this.instanceManager;
+      if (beanInstanceManager instanceof ClusteredSingletonEJBInstanceManager)
+      {
+         // the bean may be active on another member of the cluster, in which case the invocation is served there
+         return ((ClusteredSingletonEJBInstanceManager) beanInstanceManager).invoke(containerInvocation,
+               new Callable<Object>()
+               {
+                  @Override
+                  public Object call() throws Exception
+                  {
+                     return SingletonContainer.this.invokeLocally(containerInvocation, beanInstanceManager);
+                  }
+               });
+      }
+      return this.invokeLocally(containerInvocation, beanInstanceManager);
+   }
+
+   /**
+    * Invokes the passed <code>containerInvocation</code> on the bean instance of the passed instance manager
+    */
+   private Object invokeLocally(ContainerInvocation containerInvocation,
+         SingletonEJBInstanceManager beanInstanceManager) throws Exception
+   {
+      ReentrantReadWriteLock gate = this.invocationGate;
+      if (gate == null)
+      {
+         return this.invokeBeanInstance(containerInvocation, beanInstanceManager);
+      }
+      gate.readLock().lock();
+      try
+      {
+         return this.invokeBeanInstance(containerInvocation, beanInstanceManager);
+      }
+      finally
+      {
+         gate.readLock().unlock();
+      }
+   }
+
+   /**
+    * Invokes the passed <code>containerInvocation</code> on the bean instance of the passed instance manager,
+    * creating the bean instance if required
+    */
+   private Object invokeBeanInstance(ContainerInvocation containerInvocation,
+         SingletonEJBInstanceManager beanInstanceManager) throws Exception
+   {
+      BeanContext beanContext = beanInstanceManager.get();
+
+      MethodStatistics methodStatistics = null;
+      if (containerInvocation instanceof StatisticsAwareInvocation)
+      {
+         methodStatistics = ((StatisticsAwareInvocation) containerInvocation).getMethodStatistics();
+      }
+      if (methodStatistics == null)
+      {
+         methodStatistics = this.invocationStatistics.getMethodStatistics(containerInvocation.getMethod());
+      }
+      long startTime = methodStatistics.invocationStarted();
+      try
+      {
+         // TODO: Should container managed concurrency be implemented here in this container,
+         // or in some interceptor within the interceptor chain maintained by the interceptor
+         // registry?
+         return this.interceptorRegistry.intercept(containerInvocation, beanContext);
+      }
+      catch (Exception e)
+      {
+         if (isAccessTimeout(e))
+         {
+            methodStatistics.accessTimeoutExpired();
+         }
+         throw e;
+      }
+      finally
+      {
+         methodStatistics.invocationCompleted(startTime);
+      }
+
+   }
+
+   /**
+    * Submits the passed <code>containerInvocation</code> to the asynchronous executor of this container. The 
+    * invocation is considered to not need exclusive access to the bean instance.
+    * 
+    * @see org.jboss.ejb3.singleton.spi.AsyncInvocationContainer#invokeAsync(org.jboss.ejb3.container.spi.ContainerInvocation)
+    */
+   @Override
+   public AsyncInvocation<Object> invokeAsync(ContainerInvocation containerInvocation) throws IllegalStateException
+   {
+      return this.invokeAsync(containerInvocation, false);
+   }
+
+   /**
+    * Submits the passed <code>containerInvocation</code> to the asynchronous executor of this container. 
+    * Invocations which need exclusive access to the bean instance are queued up and run one at a time.
+    * 
+    * @param containerInvocation The container invocation
+    * @param exclusive True if the invocation needs exclusive access to the bean instance
+    * @return Returns a handle to the submitted invocation
+    * @throws IllegalStateException If no asynchronous executor has been set, or if the executor rejects the invocation
+    */
+   public AsyncInvocation<Object> invokeAsync(final ContainerInvocation containerInvocation, boolean exclusive)
+         throws IllegalStateException
+   {
+      return this.dispatchAsync(new Callable<Object>()
+      {
+         @Override
+         public Object call() throws Exception
+         {
+            return SingletonContainer.this.invoke(containerInvocation);
+         }
+      }, exclusive);
+   }
+
+   /**
+    * Submits the passed <code>invocation</code> to the asynchronous executor of this container. Allows wrapping
+    * containers to have their own invocation path run asynchronously.
+    * 
+    * @param invocation The invocation
+    * @param exclusive True if the invocation needs exclusive access to the bean instance
+    * @return Returns a handle to the submitted invocation
+    * @throws IllegalStateException If no asynchronous executor has been set, or if the executor rejects the invocation
+    */
+   public <T> AsyncInvocation<T> dispatchAsync(Callable<T> invocation, boolean exclusive) throws IllegalStateException
+   {
+      AsyncInvocationDispatcher dispatcher = this.asyncInvocationDispatcher;
+      if (dispatcher == null)
+      {
+         throw new IllegalStateException("No asynchronous executor available for bean " + this.getEJBName());
+      }
+      return dispatcher.dispatch(invocation, exclusive);
+   }
+
+   /**
+    * Sets the executor which runs the asynchronous invocations on this container
+    * 
+    * @param executor The executor
+    */
+   public void setAsynchronousExecutor(Executor executor)
    {
-      BeanContext beanContext = this.instanceManager.get();
+      this.setAsynchronousExecutor(executor, executor);
+   }
 
-      // TODO: Should container managed concurrency be implemented here in this container,
-      // or in some interceptor within the interceptor chain maintained by the interceptor
-      // registry?
-      return this.interceptorRegistry.intercept(containerInvocation, beanContext);
+   /**
+    * Sets the executors which run the asynchronous invocations on this container
+    * 
+    * @param executor The executor which runs the invocations. Can be null, in which case asynchronous invocations
+    *           aren't supported.
+    * @param exclusiveExecutor The executor which runs the invocations that need exclusive access to the 
+    *           bean instance. Can be null, in which case <code>executor</code> runs them too.
+    */
+   public void setAsynchronousExecutor(Executor executor, Executor exclusiveExecutor)
+   {
+      this.asyncInvocationDispatcher = executor == null ? null : new AsyncInvocationDispatcher(executor,
+            exclusiveExecutor == null ? executor : exclusiveExecutor, this.beanClass.getClassLoader());
+   }
 
+   /**
+    * Returns the per method invocation statistics of this container
+    * @return
+    */
+   public InvocationStatistics getInvocationStatistics()
+   {
+      return this.invocationStatistics;
    }
 
    /**
@@ -260,4 +543,20 @@ public class SingletonContainer implements EJBContainer, EJBLifecycleHandler
       }
    }
 
+   /**
+    * Returns true if the passed exception (or its cause) represents an expired @AccessTimeout
+    */
+   private static boolean isAccessTimeout(Throwable t)
+   {
+      while (t != null)
+      {
+         if (t instanceof ConcurrentAccessTimeoutException)
+         {
+            return true;
+         }
+         t = t.getCause();
+      }
+      return false;
+   }
+
 }
@@ -21,8 +21,16 @@
 */
 package org.jboss.ejb3.singleton.impl.container;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.ejb.DependsOn;
 
@@ -33,6 +41,7 @@ import org.jboss.ejb3.container.spi.lifecycle.EJBLifecycleHandler;
 import org.jboss.ejb3.instantiator.spi.BeanInstantiationException;
 import org.jboss.ejb3.instantiator.spi.BeanInstantiator;
 import org.jboss.ejb3.instantiator.spi.InvalidConstructionParamsException;
+import org.jboss.ejb3.singleton.impl.snapshot.StateSnapshot;
 import org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager;
 import org.jboss.logging.Logger;
 
@@ -68,9 +77,36 @@ public class SingletonEJBInstanceManagerImpl implements SingletonEJBInstanceMana
    protected EJBLifecycleHandler beanInstanceLifecycleHandler;
 
    /**
-    * The singleton bean context
+    * The singleton bean context. This is published only after the bean instance has been
+    * fully constructed (including post-construct), so that {@link #get()} can return it
+    * without acquiring any lock
     */
-   protected BeanContext singletonBeanContext;
+   protected volatile BeanContext singletonBeanContext;
+
+   /**
+    * The bean context which is being constructed (but not yet published) by the thread
+    * holding the {@link #initLock}. Used to serve re-entrant {@link #get()} calls, from within
+    * the post-construct of the bean, on that thread.
+    */
+   private BeanContext beanContextUnderConstruction;
+
+   /**
+    * Guards the creation and destruction of the singleton bean context. Invocations on an
+    * already created singleton never acquire this lock.
+    */
+   private final ReentrantLock initLock = new ReentrantLock();
+
+   /**
+    * The creation of the singleton bean context which has been handed over to a background
+    * executor (see {@link #warmupInBackground(Executor)}) and hasn't completed yet. Null otherwise.
+    */
+   private volatile FutureTask<BeanContext> backgroundWarmup;
+
+   /**
+    * Snapshots the state of the bean instance when it's destroyed, and restores it into the next bean instance.
+    * Null if the bean state isn't snapshot.
+    */
+   private volatile StateSnapshot stateSnapshot;
 
    /**
     * Responsible for instantiating a bean
@@ -105,54 +141,245 @@ public class SingletonEJBInstanceManagerImpl implements SingletonEJBInstanceMana
     * @see org.jboss.ejb3.container.spi.EJBInstanceManager#create()
     */
    @Override
-   public synchronized Serializable create()
+   public Serializable create()
    {
-      if(this.singletonBeanContext != null)
-         throw new IllegalStateException("Singleton " + container + " was already created");
-
-      // first create @DependsOn singleton beans
-      if (this.dependsOn != null && !this.dependsOn.isEmpty())
+      this.initLock.lock();
+      try
       {
-         for (SingletonEJBInstanceManager instanceManager : this.dependsOn)
+         if (this.singletonBeanContext != null || this.beanContextUnderConstruction != null)
+            throw new IllegalStateException("Singleton " + container + " was already created");
+
+         // first create @DependsOn singleton beans
+         if (this.dependsOn != null && !this.dependsOn.isEmpty())
          {
-            logger.debug("Instantiating @Depends bean: " + instanceManager.getEJBContainer().getEJBName()
-                  + " during creation of singleton bean " + this.container.getEJBName());
-            // get the instance (Note: don't call create, since create() throws an exception
-            // if a singleton instance is already created)
-            instanceManager.get();
+            for (SingletonEJBInstanceManager instanceManager : this.dependsOn)
+            {
+               logger.debug("Instantiating @Depends bean: " + instanceManager.getEJBContainer().getEJBName()
+                     + " during creation of singleton bean " + this.container.getEJBName());
+               // get the instance (Note: don't call create, since create() throws an exception
+               // if a singleton instance is already created)
+               instanceManager.get();
+            }
          }
-      }
-      Object beanInstance = this.createBeanInstance();
-      this.singletonBeanContext = this.createBeanContext(beanInstance);
+         Object beanInstance = this.createBeanInstance();
+         // restore the snapshot state (if any) before the post-construct, so that the bean can skip computing it
+         StateSnapshot snapshot = this.stateSnapshot;
+         if (snapshot != null && snapshot.restore(beanInstance))
+         {
+            logger.debug("Restored snapshot state of singleton " + container + " from "
+                  + snapshot.getFile());
+         }
+         BeanContext beanContext = this.createBeanContext(beanInstance);
 
-      if (this.beanInstanceLifecycleHandler != null)
-      {
-         // do post-construct
+         // the bean context isn't yet published (other threads would otherwise see a bean which
+         // hasn't completed its post-construct), but is made available to re-entrant calls on this thread
+         this.beanContextUnderConstruction = beanContext;
          try
          {
-            this.beanInstanceLifecycleHandler.postConstruct(this.singletonBeanContext);
+            if (this.beanInstanceLifecycleHandler != null)
+            {
+               // do post-construct
+               try
+               {
+                  this.beanInstanceLifecycleHandler.postConstruct(beanContext);
+               }
+               catch (Exception e)
+               {
+                  throw new RuntimeException("Could not invoke PostConstruct on the newly created bean instance", e);
+               }
+            }
          }
-         catch (Exception e)
+         finally
          {
-            throw new RuntimeException("Could not invoke PostConstruct on the newly created bean instance", e);
+            this.beanContextUnderConstruction = null;
          }
+         // publish
+         this.singletonBeanContext = beanContext;
+         return beanContext.getSessionId();
+      }
+      finally
+      {
+         this.initLock.unlock();
       }
-      return this.singletonBeanContext.getSessionId();
    }
 
    /**
-    * 
+    * Returns the singleton bean context, creating it if required.
+    * <p>
+    *  Once the singleton bean context has been created, this method doesn't acquire any lock. Only the
+    *  callers which find that the bean context hasn't been created yet, contend on the initialization lock
+    *  and the first one amongst them creates the bean context.
+    * </p>
     * @see org.jboss.ejb3.singleton.spi.SingletonEJBInstanceManager#get()
     */
    @Override
-   public synchronized BeanContext get()
+   public BeanContext get()
+   {
+      // fast path
+      BeanContext beanContext = this.singletonBeanContext;
+      if (beanContext != null)
+      {
+         return beanContext;
+      }
+      // if the bean context is being created in the background, then wait for that creation instead of starting
+      // one of our own. Re-entrant calls (from within that very creation) must not wait on it.
+      FutureTask<BeanContext> warmup = this.backgroundWarmup;
+      if (warmup != null && !this.initLock.isHeldByCurrentThread())
+      {
+         beanContext = this.awaitBackgroundWarmup(warmup);
+         if (beanContext != null)
+         {
+            return beanContext;
+         }
+      }
+      return this.getOrCreate();
+   }
+
+   /**
+    * Starts creating the singleton bean context through the passed <code>executor</code>, unless it has already
+    * been created. Callers of {@link #get()} which arrive while the creation is in progress wait for it to complete.
+    * If the executor hasn't yet got around to run the creation when the first caller arrives, then that caller runs
+    * it instead.
+    * <p>
+    *  If the background creation fails, the failure is logged and the next {@link #get()} attempts the creation
+    *  afresh (and reports the failure, if any, to its caller).
+    * </p>
+    * 
+    * @param executor The executor which creates the singleton bean context
+    */
+   public void warmupInBackground(Executor executor)
+   {
+      if (executor == null)
+      {
+         throw new IllegalArgumentException("Executor cannot be null, for background warmup of singleton " + container);
+      }
+      if (this.singletonBeanContext != null || this.backgroundWarmup != null)
+      {
+         return;
+      }
+      final FutureTask<BeanContext> warmup = new FutureTask<BeanContext>(new Callable<BeanContext>()
+      {
+         @Override
+         public BeanContext call() throws Exception
+         {
+            return SingletonEJBInstanceManagerImpl.this.getOrCreate();
+         }
+      });
+      this.backgroundWarmup = warmup;
+      try
+      {
+         executor.execute(warmup);
+      }
+      catch (RejectedExecutionException ree)
+      {
+         // the bean context will be lazily created
+         logger.debug("Background warmup of singleton " + container + " rejected by executor " + executor, ree);
+         this.backgroundWarmup = null;
+      }
+   }
+
+   /**
+    * Sets the {@link StateSnapshot} through which the state of the bean instance is snapshot, when it's destroyed,
+    * and restored into the next bean instance, before its post-construct. Has to be set before the bean instance
+    * is created.
+    * 
+    * @param stateSnapshot Can be null, in which case the bean state isn't snapshot
+    */
+   public void setStateSnapshot(StateSnapshot stateSnapshot)
+   {
+      this.stateSnapshot = stateSnapshot;
+   }
+
+   /**
+    * Waits for the passed background creation of the bean context to complete (running it on the current thread, 
+    * if it hasn't started yet) and returns the created bean context. Returns null if the background creation failed
+    * or was cancelled.
+    * 
+    * @param warmup The background creation of the bean context
+    * @return
+    */
+   private BeanContext awaitBackgroundWarmup(FutureTask<BeanContext> warmup)
    {
-      if (this.singletonBeanContext == null)
+      // no-op if the executor has already started (or completed) it
+      warmup.run();
+      try
+      {
+         return warmup.get();
+      }
+      catch (ExecutionException ee)
+      {
+         logger.debug("Background warmup of singleton " + container + " failed", ee.getCause());
+         return null;
+      }
+      catch (CancellationException ce)
+      {
+         return null;
+      }
+      catch (InterruptedException ie)
       {
-         this.create();
+         // can't happen, since the warmup has been run (or is run) before we get here. 
+         // But restore the interrupt status, nevertheless
+         Thread.currentThread().interrupt();
+         return null;
+      }
+      finally
+      {
+         if (this.backgroundWarmup == warmup)
+         {
+            this.backgroundWarmup = null;
+         }
       }
-      return this.singletonBeanContext;
+   }
 
+   /**
+    * Cancels the background creation of the bean context, if it hasn't started yet. If it has
+    * started, waits for it to complete.
+    */
+   private void cancelBackgroundWarmup()
+   {
+      FutureTask<BeanContext> warmup = this.backgroundWarmup;
+      if (warmup == null)
+      {
+         return;
+      }
+      if (!warmup.cancel(false))
+      {
+         this.awaitBackgroundWarmup(warmup);
+      }
+      this.backgroundWarmup = null;
+   }
+
+   /**
+    * Returns the singleton bean context, creating it under the init lock if required
+    * 
+    * @return
+    */
+   private BeanContext getOrCreate()
+   {
+      BeanContext beanContext = this.singletonBeanContext;
+      if (beanContext != null)
+      {
+         return beanContext;
+      }
+      this.initLock.lock();
+      try
+      {
+         if (this.singletonBeanContext == null)
+         {
+            // re-entrant call (for example, from within the @PostConstruct of the bean). Only
+            // the thread holding the init lock can see a bean context under construction
+            if (this.beanContextUnderConstruction != null)
+            {
+               return this.beanContextUnderConstruction;
+            }
+            this.create();
+         }
+         return this.singletonBeanContext;
+      }
+      finally
+      {
+         this.initLock.unlock();
+      }
    }
 
    /**
@@ -161,24 +388,58 @@ public class SingletonEJBInstanceManagerImpl implements SingletonEJBInstanceMana
    @Override
    public void destroy()
    {
-      synchronized (this)
+      // don't let a pending background warmup create a bean context after we are done
+      this.cancelBackgroundWarmup();
+      BeanContext beanContext = this.singletonBeanContext;
+      if (beanContext == null)
       {
-         if (this.singletonBeanContext == null)
+         return; // Or should we throw IllegalStateException?
+      }
+      // snapshot the state before the pre-destroy gets a chance to release it. A failure to snapshot must not 
+      // keep the bean instance from being destroyed
+      StateSnapshot snapshot = this.stateSnapshot;
+      if (snapshot != null)
+      {
+         try
          {
-            return; // Or should we throw IllegalStateException?
+            snapshot.save(beanContext.getBeanInstance());
+         }
+         catch (IOException ioe)
+         {
+            logger.warn("Could not snapshot the state of singleton " + container + " to "
+                  + snapshot.getFile(), ioe);
+         }
+         catch (RuntimeException re)
+         {
+            logger.warn("Could not snapshot the state of singleton " + container + " to "
+                  + snapshot.getFile(), re);
          }
       }
       try
       {
-         this.beanInstanceLifecycleHandler.preDestroy(this.singletonBeanContext);
-      }
-      catch (Exception e)
-      {
-         throw new RuntimeException("Could not preDestroy the singleton bean instance", e);
+         if (this.beanInstanceLifecycleHandler != null)
+         {
+            try
+            {
+               this.beanInstanceLifecycleHandler.preDestroy(beanContext);
+            }
+            catch (Exception e)
+            {
+               throw new RuntimeException("Could not preDestroy the singleton bean instance", e);
+            }
+         }
       }
-      synchronized (this)
+      finally
       {
-         this.singletonBeanContext = null;
+         this.initLock.lock();
+         try
+         {
+            this.singletonBeanContext = null;
+         }
+         finally
+         {
+            this.initLock.unlock();
+         }
       }
    }
 
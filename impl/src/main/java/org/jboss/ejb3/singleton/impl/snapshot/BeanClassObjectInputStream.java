@@ -0,0 +1,71 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.snapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * An {@link ObjectInputStream} which resolves classes through the classloader of the bean class
+ *
+ * @version $Revision: $
+ */
+public class BeanClassObjectInputStream extends ObjectInputStream
+{
+   /**
+    * The classloader of the bean class
+    */
+   private final ClassLoader classLoader;
+
+   /**
+    * @param in The stream to read from
+    * @param classLoader The classloader of the bean class (can be null)
+    * @throws IOException
+    */
+   public BeanClassObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException
+   {
+      super(in);
+      this.classLoader = classLoader;
+   }
+
+   /**
+    * @see java.io.ObjectInputStream#resolveClass(java.io.ObjectStreamClass)
+    */
+   @Override
+   protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+   {
+      if (this.classLoader != null)
+      {
+         try
+         {
+            return Class.forName(desc.getName(), false, this.classLoader);
+         }
+         catch (ClassNotFoundException cnfe)
+         {
+            // fall through to the default resolution (for example, for primitive types)
+         }
+      }
+      return super.resolveClass(desc);
+   }
+}
@@ -0,0 +1,499 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.jboss.ejb3.singleton.spi.annotation.SnapshotState;
+import org.jboss.logging.Logger;
+
+/**
+ * Takes a snapshot of the {@link SnapshotState} fields of a singleton bean instance into a file, and restores 
+ * them from that file into another instance of the bean.
+ * <p>
+ *  The snapshot file consists of a header, which identifies the bean class and the name, type and 
+ *  {@link SnapshotState#version() version} of each snapshot field, followed by the serialized field values
+ *  and a CRC32 checksum of all of the preceding content. A snapshot is restored only if its checksum matches and its
+ *  header matches the snapshot fields of the current bean class. The snapshot file is read through a memory 
+ *  mapping, and is deleted once it has been read (whether or not it could be restored).
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class StateSnapshot
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(StateSnapshot.class);
+
+   /**
+    * Identifies a snapshot file
+    */
+   private static final int MAGIC = 0x53534E50;
+
+   /**
+    * The version of the snapshot file format
+    */
+   private static final int FORMAT_VERSION = 1;
+
+   /**
+    * Length of the checksum at the end of the snapshot file
+    */
+   private static final int CHECKSUM_LENGTH = 8;
+
+   /**
+    * The snapshot file
+    */
+   private final File file;
+
+   /**
+    * The bean class
+    */
+   private final Class<?> beanClass;
+
+   /**
+    * The {@link SnapshotState} fields of the bean class
+    */
+   private final List<Field> fields;
+
+   /**
+    * True while {@link #save(Object)} is skipped
+    */
+   private volatile boolean suspended;
+
+   /**
+    * @param file The snapshot file
+    * @param beanClass The bean class, which has to have atleast one {@link SnapshotState} field
+    */
+   public StateSnapshot(File file, Class<?> beanClass)
+   {
+      if (file == null || beanClass == null)
+      {
+         throw new IllegalArgumentException("Snapshot file and bean class cannot be null");
+      }
+      this.fields = getSnapshotFields(beanClass);
+      if (this.fields.isEmpty())
+      {
+         throw new IllegalArgumentException("Bean class " + beanClass.getName() + " has no @"
+               + SnapshotState.class.getSimpleName() + " fields");
+      }
+      for (Field field : this.fields)
+      {
+         field.setAccessible(true);
+      }
+      this.file = file;
+      this.beanClass = beanClass;
+   }
+
+   /**
+    * Returns the (non-static) {@link SnapshotState} fields of the passed bean class and its super classes, 
+    * in a stable order
+    * 
+    * @param beanClass The bean class
+    * @return
+    */
+   public static List<Field> getSnapshotFields(Class<?> beanClass)
+   {
+      List<Field> snapshotFields = new ArrayList<Field>();
+      for (Class<?> klass = beanClass; klass != null && klass != Object.class; klass = klass.getSuperclass())
+      {
+         Field[] declaredFields = klass.getDeclaredFields();
+         // the order of the declared fields isn't specified
+         Arrays.sort(declaredFields, new Comparator<Field>()
+         {
+            @Override
+            public int compare(Field f1, Field f2)
+            {
+               return f1.getName().compareTo(f2.getName());
+            }
+         });
+         for (Field field : declaredFields)
+         {
+            if (field.isAnnotationPresent(SnapshotState.class) && !Modifier.isStatic(field.getModifiers()))
+            {
+               snapshotFields.add(field);
+            }
+         }
+      }
+      return Collections.unmodifiableList(snapshotFields);
+   }
+
+   /**
+    * Returns the snapshot file
+    * @return
+    */
+   public File getFile()
+   {
+      return this.file;
+   }
+
+   /**
+    * Sets whether snapshots are suspended, i.e. whether {@link #save(Object)} leaves the existing snapshot (if any) 
+    * as-is. Used while the bean instance is destroyed in a state which mustn't be snapshot.
+    * 
+    * @param suspended True to suspend the snapshots
+    */
+   public void setSuspended(boolean suspended)
+   {
+      this.suspended = suspended;
+   }
+
+   /**
+    * Writes a snapshot of the {@link SnapshotState} fields of the passed bean instance to the snapshot file, 
+    * replacing the existing snapshot (if any). Does nothing while snapshots are 
+    * {@link #setSuspended(boolean) suspended}.
+    * 
+    * @param beanInstance The bean instance
+    * @throws IOException If the snapshot couldn't be written
+    */
+   public void save(Object beanInstance) throws IOException
+   {
+      if (this.suspended)
+      {
+         logger.debug("Snapshots suspended, not snapshotting state of " + this.beanClass.getName() + " to "
+               + this.file);
+         return;
+      }
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      ObjectOutputStream objectOutput = new ObjectOutputStream(payload);
+      for (Field field : this.fields)
+      {
+         objectOutput.writeObject(this.getFieldValue(field, beanInstance));
+      }
+      objectOutput.close();
+
+      ByteArrayOutputStream content = new ByteArrayOutputStream(payload.size() + 256);
+      DataOutputStream data = new DataOutputStream(content);
+      data.writeInt(MAGIC);
+      data.writeInt(FORMAT_VERSION);
+      data.writeUTF(this.beanClass.getName());
+      data.writeInt(this.fields.size());
+      for (Field field : this.fields)
+      {
+         data.writeUTF(this.getFieldName(field));
+         data.writeUTF(field.getType().getName());
+         data.writeInt(field.getAnnotation(SnapshotState.class).version());
+      }
+      data.writeInt(payload.size());
+      payload.writeTo(data);
+      data.flush();
+      CRC32 checksum = new CRC32();
+      checksum.update(content.toByteArray());
+      data.writeLong(checksum.getValue());
+      data.close();
+
+      // write to a temporary file first, so that a failure half way through doesn't leave a corrupt snapshot behind
+      File directory = this.file.getAbsoluteFile().getParentFile();
+      if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+      {
+         throw new IOException("Could not create snapshot directory " + directory);
+      }
+      File tmpFile = new File(this.file.getPath() + ".tmp");
+      FileOutputStream out = new FileOutputStream(tmpFile);
+      try
+      {
+         content.writeTo(out);
+         out.getFD().sync();
+      }
+      finally
+      {
+         out.close();
+      }
+      if ((this.file.exists() && !this.file.delete()) || !tmpFile.renameTo(this.file))
+      {
+         tmpFile.delete();
+         throw new IOException("Could not replace snapshot file " + this.file);
+      }
+      logger.debug("Saved snapshot of " + this.fields.size() + " fields of bean class " + this.beanClass.getName()
+            + " to " + this.file + " (" + content.size() + " bytes)");
+   }
+
+   /**
+    * Restores the {@link SnapshotState} fields of the passed bean instance from the snapshot file. Either all
+    * fields are restored or none at all. The snapshot file is deleted once it has been read.
+    * 
+    * @param beanInstance The bean instance
+    * @return Returns true if the fields were restored. Else returns false (for example, if there's no snapshot 
+    *           file, or the snapshot is corrupt or incompatible with the bean class)
+    */
+   public boolean restore(Object beanInstance)
+   {
+      if (!this.file.isFile())
+      {
+         return false;
+      }
+      try
+      {
+         Object[] values = this.read();
+         if (values == null)
+         {
+            return false;
+         }
+         for (int i = 0; i < values.length; i++)
+         {
+            Field field = this.fields.get(i);
+            if (values[i] == null ? field.getType().isPrimitive() : !field.getType().isPrimitive()
+                  && !field.getType().isInstance(values[i]))
+            {
+               logger.warn("Ignoring snapshot " + this.file + " since its value for field " + this.getFieldName(field)
+                     + " isn't assignable to " + field.getType().getName());
+               return false;
+            }
+         }
+         this.setFieldValues(beanInstance, values);
+         logger.debug("Restored " + values.length + " fields of bean class " + this.beanClass.getName() + " from "
+               + this.file);
+         return true;
+      }
+      catch (IOException ioe)
+      {
+         logger.warn("Could not read snapshot " + this.file + ", bean state will be recomputed", ioe);
+         return false;
+      }
+      catch (ClassNotFoundException cnfe)
+      {
+         logger.warn("Could not read snapshot " + this.file + ", bean state will be recomputed", cnfe);
+         return false;
+      }
+      catch (RuntimeException re)
+      {
+         // for example, thrown by the deserialization of a field value, or by a field which can't be set
+         logger.warn("Could not restore snapshot " + this.file + ", bean state will be recomputed", re);
+         return false;
+      }
+      finally
+      {
+         // a snapshot is restored at most once
+         if (!this.file.delete())
+         {
+            logger.warn("Could not delete snapshot " + this.file + ", it will be deleted on exit");
+            this.file.deleteOnExit();
+         }
+      }
+   }
+
+   /**
+    * Reads the field values from the snapshot file. Returns null if the snapshot is corrupt or doesn't 
+    * match the snapshot fields of the bean class.
+    */
+   private Object[] read() throws IOException, ClassNotFoundException
+   {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "r");
+      try
+      {
+         FileChannel channel = randomAccessFile.getChannel();
+         long size = channel.size();
+         if (size <= CHECKSUM_LENGTH || size > Integer.MAX_VALUE)
+         {
+            logger.warn("Ignoring snapshot " + this.file + " of unexpected size " + size);
+            return null;
+         }
+         ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         int contentLength = (int) size - CHECKSUM_LENGTH;
+         CRC32 checksum = new CRC32();
+         ByteBuffer content = buffer.duplicate();
+         content.limit(contentLength);
+         byte[] chunk = new byte[8192];
+         while (content.hasRemaining())
+         {
+            int length = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, length);
+            checksum.update(chunk, 0, length);
+         }
+         if (buffer.getLong(contentLength) != checksum.getValue())
+         {
+            logger.warn("Ignoring snapshot " + this.file + " since its checksum doesn't match");
+            return null;
+         }
+         buffer.limit(contentLength);
+         DataInputStream data = new DataInputStream(new ByteBufferInputStream(buffer));
+         if (data.readInt() != MAGIC)
+         {
+            logger.warn("Ignoring " + this.file + " since it isn't a snapshot file");
+            return null;
+         }
+         int formatVersion = data.readInt();
+         if (formatVersion != FORMAT_VERSION)
+         {
+            logger.warn("Ignoring snapshot " + this.file + " of unsupported format version " + formatVersion);
+            return null;
+         }
+         String beanClassName = data.readUTF();
+         int numFields = data.readInt();
+         if (!this.beanClass.getName().equals(beanClassName) || numFields != this.fields.size())
+         {
+            logger.info("Ignoring snapshot " + this.file + " of " + numFields + " fields of bean class "
+                  + beanClassName + ", since it doesn't match the snapshot fields of bean class "
+                  + this.beanClass.getName());
+            return null;
+         }
+         for (Field field : this.fields)
+         {
+            String name = data.readUTF();
+            String type = data.readUTF();
+            int version = data.readInt();
+            int currentVersion = field.getAnnotation(SnapshotState.class).version();
+            if (!this.getFieldName(field).equals(name) || !field.getType().getName().equals(type)
+                  || currentVersion != version)
+            {
+               logger.info("Ignoring snapshot " + this.file + " since its field " + name + " (type " + type
+                     + ", version " + version + ") doesn't match field " + this.getFieldName(field) + " (type "
+                     + field.getType().getName() + ", version " + currentVersion + ") of bean class "
+                     + this.beanClass.getName());
+               return null;
+            }
+         }
+         // payload length, the checksum already guarantees that it's all there
+         data.readInt();
+         ObjectInputStream objectInput = new BeanClassObjectInputStream(data, this.beanClass.getClassLoader());
+         Object[] values = new Object[this.fields.size()];
+         for (int i = 0; i < values.length; i++)
+         {
+            values[i] = objectInput.readObject();
+         }
+         return values;
+      }
+      finally
+      {
+         randomAccessFile.close();
+      }
+   }
+
+   /**
+    * Sets the snapshot fields of the passed bean instance to the passed values. If a field can't be set,
+    * the fields which have already been set are reverted to their previous values, so that the bean instance
+    * is left as it was.
+    */
+   private void setFieldValues(Object beanInstance, Object[] values)
+   {
+      Object[] previousValues = new Object[values.length];
+      int set = 0;
+      try
+      {
+         for (; set < values.length; set++)
+         {
+            Field field = this.fields.get(set);
+            previousValues[set] = this.getFieldValue(field, beanInstance);
+            this.setFieldValue(field, beanInstance, values[set]);
+         }
+      }
+      catch (RuntimeException re)
+      {
+         for (int i = 0; i < set; i++)
+         {
+            this.setFieldValue(this.fields.get(i), beanInstance, previousValues[i]);
+         }
+         throw re;
+      }
+   }
+
+   private String getFieldName(Field field)
+   {
+      return field.getDeclaringClass().getName() + "." + field.getName();
+   }
+
+   private Object getFieldValue(Field field, Object beanInstance)
+   {
+      try
+      {
+         return field.get(beanInstance);
+      }
+      catch (IllegalAccessException iae)
+      {
+         throw new IllegalStateException("Could not read field " + this.getFieldName(field), iae);
+      }
+   }
+
+   private void setFieldValue(Field field, Object beanInstance, Object value)
+   {
+      try
+      {
+         field.set(beanInstance, value);
+      }
+      catch (IllegalAccessException iae)
+      {
+         throw new IllegalStateException("Could not set field " + this.getFieldName(field), iae);
+      }
+   }
+
+   /**
+    * An {@link InputStream} over the remaining content of a {@link ByteBuffer}
+    */
+   private static class ByteBufferInputStream extends InputStream
+   {
+      private final ByteBuffer buffer;
+
+      public ByteBufferInputStream(ByteBuffer buffer)
+      {
+         this.buffer = buffer;
+      }
+
+      @Override
+      public int read()
+      {
+         return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length)
+      {
+         if (length == 0)
+         {
+            return 0;
+         }
+         if (!this.buffer.hasRemaining())
+         {
+            return -1;
+         }
+         length = Math.min(length, this.buffer.remaining());
+         this.buffer.get(bytes, offset, length);
+         return length;
+      }
+
+      @Override
+      public int available()
+      {
+         return this.buffer.remaining();
+      }
+   }
+}
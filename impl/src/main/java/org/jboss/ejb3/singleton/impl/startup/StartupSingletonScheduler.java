@@ -0,0 +1,401 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.startup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Initializes the @Startup singleton beans of a deployment, honouring the @DependsOn ordering between them.
+ * <p>
+ *  Each singleton bean of the deployment is registered (through {@link #addSingleton(String, Runnable, Collection)}) along 
+ *  with the names of the singleton beans it depends on. Registering a bean which would complete a @DependsOn cycle fails with
+ *  a {@link IllegalStateException} describing the cycle.
+ * </p>
+ * <p>
+ *  On {@link #start()}, the initializers of the registered beans are run on a bounded pool of threads. A bean's initializer
+ *  is run only after the initializers of all the (registered) beans, it depends on, have successfully completed. Beans 
+ *  which don't (transitively) depend on each other are hence initialized concurrently. Dependencies on beans which aren't 
+ *  registered with this scheduler (for example, beans in a different deployment) are ignored by the scheduler and are left
+ *  to the bean instance manager to resolve.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class StartupSingletonScheduler
+{
+
+   /** Logger */
+   private static Logger logger = Logger.getLogger(StartupSingletonScheduler.class);
+
+   /**
+    * The max number of threads used to run the initializers
+    */
+   private final int parallelism;
+
+   /**
+    * The registered singletons (and the yet unregistered singletons they depend on), by name
+    */
+   private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+   /**
+    * Used by {@link #start()} to track the completion of the initializers
+    */
+   private final Object monitor = new Object();
+
+   private int outstanding;
+
+   private final List<Throwable> failures = new ArrayList<Throwable>();
+
+   /**
+    * @param parallelism The max number of threads used to run the initializers. If less than 1, then the number
+    *               of available processors is used.
+    */
+   public StartupSingletonScheduler(int parallelism)
+   {
+      this.parallelism = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+   }
+
+   /**
+    * Registers a singleton bean with this scheduler
+    * 
+    * @param name The (unique) name of the bean
+    * @param initializer Initializes the bean. Can be null, if the bean doesn't need to be initialized on start
+    *                   (i.e. isn't a @Startup bean). Such beans are still registered, so that the ordering 
+    *                   constraints and cycles through them are honoured.
+    * @param dependsOn The names of the beans which this bean depends on
+    * @throws IllegalArgumentException If the <code>name</code> is null
+    * @throws IllegalStateException If a bean with the same name is already registered or if registering the 
+    *                   bean completes a @DependsOn cycle
+    */
+   public synchronized void addSingleton(String name, Runnable initializer, Collection<String> dependsOn)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("Singleton name cannot be null");
+      }
+      Node node = this.getOrCreateNode(name);
+      if (node.registered)
+      {
+         throw new IllegalStateException("Singleton " + name + " is already registered with " + this);
+      }
+      List<Node> dependencies = new ArrayList<Node>();
+      if (dependsOn != null)
+      {
+         for (String dependency : dependsOn)
+         {
+            Node dependencyNode = this.getOrCreateNode(dependency);
+            // a cycle exists if the new dependency (transitively) depends on this node
+            List<String> path = this.findPath(dependencyNode, node, new ArrayList<Node>());
+            if (path != null)
+            {
+               StringBuilder cycle = new StringBuilder(name);
+               for (String step : path)
+               {
+                  cycle.append(" -> ").append(step);
+               }
+               throw new IllegalStateException("Circular @DependsOn between singleton beans: " + cycle);
+            }
+            dependencies.add(dependencyNode);
+         }
+      }
+      node.registered = true;
+      node.initializer = initializer;
+      node.dependencies.addAll(dependencies);
+   }
+
+   /**
+    * Runs the initializers of the registered singletons and waits for them to complete. Can be called again 
+    * (for example, when the deployment is restarted after one of its dependencies was bounced), in which case
+    * all the initializers are run again.
+    * 
+    * @throws Exception If any of the initializers failed. The initializers of the singletons which (transitively) 
+    *               depend on the failed singleton are not run.
+    */
+   public void start() throws Exception
+   {
+      List<Node> ready = new ArrayList<Node>();
+      int numThreads;
+      int numSingletons;
+      synchronized (this)
+      {
+         // the state of a previous run (if any) is rebuilt from scratch
+         List<Node> registered = new ArrayList<Node>();
+         for (Node node : this.nodes.values())
+         {
+            node.remaining = 0;
+            node.dependents.clear();
+            node.skipped = false;
+            if (node.registered)
+            {
+               registered.add(node);
+            }
+         }
+         for (Node node : registered)
+         {
+            for (Node dependency : node.dependencies)
+            {
+               if (dependency.registered)
+               {
+                  node.remaining++;
+                  dependency.dependents.add(node);
+               }
+            }
+         }
+         for (Node node : registered)
+         {
+            if (node.remaining == 0)
+            {
+               ready.add(node);
+            }
+         }
+         numSingletons = registered.size();
+         numThreads = Math.min(this.parallelism, Math.max(1, numSingletons));
+      }
+      synchronized (this.monitor)
+      {
+         this.outstanding = numSingletons;
+         this.failures.clear();
+      }
+      if (ready.isEmpty())
+      {
+         return;
+      }
+      logger.debug("Initializing " + numSingletons + " singleton beans using " + numThreads + " threads");
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads, new InitializerThreadFactory(Thread
+            .currentThread().getContextClassLoader()));
+      try
+      {
+         this.submit(executor, ready);
+         synchronized (this.monitor)
+         {
+            while (this.outstanding > 0)
+            {
+               this.monitor.wait();
+            }
+         }
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+      List<Throwable> runFailures;
+      synchronized (this.monitor)
+      {
+         runFailures = new ArrayList<Throwable>(this.failures);
+      }
+      if (!runFailures.isEmpty())
+      {
+         Throwable failure = runFailures.get(0);
+         for (int i = 1; i < runFailures.size(); i++)
+         {
+            logger.error("Failed to initialize singleton bean", runFailures.get(i));
+         }
+         if (failure instanceof Exception)
+         {
+            throw (Exception) failure;
+         }
+         throw new RuntimeException(failure);
+      }
+   }
+
+   private void submit(final ExecutorService executor, List<Node> nodes)
+   {
+      for (final Node node : nodes)
+      {
+         executor.execute(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               Throwable failure = null;
+               try
+               {
+                  if (node.initializer != null)
+                  {
+                     node.initializer.run();
+                  }
+               }
+               catch (Throwable t)
+               {
+                  failure = t;
+               }
+               submit(executor, completed(node, failure));
+            }
+         });
+      }
+   }
+
+   /**
+    * Marks the <code>node</code> as completed and returns the nodes which are ready to be initialized, as a result
+    */
+   private List<Node> completed(Node node, Throwable failure)
+   {
+      synchronized (this.monitor)
+      {
+         List<Node> ready = Collections.emptyList();
+         this.outstanding--;
+         if (failure != null)
+         {
+            this.failures.add(failure);
+            this.outstanding -= this.skipDependents(node);
+         }
+         else
+         {
+            for (Node dependent : node.dependents)
+            {
+               if (!dependent.skipped && --dependent.remaining == 0)
+               {
+                  if (ready.isEmpty())
+                  {
+                     ready = new ArrayList<Node>();
+                  }
+                  ready.add(dependent);
+               }
+            }
+         }
+         this.monitor.notifyAll();
+         return ready;
+      }
+   }
+
+   /**
+    * Marks the transitive dependents of the <code>node</code> as skipped and returns the number of
+    * nodes which were newly marked
+    */
+   private int skipDependents(Node node)
+   {
+      int skipped = 0;
+      for (Node dependent : node.dependents)
+      {
+         if (!dependent.skipped)
+         {
+            dependent.skipped = true;
+            logger.warn("Skipping initialization of singleton bean " + dependent.name + " since singleton bean "
+                  + node.name + " (which it depends on) could not be initialized");
+            skipped += 1 + this.skipDependents(dependent);
+         }
+      }
+      return skipped;
+   }
+
+   /**
+    * Returns the names of the nodes on a dependency path from <code>from</code> to <code>to</code> (both inclusive). 
+    * Returns null if there's no such path
+    */
+   private List<String> findPath(Node from, Node to, List<Node> visited)
+   {
+      if (from == to)
+      {
+         List<String> path = new ArrayList<String>();
+         path.add(to.name);
+         return path;
+      }
+      if (visited.contains(from))
+      {
+         return null;
+      }
+      visited.add(from);
+      for (Node dependency : from.dependencies)
+      {
+         List<String> path = this.findPath(dependency, to, visited);
+         if (path != null)
+         {
+            path.add(0, from.name);
+            return path;
+         }
+      }
+      return null;
+   }
+
+   private Node getOrCreateNode(String name)
+   {
+      Node node = this.nodes.get(name);
+      if (node == null)
+      {
+         node = new Node(name);
+         this.nodes.put(name, node);
+      }
+      return node;
+   }
+
+   /**
+    * A singleton bean in the @DependsOn graph
+    */
+   private static class Node
+   {
+      private final String name;
+
+      private final List<Node> dependencies = new ArrayList<Node>();
+
+      private final List<Node> dependents = new ArrayList<Node>();
+
+      private boolean registered;
+
+      private Runnable initializer;
+
+      /**
+       * Number of dependencies which are yet to be initialized 
+       */
+      private int remaining;
+
+      private boolean skipped;
+
+      Node(String name)
+      {
+         this.name = name;
+      }
+   }
+
+   /**
+    * Creates the initializer threads with the context classloader of the thread which started the scheduler
+    */
+   private static class InitializerThreadFactory implements ThreadFactory
+   {
+      private final AtomicInteger count = new AtomicInteger();
+
+      private final ClassLoader classLoader;
+
+      InitializerThreadFactory(ClassLoader classLoader)
+      {
+         this.classLoader = classLoader;
+      }
+
+      @Override
+      public Thread newThread(Runnable r)
+      {
+         Thread thread = new Thread(r, "startup-singleton-initializer-" + this.count.incrementAndGet());
+         thread.setContextClassLoader(this.classLoader);
+         return thread;
+      }
+   }
+}
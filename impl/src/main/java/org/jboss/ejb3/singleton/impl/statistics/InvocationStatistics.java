@@ -0,0 +1,223 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.statistics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per method invocation statistics of a singleton container.
+ *
+ * @version $Revision: $
+ */
+public class InvocationStatistics implements InvocationStatisticsMBean
+{
+
+   /**
+    * Statistics per method signature (as returned by {@link #toSignature(Method)})
+    */
+   private final ConcurrentMap<String, MethodStatistics> methodStatistics = new ConcurrentHashMap<String, MethodStatistics>();
+
+   /**
+    * Cache of the statistics per {@link Method}, which saves building the signature of the method 
+    * on each invocation. Methods with the same signature (for example, a business interface method and
+    * the bean method implementing it) share the same statistics
+    */
+   private final ConcurrentMap<Method, MethodStatistics> statisticsByMethod = new ConcurrentHashMap<Method, MethodStatistics>();
+
+   /**
+    * Returns the statistics for the passed <code>method</code>, creating them if 
+    * necessary.
+    * 
+    * @param method
+    * @return
+    */
+   public MethodStatistics getMethodStatistics(Method method)
+   {
+      MethodStatistics statistics = this.statisticsByMethod.get(method);
+      if (statistics != null)
+      {
+         return statistics;
+      }
+      String signature = toSignature(method);
+      statistics = new MethodStatistics(signature);
+      MethodStatistics existing = this.methodStatistics.putIfAbsent(signature, statistics);
+      if (existing != null)
+      {
+         statistics = existing;
+      }
+      this.statisticsByMethod.putIfAbsent(method, statistics);
+      return statistics;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean#getInvocationCount()
+    */
+   @Override
+   public long getInvocationCount()
+   {
+      long count = 0;
+      for (MethodStatistics statistics : this.methodStatistics.values())
+      {
+         count += statistics.getInvocationCount();
+      }
+      return count;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean#getInFlightCount()
+    */
+   @Override
+   public long getInFlightCount()
+   {
+      long count = 0;
+      for (MethodStatistics statistics : this.methodStatistics.values())
+      {
+         count += statistics.getInFlightCount();
+      }
+      return count;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean#getLockWaitTime()
+    */
+   @Override
+   public long getLockWaitTime()
+   {
+      long nanos = 0;
+      boolean measured = false;
+      for (MethodStatistics statistics : this.methodStatistics.values())
+      {
+         if (statistics.isLockWaitMeasured())
+         {
+            measured = true;
+            nanos += statistics.getLockWaitTime();
+         }
+      }
+      return measured ? TimeUnit.NANOSECONDS.toMillis(nanos) : LOCK_WAIT_NOT_MEASURED;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean#getAccessTimeoutExpiries()
+    */
+   @Override
+   public long getAccessTimeoutExpiries()
+   {
+      long count = 0;
+      for (MethodStatistics statistics : this.methodStatistics.values())
+      {
+         count += statistics.getAccessTimeoutExpiries();
+      }
+      return count;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean#getMethodNames()
+    */
+   @Override
+   public String[] getMethodNames()
+   {
+      List<String> methodNames = new ArrayList<String>();
+      for (MethodStatistics statistics : this.methodStatistics.values())
+      {
+         methodNames.add(statistics.getMethodName());
+      }
+      return methodNames.toArray(new String[methodNames.size()]);
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean#getMethodStatistics(java.lang.String)
+    */
+   @Override
+   public Map<String, Long> getMethodStatistics(String methodName)
+   {
+      MethodStatistics statistics = methodName == null ? null : this.methodStatistics.get(methodName);
+      if (statistics == null)
+      {
+         return null;
+      }
+      LatencyHistogram latencies = statistics.getLatencies();
+      Map<String, Long> result = new LinkedHashMap<String, Long>();
+      result.put(INVOCATION_COUNT, statistics.getInvocationCount());
+      result.put(IN_FLIGHT_COUNT, statistics.getInFlightCount());
+      result.put(LATENCY_P50, TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(50)));
+      result.put(LATENCY_P99, TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(99)));
+      result.put(LATENCY_MAX, TimeUnit.NANOSECONDS.toMicros(latencies.getMax()));
+      result.put(LOCK_WAIT_TIME, statistics.isLockWaitMeasured() ? TimeUnit.NANOSECONDS.toMillis(statistics
+            .getLockWaitTime()) : LOCK_WAIT_NOT_MEASURED);
+      result.put(ACCESS_TIMEOUT_EXPIRIES, statistics.getAccessTimeoutExpiries());
+      return result;
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean#listMethodStatistics()
+    */
+   @Override
+   public String listMethodStatistics()
+   {
+      StringBuilder sb = new StringBuilder();
+      for (MethodStatistics statistics : this.methodStatistics.values())
+      {
+         sb.append(statistics).append('\n');
+      }
+      return sb.toString();
+   }
+
+   /**
+    * @see org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean#resetStatistics()
+    */
+   @Override
+   public void resetStatistics()
+   {
+      for (MethodStatistics statistics : this.methodStatistics.values())
+      {
+         statistics.reset();
+      }
+   }
+
+   /**
+    * Returns the signature, of the form <code>name(fully.qualified.ParamType, ...)</code>, of the passed method.
+    * Fully qualified type names are used so that overloaded methods whose parameter types only differ in 
+    * their package get their own statistics.
+    */
+   private static String toSignature(Method method)
+   {
+      StringBuilder sb = new StringBuilder(method.getName()).append('(');
+      Class<?>[] params = method.getParameterTypes();
+      for (int i = 0; i < params.length; i++)
+      {
+         if (i > 0)
+         {
+            sb.append(", ");
+         }
+         String typeName = params[i].getCanonicalName();
+         sb.append(typeName == null ? params[i].getName() : typeName);
+      }
+      return sb.append(')').toString();
+   }
+}
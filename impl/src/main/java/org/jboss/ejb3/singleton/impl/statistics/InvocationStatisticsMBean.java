@@ -0,0 +1,125 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.statistics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link InvocationStatistics} of a singleton container. Times are 
+ * reported in milli seconds, except for the latency percentiles which are reported in micro seconds.
+ *
+ * @version $Revision: $
+ */
+public interface InvocationStatisticsMBean
+{
+
+   /**
+    * Key of the invocation count in the map returned by {@link #getMethodStatistics(String)}
+    */
+   String INVOCATION_COUNT = "invocationCount";
+
+   /**
+    * Key of the in-flight invocation count in the map returned by {@link #getMethodStatistics(String)}
+    */
+   String IN_FLIGHT_COUNT = "inFlightCount";
+
+   /**
+    * Key of the median latency (micro seconds) in the map returned by {@link #getMethodStatistics(String)}
+    */
+   String LATENCY_P50 = "latencyP50Micros";
+
+   /**
+    * Key of the 99th percentile latency (micro seconds) in the map returned by {@link #getMethodStatistics(String)}
+    */
+   String LATENCY_P99 = "latencyP99Micros";
+
+   /**
+    * Key of the max latency (micro seconds) in the map returned by {@link #getMethodStatistics(String)}
+    */
+   String LATENCY_MAX = "latencyMaxMicros";
+
+   /**
+    * Key of the lock wait time (milli seconds) in the map returned by {@link #getMethodStatistics(String)}.
+    * The value is {@link #LOCK_WAIT_NOT_MEASURED} if the lock wait time isn't measured for the method.
+    */
+   String LOCK_WAIT_TIME = "lockWaitTimeMillis";
+
+   /**
+    * The lock wait time reported for beans (or methods) whose lock wait time isn't measured, i.e. "n/a". 
+    * Lock wait times are only measured by the container's own concurrency interceptor, which is used for 
+    * beans with striped locking, write batching or adaptive admission. Beans on the default container 
+    * managed concurrency interceptor report this value.
+    */
+   long LOCK_WAIT_NOT_MEASURED = -1;
+
+   /**
+    * Key of the access timeout expiry count in the map returned by {@link #getMethodStatistics(String)}
+    */
+   String ACCESS_TIMEOUT_EXPIRIES = "accessTimeoutExpiries";
+
+   /**
+    * @return Number of completed invocations, across all methods
+    */
+   long getInvocationCount();
+
+   /**
+    * @return Number of invocations in progress, across all methods
+    */
+   long getInFlightCount();
+
+   /**
+    * @return Total time (milli seconds) spent waiting for the container managed concurrency lock, 
+    *           across all methods. {@link #LOCK_WAIT_NOT_MEASURED} if the lock wait time isn't measured
+    *           for the bean
+    */
+   long getLockWaitTime();
+
+   /**
+    * @return Number of invocations which failed due to an expired @AccessTimeout, across all methods
+    */
+   long getAccessTimeoutExpiries();
+
+   /**
+    * @return The signatures, of the form <code>name(fully.qualified.ParamType, ...)</code>, of the methods 
+    *           for which statistics are available
+    */
+   String[] getMethodNames();
+
+   /**
+    * Returns the statistics of the method with the passed name (as returned by {@link #getMethodNames()}).
+    * Returns null if there are no statistics for that method.
+    * 
+    * @param methodName
+    * @return
+    */
+   Map<String, Long> getMethodStatistics(String methodName);
+
+   /**
+    * @return A printable summary of the statistics of all methods
+    */
+   String listMethodStatistics();
+
+   /**
+    * Resets the statistics
+    */
+   void resetStatistics();
+}
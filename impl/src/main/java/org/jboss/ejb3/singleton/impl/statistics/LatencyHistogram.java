@@ -0,0 +1,195 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies (in nano seconds), which is used to compute latency percentiles.
+ * <p>
+ *  Latencies are recorded in logarithmic buckets: each power of two is split into 4 buckets, which
+ *  limits the error of a reported percentile to 25% of the actual value. Latencies of 2^40 nano seconds
+ *  (about 18 minutes) and above are all recorded in the last bucket. Just like {@link StripedCounter}, the 
+ *  buckets are striped across threads.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class LatencyHistogram
+{
+
+   /**
+    * Number of buckets per power of two
+    */
+   private static final int SUB_BUCKETS = 4;
+
+   /**
+    * Total number of buckets (per stripe)
+    */
+   static final int BUCKETS = 40 * SUB_BUCKETS;
+
+   /**
+    * Number of stripes. Capped at 4 so that a histogram takes up at most 5KB
+    */
+   private static final int STRIPES = Math.min(StripedCounter.STRIPES, 4);
+
+   /**
+    * The buckets of all the stripes
+    */
+   private final AtomicLongArray buckets = new AtomicLongArray(STRIPES * BUCKETS);
+
+   /**
+    * The maximum recorded latency
+    */
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * Records a latency
+    * @param nanos Latency in nano seconds
+    */
+   public void record(long nanos)
+   {
+      if (nanos < 0)
+      {
+         nanos = 0;
+      }
+      int stripe = StripedCounter.currentStripe() & (STRIPES - 1);
+      this.buckets.incrementAndGet(stripe * BUCKETS + bucketIndex(nanos));
+      long currentMax = this.max.get();
+      while (nanos > currentMax)
+      {
+         if (this.max.compareAndSet(currentMax, nanos))
+         {
+            break;
+         }
+         currentMax = this.max.get();
+      }
+   }
+
+   /**
+    * Returns the number of recorded latencies
+    * @return
+    */
+   public long getCount()
+   {
+      long count = 0;
+      for (int i = 0; i < STRIPES * BUCKETS; i++)
+      {
+         count += this.buckets.get(i);
+      }
+      return count;
+   }
+
+   /**
+    * Returns the maximum recorded latency (in nano seconds)
+    * @return
+    */
+   public long getMax()
+   {
+      return this.max.get();
+   }
+
+   /**
+    * Returns the (approximate) latency, in nano seconds, below which <code>percentile</code> percent of
+    * the recorded latencies fall. Returns 0 if no latency has been recorded.
+    * 
+    * @param percentile The percentile, in the range (0, 100]
+    * @return
+    */
+   public long getPercentile(double percentile)
+   {
+      if (percentile <= 0 || percentile > 100)
+      {
+         throw new IllegalArgumentException("Percentile must be in the range (0, 100], was " + percentile);
+      }
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int stripe = 0; stripe < STRIPES; stripe++)
+      {
+         for (int i = 0; i < BUCKETS; i++)
+         {
+            long count = this.buckets.get(stripe * BUCKETS + i);
+            counts[i] += count;
+            total += count;
+         }
+      }
+      if (total == 0)
+      {
+         return 0;
+      }
+      long rank = (long) Math.ceil(total * percentile / 100);
+      long cumulative = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         cumulative += counts[i];
+         if (cumulative >= rank)
+         {
+            // never report more than what was actually recorded
+            return Math.min(bucketUpperBound(i), this.max.get());
+         }
+      }
+      return this.max.get();
+   }
+
+   /**
+    * Resets this histogram. Latencies recorded concurrently with a reset may be lost.
+    */
+   public void reset()
+   {
+      for (int i = 0; i < STRIPES * BUCKETS; i++)
+      {
+         this.buckets.set(i, 0);
+      }
+      this.max.set(0);
+   }
+
+   /**
+    * Returns the index of the bucket for the passed (non-negative) value
+    */
+   static int bucketIndex(long value)
+   {
+      if (value < SUB_BUCKETS)
+      {
+         return (int) value;
+      }
+      int highestBit = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int) ((value >>> (highestBit - 2)) & (SUB_BUCKETS - 1));
+      int index = (highestBit - 1) * SUB_BUCKETS + subBucket;
+      return index < BUCKETS ? index : BUCKETS - 1;
+   }
+
+   /**
+    * Returns the largest value which falls in the bucket at <code>index</code>
+    */
+   static long bucketUpperBound(int index)
+   {
+      if (index < SUB_BUCKETS)
+      {
+         return index;
+      }
+      int highestBit = index / SUB_BUCKETS + 1;
+      int subBucket = index % SUB_BUCKETS;
+      long lower = (1L << highestBit) + ((long) subBucket << (highestBit - 2));
+      return lower + (1L << (highestBit - 2)) - 1;
+   }
+}
@@ -0,0 +1,187 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Invocation statistics of a single method of a singleton bean.
+ * <p>
+ *  The counters which are updated on every invocation are striped, so recording an invocation doesn't 
+ *  introduce contention between concurrent invocations of the same method. Only the in-flight count, which 
+ *  is updated twice per invocation, is padded. The completed invocations are counted by the latency histogram.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class MethodStatistics
+{
+
+   /**
+    * A printable name of the method
+    */
+   private final String methodName;
+
+   /**
+    * Number of invocations in progress
+    */
+   private final StripedCounter inFlight = new StripedCounter();
+
+   /**
+    * Latencies of completed invocations
+    */
+   private final LatencyHistogram latencies = new LatencyHistogram();
+
+   /**
+    * Total time (in nano seconds) spent by invocations, waiting to acquire the container managed
+    * concurrency lock. Only updated for the methods whose lock wait time is measured, so it isn't padded
+    */
+   private final StripedCounter lockWaitTime = new StripedCounter(false);
+
+   /**
+    * True once a lock wait time has been recorded for the method. Lock wait times are recorded only by 
+    * the concurrency interceptors which measure them, so this stays false for methods on the default 
+    * container managed concurrency interceptor
+    */
+   private volatile boolean lockWaitMeasured;
+
+   /**
+    * Number of invocations which failed because the @AccessTimeout expired
+    */
+   private final AtomicLong accessTimeoutExpiries = new AtomicLong();
+
+   /**
+    * @param methodName A printable name of the method
+    */
+   public MethodStatistics(String methodName)
+   {
+      this.methodName = methodName;
+   }
+
+   /**
+    * Records the start of an invocation and returns the start time which 
+    * is expected to be passed to {@link #invocationCompleted(long)}
+    * @return
+    */
+   public long invocationStarted()
+   {
+      this.inFlight.increment();
+      return System.nanoTime();
+   }
+
+   /**
+    * Records the completion (successful or otherwise) of an invocation
+    * @param startTime The start time returned by {@link #invocationStarted()}
+    */
+   public void invocationCompleted(long startTime)
+   {
+      this.latencies.record(System.nanoTime() - startTime);
+      this.inFlight.decrement();
+   }
+
+   /**
+    * Records the time spent by an invocation waiting for the container managed concurrency lock
+    * @param nanos
+    */
+   public void lockWaited(long nanos)
+   {
+      if (!this.lockWaitMeasured)
+      {
+         this.lockWaitMeasured = true;
+      }
+      this.lockWaitTime.add(nanos);
+   }
+
+   /**
+    * Records an invocation which failed due to an expired @AccessTimeout
+    */
+   public void accessTimeoutExpired()
+   {
+      this.accessTimeoutExpiries.incrementAndGet();
+   }
+
+   public String getMethodName()
+   {
+      return this.methodName;
+   }
+
+   public long getInvocationCount()
+   {
+      return this.latencies.getCount();
+   }
+
+   public long getInFlightCount()
+   {
+      return this.inFlight.sum();
+   }
+
+   public long getAccessTimeoutExpiries()
+   {
+      return this.accessTimeoutExpiries.get();
+   }
+
+   /**
+    * @return The total time (in nano seconds) spent waiting for the container managed concurrency lock
+    */
+   public long getLockWaitTime()
+   {
+      return this.lockWaitTime.sum();
+   }
+
+   /**
+    * @return True if the time spent waiting for the container managed concurrency lock is measured for this 
+    *           method. If false, {@link #getLockWaitTime()} is meaningless ("n/a")
+    */
+   public boolean isLockWaitMeasured()
+   {
+      return this.lockWaitMeasured;
+   }
+
+   /**
+    * @return The latency histogram of the completed invocations
+    */
+   public LatencyHistogram getLatencies()
+   {
+      return this.latencies;
+   }
+
+   /**
+    * Resets all the statistics, except for the in-flight count, which always reflects
+    * the invocations which are currently in progress
+    */
+   public void reset()
+   {
+      this.latencies.reset();
+      this.lockWaitTime.reset();
+      this.accessTimeoutExpiries.set(0);
+   }
+
+   @Override
+   public String toString()
+   {
+      return this.methodName + "[invocations=" + this.getInvocationCount() + ", inFlight=" + this.getInFlightCount()
+            + ", p50=" + this.latencies.getPercentile(50) + "ns, p99=" + this.latencies.getPercentile(99) + "ns, max="
+            + this.latencies.getMax() + "ns, lockWaitTime="
+            + (this.lockWaitMeasured ? this.getLockWaitTime() + "ns" : "n/a") + ", accessTimeoutExpiries="
+            + this.getAccessTimeoutExpiries() + "]";
+   }
+}
@@ -0,0 +1,156 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.statistics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which spreads its updates over a number of cells (stripes), so that threads
+ * concurrently updating the counter don't contend on the same cell. Reading
+ * the counter sums up all the cells and hence is (relatively) expensive. 
+ * <p>
+ *  The cell to which a thread's updates go, is based on the id of the thread. The cells of a padded 
+ *  counter are each on their own cache line, which is worth its memory only for counters which are updated
+ *  on every invocation.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class StripedCounter
+{
+
+   /**
+    * Number of longs which are skipped between two cells, so that each cell
+    * is on its own cache line (assuming 64 byte cache lines)
+    */
+   private static final int CELL_PADDING = 8;
+
+   /**
+    * The maximum number of stripes, which keeps a padded counter at 1KB
+    */
+   private static final int MAX_STRIPES = 16;
+
+   /**
+    * The number of stripes used by the counters. This is the number of available processors 
+    * rounded up to a power of two (and capped at {@link #MAX_STRIPES}).
+    */
+   static final int STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+   /**
+    * Number of longs between the cells of this counter
+    */
+   private final int padding;
+
+   /**
+    * The cells
+    */
+   private final AtomicLongArray cells;
+
+   /**
+    * Creates a padded counter
+    */
+   public StripedCounter()
+   {
+      this(true);
+   }
+
+   /**
+    * @param padded True if each cell is to be on its own cache line, false if the cells are to be adjacent 
+    *           (which takes an eighth of the memory)
+    */
+   public StripedCounter(boolean padded)
+   {
+      this.padding = padded ? CELL_PADDING : 1;
+      this.cells = new AtomicLongArray(STRIPES * this.padding);
+   }
+
+   /**
+    * Increments this counter by one
+    */
+   public void increment()
+   {
+      this.add(1);
+   }
+
+   /**
+    * Decrements this counter by one
+    */
+   public void decrement()
+   {
+      this.add(-1);
+   }
+
+   /**
+    * Adds the passed <code>delta</code> to this counter
+    * @param delta
+    */
+   public void add(long delta)
+   {
+      this.cells.addAndGet(currentStripe() * this.padding, delta);
+   }
+
+   /**
+    * Returns the current value of this counter. The returned value is not a atomic snapshot
+    * if the counter is being concurrently updated.
+    * 
+    * @return
+    */
+   public long sum()
+   {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; i++)
+      {
+         sum += this.cells.get(i * this.padding);
+      }
+      return sum;
+   }
+
+   /**
+    * Resets this counter to zero. Updates which happen concurrently with a reset may be lost
+    */
+   public void reset()
+   {
+      for (int i = 0; i < STRIPES; i++)
+      {
+         this.cells.set(i * this.padding, 0);
+      }
+   }
+
+   /**
+    * Returns the stripe for the current thread
+    * @return
+    */
+   static int currentStripe()
+   {
+      return (int) (Thread.currentThread().getId() & (STRIPES - 1));
+   }
+
+   private static int stripesFor(int processors)
+   {
+      int stripes = 1;
+      while (stripes < processors && stripes < MAX_STRIPES)
+      {
+         stripes <<= 1;
+      }
+      return stripes;
+   }
+}
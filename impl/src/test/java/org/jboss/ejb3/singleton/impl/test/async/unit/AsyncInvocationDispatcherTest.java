@@ -0,0 +1,225 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.async.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.ejb3.singleton.impl.async.AsyncInvocationDispatcher;
+import org.jboss.ejb3.singleton.spi.AsyncInvocation;
+import org.jboss.ejb3.singleton.spi.AsyncInvocationListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link AsyncInvocationDispatcher}
+ *
+ * @version $Revision: $
+ */
+public class AsyncInvocationDispatcherTest
+{
+
+   private ExecutorService executor;
+
+   @Before
+   public void before()
+   {
+      this.executor = Executors.newFixedThreadPool(4);
+   }
+
+   @After
+   public void after()
+   {
+      this.executor.shutdownNow();
+   }
+
+   /**
+    * Tests that the caller isn't blocked while the invocation is in progress
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testCallerIsNotBlocked() throws Exception
+   {
+      AsyncInvocationDispatcher dispatcher = new AsyncInvocationDispatcher(this.executor, null);
+      final CountDownLatch release = new CountDownLatch(1);
+      AsyncInvocation<String> invocation = dispatcher.dispatch(new Callable<String>()
+      {
+         @Override
+         public String call() throws Exception
+         {
+            release.await();
+            return "done";
+         }
+      }, true);
+      // we are back while the invocation is still waiting
+      assertFalse("Invocation completed before being released", invocation.isDone());
+      release.countDown();
+      assertEquals("Unexpected result", "done", invocation.get(5, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Tests that exclusive invocations run one at a time, in the order in which they were dispatched
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testExclusiveInvocationsAreSerialized() throws Exception
+   {
+      AsyncInvocationDispatcher dispatcher = new AsyncInvocationDispatcher(this.executor, null);
+      final AtomicInteger active = new AtomicInteger();
+      final AtomicInteger maxActive = new AtomicInteger();
+      final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      final CountDownLatch release = new CountDownLatch(1);
+      List<AsyncInvocation<Integer>> invocations = new ArrayList<AsyncInvocation<Integer>>();
+      final int count = 20;
+      for (int i = 0; i < count; i++)
+      {
+         final int index = i;
+         invocations.add(dispatcher.dispatch(new Callable<Integer>()
+         {
+            @Override
+            public Integer call() throws Exception
+            {
+               int current = active.incrementAndGet();
+               if (current > maxActive.get())
+               {
+                  maxActive.set(current);
+               }
+               release.await();
+               order.add(index);
+               active.decrementAndGet();
+               return index;
+            }
+         }, true));
+      }
+      assertEquals("Unexpected number of queued invocations", count - 1, dispatcher.getQueuedExclusiveInvocationCount());
+      release.countDown();
+      for (int i = 0; i < count; i++)
+      {
+         assertEquals("Unexpected result", Integer.valueOf(i), invocations.get(i).get(5, TimeUnit.SECONDS));
+      }
+      assertEquals("More than one exclusive invocation was active", 1, maxActive.get());
+      for (int i = 0; i < count; i++)
+      {
+         assertEquals("Exclusive invocations ran out of order", Integer.valueOf(i), order.get(i));
+      }
+   }
+
+   /**
+    * Tests that the listeners are notified of the outcome of the invocation, including the listeners
+    * which are added after the invocation has completed
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testListenerNotification() throws Exception
+   {
+      AsyncInvocationDispatcher dispatcher = new AsyncInvocationDispatcher(this.executor, null);
+      final IllegalStateException failure = new IllegalStateException("Intentional failure");
+      AsyncInvocation<Object> invocation = dispatcher.dispatch(new Callable<Object>()
+      {
+         @Override
+         public Object call() throws Exception
+         {
+            throw failure;
+         }
+      }, false);
+      try
+      {
+         invocation.get(5, TimeUnit.SECONDS);
+         fail("Invocation was expected to fail");
+      }
+      catch (ExecutionException ee)
+      {
+         assertSame("Unexpected failure", failure, ee.getCause());
+      }
+      // add the listener after completion
+      final AtomicReference<Throwable> notifiedFailure = new AtomicReference<Throwable>();
+      final CountDownLatch notified = new CountDownLatch(1);
+      invocation.addListener(new AsyncInvocationListener<Object>()
+      {
+         @Override
+         public void completed(Object result)
+         {
+            notified.countDown();
+         }
+
+         @Override
+         public void failed(Throwable t)
+         {
+            notifiedFailure.set(t);
+            notified.countDown();
+         }
+      });
+      assertTrue("Listener wasn't notified", notified.await(5, TimeUnit.SECONDS));
+      assertSame("Unexpected failure passed to listener", failure, notifiedFailure.get());
+
+      // and a listener which is added before completion
+      final CountDownLatch release = new CountDownLatch(1);
+      AsyncInvocation<String> another = dispatcher.dispatch(new Callable<String>()
+      {
+         @Override
+         public String call() throws Exception
+         {
+            release.await();
+            return "result";
+         }
+      }, false);
+      final AtomicReference<String> notifiedResult = new AtomicReference<String>();
+      final CountDownLatch completed = new CountDownLatch(1);
+      another.addListener(new AsyncInvocationListener<String>()
+      {
+         @Override
+         public void completed(String result)
+         {
+            notifiedResult.set(result);
+            completed.countDown();
+         }
+
+         @Override
+         public void failed(Throwable t)
+         {
+            completed.countDown();
+         }
+      });
+      release.countDown();
+      assertTrue("Listener wasn't notified", completed.await(5, TimeUnit.SECONDS));
+      assertEquals("Unexpected result passed to listener", "result", notifiedResult.get());
+   }
+}
@@ -0,0 +1,115 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.cluster;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+
+import org.jboss.ejb3.singleton.spi.annotation.ClusteredSingleton;
+import org.jboss.ejb3.singleton.spi.annotation.ModifiesState;
+import org.jboss.ejb3.singleton.spi.annotation.SnapshotState;
+
+/**
+ * A cluster wide singleton bean whose READ methods are served by read replicas
+ *
+ * @version $Revision: $
+ */
+@Singleton
+@ClusteredSingleton(readReplicas = true)
+@Lock(LockType.READ)
+public class ReplicatedCacheBean
+{
+
+   @SnapshotState
+   private Map<String, String> cache = new HashMap<String, String>();
+
+   @SnapshotState
+   private long generation;
+
+   @SnapshotState
+   private String label;
+
+   @Lock(LockType.WRITE)
+   @ModifiesState("cache")
+   public void put(String key, String value)
+   {
+      this.cache.put(key, value);
+      this.generation++;
+   }
+
+   /**
+    * Changes the cache in place, without changing the other fields
+    */
+   @Lock(LockType.WRITE)
+   @ModifiesState("cache")
+   public void replace(String key, String value)
+   {
+      this.cache.put(key, value);
+   }
+
+   @Lock(LockType.WRITE)
+   @ModifiesState
+   public void setLabel(String label)
+   {
+      this.label = label;
+   }
+
+   /**
+    * Changes the label and the cache in place, without declaring the latter
+    */
+   @Lock(LockType.WRITE)
+   public void rename(String label)
+   {
+      this.label = label;
+      this.cache.put(label, label);
+   }
+
+   @Lock(LockType.WRITE)
+   @ModifiesState
+   public void touch()
+   {
+   }
+
+   public String get(String key)
+   {
+      return this.cache.get(key);
+   }
+
+   public long getGeneration()
+   {
+      return this.generation;
+   }
+
+   public String getLabel()
+   {
+      return this.label;
+   }
+
+   public Object getMe()
+   {
+      return this;
+   }
+}
@@ -0,0 +1,323 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.cluster.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.container.spi.EJBContainer;
+import org.jboss.ejb3.container.spi.InterceptorRegistry;
+import org.jboss.ejb3.singleton.impl.cluster.ClusteredSingletonEJBInstanceManager;
+import org.jboss.ejb3.singleton.impl.cluster.LoopbackCluster;
+import org.jboss.ejb3.singleton.impl.container.SingletonContainer;
+import org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl;
+import org.jboss.ejb3.singleton.impl.test.simple.InVMContainerInvocationImpl;
+import org.jboss.ejb3.singleton.impl.test.simple.SimpleSingletonBean;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.spec.SessionType;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests cluster wide singletons, with the members of the cluster simulated by a {@link LoopbackCluster}
+ *
+ * @version $Revision: $
+ */
+public class ClusteredSingletonTest
+{
+
+   private static final String SINGLETON_NAME = "ClusteredSimpleSingletonBean";
+
+   private LoopbackCluster cluster;
+
+   /**
+    * If set, the local invocations count it down, once they have started
+    */
+   private volatile CountDownLatch invocationStarted;
+
+   /**
+    * If set, the local invocations wait for it, before invoking the bean instance
+    */
+   private volatile CountDownLatch invocationRelease;
+
+   @After
+   public void afterTest()
+   {
+      if (this.cluster != null)
+      {
+         this.cluster.shutdown();
+      }
+   }
+
+   /**
+    * Tests that the bean is active only on the elected member and that the invocations on the other member 
+    * are forwarded to it
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testActiveOnElectedMemberOnly() throws Exception
+   {
+      this.cluster = new LoopbackCluster();
+      SingletonContainer first = this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      assertTrue("Oldest member wasn't elected", this.getInstanceManager(first).isElected());
+      assertFalse("Both members elected", this.getInstanceManager(second).isElected());
+
+      this.invoke(second, "incrementCount");
+      this.invoke(first, "incrementCount");
+      assertEquals("Invocations weren't served by one bean instance", 2, this.invoke(second, "getCount"));
+      assertSame("Invocations weren't served by one bean instance", this.invoke(first, "getMe"), this.invoke(second,
+            "getMe"));
+      try
+      {
+         this.getInstanceManager(second).get();
+         fail("Bean instance created on a member which isn't elected");
+      }
+      catch (IllegalStateException expected)
+      {
+         // expected
+      }
+   }
+
+   /**
+    * Tests that the bean becomes active on the next member, once the elected member leaves
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testLeave() throws Exception
+   {
+      this.cluster = new LoopbackCluster();
+      SingletonContainer first = this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      this.invoke(second, "incrementCount");
+
+      this.getInstanceManager(first).leave();
+      assertFalse("Member elected after leaving", this.getInstanceManager(first).isElected());
+      assertTrue("Next member wasn't elected", this.getInstanceManager(second).isElected());
+      assertEquals("Bean instance survived the election of another member", 0, this.invoke(second, "getCount"));
+   }
+
+   /**
+    * Tests the failover of the bean, when the elected member crashes
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testFailover() throws Exception
+   {
+      long failureDetectionDelay = 200;
+      this.cluster = new LoopbackCluster(failureDetectionDelay, TimeUnit.MILLISECONDS);
+      this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      this.invoke(second, "incrementCount");
+
+      long crashTime = System.nanoTime();
+      this.cluster.crash("first");
+      int failedInvocations = 0;
+      while (true)
+      {
+         try
+         {
+            this.invoke(second, "getCount");
+            break;
+         }
+         catch (IllegalStateException ise)
+         {
+            // the crashed member is unreachable, but hasn't been detected yet
+            failedInvocations++;
+            assertTrue("Failover didn't complete", System.nanoTime() - crashTime < TimeUnit.SECONDS.toNanos(10));
+            Thread.sleep(10);
+         }
+      }
+      long failoverMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - crashTime);
+      assertTrue("Invocations succeeded before the crash was detected", failedInvocations > 0);
+      assertTrue("Failover completed in " + failoverMillis + "ms, before the failure detection delay",
+            failoverMillis >= failureDetectionDelay);
+      assertTrue("Surviving member wasn't elected", this.getInstanceManager(second).isElected());
+   }
+
+   /**
+    * Tests that the deposition of a member waits for the local invocations in progress, and that the invocations
+    * which follow are forwarded to the newly elected member instead of recreating the bean instance
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testDepositionWaitsForLocalInvocation() throws Exception
+   {
+      this.cluster = new LoopbackCluster();
+      final SingletonContainer first = this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      this.invocationStarted = new CountDownLatch(1);
+      this.invocationRelease = new CountDownLatch(1);
+      ExecutorService executor = Executors.newCachedThreadPool();
+      try
+      {
+         Future<Object> invocation = executor.submit(new Callable<Object>()
+         {
+            @Override
+            public Object call() throws Exception
+            {
+               return ClusteredSingletonTest.this.invoke(first, "incrementCount");
+            }
+         });
+         assertTrue("Invocation did not start", this.invocationStarted.await(10, TimeUnit.SECONDS));
+         this.invocationStarted = null;
+         Future<?> leave = executor.submit(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               ClusteredSingletonTest.this.getInstanceManager(first).leave();
+            }
+         });
+         try
+         {
+            leave.get(500, TimeUnit.MILLISECONDS);
+            fail("Member was deposed while a local invocation was in progress");
+         }
+         catch (TimeoutException expected)
+         {
+            // expected
+         }
+         this.invocationRelease.countDown();
+         invocation.get(10, TimeUnit.SECONDS);
+         leave.get(10, TimeUnit.SECONDS);
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+      assertTrue("Next member wasn't elected", this.getInstanceManager(second).isElected());
+      assertEquals("Invocation wasn't forwarded to the elected member", 0, this.invoke(first, "getCount"));
+      try
+      {
+         this.getInstanceManager(first).get();
+         fail("Bean instance recreated on a deposed member");
+      }
+      catch (IllegalStateException expected)
+      {
+         // expected
+      }
+   }
+
+   private SingletonContainer createMember(String memberName)
+   {
+      JBossSessionBean31MetaData singletonBeanMetadata = new JBossSessionBean31MetaData();
+      singletonBeanMetadata.setEjbClass(SimpleSingletonBean.class.getName());
+      singletonBeanMetadata.setEjbName(SimpleSingletonBean.class.getSimpleName());
+      singletonBeanMetadata.setSessionType(SessionType.Singleton);
+
+      ReflectiveInterceptorRegistry interceptorRegistry = new ReflectiveInterceptorRegistry();
+      SingletonContainer container = new SingletonContainer(SimpleSingletonBean.class, singletonBeanMetadata,
+            interceptorRegistry);
+      interceptorRegistry.container = container;
+      ClusteredSingletonEJBInstanceManager instanceManager = new ClusteredSingletonEJBInstanceManager(SINGLETON_NAME,
+            new SingletonEJBInstanceManagerImpl(SimpleSingletonBean.class, container, container, null, null),
+            this.cluster.createMember(memberName));
+      container.setBeanInstanceManager(instanceManager);
+      instanceManager.join();
+      return container;
+   }
+
+   private ClusteredSingletonEJBInstanceManager getInstanceManager(SingletonContainer container)
+   {
+      return (ClusteredSingletonEJBInstanceManager) container.getBeanInstanceManager();
+   }
+
+   private Object invoke(SingletonContainer container, String methodName) throws Exception
+   {
+      Method method = SimpleSingletonBean.class.getMethod(methodName, new Class<?>[0]);
+      return container.invoke(new InVMContainerInvocationImpl(method, new Object[0]));
+   }
+
+   /**
+    * Invokes the bean methods through reflection, without any interceptors
+    */
+   private class ReflectiveInterceptorRegistry implements InterceptorRegistry
+   {
+      private EJBContainer container;
+
+      @Override
+      public EJBContainer getEJBContainer()
+      {
+         return this.container;
+      }
+
+      @Override
+      public Object intercept(ContainerInvocation containerInvocation, BeanContext targetBeanContext) throws Exception
+      {
+         CountDownLatch started = ClusteredSingletonTest.this.invocationStarted;
+         if (started != null)
+         {
+            started.countDown();
+            ClusteredSingletonTest.this.invocationRelease.await();
+         }
+         return containerInvocation.getMethod().invoke(targetBeanContext.getBeanInstance(),
+               containerInvocation.getArgs());
+      }
+
+      @Override
+      public void invokePostActivate(BeanContext targetBeanContext) throws Exception
+      {
+      }
+
+      @Override
+      public void invokePostConstruct(BeanContext targetBeanContext) throws Exception
+      {
+      }
+
+      @Override
+      public void invokePreDestroy(BeanContext targetBeanContext) throws Exception
+      {
+      }
+
+      @Override
+      public void invokePrePassivate(BeanContext targetBeanContext) throws Exception
+      {
+      }
+
+      @Override
+      public List<Class<?>> getInterceptorClasses()
+      {
+         return Collections.emptyList();
+      }
+   }
+}
@@ -0,0 +1,321 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.cluster.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.container.spi.EJBContainer;
+import org.jboss.ejb3.container.spi.InterceptorRegistry;
+import org.jboss.ejb3.singleton.impl.cluster.LockClassifier;
+import org.jboss.ejb3.singleton.impl.cluster.LoopbackCluster;
+import org.jboss.ejb3.singleton.impl.cluster.LoopbackReplicaTransport;
+import org.jboss.ejb3.singleton.impl.cluster.ReplicatedSingletonEJBInstanceManager;
+import org.jboss.ejb3.singleton.impl.container.SingletonContainer;
+import org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl;
+import org.jboss.ejb3.singleton.impl.test.cluster.ReplicatedCacheBean;
+import org.jboss.ejb3.singleton.impl.test.simple.InVMContainerInvocationImpl;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.spec.SessionType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests cluster wide singletons with read replicas, with the members of the cluster simulated by a 
+ * {@link LoopbackCluster} and the state propagated through a {@link LoopbackReplicaTransport}
+ *
+ * @version $Revision: $
+ */
+public class ReplicatedSingletonTest
+{
+
+   private static final String SINGLETON_NAME = "ReplicatedCacheBean";
+
+   private LoopbackCluster cluster;
+
+   private RecordingReplicaTransport transport;
+
+   @Before
+   public void beforeTest()
+   {
+      this.cluster = new LoopbackCluster();
+      this.transport = new RecordingReplicaTransport();
+   }
+
+   @After
+   public void afterTest()
+   {
+      this.cluster.shutdown();
+   }
+
+   /**
+    * Tests that READ methods are served by the local replica and WRITE methods by the owner, whose changes
+    * are visible on the replica
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testReadsServedByReplica() throws Exception
+   {
+      SingletonContainer first = this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      assertTrue("Oldest member wasn't elected", this.getInstanceManager(first).isElected());
+      assertFalse("Both members elected", this.getInstanceManager(second).isElected());
+
+      this.invoke(second, "put", "a", "1");
+      assertEquals("WRITE invocation wasn't served by the owner", "1", this.invoke(first, "get", "a"));
+      assertEquals("Change wasn't replicated", "1", this.invoke(second, "get", "a"));
+      assertEquals("Change wasn't replicated", 1L, this.invoke(second, "getGeneration"));
+      assertNotSame("READ invocation wasn't served by the replica", this.invoke(first, "getMe"), this.invoke(second,
+            "getMe"));
+   }
+
+   /**
+    * Tests that only the fields which changed are published, and only after a WRITE invocation
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testOnlyChangesPublished() throws Exception
+   {
+      SingletonContainer first = this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      this.transport.publications.clear();
+
+      this.invoke(second, "getLabel");
+      this.invoke(second, "touch");
+      assertTrue("Unchanged state published " + this.transport.publications, this.transport.publications.isEmpty());
+
+      this.invoke(first, "setLabel", "replicated");
+      assertEquals("Unexpected publications", Collections.singletonList(Collections.singleton("label")),
+            this.transport.publications);
+      assertEquals("Change wasn't replicated", "replicated", this.invoke(second, "getLabel"));
+   }
+
+   /**
+    * Tests that a field whose (mutable) value is changed in place is published, while the unchanged fields 
+    * aren't
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testInPlaceChangePublished() throws Exception
+   {
+      SingletonContainer first = this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      this.invoke(first, "setLabel", "unchanged");
+      this.transport.publications.clear();
+
+      this.invoke(first, "replace", "a", "1");
+      assertEquals("Unexpected publications", Collections.singletonList(Collections.singleton("cache")),
+            this.transport.publications);
+      assertEquals("In place change wasn't replicated", "1", this.invoke(second, "get", "a"));
+      assertEquals("Unchanged field wasn't kept", "unchanged", this.invoke(second, "getLabel"));
+   }
+
+   /**
+    * Tests that all the fields with mutable values are published after a WRITE method which doesn't declare the
+    * values it changes in place
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testUndeclaredInPlaceChangePublished() throws Exception
+   {
+      SingletonContainer first = this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      this.invoke(first, "put", "a", "1");
+      this.transport.publications.clear();
+
+      this.invoke(first, "rename", "b");
+      assertEquals("Unexpected publications", Collections.singletonList(new HashSet<String>(Arrays.asList("cache",
+            "label"))), this.transport.publications);
+      assertEquals("In place change wasn't replicated", "b", this.invoke(second, "get", "b"));
+      assertEquals("Change wasn't replicated", "b", this.invoke(second, "getLabel"));
+      assertEquals("Unchanged field wasn't kept", 1L, this.invoke(second, "getGeneration"));
+   }
+
+   /**
+    * Tests that a replica keeps the state when it takes over as the owner, and that a member which joins
+    * later starts from the current state
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testOwnershipTakeover() throws Exception
+   {
+      SingletonContainer first = this.createMember("first");
+      SingletonContainer second = this.createMember("second");
+      this.invoke(first, "put", "a", "1");
+
+      this.getInstanceManager(first).leave();
+      assertTrue("Replica wasn't elected", this.getInstanceManager(second).isElected());
+      assertEquals("State lost on takeover", "1", this.invoke(second, "get", "a"));
+
+      this.invoke(second, "put", "b", "2");
+      SingletonContainer third = this.createMember("third");
+      assertFalse("Late member elected", this.getInstanceManager(third).isElected());
+      assertEquals("Late member didn't start from the current state", "1", this.invoke(third, "get", "a"));
+      assertEquals("Late member didn't start from the current state", "2", this.invoke(third, "get", "b"));
+      assertEquals("Late member didn't start from the current state", 2L, this.invoke(third, "getGeneration"));
+      assertNull(this.invoke(third, "get", "c"));
+   }
+
+   private SingletonContainer createMember(String memberName)
+   {
+      JBossSessionBean31MetaData singletonBeanMetadata = new JBossSessionBean31MetaData();
+      singletonBeanMetadata.setEjbClass(ReplicatedCacheBean.class.getName());
+      singletonBeanMetadata.setEjbName(ReplicatedCacheBean.class.getSimpleName());
+      singletonBeanMetadata.setSessionType(SessionType.Singleton);
+
+      ReflectiveInterceptorRegistry interceptorRegistry = new ReflectiveInterceptorRegistry();
+      SingletonContainer container = new SingletonContainer(ReplicatedCacheBean.class, singletonBeanMetadata,
+            interceptorRegistry);
+      interceptorRegistry.container = container;
+      ReplicatedSingletonEJBInstanceManager instanceManager = new ReplicatedSingletonEJBInstanceManager(
+            SINGLETON_NAME, new SingletonEJBInstanceManagerImpl(ReplicatedCacheBean.class, container, container,
+                  null, null), this.cluster.createMember(memberName), this.transport, new AnnotationLockClassifier(),
+            ReplicatedCacheBean.class);
+      container.setBeanInstanceManager(instanceManager);
+      instanceManager.join();
+      return container;
+   }
+
+   private ReplicatedSingletonEJBInstanceManager getInstanceManager(SingletonContainer container)
+   {
+      return (ReplicatedSingletonEJBInstanceManager) container.getBeanInstanceManager();
+   }
+
+   private Object invoke(SingletonContainer container, String methodName, Object... args) throws Exception
+   {
+      Class<?>[] paramTypes = new Class<?>[args.length];
+      for (int i = 0; i < args.length; i++)
+      {
+         paramTypes[i] = args[i].getClass();
+      }
+      Method method = ReplicatedCacheBean.class.getMethod(methodName, paramTypes);
+      return container.invoke(new InVMContainerInvocationImpl(method, args));
+   }
+
+   /**
+    * Records the names of the fields of each publication
+    */
+   private static class RecordingReplicaTransport extends LoopbackReplicaTransport
+   {
+      private final List<Set<String>> publications = new ArrayList<Set<String>>();
+
+      @Override
+      public synchronized void publish(String singletonName, Map<String, byte[]> changedState)
+      {
+         this.publications.add(new HashSet<String>(changedState.keySet()));
+         super.publish(singletonName, changedState);
+      }
+   }
+
+   /**
+    * Classifies the methods by their {@link Lock} annotation, or the one of the bean class
+    */
+   private static class AnnotationLockClassifier implements LockClassifier
+   {
+      @Override
+      public LockType getLockType(Method method)
+      {
+         Lock lock = method.getAnnotation(Lock.class);
+         if (lock == null)
+         {
+            lock = method.getDeclaringClass().getAnnotation(Lock.class);
+         }
+         return lock == null ? LockType.WRITE : lock.value();
+      }
+
+      @Override
+      public long getAccessTimeoutMillis(Method method)
+      {
+         return 5000;
+      }
+   }
+
+   /**
+    * Invokes the bean methods through reflection, without any interceptors
+    */
+   private class ReflectiveInterceptorRegistry implements InterceptorRegistry
+   {
+      private EJBContainer container;
+
+      @Override
+      public EJBContainer getEJBContainer()
+      {
+         return this.container;
+      }
+
+      @Override
+      public Object intercept(ContainerInvocation containerInvocation, BeanContext targetBeanContext) throws Exception
+      {
+         return containerInvocation.getMethod().invoke(targetBeanContext.getBeanInstance(),
+               containerInvocation.getArgs());
+      }
+
+      @Override
+      public void invokePostActivate(BeanContext targetBeanContext) throws Exception
+      {
+      }
+
+      @Override
+      public void invokePostConstruct(BeanContext targetBeanContext) throws Exception
+      {
+      }
+
+      @Override
+      public void invokePreDestroy(BeanContext targetBeanContext) throws Exception
+      {
+      }
+
+      @Override
+      public void invokePrePassivate(BeanContext targetBeanContext) throws Exception
+      {
+      }
+
+      @Override
+      public List<Class<?>> getInterceptorClasses()
+      {
+         return Collections.emptyList();
+      }
+   }
+}
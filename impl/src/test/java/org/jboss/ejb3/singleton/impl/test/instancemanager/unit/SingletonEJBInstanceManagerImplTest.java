@@ -0,0 +1,317 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.instancemanager.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.container.spi.lifecycle.EJBLifecycleHandler;
+import org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl;
+import org.jboss.ejb3.singleton.impl.test.simple.SimpleSingletonBean;
+import org.junit.Test;
+
+/**
+ * Tests the create-once, publication and destroy semantics of {@link SingletonEJBInstanceManagerImpl}
+ *
+ * @version $Revision: $
+ */
+public class SingletonEJBInstanceManagerImplTest
+{
+
+   /**
+    * Tests that concurrent first callers of {@link SingletonEJBInstanceManagerImpl#get()} end up
+    * creating exactly one bean instance and none of them sees the instance before its post-construct
+    * has completed
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testConcurrentGet() throws Exception
+   {
+      final CountingLifecycleHandler lifecycleHandler = new CountingLifecycleHandler();
+      final SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(
+            SimpleSingletonBean.class, null, lifecycleHandler, null, null);
+      lifecycleHandler.instanceManager = instanceManager;
+
+      final int numThreads = 16;
+      final CountDownLatch startLatch = new CountDownLatch(1);
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      try
+      {
+         List<Future<BeanContext>> results = new ArrayList<Future<BeanContext>>();
+         for (int i = 0; i < numThreads; i++)
+         {
+            results.add(executor.submit(new Callable<BeanContext>()
+            {
+               @Override
+               public BeanContext call() throws Exception
+               {
+                  startLatch.await();
+                  BeanContext beanContext = instanceManager.get();
+                  // post-construct increments the count, so a bean instance which was
+                  // published before completion of post-construct will have a count of 0
+                  assertEquals("Bean instance published before post-construct completed", 1,
+                        ((SimpleSingletonBean) beanContext.getBeanInstance()).getCount());
+                  return beanContext;
+               }
+            }));
+         }
+         startLatch.countDown();
+         BeanContext first = results.get(0).get();
+         for (Future<BeanContext> result : results)
+         {
+            assertSame("Unexpected bean context - singleton semantics broken?", first, result.get());
+         }
+         assertEquals("Unexpected number of post-construct calls", 1, lifecycleHandler.postConstructCount.get());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Tests that a {@link SingletonEJBInstanceManagerImpl#get()} call from within the post-construct of
+    * the bean returns the bean context under construction (instead of creating a new one)
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testReentrantGetDuringPostConstruct() throws Exception
+   {
+      CountingLifecycleHandler lifecycleHandler = new CountingLifecycleHandler();
+      SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(SimpleSingletonBean.class,
+            null, lifecycleHandler, null, null);
+      lifecycleHandler.instanceManager = instanceManager;
+      lifecycleHandler.reentrant = true;
+
+      BeanContext beanContext = instanceManager.get();
+      assertSame("Re-entrant get() did not return the bean context under construction", beanContext,
+            lifecycleHandler.reentrantBeanContext);
+      assertEquals("Unexpected number of post-construct calls", 1, lifecycleHandler.postConstructCount.get());
+   }
+
+   /**
+    * Tests that once destroyed, the next {@link SingletonEJBInstanceManagerImpl#get()} creates a
+    * new bean instance
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testGetAfterDestroy() throws Exception
+   {
+      CountingLifecycleHandler lifecycleHandler = new CountingLifecycleHandler();
+      SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(SimpleSingletonBean.class,
+            null, lifecycleHandler, null, null);
+      lifecycleHandler.instanceManager = instanceManager;
+
+      BeanContext beanContext = instanceManager.get();
+      instanceManager.destroy();
+      assertEquals("Unexpected number of pre-destroy calls", 1, lifecycleHandler.preDestroyCount.get());
+
+      BeanContext newBeanContext = instanceManager.get();
+      assertNotSame("A destroyed bean context was returned", beanContext, newBeanContext);
+      assertEquals("Unexpected number of post-construct calls", 2, lifecycleHandler.postConstructCount.get());
+   }
+
+   /**
+    * Tests that a caller of {@link SingletonEJBInstanceManagerImpl#get()}, which arrives while a background
+    * warmup is in progress, waits for that warmup instead of creating the bean context itself
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testGetDuringBackgroundWarmup() throws Exception
+   {
+      final CountingLifecycleHandler lifecycleHandler = new CountingLifecycleHandler();
+      SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(SimpleSingletonBean.class,
+            null, lifecycleHandler, null, null);
+      lifecycleHandler.instanceManager = instanceManager;
+      lifecycleHandler.reentrant = true;
+
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         instanceManager.warmupInBackground(executor);
+         BeanContext beanContext = instanceManager.get();
+         assertEquals("Bean instance published before post-construct completed", 1,
+               ((SimpleSingletonBean) beanContext.getBeanInstance()).getCount());
+         assertSame("Unexpected bean context", beanContext, instanceManager.get());
+         assertEquals("Unexpected number of post-construct calls", 1, lifecycleHandler.postConstructCount.get());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Tests that a caller of {@link SingletonEJBInstanceManagerImpl#get()} runs the background warmup itself,
+    * if the executor hasn't yet got around to run it, and that the executor's run is then a no-op
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testGetBeforeBackgroundWarmupRuns() throws Exception
+   {
+      CountingLifecycleHandler lifecycleHandler = new CountingLifecycleHandler();
+      SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(SimpleSingletonBean.class,
+            null, lifecycleHandler, null, null);
+      lifecycleHandler.instanceManager = instanceManager;
+
+      QueueingExecutor executor = new QueueingExecutor();
+      instanceManager.warmupInBackground(executor);
+      assertEquals("Warmup not handed over to executor", 1, executor.tasks.size());
+      assertEquals("Bean instance created before warmup ran", 0, lifecycleHandler.postConstructCount.get());
+
+      BeanContext beanContext = instanceManager.get();
+      executor.tasks.get(0).run();
+      assertSame("Unexpected bean context", beanContext, instanceManager.get());
+      assertEquals("Unexpected number of post-construct calls", 1, lifecycleHandler.postConstructCount.get());
+   }
+
+   /**
+    * Tests that a failed background warmup doesn't prevent the next {@link SingletonEJBInstanceManagerImpl#get()}
+    * from creating the bean context
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testGetAfterFailedBackgroundWarmup() throws Exception
+   {
+      CountingLifecycleHandler lifecycleHandler = new CountingLifecycleHandler();
+      SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(SimpleSingletonBean.class,
+            null, lifecycleHandler, null, null);
+      lifecycleHandler.instanceManager = instanceManager;
+      lifecycleHandler.failures = 1;
+
+      QueueingExecutor executor = new QueueingExecutor();
+      instanceManager.warmupInBackground(executor);
+      executor.tasks.get(0).run();
+
+      BeanContext beanContext = instanceManager.get();
+      assertEquals("Bean instance published before post-construct completed", 1,
+            ((SimpleSingletonBean) beanContext.getBeanInstance()).getCount());
+      assertEquals("Unexpected number of post-construct calls", 2, lifecycleHandler.postConstructCount.get());
+   }
+
+   /**
+    * Tests that destroying the instance manager cancels a background warmup which hasn't run yet
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testDestroyCancelsBackgroundWarmup() throws Exception
+   {
+      CountingLifecycleHandler lifecycleHandler = new CountingLifecycleHandler();
+      SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(SimpleSingletonBean.class,
+            null, lifecycleHandler, null, null);
+      lifecycleHandler.instanceManager = instanceManager;
+
+      QueueingExecutor executor = new QueueingExecutor();
+      instanceManager.warmupInBackground(executor);
+      instanceManager.destroy();
+      executor.tasks.get(0).run();
+      assertEquals("Cancelled warmup created a bean instance", 0, lifecycleHandler.postConstructCount.get());
+      assertFalse("Unexpected pre-destroy call", lifecycleHandler.preDestroyCount.get() > 0);
+   }
+
+   /**
+    * An {@link Executor} which just queues up the tasks, leaving it to the test to run them
+    */
+   private class QueueingExecutor implements Executor
+   {
+      private List<Runnable> tasks = new ArrayList<Runnable>();
+
+      /**
+       * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+       */
+      @Override
+      public void execute(Runnable task)
+      {
+         this.tasks.add(task);
+      }
+   }
+
+   /**
+    * An {@link EJBLifecycleHandler} which keeps track of the lifecycle callbacks
+    */
+   private class CountingLifecycleHandler implements EJBLifecycleHandler
+   {
+      private AtomicInteger postConstructCount = new AtomicInteger();
+
+      private AtomicInteger preDestroyCount = new AtomicInteger();
+
+      private SingletonEJBInstanceManagerImpl instanceManager;
+
+      private boolean reentrant;
+
+      private BeanContext reentrantBeanContext;
+
+      private int failures;
+
+      /**
+       * @see org.jboss.ejb3.container.spi.lifecycle.EJBLifecycleHandler#postConstruct(org.jboss.ejb3.container.spi.BeanContext)
+       */
+      @Override
+      public void postConstruct(BeanContext beanContext) throws Exception
+      {
+         this.postConstructCount.incrementAndGet();
+         if (this.failures > 0)
+         {
+            this.failures--;
+            throw new IllegalStateException("Intentional post-construct failure");
+         }
+         // give the other threads a chance to run into the (unpublished) bean context
+         Thread.sleep(50);
+         if (this.reentrant)
+         {
+            this.reentrantBeanContext = this.instanceManager.get();
+            assertTrue(this.reentrantBeanContext == beanContext);
+         }
+         ((SimpleSingletonBean) beanContext.getBeanInstance()).incrementCount();
+      }
+
+      /**
+       * @see org.jboss.ejb3.container.spi.lifecycle.EJBLifecycleHandler#preDestroy(org.jboss.ejb3.container.spi.BeanContext)
+       */
+      @Override
+      public void preDestroy(BeanContext beanContext) throws Exception
+      {
+         this.preDestroyCount.incrementAndGet();
+      }
+   }
+}
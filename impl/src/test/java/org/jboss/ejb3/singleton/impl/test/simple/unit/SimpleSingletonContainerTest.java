@@ -22,12 +22,23 @@
 package org.jboss.ejb3.singleton.impl.test.simple.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.jboss.ejb3.container.spi.BeanContext;
 import org.jboss.ejb3.container.spi.ContainerInvocation;
@@ -35,8 +46,10 @@ import org.jboss.ejb3.container.spi.EJBContainer;
 import org.jboss.ejb3.container.spi.InterceptorRegistry;
 import org.jboss.ejb3.singleton.impl.container.SingletonContainer;
 import org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl;
+import org.jboss.ejb3.singleton.impl.snapshot.StateSnapshot;
 import org.jboss.ejb3.singleton.impl.test.simple.InVMContainerInvocationImpl;
 import org.jboss.ejb3.singleton.impl.test.simple.SimpleSingletonBean;
+import org.jboss.ejb3.singleton.impl.test.snapshot.SnapshotSingletonBean;
 import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
 import org.jboss.metadata.ejb.spec.SessionType;
 import org.junit.Before;
@@ -57,6 +70,16 @@ public class SimpleSingletonContainerTest
     */
    private SingletonContainer singletonContainer;
 
+   /**
+    * If set, the invocations count it down, once they have started
+    */
+   private volatile CountDownLatch invocationStarted;
+
+   /**
+    * If set, the invocations wait for it, before invoking the bean instance
+    */
+   private volatile CountDownLatch invocationRelease;
+
    /**
     * Setup
     */
@@ -182,6 +205,130 @@ public class SimpleSingletonContainerTest
       }
    }
 
+   /**
+    * Tests that the bean instance isn't destroyed while an invocation is in progress, if the container has been
+    * asked to drain the invocations on destroy
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testDestroyWaitsForInvocationInProgress() throws Exception
+   {
+      File snapshotFile = File.createTempFile("singleton", ".snapshot");
+      snapshotFile.delete();
+      this.singletonContainer.setDrainInvocationsOnDestroy(new StateSnapshot(snapshotFile,
+            SnapshotSingletonBean.class), 10, TimeUnit.SECONDS);
+      this.invocationStarted = new CountDownLatch(1);
+      this.invocationRelease = new CountDownLatch(1);
+      final Method echoMethod = SimpleSingletonBean.class.getMethod("echo", new Class<?>[]
+      {String.class});
+      ExecutorService executor = Executors.newCachedThreadPool();
+      try
+      {
+         Future<Object> invocation = executor.submit(new Callable<Object>()
+         {
+            @Override
+            public Object call() throws Exception
+            {
+               return singletonContainer.invoke(new InVMContainerInvocationImpl(echoMethod, new Object[]
+               {"in progress"}));
+            }
+         });
+         assertTrue("Invocation did not start", this.invocationStarted.await(10, TimeUnit.SECONDS));
+         Future<?> destroy = executor.submit(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               singletonContainer.destroy();
+            }
+         });
+         try
+         {
+            destroy.get(500, TimeUnit.MILLISECONDS);
+            fail("Bean instance was destroyed while an invocation was in progress");
+         }
+         catch (TimeoutException expected)
+         {
+            // expected
+         }
+         this.invocationRelease.countDown();
+         assertEquals("Unexpected result of invocation in progress", "in progress", invocation.get(10,
+               TimeUnit.SECONDS));
+         destroy.get(10, TimeUnit.SECONDS);
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Tests that destroy doesn't wait for an invocation in progress beyond the drain timeout, in which case the 
+    * bean instance is destroyed without its state being snapshot
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testDestroyGivesUpWaitingForInvocation() throws Exception
+   {
+      JBossSessionBean31MetaData beanMetadata = new JBossSessionBean31MetaData();
+      beanMetadata.setEjbClass(SnapshotSingletonBean.class.getName());
+      beanMetadata.setEjbName(SnapshotSingletonBean.class.getSimpleName());
+      beanMetadata.setSessionType(SessionType.Singleton);
+      final SingletonContainer container = new SingletonContainer(SnapshotSingletonBean.class, beanMetadata,
+            new EmptyInterceptorRegistry());
+      SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(
+            SnapshotSingletonBean.class, container, container, null, null);
+      container.setBeanInstanceManager(instanceManager);
+      File snapshotFile = File.createTempFile("singleton", ".snapshot");
+      snapshotFile.delete();
+      StateSnapshot snapshot = new StateSnapshot(snapshotFile, SnapshotSingletonBean.class);
+      instanceManager.setStateSnapshot(snapshot);
+      container.setDrainInvocationsOnDestroy(snapshot, 200, TimeUnit.MILLISECONDS);
+
+      this.invocationStarted = new CountDownLatch(1);
+      this.invocationRelease = new CountDownLatch(1);
+      final Method getMethod = SnapshotSingletonBean.class.getMethod("get", new Class<?>[]
+      {String.class});
+      ExecutorService executor = Executors.newCachedThreadPool();
+      try
+      {
+         Future<Object> invocation = executor.submit(new Callable<Object>()
+         {
+            @Override
+            public Object call() throws Exception
+            {
+               return container.invoke(new InVMContainerInvocationImpl(getMethod, new Object[]
+               {"key"}));
+            }
+         });
+         assertTrue("Invocation did not start", this.invocationStarted.await(10, TimeUnit.SECONDS));
+         Future<?> destroy = executor.submit(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               container.destroy();
+            }
+         });
+         destroy.get(10, TimeUnit.SECONDS);
+         assertFalse("State snapshot taken while an invocation was in progress", snapshotFile.exists());
+
+         this.invocationRelease.countDown();
+         invocation.get(10, TimeUnit.SECONDS);
+         // the snapshots aren't suspended beyond that destroy
+         instanceManager.get();
+         container.destroy();
+         assertTrue("State wasn't snapshot on a later destroy", snapshotFile.isFile());
+      }
+      finally
+      {
+         executor.shutdownNow();
+         snapshotFile.delete();
+      }
+   }
+
    private class EmptyInterceptorRegistry implements InterceptorRegistry
    {
 
@@ -200,6 +347,12 @@ public class SimpleSingletonContainerTest
       @Override
       public Object intercept(ContainerInvocation containerInvocation, BeanContext targetBeanContext) throws Exception
       {
+         CountDownLatch started = SimpleSingletonContainerTest.this.invocationStarted;
+         if (started != null)
+         {
+            started.countDown();
+            SimpleSingletonContainerTest.this.invocationRelease.await();
+         }
          Object target = targetBeanContext.getBeanInstance();
          Method methodToInvoke = containerInvocation.getMethod();
          Object[] params = containerInvocation.getArgs();
@@ -0,0 +1,81 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.snapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ejb.Singleton;
+
+import org.jboss.ejb3.singleton.spi.annotation.SnapshotState;
+
+/**
+ * A singleton bean whose (expensive to compute) state is snapshot
+ *
+ * @version $Revision: $
+ */
+@Singleton
+public class SnapshotSingletonBean
+{
+
+   @SnapshotState
+   private Map<String, String> cache;
+
+   @SnapshotState(version = 1)
+   private long generation;
+
+   private boolean computed;
+
+   /**
+    * Computes the state, unless it has been restored from a snapshot
+    */
+   public void postConstruct()
+   {
+      if (this.cache == null)
+      {
+         this.cache = new HashMap<String, String>();
+         this.generation = 1;
+         this.computed = true;
+      }
+   }
+
+   public void put(String key, String value)
+   {
+      this.cache.put(key, value);
+      this.generation++;
+   }
+
+   public String get(String key)
+   {
+      return this.cache == null ? null : this.cache.get(key);
+   }
+
+   public long getGeneration()
+   {
+      return this.generation;
+   }
+
+   public boolean isComputed()
+   {
+      return this.computed;
+   }
+}
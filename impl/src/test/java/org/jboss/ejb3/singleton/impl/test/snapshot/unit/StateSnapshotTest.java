@@ -0,0 +1,269 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.snapshot.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+
+import org.jboss.ejb3.container.spi.BeanContext;
+import org.jboss.ejb3.container.spi.lifecycle.EJBLifecycleHandler;
+import org.jboss.ejb3.singleton.impl.container.SingletonEJBInstanceManagerImpl;
+import org.jboss.ejb3.singleton.impl.snapshot.StateSnapshot;
+import org.jboss.ejb3.singleton.impl.test.snapshot.SnapshotSingletonBean;
+import org.jboss.ejb3.singleton.spi.annotation.SnapshotState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StateSnapshot} and its use by the {@link SingletonEJBInstanceManagerImpl}
+ *
+ * @version $Revision: $
+ */
+public class StateSnapshotTest
+{
+
+   private File snapshotFile;
+
+   @Before
+   public void beforeTest() throws IOException
+   {
+      this.snapshotFile = File.createTempFile("singleton", ".snapshot");
+      this.snapshotFile.delete();
+   }
+
+   @After
+   public void afterTest()
+   {
+      this.snapshotFile.delete();
+   }
+
+   /**
+    * Tests that the state snapshot when a bean instance is destroyed, is restored into the next bean instance
+    * before its post-construct
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testRestoreBeforePostConstruct() throws Exception
+   {
+      StateSnapshot snapshot = new StateSnapshot(this.snapshotFile, SnapshotSingletonBean.class);
+      SingletonEJBInstanceManagerImpl instanceManager = this.createInstanceManager(snapshot);
+      SnapshotSingletonBean bean = (SnapshotSingletonBean) instanceManager.get().getBeanInstance();
+      assertTrue("State wasn't computed without a snapshot", bean.isComputed());
+      bean.put("key", "value");
+      instanceManager.destroy();
+      assertTrue("Snapshot wasn't taken on destroy", this.snapshotFile.isFile());
+
+      instanceManager = this.createInstanceManager(snapshot);
+      bean = (SnapshotSingletonBean) instanceManager.get().getBeanInstance();
+      assertFalse("State was computed, instead of being restored", bean.isComputed());
+      assertEquals("Unexpected restored state", "value", bean.get("key"));
+      assertEquals("Unexpected restored state", 2, bean.getGeneration());
+      assertFalse("Snapshot wasn't deleted after being restored", this.snapshotFile.exists());
+   }
+
+   /**
+    * Tests that a corrupt snapshot isn't restored
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testCorruptSnapshot() throws Exception
+   {
+      StateSnapshot snapshot = new StateSnapshot(this.snapshotFile, SnapshotSingletonBean.class);
+      SnapshotSingletonBean bean = new SnapshotSingletonBean();
+      bean.postConstruct();
+      bean.put("key", "value");
+      snapshot.save(bean);
+
+      RandomAccessFile file = new RandomAccessFile(this.snapshotFile, "rw");
+      try
+      {
+         long position = file.length() / 2;
+         file.seek(position);
+         int b = file.read();
+         file.seek(position);
+         file.write(b ^ 0xFF);
+      }
+      finally
+      {
+         file.close();
+      }
+      SnapshotSingletonBean restored = new SnapshotSingletonBean();
+      assertFalse("Corrupt snapshot was restored", snapshot.restore(restored));
+      assertNull("Corrupt snapshot was (partially) restored", restored.get("key"));
+      assertFalse("Corrupt snapshot wasn't deleted", this.snapshotFile.exists());
+   }
+
+   /**
+    * Tests that a snapshot of one bean class isn't restored into another bean class 
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testIncompatibleSnapshot() throws Exception
+   {
+      SnapshotSingletonBean bean = new SnapshotSingletonBean();
+      bean.postConstruct();
+      new StateSnapshot(this.snapshotFile, SnapshotSingletonBean.class).save(bean);
+
+      StateSnapshot otherSnapshot = new StateSnapshot(this.snapshotFile, OtherSnapshotBean.class);
+      OtherSnapshotBean otherBean = new OtherSnapshotBean();
+      assertFalse("Incompatible snapshot was restored", otherSnapshot.restore(otherBean));
+      assertEquals("Incompatible snapshot was (partially) restored", 0, otherBean.generation);
+   }
+
+   /**
+    * Tests that there's nothing to restore without a snapshot
+    */
+   @Test
+   public void testNoSnapshot()
+   {
+      StateSnapshot snapshot = new StateSnapshot(this.snapshotFile, SnapshotSingletonBean.class);
+      SnapshotSingletonBean bean = new SnapshotSingletonBean();
+      assertFalse("Restored without a snapshot", snapshot.restore(bean));
+   }
+
+   /**
+    * Tests that a snapshot which fails with a runtime exception doesn't keep the bean instance from being
+    * destroyed
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testFailedSnapshotOnDestroy() throws Exception
+   {
+      StateSnapshot snapshot = new StateSnapshot(this.snapshotFile, SnapshotSingletonBean.class)
+      {
+         @Override
+         public void save(Object beanInstance) throws IOException
+         {
+            throw new IllegalStateException("Intentional failure");
+         }
+      };
+      PostConstructingLifecycleHandler lifecycleHandler = new PostConstructingLifecycleHandler();
+      SingletonEJBInstanceManagerImpl instanceManager = this.createInstanceManager(snapshot, lifecycleHandler);
+      Object bean = instanceManager.get().getBeanInstance();
+      instanceManager.destroy();
+      assertEquals("Bean instance wasn't pre-destroyed", 1, lifecycleHandler.preDestroyed);
+      assertNotSame("Destroyed bean instance is still in use", bean, instanceManager.get().getBeanInstance());
+   }
+
+   /**
+    * Tests that a snapshot whose field values can't all be read, isn't (partially) restored
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testUnreadableSnapshot() throws Exception
+   {
+      StateSnapshot snapshot = new StateSnapshot(this.snapshotFile, UnreadableSnapshotBean.class);
+      UnreadableSnapshotBean bean = new UnreadableSnapshotBean();
+      bean.generation = 5;
+      bean.unreadable = new Unreadable();
+      snapshot.save(bean);
+
+      UnreadableSnapshotBean restored = new UnreadableSnapshotBean();
+      assertFalse("Unreadable snapshot was restored", snapshot.restore(restored));
+      assertEquals("Unreadable snapshot was partially restored", 0, restored.generation);
+      assertNull("Unreadable snapshot was partially restored", restored.unreadable);
+      assertFalse("Unreadable snapshot wasn't deleted", this.snapshotFile.exists());
+   }
+
+   private SingletonEJBInstanceManagerImpl createInstanceManager(StateSnapshot snapshot)
+   {
+      return this.createInstanceManager(snapshot, new PostConstructingLifecycleHandler());
+   }
+
+   private SingletonEJBInstanceManagerImpl createInstanceManager(StateSnapshot snapshot,
+         EJBLifecycleHandler lifecycleHandler)
+   {
+      SingletonEJBInstanceManagerImpl instanceManager = new SingletonEJBInstanceManagerImpl(
+            SnapshotSingletonBean.class, null, lifecycleHandler, null, null);
+      instanceManager.setStateSnapshot(snapshot);
+      return instanceManager;
+   }
+
+   /**
+    * Invokes the post-construct of the {@link SnapshotSingletonBean}
+    */
+   private class PostConstructingLifecycleHandler implements EJBLifecycleHandler
+   {
+      private int preDestroyed;
+
+      @Override
+      public void postConstruct(BeanContext beanContext) throws Exception
+      {
+         ((SnapshotSingletonBean) beanContext.getBeanInstance()).postConstruct();
+      }
+
+      @Override
+      public void preDestroy(BeanContext beanContext) throws Exception
+      {
+         this.preDestroyed++;
+      }
+   }
+
+   /**
+    * A bean class whose snapshot fields differ from those of {@link SnapshotSingletonBean}
+    */
+   public static class OtherSnapshotBean
+   {
+      @SnapshotState(version = 1)
+      private long generation;
+   }
+
+   /**
+    * A bean class with a snapshot field whose value can't be read back
+    */
+   public static class UnreadableSnapshotBean
+   {
+      @SnapshotState
+      private long generation;
+
+      @SnapshotState
+      private Unreadable unreadable;
+   }
+
+   /**
+    * Fails to deserialize
+    */
+   public static class Unreadable implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+      {
+         throw new IllegalStateException("Intentional failure");
+      }
+   }
+}
@@ -0,0 +1,249 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.startup.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.singleton.impl.startup.StartupSingletonScheduler;
+import org.junit.Test;
+
+/**
+ * Tests the ordering, concurrency and cycle detection of {@link StartupSingletonScheduler}
+ *
+ * @version $Revision: $
+ */
+public class StartupSingletonSchedulerTest
+{
+
+   /**
+    * Order in which the singletons were initialized
+    */
+   private final List<String> initialized = new CopyOnWriteArrayList<String>();
+
+   /**
+    * Tests that a singleton is initialized only after the singletons it (transitively) depends on
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testDependencyOrdering() throws Exception
+   {
+      StartupSingletonScheduler scheduler = new StartupSingletonScheduler(4);
+      // D -> B, C -> A (with B -> A, C -> A)
+      scheduler.addSingleton("D", new Initializer("D"), names("B", "C"));
+      scheduler.addSingleton("B", new Initializer("B"), names("A"));
+      scheduler.addSingleton("C", new Initializer("C"), names("A"));
+      scheduler.addSingleton("A", new Initializer("A"), null);
+      scheduler.start();
+
+      assertEquals("Unexpected number of initialized singletons", 4, this.initialized.size());
+      assertEquals("A was not initialized first", "A", this.initialized.get(0));
+      assertEquals("D was not initialized last", "D", this.initialized.get(3));
+   }
+
+   /**
+    * Tests that independent singletons are initialized concurrently
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testIndependentSingletonsAreInitializedConcurrently() throws Exception
+   {
+      final CountDownLatch bothStarted = new CountDownLatch(2);
+      final boolean[] concurrent = new boolean[2];
+      StartupSingletonScheduler scheduler = new StartupSingletonScheduler(2);
+      for (int i = 0; i < 2; i++)
+      {
+         final int index = i;
+         scheduler.addSingleton("bean" + i, new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               bothStarted.countDown();
+               try
+               {
+                  concurrent[index] = bothStarted.await(5, TimeUnit.SECONDS);
+               }
+               catch (InterruptedException ie)
+               {
+                  Thread.currentThread().interrupt();
+               }
+            }
+         }, null);
+      }
+      scheduler.start();
+      assertTrue("Independent singletons were not initialized concurrently", concurrent[0] && concurrent[1]);
+   }
+
+   /**
+    * Tests that a singleton which isn't initialized on startup still enforces the ordering between 
+    * the singletons which depend on it and which it depends on 
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testOrderingThroughNonStartupSingleton() throws Exception
+   {
+      StartupSingletonScheduler scheduler = new StartupSingletonScheduler(4);
+      scheduler.addSingleton("C", new Initializer("C"), names("B"));
+      scheduler.addSingleton("B", null, names("A"));
+      scheduler.addSingleton("A", new Initializer("A"), names("SomeOtherDeploymentBean"));
+      scheduler.start();
+
+      assertEquals("Unexpected initialization order", Arrays.asList("A", "C"), this.initialized);
+   }
+
+   /**
+    * Tests that a @DependsOn cycle is reported along with the beans involved
+    */
+   @Test
+   public void testCycleDetection()
+   {
+      StartupSingletonScheduler scheduler = new StartupSingletonScheduler(4);
+      scheduler.addSingleton("A", new Initializer("A"), names("B"));
+      scheduler.addSingleton("B", new Initializer("B"), names("C"));
+      try
+      {
+         scheduler.addSingleton("C", new Initializer("C"), names("A"));
+         fail("@DependsOn cycle was not detected");
+      }
+      catch (IllegalStateException expected)
+      {
+         assertTrue("Cycle not reported: " + expected.getMessage(), expected.getMessage().endsWith("C -> A -> B -> C"));
+      }
+   }
+
+   /**
+    * Tests that the singletons depending on a singleton, which failed to initialize, are not initialized
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testFailedInitialization() throws Exception
+   {
+      StartupSingletonScheduler scheduler = new StartupSingletonScheduler(4);
+      scheduler.addSingleton("A", new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            throw new IllegalStateException("Failed on purpose");
+         }
+      }, null);
+      scheduler.addSingleton("B", new Initializer("B"), names("A"));
+      scheduler.addSingleton("C", new Initializer("C"), names("B"));
+      scheduler.addSingleton("D", new Initializer("D"), null);
+      try
+      {
+         scheduler.start();
+         fail("Initialization failure was not reported");
+      }
+      catch (IllegalStateException expected)
+      {
+         // expected
+      }
+      assertEquals("Unexpected initialized singletons", Collections.singletonList("D"), this.initialized);
+      assertFalse("Dependent of failed singleton was initialized", this.initialized.contains("B"));
+   }
+
+   /**
+    * Tests that the scheduler can be started again (as it is when one of the deployment's dependencies is 
+    * bounced), after a failed run, and that the ordering still holds on the later run
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testRestart() throws Exception
+   {
+      final boolean[] failing = new boolean[]
+      {true};
+      StartupSingletonScheduler scheduler = new StartupSingletonScheduler(4);
+      scheduler.addSingleton("A", new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            if (failing[0])
+            {
+               throw new IllegalStateException("Failed on purpose");
+            }
+            initialized.add("A");
+         }
+      }, null);
+      scheduler.addSingleton("B", new Initializer("B"), names("A"));
+      scheduler.addSingleton("C", new Initializer("C"), names("A", "B"));
+      try
+      {
+         scheduler.start();
+         fail("Initialization failure was not reported");
+      }
+      catch (IllegalStateException expected)
+      {
+         // expected
+      }
+      assertTrue("Dependents of failed singleton were initialized", this.initialized.isEmpty());
+
+      failing[0] = false;
+      for (int run = 0; run < 2; run++)
+      {
+         this.initialized.clear();
+         scheduler.start();
+         assertEquals("Unexpected initialization order on restart", Arrays.asList("A", "B", "C"), this.initialized);
+      }
+   }
+
+   private static Collection<String> names(String... names)
+   {
+      return Arrays.asList(names);
+   }
+
+   /**
+    * Records the initialization of a singleton
+    */
+   private class Initializer implements Runnable
+   {
+      private final String name;
+
+      Initializer(String name)
+      {
+         this.name = name;
+      }
+
+      @Override
+      public void run()
+      {
+         initialized.add(this.name);
+      }
+   }
+}
@@ -0,0 +1,281 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.impl.test.statistics.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.ejb3.singleton.impl.statistics.InvocationStatistics;
+import org.jboss.ejb3.singleton.impl.statistics.InvocationStatisticsMBean;
+import org.jboss.ejb3.singleton.impl.statistics.LatencyHistogram;
+import org.jboss.ejb3.singleton.impl.statistics.MethodStatistics;
+import org.jboss.ejb3.singleton.impl.statistics.StripedCounter;
+import org.junit.Test;
+
+/**
+ * Tests the {@link InvocationStatistics} and the counters backing it
+ *
+ * @version $Revision: $
+ */
+public class InvocationStatisticsTest
+{
+
+   /**
+    * Tests that concurrent updates to a {@link StripedCounter} aren't lost
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testConcurrentCounterUpdates() throws Exception
+   {
+      this.assertConcurrentUpdates(new StripedCounter());
+   }
+
+   /**
+    * Tests that concurrent updates to a {@link StripedCounter} whose cells aren't padded aren't lost
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testConcurrentUnpaddedCounterUpdates() throws Exception
+   {
+      this.assertConcurrentUpdates(new StripedCounter(false));
+   }
+
+   /**
+    * Tests the percentiles reported by the {@link LatencyHistogram}
+    */
+   @Test
+   public void testLatencyPercentiles()
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      assertEquals("Unexpected percentile of empty histogram", 0, histogram.getPercentile(99));
+      // 1 to 1000 micro seconds
+      for (int i = 1; i <= 1000; i++)
+      {
+         histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+      }
+      assertEquals("Unexpected max", TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+      assertWithin("p50", TimeUnit.MICROSECONDS.toNanos(500), histogram.getPercentile(50));
+      assertWithin("p99", TimeUnit.MICROSECONDS.toNanos(990), histogram.getPercentile(99));
+      assertEquals("Unexpected p100", histogram.getMax(), histogram.getPercentile(100));
+   }
+
+   /**
+    * Tests that the per method statistics are aggregated and exposed through the 
+    * {@link InvocationStatisticsMBean}
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testMethodStatistics() throws Exception
+   {
+      InvocationStatistics statistics = new InvocationStatistics();
+      Method toString = Object.class.getMethod("toString");
+      Method equals = Object.class.getMethod("equals", Object.class);
+
+      MethodStatistics toStringStatistics = statistics.getMethodStatistics(toString);
+      assertSame("Method statistics not reused", toStringStatistics, statistics.getMethodStatistics(toString));
+
+      long start = toStringStatistics.invocationStarted();
+      assertEquals("Unexpected in-flight count", 1, statistics.getInFlightCount());
+      toStringStatistics.invocationCompleted(start);
+      toStringStatistics.lockWaited(TimeUnit.MILLISECONDS.toNanos(3));
+
+      MethodStatistics equalsStatistics = statistics.getMethodStatistics(equals);
+      equalsStatistics.invocationCompleted(equalsStatistics.invocationStarted());
+      equalsStatistics.accessTimeoutExpired();
+
+      assertEquals("Unexpected invocation count", 2, statistics.getInvocationCount());
+      assertEquals("Unexpected in-flight count", 0, statistics.getInFlightCount());
+      assertEquals("Unexpected lock wait time", 3, statistics.getLockWaitTime());
+      assertEquals("Unexpected access timeout expiries", 1, statistics.getAccessTimeoutExpiries());
+      assertEquals("Unexpected number of methods", 2, statistics.getMethodNames().length);
+
+      Map<String, Long> equalsView = statistics.getMethodStatistics("equals(java.lang.Object)");
+      assertNotNull("No statistics for equals(java.lang.Object)", equalsView);
+      assertEquals("Unexpected invocation count", Long.valueOf(1), equalsView
+            .get(InvocationStatisticsMBean.INVOCATION_COUNT));
+      assertEquals("Unexpected access timeout expiries", Long.valueOf(1), equalsView
+            .get(InvocationStatisticsMBean.ACCESS_TIMEOUT_EXPIRIES));
+      assertEquals("Unexpected lock wait time of method without lock wait measurement", Long
+            .valueOf(InvocationStatisticsMBean.LOCK_WAIT_NOT_MEASURED), equalsView
+            .get(InvocationStatisticsMBean.LOCK_WAIT_TIME));
+      assertNull("Unexpected statistics for unknown method", statistics.getMethodStatistics("hashCode()"));
+
+      statistics.resetStatistics();
+      assertEquals("Invocation count not reset", 0, statistics.getInvocationCount());
+      assertEquals("Access timeout expiries not reset", 0, statistics.getAccessTimeoutExpiries());
+   }
+
+   /**
+    * Tests that overloaded methods, whose parameter types have the same simple name, get their own 
+    * statistics and that methods with the same signature share them
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testOverloadedMethodStatistics() throws Exception
+   {
+      InvocationStatistics statistics = new InvocationStatistics();
+      Method utilDate = Overloads.class.getMethod("add", java.util.Date.class);
+      Method sqlDate = Overloads.class.getMethod("add", java.sql.Date.class);
+      statistics.getMethodStatistics(utilDate).accessTimeoutExpired();
+      assertEquals("Unexpected number of methods", 1, statistics.getMethodNames().length);
+      statistics.getMethodStatistics(sqlDate).invocationCompleted(System.nanoTime());
+      assertEquals("Unexpected number of methods", 2, statistics.getMethodNames().length);
+
+      Map<String, Long> utilDateView = statistics.getMethodStatistics("add(java.util.Date)");
+      assertEquals("Unexpected invocation count", Long.valueOf(0), utilDateView
+            .get(InvocationStatisticsMBean.INVOCATION_COUNT));
+      assertEquals("Unexpected access timeout expiries", Long.valueOf(1), utilDateView
+            .get(InvocationStatisticsMBean.ACCESS_TIMEOUT_EXPIRIES));
+      Map<String, Long> sqlDateView = statistics.getMethodStatistics("add(java.sql.Date)");
+      assertEquals("Unexpected invocation count", Long.valueOf(1), sqlDateView
+            .get(InvocationStatisticsMBean.INVOCATION_COUNT));
+
+      // the implementation of an interface method has the same signature
+      Method implementation = OverloadsImpl.class.getMethod("add", java.util.Date.class);
+      assertSame("Method statistics not shared by methods with the same signature", statistics
+            .getMethodStatistics(utilDate), statistics.getMethodStatistics(implementation));
+      assertEquals("Unexpected number of methods", 2, statistics.getMethodNames().length);
+   }
+
+   /**
+    * Tests that the lock wait time is reported as not measured, till a lock wait is recorded
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testLockWaitNotMeasured() throws Exception
+   {
+      InvocationStatistics statistics = new InvocationStatistics();
+      MethodStatistics toStringStatistics = statistics.getMethodStatistics(Object.class.getMethod("toString"));
+      toStringStatistics.invocationCompleted(toStringStatistics.invocationStarted());
+      assertEquals("Unexpected lock wait time", InvocationStatisticsMBean.LOCK_WAIT_NOT_MEASURED, statistics
+            .getLockWaitTime());
+      assertTrue("Lock wait time not reported as n/a: " + toStringStatistics, toStringStatistics.toString().contains(
+            "lockWaitTime=n/a"));
+
+      toStringStatistics.lockWaited(0);
+      assertEquals("Unexpected lock wait time", 0, statistics.getLockWaitTime());
+   }
+
+   /**
+    * Tests that {@link InvocationStatistics} is a valid standard MBean
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testMBeanRegistration() throws Exception
+   {
+      MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName("jboss.j2ee:service=EJB3,name=InvocationStatisticsTest");
+      InvocationStatistics statistics = new InvocationStatistics();
+      statistics.getMethodStatistics(Object.class.getMethod("toString")).invocationCompleted(System.nanoTime());
+      mbeanServer.registerMBean(statistics, objectName);
+      try
+      {
+         assertEquals("Unexpected invocation count through MBean server", Long.valueOf(1), mbeanServer.getAttribute(
+               objectName, "InvocationCount"));
+      }
+      finally
+      {
+         mbeanServer.unregisterMBean(objectName);
+      }
+   }
+
+   public interface Overloads
+   {
+      void add(java.util.Date date);
+
+      void add(java.sql.Date date);
+   }
+
+   public static class OverloadsImpl implements Overloads
+   {
+      @Override
+      public void add(java.util.Date date)
+      {
+      }
+
+      @Override
+      public void add(java.sql.Date date)
+      {
+      }
+   }
+
+   private void assertConcurrentUpdates(final StripedCounter counter) throws Exception
+   {
+      final int numThreads = 8;
+      final int numIncrements = 10000;
+      final CountDownLatch latch = new CountDownLatch(numThreads);
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      try
+      {
+         for (int i = 0; i < numThreads; i++)
+         {
+            executor.submit(new Runnable()
+            {
+               @Override
+               public void run()
+               {
+                  for (int j = 0; j < numIncrements; j++)
+                  {
+                     counter.increment();
+                  }
+                  latch.countDown();
+               }
+            });
+         }
+         assertTrue("Counter updates did not complete", latch.await(10, TimeUnit.SECONDS));
+         assertEquals("Unexpected counter value", numThreads * numIncrements, counter.sum());
+         counter.reset();
+         assertEquals("Counter not reset", 0, counter.sum());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   private static void assertWithin(String what, long expected, long actual)
+   {
+      // the histogram buckets have a resolution of 25%
+      assertTrue("Unexpected " + what + ": " + actual + " (expected about " + expected + ")",
+            actual >= expected && actual <= expected * 1.25);
+   }
+}
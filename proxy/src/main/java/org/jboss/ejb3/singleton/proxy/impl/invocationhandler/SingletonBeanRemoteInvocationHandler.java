@@ -21,12 +21,38 @@
 */
 package org.jboss.ejb3.singleton.proxy.impl.invocationhandler;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
 import org.jboss.aop.advice.Interceptor;
+import org.jboss.ejb3.common.lang.SerializableMethod;
 import org.jboss.ejb3.proxy.impl.handler.session.SessionRemoteProxyInvocationHandler;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchSender;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCall;
+import org.jboss.ejb3.singleton.aop.impl.remoting.BatchedCallResult;
+import org.jboss.ejb3.singleton.aop.impl.remoting.RemoteInvocationBatcher;
 
 /**
  * Responsible for handling invocations on remote business interface proxies
  * of a singleton bean
+ * <p>
+ *  Invocations made by a thread within an explicit batch scope are batched, so that several of them are sent to 
+ *  the container in a single round trip (see {@link RemoteInvocationBatcher}):
+ *  <pre>
+ *  SingletonBeanRemoteInvocationHandler.beginBatch(bean);
+ *  try
+ *  {
+ *     bean.add(a);
+ *     bean.add(b);
+ *  }
+ *  finally
+ *  {
+ *     SingletonBeanRemoteInvocationHandler.endBatch(bean);
+ *  }
+ *  </pre>
+ * </p>
  *
  * @author Jaikiran Pai
  * @version $Revision: $
@@ -39,6 +65,11 @@ public class SingletonBeanRemoteInvocationHandler extends SessionRemoteProxyInvo
     */
    private static final long serialVersionUID = 1L;
 
+   /**
+    * Batches the invocations on this handler. Created on the client, on first use.
+    */
+   private transient volatile RemoteInvocationBatcher batcher;
+
 
    /**
     * Constructs a {@link SingletonBeanRemoteInvocationHandler}
@@ -67,5 +98,104 @@ public class SingletonBeanRemoteInvocationHandler extends SessionRemoteProxyInvo
       super(containerRegistryName, containerGUID, interceptors, businessInterfaceType, locatorURL);
    }
 
-   
+   /**
+    * Sends the invocation as part of a batch, if invocations are being batched on the current thread
+    * 
+    * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+    */
+   @Override
+   public Object invoke(final Object proxy, Method method, Object[] args) throws Throwable
+   {
+      RemoteInvocationBatcher batcher = this.getBatcher();
+      // the methods of java.lang.Object are handled locally
+      if (!batcher.isBatching() || method.getDeclaringClass() == Object.class)
+      {
+         return super.invoke(proxy, method, args);
+      }
+      BatchedCall call = new BatchedCall(new SerializableMethod(method), args);
+      return batcher.invoke(call, method.getReturnType() == Void.TYPE, new BatchSender()
+      {
+         @Override
+         @SuppressWarnings("unchecked")
+         public List<BatchedCallResult> send(List<BatchedCall> calls) throws Throwable
+         {
+            return (List<BatchedCallResult>) SingletonBeanRemoteInvocationHandler.super.invoke(proxy,
+                  RemoteInvocationBatcher.INVOKE_BATCH_METHOD, new Object[]
+                  {calls});
+         }
+      });
+   }
+
+   /**
+    * Begins a batch scope, on the current thread, for the invocations on the passed proxy (and on the other 
+    * proxies of the same handler). Invocations on methods which return void are deferred until the scope
+    * ends, or until an invocation on another method is made within the scope. 
+    * 
+    * @param proxy A remote business interface proxy of a singleton bean
+    * @throws IllegalArgumentException If the passed object isn't a remote business interface proxy of a 
+    *           singleton bean
+    */
+   public static void beginBatch(Object proxy)
+   {
+      getInvocationHandler(proxy).getBatcher().beginBatch();
+   }
+
+   /**
+    * Ends the batch scope, on the current thread, of the invocations on the passed proxy and sends the 
+    * deferred invocations
+    * 
+    * @param proxy A remote business interface proxy of a singleton bean
+    * @throws IllegalArgumentException If the passed object isn't a remote business interface proxy of a 
+    *           singleton bean
+    * @throws IllegalStateException If there's no batch scope on the current thread
+    * @throws Exception The first exception thrown by a deferred invocation
+    */
+   public static void endBatch(Object proxy) throws Exception
+   {
+      try
+      {
+         getInvocationHandler(proxy).getBatcher().endBatch();
+      }
+      catch (Exception e)
+      {
+         throw e;
+      }
+      catch (Error e)
+      {
+         throw e;
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException(t);
+      }
+   }
+
+   private static SingletonBeanRemoteInvocationHandler getInvocationHandler(Object proxy)
+   {
+      InvocationHandler handler = proxy != null && Proxy.isProxyClass(proxy.getClass()) ? Proxy
+            .getInvocationHandler(proxy) : null;
+      if (!(handler instanceof SingletonBeanRemoteInvocationHandler))
+      {
+         throw new IllegalArgumentException(proxy + " isn't a remote business interface proxy of a singleton bean");
+      }
+      return (SingletonBeanRemoteInvocationHandler) handler;
+   }
+
+   private RemoteInvocationBatcher getBatcher()
+   {
+      RemoteInvocationBatcher batcher = this.batcher;
+      if (batcher == null)
+      {
+         synchronized (this)
+         {
+            batcher = this.batcher;
+            if (batcher == null)
+            {
+               batcher = RemoteInvocationBatcher.fromSystemProperties();
+               this.batcher = batcher;
+            }
+         }
+      }
+      return batcher;
+   }
 }
@@ -0,0 +1,45 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi;
+
+import java.util.concurrent.Future;
+
+/**
+ * A handle to a invocation which was submitted through {@link AsyncInvocationContainer#invokeAsync(org.jboss.ejb3.container.spi.ContainerInvocation)}.
+ * Besides the (blocking) {@link Future} API, it allows the caller to be notified of the completion of the 
+ * invocation, without having to wait for it.
+ *
+ * @param <T> The result type of the invocation
+ * @version $Revision: $
+ */
+public interface AsyncInvocation<T> extends Future<T>
+{
+   /**
+    * Registers a listener which is notified once the invocation completes (successfully, exceptionally or by
+    * being cancelled). If the invocation has already completed, the listener is notified right away, on the 
+    * calling thread. Otherwise, it's notified on the thread which completes the invocation.
+    * 
+    * @param listener The listener
+    * @throws IllegalArgumentException If the passed <code>listener</code> is null
+    */
+   void addListener(AsyncInvocationListener<? super T> listener);
+}
@@ -0,0 +1,47 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi;
+
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.container.spi.EJBContainer;
+
+/**
+ * A {@link EJBContainer} which, besides the blocking {@link EJBContainer#invoke(ContainerInvocation)}, allows
+ * invocations which never block the calling thread
+ *
+ * @version $Revision: $
+ */
+public interface AsyncInvocationContainer extends EJBContainer
+{
+   /**
+    * Submits the passed <code>containerInvocation</code> and returns without waiting for it to complete.
+    * The calling thread never waits for the bean instance lock; the invocation is run by a worker thread of
+    * the container, which does wait for the lock. Implementations are expected to queue up the invocations 
+    * which need exclusive access to the bean instance, instead of letting each of them tie up a worker thread 
+    * waiting for the lock.
+    * 
+    * @param containerInvocation The container invocation
+    * @return Returns a handle to the submitted invocation
+    * @throws IllegalStateException If the container isn't in a state to accept asynchronous invocations
+    */
+   AsyncInvocation<Object> invokeAsync(ContainerInvocation containerInvocation) throws IllegalStateException;
+}
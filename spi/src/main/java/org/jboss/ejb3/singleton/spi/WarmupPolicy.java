@@ -0,0 +1,49 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi;
+
+/**
+ * Decides when the instance of a (non-@Startup) singleton bean is created
+ *
+ * @version $Revision: $
+ */
+public enum WarmupPolicy
+{
+   /**
+    * The bean instance is created on the first invocation on the bean. The first caller pays for the
+    * construction, injection and post-construct of the bean (and its @DependsOn beans)
+    */
+   LAZY,
+
+   /**
+    * The bean instance is created during deployment, the same way as that of a @Startup bean. The deployment
+    * doesn't complete until the bean instance has been created
+    */
+   EAGER_BLOCKING,
+
+   /**
+    * The bean instance is created in the background, as soon as the container has started. The deployment
+    * doesn't wait for it. Callers which arrive while the instance is still being created wait for that
+    * creation to complete, instead of starting one of their own
+    */
+   EAGER_BACKGROUND
+}
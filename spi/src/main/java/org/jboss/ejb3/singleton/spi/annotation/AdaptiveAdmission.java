@@ -0,0 +1,76 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Opts a singleton bean with container managed concurrency into adaptive admission of the callers 
+ * which have to wait for the bean lock.
+ * <p>
+ *  Without admission control, every caller which can't get the bean lock waits upto the 
+ *  {@link javax.ejb.AccessTimeout} of the method. When the bean is overloaded, those waits pile up and 
+ *  hold on to the threads of the callers. With adaptive admission, the container keeps track of the 
+ *  number of callers waiting for the lock and of the (moving average of the) time they wait. As long as 
+ *  either of them is over the budget configured here, new callers which can't get the lock right away 
+ *  are rejected immediately with a {@link javax.ejb.ConcurrentAccessTimeoutException}, instead of being queued.
+ * </p>
+ * <p>
+ *  The budgets can also be configured (or overridden) in the deployment descriptor of the bean, through 
+ *  the env-entries named {@link #MAX_WAITING_CALLERS_ENV_ENTRY} and {@link #MAX_LOCK_WAIT_MILLIS_ENV_ENTRY}.
+ * </p>
+ * 
+ * @version $Revision: $
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface AdaptiveAdmission
+{
+   /**
+    * Name of the (java.lang.Integer) env-entry which configures {@link #maxWaitingCallers()} in the 
+    * deployment descriptor
+    */
+   String MAX_WAITING_CALLERS_ENV_ENTRY = "org.jboss.ejb3.singleton.admission.maxWaitingCallers";
+
+   /**
+    * Name of the (java.lang.Long) env-entry which configures {@link #maxLockWaitMillis()} in the 
+    * deployment descriptor
+    */
+   String MAX_LOCK_WAIT_MILLIS_ENV_ENTRY = "org.jboss.ejb3.singleton.admission.maxLockWaitMillis";
+
+   /**
+    * The maximum number of callers which are allowed to wait for the bean lock at any time. A value less than 1
+    * means that the number of waiting callers isn't limited
+    */
+   int maxWaitingCallers() default 0;
+
+   /**
+    * The budget (in milli seconds) for the moving average of the time which the callers wait for the bean lock. 
+    * A value less than 1 means that callers aren't rejected based on their wait time
+    */
+   long maxLockWaitMillis() default 0;
+}
@@ -0,0 +1,57 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Opts a {@link javax.ejb.Lock @Lock(WRITE)} method of a singleton bean with container managed concurrency 
+ * into write batching.
+ * <p>
+ *  Concurrent invocations on batched methods are queued up, instead of each one waiting for the WRITE lock
+ *  of the bean in turn. The invocation which acquires the WRITE lock runs all the queued invocations, one after
+ *  the other, before releasing the lock, and hands over to each caller its own result (or exception). Under 
+ *  contention, a whole batch of invocations is hence run with a single lock handover. It's meant for short 
+ *  methods which update the state of the bean, such as counters and registries.
+ * </p>
+ * <p>
+ *  A queued invocation runs on the thread of the lock holder, so batching is only honoured for methods 
+ *  of beans with container managed transactions, which run outside of a transaction 
+ *  ({@link javax.ejb.TransactionAttributeType#NOT_SUPPORTED NOT_SUPPORTED} or 
+ *  {@link javax.ejb.TransactionAttributeType#NEVER NEVER}). The method shouldn't rely on any other thread 
+ *  specific state either (for example, the caller principal). The {@link javax.ejb.AccessTimeout} of 
+ *  the method applies to the time an invocation waits in the queue.
+ * </p>
+ * 
+ * @version $Revision: $
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface BatchedWrite
+{
+
+}
@@ -0,0 +1,70 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Makes a singleton bean a cluster wide singleton, which is active on exactly one member of the cluster.
+ * <p>
+ *  The member on which the bean is active is elected through the 
+ *  {@link org.jboss.ejb3.singleton.spi.cluster.SingletonMembership} configured on the server. The bean instance
+ *  is created when the local member is elected (even if the bean isn't a {@link javax.ejb.Startup @Startup} bean)
+ *  and destroyed when it's deposed. Invocations on the other members are forwarded to the elected member. 
+ * </p>
+ * <p>
+ *  With {@link #readReplicas()} the other members hold a read replica of the bean instead: 
+ *  {@link javax.ejb.LockType#READ} methods are served by the local replica and only 
+ *  {@link javax.ejb.LockType#WRITE} methods are forwarded to the elected member, which then propagates the
+ *  changed {@link SnapshotState} fields to the replicas through the 
+ *  {@link org.jboss.ejb3.singleton.spi.cluster.ReplicaTransport} configured on the server. WRITE methods which
+ *  change mutable field values in place should declare those fields with {@link ModifiesState}.
+ * </p>
+ * <p>
+ *  Without a configured {@link org.jboss.ejb3.singleton.spi.cluster.SingletonMembership}, the bean is a 
+ *  singleton per server, as usual.
+ * </p>
+ * 
+ * @version $Revision: $
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ClusteredSingleton
+{
+   /**
+    * The cluster wide name of the singleton. Defaults to a name derived from the deployment and the 
+    * name of the bean.
+    */
+   String name() default "";
+
+   /**
+    * True if the members, other than the elected one, hold a read replica of the bean which serves the
+    * {@link javax.ejb.LockType#READ} methods locally. The replicated state of the bean consists of its 
+    * {@link SnapshotState} fields.
+    */
+   boolean readReplicas() default false;
+}
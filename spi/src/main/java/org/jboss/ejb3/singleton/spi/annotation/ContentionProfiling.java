@@ -0,0 +1,63 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Opts a singleton bean with container managed concurrency into contention profiling.
+ * <p>
+ *  The container then records each invocation which had to wait for the bean lock (for longer than 
+ *  {@link #thresholdMillis()}) along with the method which was holding the {@link javax.ejb.Lock @Lock(WRITE)}
+ *  at that time, the time spent waiting and the number of other invocations waiting for the lock. Invocations
+ *  which fail because their {@link javax.ejb.AccessTimeout} expired are always recorded. The recorded waits of the
+ *  last {@link #windowSeconds()} seconds are available, as a list of hotspots, through the management 
+ *  interface of the container.
+ * </p>
+ * 
+ * @version $Revision: $
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ContentionProfiling
+{
+   /**
+    * The length (in seconds) of the sliding window over which the hotspots are reported
+    */
+   int windowSeconds() default 300;
+
+   /**
+    * Waits shorter than this (in milli seconds) are not recorded
+    */
+   long thresholdMillis() default 1;
+
+   /**
+    * The maximum number of waits which are retained. Once reached, the oldest waits are discarded 
+    * even if they are still within the window
+    */
+   int maxEvents() default 4096;
+}
@@ -0,0 +1,52 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the {@link SnapshotState} fields whose (mutable) values a {@link javax.ejb.LockType#WRITE} method
+ * of a {@link ClusteredSingleton#readReplicas() replicated} singleton bean changes in place.
+ * <p>
+ *  After a WRITE method, the elected member publishes the fields which were assigned a different value, and 
+ *  the fields whose values may have been changed in place. Without this annotation, a WRITE method may have
+ *  changed any mutable value in place, so all the fields with mutable values are serialized and published
+ *  after each invocation of it. With this annotation, only the listed fields are, besides the ones which were
+ *  assigned a different value. An empty list declares a method which doesn't change any value in place.
+ * </p>
+ * 
+ * @version $Revision: $
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ModifiesState
+{
+   /**
+    * The names of the {@link SnapshotState} fields whose values the method changes in place
+    */
+   String[] value() default {};
+}
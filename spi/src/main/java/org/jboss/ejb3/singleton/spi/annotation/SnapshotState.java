@@ -0,0 +1,58 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Designates a (serializable) field of a singleton bean, whose value is snapshot to local disk when the 
+ * singleton bean instance is destroyed, and restored into the next instance of the bean, when it is created.
+ * <p>
+ *  The restored values are set on the new bean instance <i>before</i> its post-construct callbacks are invoked, so
+ *  that a @PostConstruct method can skip recomputing the state which
+ *  has been restored. If the snapshot can't be restored (for example because it's missing, corrupt or was taken
+ *  with a different {@link #version()} of the state), then none of the fields are set and the post-construct 
+ *  callbacks have to compute the state as usual.
+ * </p>
+ * <p>
+ *  A snapshot is taken only when the bean instance is destroyed (i.e. when the bean is undeployed or the
+ *  server is shutdown). It is restored at most once, so a bean instance which isn't destroyed cleanly 
+ *  starts afresh.
+ * </p>
+ * 
+ * @version $Revision: $
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface SnapshotState
+{
+   /**
+    * The version of the field's state. It has to be changed whenever the state is changed in a way 
+    * which makes the snapshots taken by earlier versions of the bean unusable.
+    */
+   int version() default 0;
+}
@@ -0,0 +1,57 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Opts a singleton bean with container managed concurrency into a striped read/write lock.
+ * <p>
+ *  By default, the container maps {@link javax.ejb.Lock @Lock(READ)} and {@link javax.ejb.Lock @Lock(WRITE)}
+ *  onto a single read/write lock per bean. Every READ access updates the reader count of that one lock,
+ *  which limits the scalability of beans which are (almost) exclusively accessed through READ methods.
+ *  With striped locking, a READ access locks just one of several stripes, whereas a WRITE access locks
+ *  all the stripes. This makes READ accesses cheaper and WRITE accesses more expensive.
+ * </p>
+ * <p>
+ *  The {@link javax.ejb.AccessTimeout} semantics remain the same. Upgrading a READ lock to a WRITE lock 
+ *  (i.e. invoking a WRITE method from within a READ method, on the same bean) is not allowed and results in a
+ *  {@link javax.ejb.IllegalLoopbackException}.
+ * </p>
+ * 
+ * @version $Revision: $
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface StripedLocking
+{
+   /**
+    * The number of lock stripes. A value less than 1 means that the number of stripes will be 
+    * decided by the container (based on the number of available processors)
+    */
+   int stripes() default 0;
+}
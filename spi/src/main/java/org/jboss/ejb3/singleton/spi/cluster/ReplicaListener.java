@@ -0,0 +1,41 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.cluster;
+
+import java.util.Map;
+
+/**
+ * Notified of the state published for a cluster wide singleton (see {@link ReplicaTransport})
+ *
+ * @version $Revision: $
+ */
+public interface ReplicaListener
+{
+
+   /**
+    * The state of the singleton named <code>singletonName</code> has changed
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @param changedState The serialized values of the changed fields, keyed by the name of the field 
+    */
+   void stateChanged(String singletonName, Map<String, byte[]> changedState);
+}
@@ -0,0 +1,66 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.cluster;
+
+import java.util.Map;
+
+/**
+ * Propagates the replicated state of cluster wide singletons, from the member which owns the singleton to 
+ * the members which hold a read replica of it.
+ * <p>
+ *  The state is a map of the names of the replicated fields of the bean to their serialized values. A 
+ *  {@link #publish(String, Map) publication} only contains the fields which changed. Implementations have to 
+ *  deliver the publications for a singleton to each subscriber in the order in which they were published, and
+ *  have to deliver the current (merged) state of the singleton to a new subscriber before any later publication.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public interface ReplicaTransport
+{
+
+   /**
+    * Publishes the changed state of the singleton named <code>singletonName</code> to the subscribers
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @param changedState The serialized values of the changed fields, keyed by the name of the field 
+    */
+   void publish(String singletonName, Map<String, byte[]> changedState);
+
+   /**
+    * Subscribes the passed <code>listener</code> to the state of the singleton named <code>singletonName</code>.
+    * The listener is notified of the current state of the singleton, if any has been published yet, and then 
+    * of every publication.
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @param listener The listener
+    */
+   void subscribe(String singletonName, ReplicaListener listener);
+
+   /**
+    * Unsubscribes the passed <code>listener</code> from the state of the singleton named <code>singletonName</code>
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @param listener The listener
+    */
+   void unsubscribe(String singletonName, ReplicaListener listener);
+}
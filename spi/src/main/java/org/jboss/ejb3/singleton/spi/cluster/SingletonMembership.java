@@ -0,0 +1,101 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.ejb3.singleton.spi.cluster;
+
+import org.jboss.ejb3.container.spi.ContainerInvocation;
+import org.jboss.ejb3.container.spi.EJBContainer;
+
+/**
+ * The view of a cluster member on the membership of the cluster wide singletons, and on the election of the 
+ * member on which each of them is active.
+ * <p>
+ *  Each member which deploys a cluster wide singleton, {@link #join(String, EJBContainer, ElectionListener) joins}
+ *  the election for that singleton. Exactly one of the members which have joined the election for a singleton is 
+ *  elected at any time (except while a failed member is being detected). The {@link ElectionListener} of a member
+ *  is notified when the member is elected or deposed. Notifications on one member are delivered one at a time, 
+ *  and a deposed member is notified before the newly elected member.
+ * </p>
+ * <p>
+ *  Invocations on a member which isn't elected, are forwarded to the elected member through 
+ *  {@link #invokeOnElectedMember(String, ContainerInvocation)}.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public interface SingletonMembership
+{
+
+   /**
+    * Returns the name of the local member. The name is unique in the cluster.
+    * @return
+    */
+   String getLocalMemberName();
+
+   /**
+    * Makes the local member a candidate in the election for the singleton named <code>singletonName</code>
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @param container The container of the singleton on the local member, to which the invocations 
+    *           are forwarded while the local member is elected
+    * @param listener The listener which is notified when the local member is elected or deposed
+    * @throws IllegalStateException If the local member has already joined the election for the singleton
+    */
+   void join(String singletonName, EJBContainer container, ElectionListener listener) throws IllegalStateException;
+
+   /**
+    * Withdraws the local member from the election for the singleton named <code>singletonName</code>. If the
+    * local member was elected, its {@link ElectionListener} is notified that it's been deposed and another member
+    * (if any) is elected. No-op if the local member hasn't joined the election.
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    */
+   void leave(String singletonName);
+
+   /**
+    * Returns true if the local member is the elected member for the singleton named <code>singletonName</code>
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @return
+    */
+   boolean isElected(String singletonName);
+
+   /**
+    * Returns the name of the elected member for the singleton named <code>singletonName</code>. Returns
+    * null if no member is elected.
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @return
+    */
+   String getElectedMemberName(String singletonName);
+
+   /**
+    * Invokes the passed <code>invocation</code> on the container of the singleton named 
+    * <code>singletonName</code>, on the elected member
+    * 
+    * @param singletonName The cluster wide name of the singleton
+    * @param invocation The invocation
+    * @return Returns the result of the invocation
+    * @throws IllegalStateException If no member is elected, or the elected member can't be reached
+    * @throws Exception The exception thrown by the invocation
+    */
+   Object invokeOnElectedMember(String singletonName, ContainerInvocation invocation) throws Exception;
+}
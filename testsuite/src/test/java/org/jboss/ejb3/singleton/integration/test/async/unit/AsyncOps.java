@@ -37,5 +37,9 @@ public interface AsyncOps
    Future<Boolean> lookupTimerService();
    
    void callAsynchronousMethodOnLocalBusinessInterfaceOfSingleton();
+   
+   Future<Boolean> isInvokedOnVirtualThread();
+   
+   Future<Boolean> isInvokedOnVirtualThreadWithReadLock();
 
 }
@@ -29,6 +29,8 @@ import javax.annotation.Resource;
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
 import javax.ejb.Remote;
 import javax.ejb.Singleton;
 import javax.ejb.TimerService;
@@ -209,6 +211,44 @@ public class AsyncSingleton implements AsyncOps
        
    }
 
+   /**
+    * Returns true if this (WRITE locked) asynchronous method is invoked on a virtual thread
+    */
+   @Override
+   @Asynchronous
+   public Future<Boolean> isInvokedOnVirtualThread()
+   {
+      return new AsyncResult<Boolean>(this.isVirtual(Thread.currentThread()));
+   }
+
+   /**
+    * Returns true if this (READ locked) asynchronous method is invoked on a virtual thread
+    */
+   @Override
+   @Asynchronous
+   @Lock(LockType.READ)
+   public Future<Boolean> isInvokedOnVirtualThreadWithReadLock()
+   {
+      return new AsyncResult<Boolean>(this.isVirtual(Thread.currentThread()));
+   }
+
+   private boolean isVirtual(Thread thread)
+   {
+      try
+      {
+         return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+      }
+      catch (NoSuchMethodException nsme)
+      {
+         // no virtual threads in this JVM
+         return false;
+      }
+      catch (Exception e)
+      {
+         throw new RuntimeException(e);
+      }
+   }
+
    private Context getInitialContext()
    {
       try
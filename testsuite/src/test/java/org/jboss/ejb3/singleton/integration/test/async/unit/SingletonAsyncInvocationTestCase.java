@@ -23,32 +23,76 @@ package org.jboss.ejb3.singleton.integration.test.async.unit;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import javax.management.Attribute;
+import javax.management.ObjectName;
+
 import junit.framework.Assert;
 
 import org.jboss.ejb3.singleton.integration.test.common.AbstractSingletonTestCase;
 import org.jboss.logging.Logger;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
 /**
- * Tests asynchronous method invocations on methods in a singleton bean
+ * Tests asynchronous method invocations on methods in a singleton bean. The tests are run twice, with the 
+ * asynchronous invocations on the platform threads of the deployment and on virtual threads.
  *
  * @author Jaikiran Pai
  * @version $Revision: $
  */
+@RunWith(Parameterized.class)
 public class SingletonAsyncInvocationTestCase extends AbstractSingletonTestCase
 {
 
    private static Logger logger = Logger.getLogger(SingletonAsyncInvocationTestCase.class);
 
+   private static final String SINGLETON_CONTAINER_DEPLOYER = "jboss.ejb3:service=SingletonContainerDeployer";
+
+   private static final String VIRTUAL_THREAD_ASYNC_INVOCATIONS = "VirtualThreadAsyncInvocations";
+
    private URL deployment;
 
+   /**
+    * True if the asynchronous invocations are run on virtual threads
+    */
+   private final boolean virtualThreads;
+
+   /**
+    * The setting of the singleton container deployer before the test
+    */
+   private Boolean previousVirtualThreadSetting;
+
+   /**
+    * Returns the modes in which the tests are run (platform threads and virtual threads)
+    * 
+    * @return
+    */
+   @Parameters
+   public static Collection<Object[]> asyncInvocationModes()
+   {
+      return Arrays.asList(new Object[][]
+      {
+      {false},
+      {true}});
+   }
+
+   public SingletonAsyncInvocationTestCase(boolean virtualThreads)
+   {
+      this.virtualThreads = virtualThreads;
+   }
+
    /**
     * 
     * @return
@@ -57,6 +101,16 @@ public class SingletonAsyncInvocationTestCase extends AbstractSingletonTestCase
    @Before
    public void before() throws Exception
    {
+      ObjectName deployer = new ObjectName(SINGLETON_CONTAINER_DEPLOYER);
+      if (this.virtualThreads)
+      {
+         Boolean supported = (Boolean) this.getServer().getAttribute(deployer, "VirtualThreadsSupported");
+         Assume.assumeTrue(supported);
+      }
+      this.previousVirtualThreadSetting = (Boolean) this.getServer().getAttribute(deployer, VIRTUAL_THREAD_ASYNC_INVOCATIONS);
+      this.getServer().setAttribute(deployer, new Attribute(VIRTUAL_THREAD_ASYNC_INVOCATIONS, this.virtualThreads));
+      logger.info("Running asynchronous invocations on " + (this.virtualThreads ? "virtual" : "platform") + " threads");
+      
       String jarName = "async-singleton-test.jar";
       File jar = buildSimpleJar(jarName, AsyncSingleton.class.getPackage());
       this.deployment = jar.toURI().toURL();
@@ -70,6 +124,11 @@ public class SingletonAsyncInvocationTestCase extends AbstractSingletonTestCase
       {
          this.undeploy(deployment);
       }
+      if (this.previousVirtualThreadSetting != null)
+      {
+         this.getServer().setAttribute(new ObjectName(SINGLETON_CONTAINER_DEPLOYER),
+               new Attribute(VIRTUAL_THREAD_ASYNC_INVOCATIONS, this.previousVirtualThreadSetting));
+      }
    }
 
    /**
@@ -161,4 +220,24 @@ public class SingletonAsyncInvocationTestCase extends AbstractSingletonTestCase
       // the AsyncSingleton.callAsynchronousMethodOnLocalBusinessInterfaceOfSingleton() throws a RuntimeException
       asyncOps.callAsynchronousMethodOnLocalBusinessInterfaceOfSingleton();
    }
+
+   /**
+    * Tests that the asynchronous invocations on READ locked methods run on virtual threads (only) when the 
+    * deployer is configured so, and that the invocations on WRITE locked methods never run on virtual threads 
+    * 
+    * @throws Exception
+    */
+   @Test
+   public void testAsyncInvocationThreads() throws Exception
+   {
+      AsyncOps asyncOps = (AsyncOps) this.getInitialContext().lookup(AsyncSingleton.JNDI_NAME);
+
+      Boolean readLockedOnVirtualThread = asyncOps.isInvokedOnVirtualThreadWithReadLock().get(10, TimeUnit.SECONDS);
+      Assert.assertEquals("Unexpected thread type for asynchronous invocation on READ locked method", this.virtualThreads,
+            readLockedOnVirtualThread.booleanValue());
+
+      Boolean writeLockedOnVirtualThread = asyncOps.isInvokedOnVirtualThread().get(10, TimeUnit.SECONDS);
+      Assert.assertFalse("Asynchronous invocation on WRITE locked method ran on a virtual thread",
+            writeLockedOnVirtualThread);
+   }
 }
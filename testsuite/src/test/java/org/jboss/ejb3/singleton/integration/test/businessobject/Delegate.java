@@ -33,4 +33,6 @@ public interface Delegate
    void checkNoInterfaceViewBusinessObjectEquality();
    
    void testBusinessObjectValidity(Class<?> businessInterface);
+   
+   void checkBusinessObjectReuse(Class<?> businessInterface);
 }
@@ -71,4 +71,16 @@ public class DelegateBean implements Delegate
                + businessObject.getClass() + " expected type was: " + businessInterface);
        }
    }
+
+   @Override
+   public void checkBusinessObjectReuse(Class<?> businessInterface)
+   {
+      Object businessObject = this.businessObjNoInterfaceView.getBusinessObject(businessInterface);
+      Object anotherBusinessObject = this.businessObjNoInterfaceView.getBusinessObject(businessInterface);
+      if (businessObject != anotherBusinessObject)
+      {
+         throw new RuntimeException("Business object for business interface: " + businessInterface
+               + " wasn't reused: " + businessObject + " and " + anotherBusinessObject);
+      }
+   }
 }
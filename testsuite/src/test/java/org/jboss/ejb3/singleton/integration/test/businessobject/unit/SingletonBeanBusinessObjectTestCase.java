@@ -98,5 +98,19 @@ public class SingletonBeanBusinessObjectTestCase extends AbstractSingletonTestCa
       // test the no-interface view
       bean.testBusinessObjectValidity(BusinessObjectBean.class);
    }
+   
+   /**
+    * Tests that repeated {@link SessionContext#getBusinessObject(Class)} calls, for the same business interface, 
+    * return the same business object.
+    *  
+    * @throws Exception
+    */
+   @Test
+   public void testBusinessObjectReuse() throws Exception
+   {
+      Delegate bean = (Delegate) this.getInitialContext().lookup(DelegateBean.JNDI_NAME);
+      bean.checkBusinessObjectReuse(BusinessObject.class);
+      bean.checkBusinessObjectReuse(BusinessObjectBean.class);
+   }
 
 }